@@ -0,0 +1,149 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The outcome of a batch executed with {@link Update#executeBatchIsolatingFailures(Iterable)}: the update count
+ * of every row and the rows that failed along with the reason each one failed.
+ *
+ * @author Troy Histed
+ */
+public final class BatchResult {
+
+	private final int[] updateCounts;
+	private final List<Failure> failures;
+	private final int roundTrips;
+
+	/**
+	 * Constructs a result.
+	 *
+	 * @param aUpdateCounts
+	 *            the update count of each row, {@link java.sql.Statement#EXECUTE_FAILED} for failed rows
+	 * @param aFailures
+	 *            the failed rows in row order
+	 * @param aRoundTrips
+	 *            the number of times a batch was executed
+	 */
+	BatchResult(int[] aUpdateCounts, List<Failure> aFailures, int aRoundTrips) {
+		this.updateCounts = aUpdateCounts;
+		this.failures = Collections.unmodifiableList(aFailures);
+		this.roundTrips = aRoundTrips;
+	}
+
+	/**
+	 * @return the update count of each row, {@link java.sql.Statement#EXECUTE_FAILED} for rows that failed
+	 */
+	public int[] getUpdateCounts() {
+		return this.updateCounts.clone();
+	}
+
+	/**
+	 * @return the rows that failed, in row order
+	 */
+	public List<Failure> getFailures() {
+		return this.failures;
+	}
+
+	/**
+	 * @return <code>true</code> if any row failed
+	 */
+	public boolean hasFailures() {
+		return !this.failures.isEmpty();
+	}
+
+	/**
+	 * @return the number of rows that were committed
+	 */
+	public int getSuccessCount() {
+		return this.updateCounts.length - this.failures.size();
+	}
+
+	/**
+	 * @return the number of times a batch was sent to the database, including the retries that isolated the
+	 *         failed rows
+	 */
+	public int getRoundTrips() {
+		return this.roundTrips;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "BatchResult [rows=" + this.updateCounts.length + ", failures=" + this.failures.size()
+				+ ", roundTrips=" + this.roundTrips + "]";
+	}
+
+	/**
+	 * A row of the batch that failed on its own.
+	 */
+	public static final class Failure {
+
+		private final int index;
+		private final Object bean;
+		private final SQLException exception;
+
+		/**
+		 * Constructs a failure.
+		 *
+		 * @param aIndex
+		 *            the position of the row in the batch
+		 * @param aBean
+		 *            the bean the row was bound from
+		 * @param aException
+		 *            the error executing the row
+		 */
+		Failure(int aIndex, Object aBean, SQLException aException) {
+			this.index = aIndex;
+			this.bean = aBean;
+			this.exception = aException;
+		}
+
+		/**
+		 * @return the position of the row in the batch, starting at zero
+		 */
+		public int getIndex() {
+			return this.index;
+		}
+
+		/**
+		 * @return the bean the row was bound from
+		 */
+		public Object getBean() {
+			return this.bean;
+		}
+
+		/**
+		 * @return the error the database reported when the row was executed on its own
+		 */
+		public SQLException getException() {
+			return this.exception;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String toString() {
+			return "Failure [index=" + this.index + ", exception=" + this.exception + "]";
+		}
+	}
+}
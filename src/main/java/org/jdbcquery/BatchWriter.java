@@ -0,0 +1,440 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Writes beans to the database in the background, grouping them into batches that are committed together.
+ *
+ * <p>
+ * Producers {@link #submit(Object)} beans to a bounded queue and get a future that completes with the update
+ * count of the bean once its batch has been committed. Worker threads take up to the batch size of beans from
+ * the queue, waiting at most the maximum delay for a batch to fill, and execute them as a single batch on one
+ * connection with one commit. When the queue is full, producers wait for space, which slows them down to the
+ * rate the database can keep up with.
+ *
+ * <p>
+ * A writer is configured and then started:
+ *
+ * <pre>
+ * BatchWriter writer = new BatchWriter("INSERT INTO events(name, time) VALUES(:name, :time)", "events")
+ * 		.batchSize(500).maximumDelay(50, TimeUnit.MILLISECONDS).start();
+ * writer.submit(event);
+ * </pre>
+ *
+ * Closing the writer stops it from accepting beans and waits for the queued beans to be written, including those
+ * of producers that were already waiting for space in the queue. A batch that fails, for any reason, fails the
+ * futures of its beans and leaves the worker writing the batches after it.
+ *
+ * @author Troy Histed
+ */
+public final class BatchWriter implements AutoCloseable {
+
+	private static final AtomicLong WRITER_COUNT = new AtomicLong();
+
+	private final ParsedNamedStatement parsedStatement;
+	private final String connectionName;
+	private JdbcConnector connector;
+	private int queueCapacity = 10000;
+	private int batchSize = 1000;
+	private long maximumDelayNanos = TimeUnit.MILLISECONDS.toNanos(100);
+	private int workerCount = 1;
+
+	private BlockingQueue<Entry> queue;
+	private final List<Thread> workers = new ArrayList<Thread>();
+	private volatile boolean running = false;
+	private volatile boolean closed = false;
+	private final AtomicInteger submitting = new AtomicInteger();
+	private final AtomicLong batchesWritten = new AtomicLong();
+	private final AtomicLong rowsWritten = new AtomicLong();
+	private final AtomicLong rowsFailed = new AtomicLong();
+
+	/**
+	 * Constructs a writer that gets its connections from the named connector.
+	 *
+	 * @param aStatement
+	 *            the update statement executed for each bean
+	 * @param aConnectionName
+	 *            the name of the connection to use
+	 */
+	public BatchWriter(String aStatement, String aConnectionName) {
+		this.parsedStatement = NamedStatementParserStrategy.getDefault().prepareNamedStatement(aStatement);
+		this.connectionName = aConnectionName;
+	}
+
+	/**
+	 * Constructs a writer that gets its connections from a connector.
+	 *
+	 * @param aStatement
+	 *            the update statement executed for each bean
+	 * @param aConnector
+	 *            the connector to use
+	 */
+	public BatchWriter(String aStatement, JdbcConnector aConnector) {
+		this(aStatement, (String) null);
+		if (aConnector == null) {
+			throw new DaoException("Connector was null");
+		}
+		this.connector = aConnector;
+	}
+
+	/**
+	 * @param aCapacity
+	 *            the number of beans that can be queued before producers have to wait, defaults to 10000
+	 * @return the writer (for method chaining)
+	 */
+	public BatchWriter queueCapacity(int aCapacity) {
+		this.checkNotStarted();
+		if (aCapacity <= 0) {
+			throw new IllegalArgumentException("Queue capacity must be positive: " + aCapacity);
+		}
+		this.queueCapacity = aCapacity;
+		return this;
+	}
+
+	/**
+	 * @param aBatchSize
+	 *            the maximum number of beans written and committed together, defaults to 1000
+	 * @return the writer (for method chaining)
+	 */
+	public BatchWriter batchSize(int aBatchSize) {
+		this.checkNotStarted();
+		if (aBatchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be positive: " + aBatchSize);
+		}
+		this.batchSize = aBatchSize;
+		return this;
+	}
+
+	/**
+	 * @param aDelay
+	 *            the longest time to wait for a batch to fill before writing it, defaults to 100 milliseconds
+	 * @param aUnit
+	 *            the unit of the delay
+	 * @return the writer (for method chaining)
+	 */
+	public BatchWriter maximumDelay(long aDelay, TimeUnit aUnit) {
+		this.checkNotStarted();
+		if (aDelay < 0) {
+			throw new IllegalArgumentException("Maximum delay must not be negative: " + aDelay);
+		}
+		this.maximumDelayNanos = aUnit.toNanos(aDelay);
+		return this;
+	}
+
+	/**
+	 * @param aWorkers
+	 *            the number of threads writing batches, each using its own connection, defaults to one
+	 * @return the writer (for method chaining)
+	 */
+	public BatchWriter workers(int aWorkers) {
+		this.checkNotStarted();
+		if (aWorkers <= 0) {
+			throw new IllegalArgumentException("Workers must be positive: " + aWorkers);
+		}
+		this.workerCount = aWorkers;
+		return this;
+	}
+
+	/**
+	 * Starts the worker threads. A writer can't write to a {@link ShardedConnector}, since the beans of a batch
+	 * may belong to different shards, so it needs one writer per shard.
+	 *
+	 * @return the writer (for method chaining)
+	 */
+	public synchronized BatchWriter start() {
+		this.checkNotStarted();
+		if (this.connector == null) {
+			this.connector = ConnectorServiceLoader.getConnector(this.connectionName);
+		}
+		if (this.connector instanceof ShardedConnector) {
+			throw new DaoException("A batch writer can't write to the shards of " + this.connector.getName()
+					+ ", start one for the connector of each shard with getShard(key)");
+		}
+		this.queue = new ArrayBlockingQueue<Entry>(this.queueCapacity);
+		this.running = true;
+
+		final long writer = BatchWriter.WRITER_COUNT.incrementAndGet();
+		for (int i = 0; i < this.workerCount; i++) {
+			final Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					BatchWriter.this.work();
+				}
+			}, "jdbc-query-batch-writer-" + writer + "-" + (i + 1));
+			worker.setDaemon(true);
+			worker.start();
+			this.workers.add(worker);
+		}
+		return this;
+	}
+
+	/**
+	 * Queues a bean to be written, waiting for space in the queue if it is full.
+	 *
+	 * @param aBean
+	 *            the bean whose properties are the parameters of the statement
+	 * @return a future that completes with the update count once the batch is committed, or exceptionally if the
+	 *         batch fails
+	 */
+	public CompletableFuture<Integer> submit(Object aBean) {
+		// counted before checking the state, so close either sees the producer or the producer sees it closing
+		this.submitting.incrementAndGet();
+		try {
+			if (!this.running) {
+				throw new IllegalStateException("The writer is not running: " + this);
+			}
+			final Entry entry = new Entry(aBean);
+			try {
+				this.queue.put(entry);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new DaoException("Interrupted waiting for space in the queue of " + this, e);
+			}
+			return entry.future;
+		} finally {
+			this.submitting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Stops accepting beans and waits for the queued beans to be written.
+	 */
+	@Override
+	public void close() {
+		synchronized (this) {
+			if (this.closed) {
+				return;
+			}
+			this.closed = true;
+			this.running = false;
+			if (this.queue == null) {
+				return;
+			}
+		}
+		boolean interrupted = false;
+		for (final Thread worker : this.workers) {
+			while (worker.isAlive()) {
+				try {
+					worker.join();
+				} catch (final InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+
+		// beans submitted while the writer was closing, until no producer is still adding to the queue
+		final List<Entry> batch = new ArrayList<Entry>(this.batchSize);
+		while (this.submitting.get() > 0 || !this.queue.isEmpty()) {
+			if (this.queue.drainTo(batch, this.batchSize) == 0) {
+				Thread.yield();
+				continue;
+			}
+			try {
+				this.write(batch);
+			} catch (final Throwable e) {
+				BatchWriter.fail(batch, e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Takes batches from the queue and writes them until the writer is closed and the queue is empty.
+	 */
+	private void work() {
+		final List<Entry> batch = new ArrayList<Entry>(this.batchSize);
+		while (this.running || !this.queue.isEmpty()) {
+			try {
+				this.fillBatch(batch);
+			} catch (final InterruptedException e) {
+				// keep draining until the writer is closed
+			}
+			if (batch.isEmpty()) {
+				continue;
+			}
+			try {
+				this.write(batch);
+			} catch (final Throwable e) {
+				// the worker keeps going so the beans submitted later are still written
+				BatchWriter.fail(batch, e);
+			} finally {
+				batch.clear();
+			}
+		}
+	}
+
+	/**
+	 * Takes beans from the queue until the batch is full or the maximum delay has passed since the first bean.
+	 *
+	 * @param aBatch
+	 *            the batch to fill
+	 * @throws InterruptedException
+	 *             the worker was interrupted while waiting
+	 */
+	private void fillBatch(List<Entry> aBatch) throws InterruptedException {
+		final Entry first = this.queue.poll(this.maximumDelayNanos, TimeUnit.NANOSECONDS);
+		if (first == null) {
+			return;
+		}
+		aBatch.add(first);
+		final long deadline = System.nanoTime() + this.maximumDelayNanos;
+		while (aBatch.size() < this.batchSize) {
+			if (this.queue.drainTo(aBatch, this.batchSize - aBatch.size()) > 0) {
+				continue;
+			}
+			final long remaining = deadline - System.nanoTime();
+			if (remaining <= 0 || !this.running) {
+				return;
+			}
+			final Entry next = this.queue.poll(remaining, TimeUnit.NANOSECONDS);
+			if (next == null) {
+				return;
+			}
+			aBatch.add(next);
+		}
+	}
+
+	/**
+	 * Writes a batch on its own connection with a single commit and completes the futures of its beans. If
+	 * anything fails, the batch is rolled back, its connection is released and its futures fail.
+	 *
+	 * @param aBatch
+	 *            the beans to write
+	 */
+	private void write(List<Entry> aBatch) {
+		Update update = null;
+		final int[] counts;
+		try {
+			update = new Update(this.parsedStatement, this.connector.getConnection());
+			update.commitEachChunk();
+			for (final Entry entry : aBatch) {
+				update.setBean(entry.bean);
+				update.addBatch();
+			}
+			counts = update.executeBatch();
+		} catch (final RuntimeException e) {
+			this.abort(aBatch, update, e);
+			return;
+		} catch (final Error e) {
+			this.abort(aBatch, update, e);
+			throw e;
+		}
+
+		this.batchesWritten.incrementAndGet();
+		this.rowsWritten.addAndGet(aBatch.size());
+		for (int i = 0; i < aBatch.size(); i++) {
+			aBatch.get(i).future.complete(Integer.valueOf(i < counts.length ? counts[i] : 0));
+		}
+	}
+
+	/**
+	 * Rolls back and releases the connection of a failed batch and fails the futures of its beans.
+	 */
+	private void abort(List<Entry> aBatch, Update aUpdate, Throwable aCause) {
+		this.rowsFailed.addAndGet(aBatch.size());
+		try {
+			if (aUpdate != null) {
+				aUpdate.getConnection().rollbackQuietly();
+				aUpdate.getConnection().cleanUp();
+			}
+		} catch (final RuntimeException e) {
+			aCause.addSuppressed(e);
+		} finally {
+			BatchWriter.fail(aBatch, aCause);
+		}
+	}
+
+	/**
+	 * Completes the futures of the beans of a batch that haven't completed yet with an error.
+	 */
+	private static void fail(List<Entry> aBatch, Throwable aCause) {
+		for (final Entry entry : aBatch) {
+			entry.future.completeExceptionally(aCause);
+		}
+	}
+
+	/**
+	 * Throws an exception if the writer has been started.
+	 */
+	private void checkNotStarted() {
+		if (this.running || this.closed) {
+			throw new IllegalStateException("The writer has already been started: " + this);
+		}
+	}
+
+	/**
+	 * @return the number of beans waiting to be written
+	 */
+	public int getQueueSize() {
+		return this.queue == null ? 0 : this.queue.size();
+	}
+
+	/**
+	 * @return the number of batches that have been committed
+	 */
+	public long getBatchesWritten() {
+		return this.batchesWritten.get();
+	}
+
+	/**
+	 * @return the number of beans that have been committed
+	 */
+	public long getRowsWritten() {
+		return this.rowsWritten.get();
+	}
+
+	/**
+	 * @return the number of beans whose batch failed
+	 */
+	public long getRowsFailed() {
+		return this.rowsFailed.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "BatchWriter [statement=" + this.parsedStatement.getOriginalStatement() + ", batchSize="
+				+ this.batchSize + ", queueSize=" + this.getQueueSize() + ", running=" + this.running + "]";
+	}
+
+	/**
+	 * A queued bean and the future of its result.
+	 */
+	private static final class Entry {
+
+		private final Object bean;
+		private final CompletableFuture<Integer> future = new CompletableFuture<Integer>();
+
+		Entry(Object aBean) {
+			this.bean = aBean;
+		}
+	}
+}
@@ -0,0 +1,484 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.beans.PropertyDescriptor;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodType;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.beanutils.BeanUtilsBean;
+import org.apache.commons.beanutils.DynaBean;
+import org.apache.commons.beanutils.NestedNullException;
+import org.apache.commons.beanutils.PropertyUtilsBean;
+
+/**
+ * Describes how the parameters of a statement are read from beans of a particular class.
+ *
+ * <p>
+ * A plan is built once per bean class and parsed statement. Every parameter name that matches a readable
+ * property of the bean is resolved to a chain of read methods, nested properties included, which are called
+ * through method handles. Binding a bean is then a single pass over the matching parameters that reads each
+ * property once and calls the typed setter of the prepared statement for each of its positions. A null value
+ * part way through a nested property sets the parameter to null.
+ *
+ * <p>
+ * Parameters that can't be resolved from the declared property types, such as indexed or mapped properties, and
+ * beans that are maps or dyna beans, are read with BeanUtils as before.
+ *
+ * @author Troy Histed
+ */
+final class BeanParameterPlan {
+
+	private static final MethodType OBJECT_GETTER = MethodType.methodType(Object.class, Object.class);
+
+	private final Parameter[] parameters;
+
+	/**
+	 * Constructs a plan.
+	 *
+	 * @param aParameters
+	 *            the parameters to bind
+	 */
+	private BeanParameterPlan(Parameter[] aParameters) {
+		this.parameters = aParameters;
+	}
+
+	/**
+	 * Builds the plan for binding beans of a class to a statement.
+	 *
+	 * @param aParsedStatement
+	 *            the parsed statement
+	 * @param aBeanClass
+	 *            the bean class
+	 * @return the plan
+	 */
+	static BeanParameterPlan build(ParsedNamedStatement aParsedStatement, Class<?> aBeanClass) {
+		final PropertyUtilsBean propertyUtils = BeanUtilsBean.getInstance().getPropertyUtils();
+		final boolean dynamic = Map.class.isAssignableFrom(aBeanClass)
+				|| DynaBean.class.isAssignableFrom(aBeanClass);
+
+		final List<Parameter> parameters = new ArrayList<Parameter>();
+		for (final String name : new LinkedHashSet<String>(aParsedStatement.getParameters())) {
+			final int[] positions = aParsedStatement.getParameterIndexes(name);
+			if (dynamic || name.indexOf('[') >= 0 || name.indexOf('(') >= 0) {
+				parameters.add(new DynamicParameter(name, positions));
+				continue;
+			}
+
+			final String[] path = name.split("\\.");
+			final MethodHandle[] getters = new MethodHandle[path.length];
+			Class<?> type = aBeanClass;
+			for (int i = 0; i < path.length && type != null; i++) {
+				final PropertyDescriptor descriptor = BeanParameterPlan.findReadableProperty(propertyUtils, type,
+						path[i]);
+				if (descriptor == null) {
+					type = null;
+				} else {
+					getters[i] = PropertyWriter.unreflect(descriptor.getReadMethod());
+					type = getters[i] == null ? null : descriptor.getPropertyType();
+				}
+			}
+
+			if (type != null) {
+				parameters.add(BeanParameterPlan.typedParameter(name, positions, getters, type));
+			} else if (path.length > 1 && getters[0] != null) {
+				// a nested property that isn't declared on the property type may still exist on a subclass
+				parameters.add(new DynamicParameter(name, positions));
+			}
+		}
+		return new BeanParameterPlan(parameters.toArray(new Parameter[parameters.size()]));
+	}
+
+	/**
+	 * Finds a readable property of a class.
+	 *
+	 * @param aPropertyUtils
+	 *            the property utils used to introspect the class
+	 * @param aType
+	 *            the class
+	 * @param aName
+	 *            the property name
+	 * @return the property descriptor or null if the class doesn't have a readable property of that name
+	 */
+	private static PropertyDescriptor findReadableProperty(PropertyUtilsBean aPropertyUtils, Class<?> aType,
+			String aName) {
+		for (final PropertyDescriptor descriptor : aPropertyUtils.getPropertyDescriptors(aType)) {
+			if (descriptor.getName().equals(aName) && descriptor.getReadMethod() != null) {
+				return descriptor;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Creates a parameter that binds the property with the setter matching its type.
+	 *
+	 * @param aName
+	 *            the parameter name
+	 * @param aPositions
+	 *            the positions of the parameter
+	 * @param aGetters
+	 *            the read methods of each property in the path
+	 * @param aType
+	 *            the type of the last property in the path
+	 * @return the parameter
+	 */
+	private static Parameter typedParameter(String aName, int[] aPositions, MethodHandle[] aGetters,
+			Class<?> aType) {
+		final MethodHandle[] path = new MethodHandle[aGetters.length - 1];
+		for (int i = 0; i < path.length; i++) {
+			path[i] = aGetters[i].asType(BeanParameterPlan.OBJECT_GETTER);
+		}
+		final MethodHandle getter = aGetters[aGetters.length - 1];
+
+		if (aType == int.class) {
+			return new IntParameter(aName, aPositions, path, getter.asType(MethodType.methodType(int.class,
+					Object.class)));
+		} else if (aType == long.class) {
+			return new LongParameter(aName, aPositions, path, getter.asType(MethodType.methodType(long.class,
+					Object.class)));
+		} else if (aType == double.class) {
+			return new DoubleParameter(aName, aPositions, path, getter.asType(MethodType.methodType(double.class,
+					Object.class)));
+		} else if (aType == boolean.class) {
+			return new BooleanParameter(aName, aPositions, path, getter.asType(MethodType.methodType(
+					boolean.class, Object.class)));
+		}
+		return new ObjectParameter(aName, aPositions, path, getter.asType(BeanParameterPlan.OBJECT_GETTER));
+	}
+
+	/**
+	 * Binds the properties of a bean to the prepared statement.
+	 *
+	 * @param aPreparedStatement
+	 *            the prepared statement
+	 * @param aBean
+	 *            the bean to read from
+	 * @throws SQLException
+	 *             error setting a parameter
+	 */
+	void bind(PreparedStatement aPreparedStatement, Object aBean) throws SQLException {
+		this.bind(aPreparedStatement, aBean, 0);
+	}
+
+	/**
+	 * Binds the properties of a bean to the prepared statement, shifting every position by an offset. This binds
+	 * one row of a statement that repeats the parameters for several rows.
+	 *
+	 * @param aPreparedStatement
+	 *            the prepared statement
+	 * @param aBean
+	 *            the bean to read from
+	 * @param aOffset
+	 *            the number added to each parameter position
+	 * @throws SQLException
+	 *             error setting a parameter
+	 */
+	void bind(PreparedStatement aPreparedStatement, Object aBean, int aOffset) throws SQLException {
+		for (final Parameter parameter : this.parameters) {
+			parameter.bind(aPreparedStatement, aBean, aOffset);
+		}
+	}
+
+	/**
+	 * Reads the value a parameter would be bound to from a bean, such as the shard key of a row.
+	 *
+	 * @param aBean
+	 *            the bean to read from
+	 * @param aName
+	 *            the parameter name
+	 * @return the value, or <code>null</code> if the bean doesn't have the property
+	 */
+	static Object read(Object aBean, String aName) {
+		final PropertyUtilsBean propertyUtils = BeanUtilsBean.getInstance().getPropertyUtils();
+		try {
+			if (!propertyUtils.isReadable(aBean, aName)) {
+				return null;
+			}
+			return propertyUtils.getNestedProperty(aBean, aName);
+		} catch (final NestedNullException e) {
+			return null;
+		} catch (final Exception e) {
+			throw BeanParameterPlan.readError(aName, aBean, e);
+		}
+	}
+
+	/**
+	 * Wraps an error thrown while reading a property.
+	 *
+	 * @param aName
+	 *            the parameter name
+	 * @param aBean
+	 *            the bean being read
+	 * @param aThrowable
+	 *            the error
+	 * @return the exception to throw
+	 */
+	static DaoException readError(String aName, Object aBean, Throwable aThrowable) {
+		if (aThrowable instanceof Error) {
+			throw (Error) aThrowable;
+		}
+		return new DaoException("Error getting bean property " + aName + " from " + aBean, aThrowable);
+	}
+
+	/**
+	 * A named parameter that is read from the bean.
+	 */
+	private abstract static class Parameter {
+
+		protected final String name;
+		protected final int[] positions;
+
+		Parameter(String aName, int[] aPositions) {
+			this.name = aName;
+			this.positions = aPositions;
+		}
+
+		/**
+		 * Reads the property from the bean and sets it at every position of the parameter.
+		 */
+		abstract void bind(PreparedStatement aPreparedStatement, Object aBean, int aOffset) throws SQLException;
+	}
+
+	/**
+	 * A parameter read through a chain of method handles.
+	 */
+	private abstract static class PathParameter extends Parameter {
+
+		private final MethodHandle[] path;
+
+		PathParameter(String aName, int[] aPositions, MethodHandle[] aPath) {
+			super(aName, aPositions);
+			this.path = aPath;
+		}
+
+		/**
+		 * Follows the nested properties leading to the one being bound.
+		 *
+		 * @return the bean that holds the property or null if a nested property is null
+		 */
+		final Object resolve(Object aBean) {
+			Object bean = aBean;
+			try {
+				for (int i = 0; i < this.path.length && bean != null; i++) {
+					bean = this.path[i].invokeExact(bean);
+				}
+			} catch (final Throwable e) {
+				throw BeanParameterPlan.readError(this.name, aBean, e);
+			}
+			return bean;
+		}
+
+		/**
+		 * Sets the parameter to null when a nested property is null.
+		 */
+		final void bindNull(PreparedStatement aPreparedStatement, int aOffset) throws SQLException {
+			for (final int position : this.positions) {
+				aPreparedStatement.setObject(position + aOffset, null);
+			}
+		}
+	}
+
+	/**
+	 * Binds int properties.
+	 */
+	private static final class IntParameter extends PathParameter {
+
+		private final MethodHandle getter;
+
+		IntParameter(String aName, int[] aPositions, MethodHandle[] aPath, MethodHandle aGetter) {
+			super(aName, aPositions, aPath);
+			this.getter = aGetter;
+		}
+
+		@Override
+		void bind(PreparedStatement aPreparedStatement, Object aBean, int aOffset) throws SQLException {
+			final Object bean = this.resolve(aBean);
+			if (bean == null) {
+				this.bindNull(aPreparedStatement, aOffset);
+				return;
+			}
+			final int value;
+			try {
+				value = (int) this.getter.invokeExact(bean);
+			} catch (final Throwable e) {
+				throw BeanParameterPlan.readError(this.name, aBean, e);
+			}
+			for (final int position : this.positions) {
+				aPreparedStatement.setInt(position + aOffset, value);
+			}
+		}
+	}
+
+	/**
+	 * Binds long properties.
+	 */
+	private static final class LongParameter extends PathParameter {
+
+		private final MethodHandle getter;
+
+		LongParameter(String aName, int[] aPositions, MethodHandle[] aPath, MethodHandle aGetter) {
+			super(aName, aPositions, aPath);
+			this.getter = aGetter;
+		}
+
+		@Override
+		void bind(PreparedStatement aPreparedStatement, Object aBean, int aOffset) throws SQLException {
+			final Object bean = this.resolve(aBean);
+			if (bean == null) {
+				this.bindNull(aPreparedStatement, aOffset);
+				return;
+			}
+			final long value;
+			try {
+				value = (long) this.getter.invokeExact(bean);
+			} catch (final Throwable e) {
+				throw BeanParameterPlan.readError(this.name, aBean, e);
+			}
+			for (final int position : this.positions) {
+				aPreparedStatement.setLong(position + aOffset, value);
+			}
+		}
+	}
+
+	/**
+	 * Binds double properties.
+	 */
+	private static final class DoubleParameter extends PathParameter {
+
+		private final MethodHandle getter;
+
+		DoubleParameter(String aName, int[] aPositions, MethodHandle[] aPath, MethodHandle aGetter) {
+			super(aName, aPositions, aPath);
+			this.getter = aGetter;
+		}
+
+		@Override
+		void bind(PreparedStatement aPreparedStatement, Object aBean, int aOffset) throws SQLException {
+			final Object bean = this.resolve(aBean);
+			if (bean == null) {
+				this.bindNull(aPreparedStatement, aOffset);
+				return;
+			}
+			final double value;
+			try {
+				value = (double) this.getter.invokeExact(bean);
+			} catch (final Throwable e) {
+				throw BeanParameterPlan.readError(this.name, aBean, e);
+			}
+			for (final int position : this.positions) {
+				aPreparedStatement.setDouble(position + aOffset, value);
+			}
+		}
+	}
+
+	/**
+	 * Binds boolean properties.
+	 */
+	private static final class BooleanParameter extends PathParameter {
+
+		private final MethodHandle getter;
+
+		BooleanParameter(String aName, int[] aPositions, MethodHandle[] aPath, MethodHandle aGetter) {
+			super(aName, aPositions, aPath);
+			this.getter = aGetter;
+		}
+
+		@Override
+		void bind(PreparedStatement aPreparedStatement, Object aBean, int aOffset) throws SQLException {
+			final Object bean = this.resolve(aBean);
+			if (bean == null) {
+				this.bindNull(aPreparedStatement, aOffset);
+				return;
+			}
+			final boolean value;
+			try {
+				value = (boolean) this.getter.invokeExact(bean);
+			} catch (final Throwable e) {
+				throw BeanParameterPlan.readError(this.name, aBean, e);
+			}
+			for (final int position : this.positions) {
+				aPreparedStatement.setBoolean(position + aOffset, value);
+			}
+		}
+	}
+
+	/**
+	 * Binds properties of any other type.
+	 */
+	private static final class ObjectParameter extends PathParameter {
+
+		private final MethodHandle getter;
+
+		ObjectParameter(String aName, int[] aPositions, MethodHandle[] aPath, MethodHandle aGetter) {
+			super(aName, aPositions, aPath);
+			this.getter = aGetter;
+		}
+
+		@Override
+		void bind(PreparedStatement aPreparedStatement, Object aBean, int aOffset) throws SQLException {
+			final Object bean = this.resolve(aBean);
+			if (bean == null) {
+				this.bindNull(aPreparedStatement, aOffset);
+				return;
+			}
+			final Object value;
+			try {
+				value = this.getter.invokeExact(bean);
+			} catch (final Throwable e) {
+				throw BeanParameterPlan.readError(this.name, aBean, e);
+			}
+			for (final int position : this.positions) {
+				aPreparedStatement.setObject(position + aOffset, value);
+			}
+		}
+	}
+
+	/**
+	 * Binds parameters that can only be resolved against the bean instance, using BeanUtils.
+	 */
+	private static final class DynamicParameter extends Parameter {
+
+		DynamicParameter(String aName, int[] aPositions) {
+			super(aName, aPositions);
+		}
+
+		@Override
+		void bind(PreparedStatement aPreparedStatement, Object aBean, int aOffset) throws SQLException {
+			final PropertyUtilsBean propertyUtils = BeanUtilsBean.getInstance().getPropertyUtils();
+			Object value;
+			try {
+				if (!propertyUtils.isReadable(aBean, this.name)) {
+					return;
+				}
+				value = propertyUtils.getNestedProperty(aBean, this.name);
+			} catch (final NestedNullException e) {
+				value = null;
+			} catch (final Exception e) {
+				throw BeanParameterPlan.readError(this.name, aBean, e);
+			}
+			for (final int position : this.positions) {
+				aPreparedStatement.setObject(position + aOffset, value);
+			}
+		}
+	}
+}
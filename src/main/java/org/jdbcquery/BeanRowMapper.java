@@ -15,15 +15,17 @@
  */
 package org.jdbcquery;
 
-import java.lang.reflect.InvocationTargetException;
+import java.lang.ref.WeakReference;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 
-import org.apache.commons.beanutils.BeanUtils;
-
 /**
  * Handles converting a single row from a result set into a java bean of type T.
  *
+ * <p>
+ * The result set meta data is only read for the first row of each result set; it is resolved into a column plan
+ * that is reused for the remaining rows and cached for later executions that return the same columns.
+ *
  * @author Troy Histed
  *
  * @param <T>
@@ -33,6 +35,8 @@ public abstract class BeanRowMapper<T> extends RowMapper<T> {
 
 	protected Class<T> beanClass;
 
+	private final ThreadLocal<ResolvedPlan> resolvedPlan = new ThreadLocal<ResolvedPlan>();
+
 	private BeanRowMapper(Class<T> aBeanClass) {
 		this.beanClass = aBeanClass;
 	}
@@ -86,19 +90,45 @@ public abstract class BeanRowMapper<T> extends RowMapper<T> {
 	 */
 	@Override
 	protected T mapRow(ResultSet aResultSet) throws SQLException {
-		int i = 1;
-		try {
-			final T bean = this.newBeanInstance();
-			for (i = 1; i <= aResultSet.getMetaData().getColumnCount(); i++) {
-				BeanUtils.setProperty(bean, aResultSet.getMetaData().getColumnLabel(i), aResultSet.getObject(i));
-			}
-			return bean;
-		} catch (final IllegalAccessException e) {
-			throw new DaoException("Error occurred setting bean property "
-					+ aResultSet.getMetaData().getColumnLabel(i) + " with value " + aResultSet.getObject(i), e);
-		} catch (final InvocationTargetException e) {
-			throw new DaoException("Error occurred setting bean property "
-					+ aResultSet.getMetaData().getColumnLabel(i) + " with value " + aResultSet.getObject(i), e);
+		final T bean = this.newBeanInstance();
+		this.getColumnPlan(bean.getClass(), aResultSet).apply(bean, aResultSet);
+		return bean;
+	}
+
+	/**
+	 * Gets the column plan for a result set, resolving it only when the result set or bean class changes.
+	 *
+	 * @param aBeanClass
+	 *            the class of the bean being mapped to
+	 * @param aResultSet
+	 *            the result set being mapped
+	 * @return the column plan
+	 * @throws SQLException
+	 *             error reading the result set meta data
+	 */
+	private ColumnPlan getColumnPlan(Class<?> aBeanClass, ResultSet aResultSet) throws SQLException {
+		final ResolvedPlan resolved = this.resolvedPlan.get();
+		if (resolved != null && resolved.resultSet.get() == aResultSet && resolved.beanClass == aBeanClass) {
+			return resolved.plan;
+		}
+		final ColumnPlan plan = ColumnPlan.forResultSet(aBeanClass, aResultSet);
+		this.resolvedPlan.set(new ResolvedPlan(aResultSet, aBeanClass, plan));
+		return plan;
+	}
+
+	/**
+	 * The column plan resolved for the result set a thread is currently mapping.
+	 */
+	private static final class ResolvedPlan {
+
+		private final WeakReference<ResultSet> resultSet;
+		private final Class<?> beanClass;
+		private final ColumnPlan plan;
+
+		ResolvedPlan(ResultSet aResultSet, Class<?> aBeanClass, ColumnPlan aPlan) {
+			this.resultSet = new WeakReference<ResultSet>(aResultSet);
+			this.beanClass = aBeanClass;
+			this.plan = aPlan;
 		}
 	}
 }
@@ -0,0 +1,202 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Rewrites a simple insert statement to insert several rows at once.
+ *
+ * <p>
+ * An insert is simple if it has a single <code>VALUES</code> group at the end of the statement and every
+ * parameter is inside that group, for example
+ * <code>INSERT INTO people(name, age) VALUES(:name, :age)</code>. The group is repeated once per row,
+ * <code>VALUES(?, ?), (?, ?), ...</code>, so the parameters of row <i>n</i> follow those of row <i>n - 1</i>.
+ * Only a few row counts are used, the number of rows that fit in one statement and powers of two from
+ * {@link #MINIMUM_ROWS} up, so an insert of any number of rows prepares at most a handful of distinct statements
+ * on the server and in the statement cache. The rewritten statements are cached by number of rows.
+ *
+ * @author Troy Histed
+ */
+final class BulkInsert {
+
+	/** The default maximum number of parameters in one statement, within the limits of common drivers. */
+	static final int DEFAULT_MAXIMUM_PARAMETERS = 2000;
+
+	/** The maximum number of rows in one statement. */
+	static final int MAXIMUM_ROWS = 1000;
+
+	/** The fewest rows a rewritten statement is used for, fewer rows are executed as a batch. */
+	static final int MINIMUM_ROWS = 8;
+
+	private final String prefix;
+	private final String row;
+	private final int parametersPerRow;
+	private final ConcurrentMap<Integer, String> statements = new ConcurrentHashMap<Integer, String>();
+
+	/**
+	 * Constructs a bulk insert.
+	 *
+	 * @param aPrefix
+	 *            the statement up to the values group
+	 * @param aRow
+	 *            the values group, including its parentheses
+	 * @param aParametersPerRow
+	 *            the number of parameter markers in the values group
+	 */
+	private BulkInsert(String aPrefix, String aRow, int aParametersPerRow) {
+		this.prefix = aPrefix;
+		this.row = aRow;
+		this.parametersPerRow = aParametersPerRow;
+	}
+
+	/**
+	 * Checks if a statement is a simple insert that can be rewritten.
+	 *
+	 * @param aParsedStatement
+	 *            the parsed statement
+	 * @return the bulk insert or null if the statement is not a simple insert
+	 */
+	static BulkInsert forStatement(ParsedNamedStatement aParsedStatement) {
+		final String statement = aParsedStatement.getStatement();
+		if (!statement.trim().regionMatches(true, 0, "INSERT", 0, 6)) {
+			return null;
+		}
+
+		int depth = 0;
+		int values = -1;
+		int groupStart = -1;
+		int groupEnd = -1;
+		int markers = 0;
+		int i = 0;
+		while (i < statement.length()) {
+			final char c = statement.charAt(i);
+			if (c == '\'' || c == '"') {
+				i = statement.indexOf(c, i + 1);
+				if (i < 0) {
+					return null;
+				}
+			} else if (c == '/' && statement.startsWith("/*", i)) {
+				i = statement.indexOf("*/", i + 2);
+				if (i < 0) {
+					return null;
+				}
+				i++;
+			} else if (groupEnd >= 0) {
+				if (!Character.isWhitespace(c)) {
+					// something follows the values group
+					return null;
+				}
+			} else if (c == '(') {
+				if (depth == 0 && values >= 0) {
+					if (statement.substring(values + 6, i).trim().length() > 0) {
+						return null;
+					}
+					groupStart = i;
+				}
+				depth++;
+			} else if (c == ')') {
+				depth--;
+				if (depth == 0 && groupStart >= 0) {
+					groupEnd = i;
+				}
+			} else if (c == '?') {
+				if (groupStart < 0) {
+					return null;
+				}
+				markers++;
+			} else if (depth == 0 && values < 0 && BulkInsert.isKeyword(statement, i, "VALUES")) {
+				values = i;
+				i += 5;
+			}
+			i++;
+		}
+
+		if (groupEnd < 0 || markers == 0 || markers != aParsedStatement.getParameters().size()) {
+			return null;
+		}
+		return new BulkInsert(statement.substring(0, groupStart), statement.substring(groupStart, groupEnd + 1),
+				markers);
+	}
+
+	/**
+	 * Checks if a keyword starts at a position, not being part of a longer identifier.
+	 */
+	private static boolean isKeyword(String aStatement, int aIndex, String aKeyword) {
+		final int end = aIndex + aKeyword.length();
+		return aStatement.regionMatches(true, aIndex, aKeyword, 0, aKeyword.length())
+				&& (aIndex == 0 || !Character.isJavaIdentifierPart(aStatement.charAt(aIndex - 1)))
+				&& (end == aStatement.length() || !Character.isJavaIdentifierPart(aStatement.charAt(end)));
+	}
+
+	/**
+	 * @return the number of parameters of each row
+	 */
+	int getParametersPerRow() {
+		return this.parametersPerRow;
+	}
+
+	/**
+	 * Gets the number of rows that fit in one statement.
+	 *
+	 * @param aMaximumParameters
+	 *            the maximum number of parameters the driver accepts in one statement
+	 * @return the number of rows, at least one
+	 */
+	int getRowsPerStatement(int aMaximumParameters) {
+		return Math.max(1, Math.min(BulkInsert.MAXIMUM_ROWS, aMaximumParameters / this.parametersPerRow));
+	}
+
+	/**
+	 * Gets the number of rows of the next statement for the rows left over after the full statements, the
+	 * largest power of two that fits.
+	 *
+	 * @param aRemainingRows
+	 *            the number of rows still to insert, fewer than fit in one statement
+	 * @return the number of rows, or zero if fewer than {@link #MINIMUM_ROWS} remain and they should be executed
+	 *         as a batch
+	 */
+	static int getRowsForRemainder(int aRemainingRows) {
+		if (aRemainingRows < BulkInsert.MINIMUM_ROWS) {
+			return 0;
+		}
+		return Integer.highestOneBit(aRemainingRows);
+	}
+
+	/**
+	 * Gets the statement that inserts a number of rows.
+	 *
+	 * @param aRows
+	 *            the number of rows
+	 * @return the statement
+	 */
+	String getStatement(int aRows) {
+		final Integer key = Integer.valueOf(aRows);
+		String statement = this.statements.get(key);
+		if (statement == null) {
+			final StringBuilder builder = new StringBuilder(this.prefix.length() + aRows
+					* (this.row.length() + 2));
+			builder.append(this.prefix).append(this.row);
+			for (int i = 1; i < aRows; i++) {
+				builder.append(", ").append(this.row);
+			}
+			statement = builder.toString();
+			this.statements.putIfAbsent(key, statement);
+		}
+		return statement;
+	}
+}
@@ -0,0 +1,256 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.beans.PropertyDescriptor;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.commons.beanutils.BeanUtils;
+import org.apache.commons.beanutils.BeanUtilsBean;
+import org.apache.commons.beanutils.Converter;
+import org.apache.commons.beanutils.DynaBean;
+
+/**
+ * Describes how each column of a result set is written to a bean.
+ *
+ * <p>
+ * A plan is resolved once from the result set meta data and holds the label, index and a
+ * {@link PropertyWriter} for the target property of every column. Plans are immutable and kept in a bounded,
+ * least recently used cache keyed by bean class and column label signature, so executing the same select again
+ * doesn't need to inspect the bean class again. The bound keeps selects with ever changing projections or
+ * aliases from growing the cache, and lets the plans of bean classes that are no longer used, such as those of
+ * an undeployed application, be evicted along with their class loaders.
+ * Columns whose label is not a simple property of the bean, such as nested properties, are set through
+ * BeanUtils.
+ *
+ * @author Troy Histed
+ */
+final class ColumnPlan {
+
+	/** The maximum number of plans that are cached. */
+	static final int MAXIMUM_PLANS = 512;
+
+	private static final Map<Key, ColumnPlan> PLANS = new LinkedHashMap<Key, ColumnPlan>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Key, ColumnPlan> aEldest) {
+			return this.size() > ColumnPlan.MAXIMUM_PLANS;
+		}
+	};
+
+	private final Column[] columns;
+
+	/**
+	 * Constructs a plan.
+	 *
+	 * @param aColumns
+	 *            the columns in result set order
+	 */
+	private ColumnPlan(Column[] aColumns) {
+		this.columns = aColumns;
+	}
+
+	/**
+	 * Returns the plan for mapping a result set to a bean class, resolving it if it hasn't been cached.
+	 *
+	 * @param aBeanClass
+	 *            the class of the bean being mapped to
+	 * @param aResultSet
+	 *            the result set being mapped
+	 * @return the plan
+	 * @throws SQLException
+	 *             error reading the result set meta data
+	 */
+	static ColumnPlan forResultSet(Class<?> aBeanClass, ResultSet aResultSet) throws SQLException {
+		final ResultSetMetaData metaData = aResultSet.getMetaData();
+		final String[] labels = new String[metaData.getColumnCount()];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = metaData.getColumnLabel(i + 1);
+		}
+
+		final Key key = new Key(aBeanClass, labels);
+		ColumnPlan plan;
+		synchronized (ColumnPlan.PLANS) {
+			plan = ColumnPlan.PLANS.get(key);
+		}
+		if (plan == null) {
+			plan = ColumnPlan.resolve(aBeanClass, labels);
+			synchronized (ColumnPlan.PLANS) {
+				ColumnPlan.PLANS.put(key, plan);
+			}
+		}
+		return plan;
+	}
+
+	/**
+	 * @return the number of plans currently cached
+	 */
+	static int getCachedCount() {
+		synchronized (ColumnPlan.PLANS) {
+			return ColumnPlan.PLANS.size();
+		}
+	}
+
+	/**
+	 * Resolves the target property and converter of each column.
+	 *
+	 * @param aBeanClass
+	 *            the class of the bean being mapped to
+	 * @param aLabels
+	 *            the column labels in result set order
+	 * @return the plan
+	 */
+	private static ColumnPlan resolve(Class<?> aBeanClass, String[] aLabels) {
+		final BeanUtilsBean beanUtils = BeanUtilsBean.getInstance();
+		final boolean dynamic = Map.class.isAssignableFrom(aBeanClass)
+				|| DynaBean.class.isAssignableFrom(aBeanClass);
+		final PropertyDescriptor[] descriptors = beanUtils.getPropertyUtils().getPropertyDescriptors(aBeanClass);
+
+		final Column[] columns = new Column[aLabels.length];
+		for (int i = 0; i < aLabels.length; i++) {
+			PropertyDescriptor property = null;
+			if (!dynamic) {
+				for (final PropertyDescriptor descriptor : descriptors) {
+					if (descriptor.getName().equals(aLabels[i]) && descriptor.getWriteMethod() != null) {
+						property = descriptor;
+					}
+				}
+			}
+			PropertyWriter writer = null;
+			if (property != null) {
+				final Class<?> type = property.getPropertyType();
+				writer = PropertyWriter.forProperty(property.getWriteMethod(), type, beanUtils.getConvertUtils()
+						.lookup(type));
+			}
+			columns[i] = new Column(aLabels[i], i + 1, writer);
+		}
+		return new ColumnPlan(columns);
+	}
+
+	/**
+	 * Writes the current row of the result set to the bean.
+	 *
+	 * @param aBean
+	 *            the bean to populate
+	 * @param aResultSet
+	 *            the result set positioned on the row to map
+	 * @throws SQLException
+	 *             error reading the result set
+	 */
+	void apply(Object aBean, ResultSet aResultSet) throws SQLException {
+		for (final Column column : this.columns) {
+			try {
+				column.write(aBean, aResultSet);
+			} catch (final SQLException e) {
+				throw e;
+			} catch (final RuntimeException e) {
+				throw e;
+			} catch (final Error e) {
+				throw e;
+			} catch (final Throwable e) {
+				throw new DaoException("Error occurred setting bean property " + column.label + " from column "
+						+ column.index, e);
+			}
+		}
+	}
+
+	/**
+	 * A single column of the plan.
+	 */
+	private static final class Column {
+
+		private final String label;
+		private final int index;
+		private final PropertyWriter writer;
+
+		Column(String aLabel, int aIndex, PropertyWriter aWriter) {
+			this.label = aLabel;
+			this.index = aIndex;
+			this.writer = aWriter;
+		}
+
+		/**
+		 * Reads the column and writes it to the bean, falling back to BeanUtils if there is no writer.
+		 */
+		void write(Object aBean, ResultSet aResultSet) throws Throwable {
+			if (this.writer == null) {
+				BeanUtils.setProperty(aBean, this.label, aResultSet.getObject(this.index));
+			} else {
+				this.writer.write(aBean, aResultSet, this.index);
+			}
+		}
+	}
+
+	/**
+	 * Checks if a value can be assigned to a type, treating primitive types as their wrappers.
+	 *
+	 * @param aType
+	 *            the property type
+	 * @param aValue
+	 *            the non-null value
+	 * @return <code>true</code> if the value can be passed to a setter of the type without converting it
+	 */
+	static boolean isInstance(Class<?> aType, Object aValue) {
+		if (!aType.isPrimitive()) {
+			return aType.isInstance(aValue);
+		}
+		final Class<?> valueType = aValue.getClass();
+		return aType == int.class && valueType == Integer.class
+				|| aType == long.class && valueType == Long.class
+				|| aType == double.class && valueType == Double.class
+				|| aType == boolean.class && valueType == Boolean.class
+				|| aType == short.class && valueType == Short.class
+				|| aType == float.class && valueType == Float.class
+				|| aType == byte.class && valueType == Byte.class
+				|| aType == char.class && valueType == Character.class;
+	}
+
+	/**
+	 * Identifies a plan by bean class and column labels.
+	 */
+	private static final class Key {
+
+		private final Class<?> beanClass;
+		private final String[] labels;
+		private final int hashCode;
+
+		Key(Class<?> aBeanClass, String[] aLabels) {
+			this.beanClass = aBeanClass;
+			this.labels = aLabels;
+			this.hashCode = 31 * aBeanClass.hashCode() + Arrays.hashCode(aLabels);
+		}
+
+		@Override
+		public int hashCode() {
+			return this.hashCode;
+		}
+
+		@Override
+		public boolean equals(Object aObject) {
+			if (!(aObject instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) aObject;
+			return this.beanClass == other.beanClass && Arrays.equals(this.labels, other.labels);
+		}
+	}
+}
@@ -0,0 +1,738 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The result of a select read into one typed vector per column instead of one object per row.
+ *
+ * <p>
+ * Integer, big integer and floating point columns are held in primitive arrays, character columns are dictionary
+ * encoded so each distinct value is held once, and any other type is held as the objects returned by the driver.
+ * Numeric and decimal columns with a scale of zero and a precision of at most 18 digits, which is how many
+ * databases declare integers, are held as longs, and those the driver reports as floating point, with Oracle's
+ * scale of -127, as doubles. Other numeric columns keep their exact decimal values as objects. Boolean columns,
+ * and bit columns of one bit, are held in a bitmap.
+ * Every column has a bitmap of the rows that are null. Scanning a column reads a single contiguous array, which
+ * suits queries that read many rows to aggregate a few columns.
+ *
+ * <p>
+ * Rows are indexed from zero and columns from one, as they are in a result set.
+ *
+ * @author Troy Histed
+ */
+public final class ColumnarResult {
+
+	private static final int INITIAL_CAPACITY = 64;
+	/** The most decimal digits that always fit in a long. */
+	private static final int MAXIMUM_LONG_PRECISION = 18;
+	/** The scale Oracle reports for floating point numbers. */
+	private static final int FLOATING_SCALE = -127;
+
+	private final Column[] columns;
+	private final int rowCount;
+
+	/**
+	 * Constructs a result.
+	 *
+	 * @param aColumns
+	 *            the columns in result set order
+	 * @param aRowCount
+	 *            the number of rows
+	 */
+	private ColumnarResult(Column[] aColumns, int aRowCount) {
+		this.columns = aColumns;
+		this.rowCount = aRowCount;
+	}
+
+	/**
+	 * Reads every row of a result set into columns.
+	 *
+	 * @param aResultSet
+	 *            the result set positioned before the first row
+	 * @return the result
+	 * @throws SQLException
+	 *             error reading the result set
+	 */
+	static ColumnarResult read(ResultSet aResultSet) throws SQLException {
+		final ResultSetMetaData metaData = aResultSet.getMetaData();
+		final Column[] columns = new Column[metaData.getColumnCount()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = ColumnarResult.createColumn(metaData, i + 1);
+		}
+
+		int rowCount = 0;
+		while (aResultSet.next()) {
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].read(aResultSet, i + 1, rowCount);
+			}
+			rowCount++;
+		}
+
+		for (final Column column : columns) {
+			column.trim(rowCount);
+		}
+		return new ColumnarResult(columns, rowCount);
+	}
+
+	/**
+	 * Creates the column vector for the SQL type of a column.
+	 *
+	 * @param aMetaData
+	 *            the result set meta data
+	 * @param aIndex
+	 *            the column index
+	 * @return an empty column
+	 * @throws SQLException
+	 *             error reading the meta data
+	 */
+	private static Column createColumn(ResultSetMetaData aMetaData, int aIndex) throws SQLException {
+		final String label = aMetaData.getColumnLabel(aIndex);
+		switch (aMetaData.getColumnType(aIndex)) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return new IntColumn(label);
+		case Types.BIGINT:
+			return new LongColumn(label);
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return new DoubleColumn(label);
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return ColumnarResult.createNumericColumn(label, aMetaData.getPrecision(aIndex),
+					aMetaData.getScale(aIndex));
+		case Types.BOOLEAN:
+			return new BooleanColumn(label);
+		case Types.BIT:
+			return aMetaData.getPrecision(aIndex) <= 1 ? new BooleanColumn(label) : new ObjectColumn(label);
+		case Types.CHAR:
+		case Types.VARCHAR:
+		case Types.LONGVARCHAR:
+		case Types.NCHAR:
+		case Types.NVARCHAR:
+		case Types.LONGNVARCHAR:
+			return new StringColumn(label);
+		default:
+			return new ObjectColumn(label);
+		}
+	}
+
+	/**
+	 * Creates the column vector for a numeric or decimal column.
+	 */
+	private static Column createNumericColumn(String aLabel, int aPrecision, int aScale) {
+		if (aScale == 0 && aPrecision > 0 && aPrecision <= ColumnarResult.MAXIMUM_LONG_PRECISION) {
+			return new LongColumn(aLabel);
+		} else if (aScale == ColumnarResult.FLOATING_SCALE) {
+			return new DoubleColumn(aLabel);
+		}
+		return new ObjectColumn(aLabel);
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	/**
+	 * @return the number of columns
+	 */
+	public int getColumnCount() {
+		return this.columns.length;
+	}
+
+	/**
+	 * Gets a column by index.
+	 *
+	 * @param aIndex
+	 *            the one based column index
+	 * @return the column
+	 */
+	public Column getColumn(int aIndex) {
+		if (aIndex < 1 || aIndex > this.columns.length) {
+			throw new DaoException("Column index " + aIndex + " is out of range 1 to " + this.columns.length);
+		}
+		return this.columns[aIndex - 1];
+	}
+
+	/**
+	 * Gets a column by label.
+	 *
+	 * @param aLabel
+	 *            the column label, compared ignoring case
+	 * @return the column
+	 */
+	public Column getColumn(String aLabel) {
+		for (final Column column : this.columns) {
+			if (column.getLabel().equalsIgnoreCase(aLabel)) {
+				return column;
+			}
+		}
+		throw new DaoException("No column labeled " + aLabel);
+	}
+
+	/**
+	 * Gets an int column by label.
+	 *
+	 * @param aLabel
+	 *            the column label, compared ignoring case
+	 * @return the column
+	 */
+	public IntColumn getIntColumn(String aLabel) {
+		return ColumnarResult.cast(this.getColumn(aLabel), IntColumn.class);
+	}
+
+	/**
+	 * Gets a long column by label.
+	 *
+	 * @param aLabel
+	 *            the column label, compared ignoring case
+	 * @return the column
+	 */
+	public LongColumn getLongColumn(String aLabel) {
+		return ColumnarResult.cast(this.getColumn(aLabel), LongColumn.class);
+	}
+
+	/**
+	 * Gets a double column by label.
+	 *
+	 * @param aLabel
+	 *            the column label, compared ignoring case
+	 * @return the column
+	 */
+	public DoubleColumn getDoubleColumn(String aLabel) {
+		return ColumnarResult.cast(this.getColumn(aLabel), DoubleColumn.class);
+	}
+
+	/**
+	 * Gets a boolean column by label.
+	 *
+	 * @param aLabel
+	 *            the column label, compared ignoring case
+	 * @return the column
+	 */
+	public BooleanColumn getBooleanColumn(String aLabel) {
+		return ColumnarResult.cast(this.getColumn(aLabel), BooleanColumn.class);
+	}
+
+	/**
+	 * Gets a string column by label.
+	 *
+	 * @param aLabel
+	 *            the column label, compared ignoring case
+	 * @return the column
+	 */
+	public StringColumn getStringColumn(String aLabel) {
+		return ColumnarResult.cast(this.getColumn(aLabel), StringColumn.class);
+	}
+
+	/**
+	 * Checks the type of a column.
+	 */
+	private static <C extends Column> C cast(Column aColumn, Class<C> aType) {
+		if (!aType.isInstance(aColumn)) {
+			throw new DaoException("Column " + aColumn.getLabel() + " is a " + aColumn.getClass().getSimpleName()
+					+ ", not a " + aType.getSimpleName());
+		}
+		return aType.cast(aColumn);
+	}
+
+	/**
+	 * @return the approximate number of bytes held by all columns
+	 */
+	public long getMemoryFootprint() {
+		long bytes = 0;
+		for (final Column column : this.columns) {
+			bytes += column.getMemoryFootprint();
+		}
+		return bytes;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "ColumnarResult [rowCount=" + this.rowCount + ", columns=" + Arrays.toString(this.columns) + "]";
+	}
+
+	/**
+	 * A single column of the result.
+	 */
+	public abstract static class Column {
+
+		private final String label;
+		private BitSet nulls = new BitSet();
+		private int size;
+
+		/**
+		 * Constructs an empty column.
+		 *
+		 * @param aLabel
+		 *            the column label
+		 */
+		Column(String aLabel) {
+			this.label = aLabel;
+		}
+
+		/**
+		 * @return the column label
+		 */
+		public String getLabel() {
+			return this.label;
+		}
+
+		/**
+		 * @return the number of rows
+		 */
+		public int size() {
+			return this.size;
+		}
+
+		/**
+		 * @param aRow
+		 *            the zero based row index
+		 * @return <code>true</code> if the value of the row is null
+		 */
+		public boolean isNull(int aRow) {
+			return this.nulls.get(aRow);
+		}
+
+		/**
+		 * @return the number of null values
+		 */
+		public int getNullCount() {
+			return this.nulls.cardinality();
+		}
+
+		/**
+		 * Gets the value of a row as an object, boxing primitive values.
+		 *
+		 * @param aRow
+		 *            the zero based row index
+		 * @return the value or null
+		 */
+		public abstract Object getObject(int aRow);
+
+		/**
+		 * @return the approximate number of bytes held by the column
+		 */
+		public long getMemoryFootprint() {
+			return this.nulls.size() / Byte.SIZE + this.getValuesFootprint();
+		}
+
+		/**
+		 * @return the approximate number of bytes held by the column values
+		 */
+		abstract long getValuesFootprint();
+
+		/**
+		 * Reads the column of the current row and appends it.
+		 *
+		 * @param aResultSet
+		 *            the result set positioned on the row
+		 * @param aIndex
+		 *            the column index
+		 * @param aRow
+		 *            the index of the row being appended
+		 * @throws SQLException
+		 *             error reading the column
+		 */
+		abstract void read(ResultSet aResultSet, int aIndex, int aRow) throws SQLException;
+
+		/**
+		 * Shrinks the column to the number of rows read.
+		 *
+		 * @param aSize
+		 *            the number of rows
+		 */
+		void trim(int aSize) {
+			this.size = aSize;
+			// cloning trims the bit set to the last null row
+			this.nulls = (BitSet) this.nulls.clone();
+		}
+
+		/**
+		 * Marks a row as null.
+		 *
+		 * @param aRow
+		 *            the row index
+		 */
+		final void setNull(int aRow) {
+			this.nulls.set(aRow);
+		}
+
+		/**
+		 * Returns the capacity to grow a full array of values to.
+		 */
+		static int grow(int aLength) {
+			return Math.max(ColumnarResult.INITIAL_CAPACITY, aLength * 2);
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public String toString() {
+			return this.getClass().getSimpleName() + " [label=" + this.label + ", size=" + this.size + "]";
+		}
+	}
+
+	/**
+	 * A column of int values. Null values are read as zero.
+	 */
+	public static final class IntColumn extends Column {
+
+		private int[] values = new int[0];
+
+		IntColumn(String aLabel) {
+			super(aLabel);
+		}
+
+		/**
+		 * @param aRow
+		 *            the zero based row index
+		 * @return the value, zero if it is null
+		 */
+		public int getInt(int aRow) {
+			return this.values[aRow];
+		}
+
+		@Override
+		public Object getObject(int aRow) {
+			return this.isNull(aRow) ? null : Integer.valueOf(this.values[aRow]);
+		}
+
+		@Override
+		long getValuesFootprint() {
+			return (long) this.values.length * Integer.BYTES;
+		}
+
+		@Override
+		void read(ResultSet aResultSet, int aIndex, int aRow) throws SQLException {
+			final int value = aResultSet.getInt(aIndex);
+			if (value == 0 && aResultSet.wasNull()) {
+				this.setNull(aRow);
+			}
+			if (aRow == this.values.length) {
+				this.values = Arrays.copyOf(this.values, Column.grow(aRow));
+			}
+			this.values[aRow] = value;
+		}
+
+		@Override
+		void trim(int aSize) {
+			super.trim(aSize);
+			this.values = Arrays.copyOf(this.values, aSize);
+		}
+	}
+
+	/**
+	 * A column of long values. Null values are read as zero.
+	 */
+	public static final class LongColumn extends Column {
+
+		private long[] values = new long[0];
+
+		LongColumn(String aLabel) {
+			super(aLabel);
+		}
+
+		/**
+		 * @param aRow
+		 *            the zero based row index
+		 * @return the value, zero if it is null
+		 */
+		public long getLong(int aRow) {
+			return this.values[aRow];
+		}
+
+		@Override
+		public Object getObject(int aRow) {
+			return this.isNull(aRow) ? null : Long.valueOf(this.values[aRow]);
+		}
+
+		@Override
+		long getValuesFootprint() {
+			return (long) this.values.length * Long.BYTES;
+		}
+
+		@Override
+		void read(ResultSet aResultSet, int aIndex, int aRow) throws SQLException {
+			final long value = aResultSet.getLong(aIndex);
+			if (value == 0 && aResultSet.wasNull()) {
+				this.setNull(aRow);
+			}
+			if (aRow == this.values.length) {
+				this.values = Arrays.copyOf(this.values, Column.grow(aRow));
+			}
+			this.values[aRow] = value;
+		}
+
+		@Override
+		void trim(int aSize) {
+			super.trim(aSize);
+			this.values = Arrays.copyOf(this.values, aSize);
+		}
+	}
+
+	/**
+	 * A column of double values. Null values are read as zero.
+	 */
+	public static final class DoubleColumn extends Column {
+
+		private double[] values = new double[0];
+
+		DoubleColumn(String aLabel) {
+			super(aLabel);
+		}
+
+		/**
+		 * @param aRow
+		 *            the zero based row index
+		 * @return the value, zero if it is null
+		 */
+		public double getDouble(int aRow) {
+			return this.values[aRow];
+		}
+
+		@Override
+		public Object getObject(int aRow) {
+			return this.isNull(aRow) ? null : Double.valueOf(this.values[aRow]);
+		}
+
+		@Override
+		long getValuesFootprint() {
+			return (long) this.values.length * Double.BYTES;
+		}
+
+		@Override
+		void read(ResultSet aResultSet, int aIndex, int aRow) throws SQLException {
+			final double value = aResultSet.getDouble(aIndex);
+			if (value == 0 && aResultSet.wasNull()) {
+				this.setNull(aRow);
+			}
+			if (aRow == this.values.length) {
+				this.values = Arrays.copyOf(this.values, Column.grow(aRow));
+			}
+			this.values[aRow] = value;
+		}
+
+		@Override
+		void trim(int aSize) {
+			super.trim(aSize);
+			this.values = Arrays.copyOf(this.values, aSize);
+		}
+	}
+
+	/**
+	 * A column of boolean values held in a bitmap. Null values are read as false.
+	 */
+	public static final class BooleanColumn extends Column {
+
+		private BitSet values = new BitSet();
+
+		BooleanColumn(String aLabel) {
+			super(aLabel);
+		}
+
+		/**
+		 * @param aRow
+		 *            the zero based row index
+		 * @return the value, false if it is null
+		 */
+		public boolean getBoolean(int aRow) {
+			return this.values.get(aRow);
+		}
+
+		/**
+		 * @return the number of true values
+		 */
+		public int getTrueCount() {
+			return this.values.cardinality();
+		}
+
+		@Override
+		public Object getObject(int aRow) {
+			return this.isNull(aRow) ? null : Boolean.valueOf(this.values.get(aRow));
+		}
+
+		@Override
+		long getValuesFootprint() {
+			return this.values.size() / Byte.SIZE;
+		}
+
+		@Override
+		void read(ResultSet aResultSet, int aIndex, int aRow) throws SQLException {
+			final boolean value = aResultSet.getBoolean(aIndex);
+			if (!value && aResultSet.wasNull()) {
+				this.setNull(aRow);
+			}
+			if (value) {
+				this.values.set(aRow);
+			}
+		}
+
+		@Override
+		void trim(int aSize) {
+			super.trim(aSize);
+			this.values = (BitSet) this.values.clone();
+		}
+	}
+
+	/**
+	 * A dictionary encoded column of strings. Each row holds the code of its value in the dictionary, so a
+	 * column with few distinct values holds each of them once.
+	 */
+	public static final class StringColumn extends Column {
+
+		private int[] codes = new int[0];
+		private String[] dictionary = new String[0];
+		private Map<String, Integer> lookup = new HashMap<String, Integer>();
+
+		StringColumn(String aLabel) {
+			super(aLabel);
+		}
+
+		/**
+		 * @param aRow
+		 *            the zero based row index
+		 * @return the value or null
+		 */
+		public String getString(int aRow) {
+			final int code = this.codes[aRow];
+			return code < 0 ? null : this.dictionary[code];
+		}
+
+		/**
+		 * Gets the dictionary code of a row, which can be compared or grouped on instead of the string.
+		 *
+		 * @param aRow
+		 *            the zero based row index
+		 * @return the index of the value in the dictionary, or -1 if it is null
+		 */
+		public int getCode(int aRow) {
+			return this.codes[aRow];
+		}
+
+		/**
+		 * @return a copy of the distinct values in order of first appearance
+		 */
+		public String[] getDictionary() {
+			return this.dictionary.clone();
+		}
+
+		@Override
+		public Object getObject(int aRow) {
+			return this.getString(aRow);
+		}
+
+		@Override
+		long getValuesFootprint() {
+			// a string is roughly a 40 byte header plus its characters
+			long bytes = (long) this.codes.length * Integer.BYTES + (long) this.dictionary.length * 8;
+			for (final String value : this.dictionary) {
+				bytes += 40 + value.length() * 2L;
+			}
+			return bytes;
+		}
+
+		@Override
+		void read(ResultSet aResultSet, int aIndex, int aRow) throws SQLException {
+			final String value = aResultSet.getString(aIndex);
+			int code = -1;
+			if (value == null) {
+				this.setNull(aRow);
+			} else {
+				final Integer existing = this.lookup.get(value);
+				if (existing == null) {
+					code = this.lookup.size();
+					this.lookup.put(value, Integer.valueOf(code));
+				} else {
+					code = existing.intValue();
+				}
+			}
+			if (aRow == this.codes.length) {
+				this.codes = Arrays.copyOf(this.codes, Column.grow(aRow));
+			}
+			this.codes[aRow] = code;
+		}
+
+		@Override
+		void trim(int aSize) {
+			super.trim(aSize);
+			this.codes = Arrays.copyOf(this.codes, aSize);
+			this.dictionary = new String[this.lookup.size()];
+			for (final Map.Entry<String, Integer> entry : this.lookup.entrySet()) {
+				this.dictionary[entry.getValue().intValue()] = entry.getKey();
+			}
+			this.lookup = null;
+		}
+	}
+
+	/**
+	 * A column of objects as returned by the driver, for types that have no primitive representation.
+	 */
+	public static final class ObjectColumn extends Column {
+
+		private Object[] values = new Object[0];
+
+		ObjectColumn(String aLabel) {
+			super(aLabel);
+		}
+
+		@Override
+		public Object getObject(int aRow) {
+			return this.values[aRow];
+		}
+
+		@Override
+		long getValuesFootprint() {
+			// only the references are counted, the size of the values depends on the driver
+			return (long) this.values.length * 8;
+		}
+
+		@Override
+		void read(ResultSet aResultSet, int aIndex, int aRow) throws SQLException {
+			final Object value = aResultSet.getObject(aIndex);
+			if (value == null) {
+				this.setNull(aRow);
+			}
+			if (aRow == this.values.length) {
+				this.values = Arrays.copyOf(this.values, Column.grow(aRow));
+			}
+			this.values[aRow] = value;
+		}
+
+		@Override
+		void trim(int aSize) {
+			super.trim(aSize);
+			this.values = Arrays.copyOf(this.values, aSize);
+		}
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.sql.Connection;
+
+/**
+ * A statement that has been parsed once and can be executed any number of times.
+ *
+ * <p>
+ * A compiled query is immutable and thread-safe, so it can be held in a static final field and shared by every
+ * thread that runs the statement. Each call to one of the select or update methods creates a new single use
+ * statement from the compiled query without parsing the sql again; only the connection is acquired per call.
+ * The row mapper is shared as well, so any mapping information a {@link BeanRowMapper} caches is reused across
+ * executions.
+ *
+ * <pre>
+ * private static final CompiledQuery&lt;Person&gt; FIND_PERSON = Query.compile(
+ * 		"SELECT name, birthDate FROM people WHERE personId = :personId",
+ * 		BeanRowMapper.forClass(Person.class));
+ *
+ * public Person findPerson(int personId) {
+ * 	return FIND_PERSON.select().set("personId", personId).execute();
+ * }
+ * </pre>
+ *
+ * @author Troy Histed
+ *
+ * @param <T>
+ *            The object type that will be constructed from the result set
+ */
+public final class CompiledQuery<T> {
+
+	private final ParsedNamedStatement parsedStatement;
+	private final RowMapper<T> rowMapper;
+
+	/**
+	 * Constructs a compiled query.
+	 *
+	 * @param aParsedStatement
+	 *            the parsed statement
+	 * @param aRowMapper
+	 *            the row mapping to use for selects, may be null if the query is only used for updates
+	 */
+	CompiledQuery(ParsedNamedStatement aParsedStatement, RowMapper<T> aRowMapper) {
+		if (aParsedStatement == null) {
+			throw new IllegalArgumentException("Parsed statement was null");
+		}
+		this.parsedStatement = aParsedStatement;
+		this.rowMapper = aRowMapper;
+	}
+
+	/**
+	 * Creates a select for this query using the default connection.
+	 *
+	 * @return the Select
+	 */
+	public Select<T> select() {
+		return this.select((String) null);
+	}
+
+	/**
+	 * Creates a select for this query.
+	 *
+	 * @param aConnectionName
+	 *            the name of the connection to use
+	 * @return the Select
+	 */
+	public Select<T> select(String aConnectionName) {
+		return new Select<T>(this.parsedStatement, this.requireRowMapper(), aConnectionName);
+	}
+
+	/**
+	 * Creates a select for this query.
+	 *
+	 * @param aConnection
+	 *            the connection to use
+	 * @return the Select
+	 */
+	public Select<T> select(Connection aConnection) {
+		return new Select<T>(this.parsedStatement, this.requireRowMapper(), aConnection);
+	}
+
+	/**
+	 * Creates an update for this query using the default connection.
+	 *
+	 * @return the Update
+	 */
+	public Update update() {
+		return this.update((String) null);
+	}
+
+	/**
+	 * Creates an update for this query.
+	 *
+	 * @param aConnectionName
+	 *            the name of the connection to use
+	 * @return the Update
+	 */
+	public Update update(String aConnectionName) {
+		return new Update(this.parsedStatement, aConnectionName);
+	}
+
+	/**
+	 * Creates an update for this query.
+	 *
+	 * @param aConnection
+	 *            the connection to use
+	 * @return the Update
+	 */
+	public Update update(Connection aConnection) {
+		return new Update(this.parsedStatement, aConnection);
+	}
+
+	/**
+	 * @return the parsed statement
+	 */
+	ParsedNamedStatement getParsedStatement() {
+		return this.parsedStatement;
+	}
+
+	/**
+	 * @return the row mapper
+	 */
+	RowMapper<T> getRowMapper() {
+		return this.rowMapper;
+	}
+
+	/**
+	 * @return the row mapper, which must have been supplied when the query was compiled
+	 */
+	private RowMapper<T> requireRowMapper() {
+		if (this.rowMapper == null) {
+			throw new IllegalStateException("No RowMapper was compiled with " + this.parsedStatement
+					+ ", it can only be used for updates");
+		}
+		return this.rowMapper;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "CompiledQuery [statement=" + this.parsedStatement.getOriginalStatement() + ", rowMapper="
+				+ this.rowMapper + "]";
+	}
+}
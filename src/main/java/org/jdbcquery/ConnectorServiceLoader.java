@@ -15,30 +15,213 @@
  */
 package org.jdbcquery;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceConfigurationError;
 import java.util.ServiceLoader;
 
 /**
  * Handles loading the designated DaoConnector.
  *
+ * <p>
+ * The connectors provided through the Service Provider Interface are loaded once, when a connector is first
+ * looked up or registered, into an immutable map by name. A provider that fails to load is left out rather than
+ * making the class unusable, and the failure is reported as the cause of the error when a connector can't be
+ * found. Connectors registered with {@link #register(JdbcConnector)} replace the map with a copy, so looking up
+ * a connector for each statement is a single read of a volatile field and a hash lookup, without locking or
+ * iterating the service loader.
+ *
+ * <p>
+ * The default connector, used when no name is given, is the first connector provided through the Service
+ * Provider Interface, or the first one registered if there is none, until another one is chosen with
+ * {@link #setDefaultConnector(String)}. Unregistering the default connector leaves no default rather than
+ * picking another one.
+ *
  * @author Troy Histed
  */
 public class ConnectorServiceLoader {
 
-	private static ServiceLoader<JdbcConnector> CONNECTION_LOADER = ServiceLoader.load(JdbcConnector.class);
+	private static volatile Registry registry;
 
 	/**
-	 * Returns the first DaoConnector that is available through the Service
-	 * Provider Interface.
-	 * @param aConnectionName
+	 * Returns the connector with the given name, or the first connector provided through the Service Provider
+	 * Interface, or registered if there is none, when no name is given.
 	 *
+	 * @param aConnectionName
+	 *            the name of the connector, or <code>null</code> for the default connector
 	 * @return connection loader
 	 */
 	public static JdbcConnector getConnector(String aConnectionName) {
-		for (final JdbcConnector connector : ConnectorServiceLoader.CONNECTION_LOADER) {
-			if (aConnectionName == null || aConnectionName.equals(connector.getName())) {
-				return connector;
+		final Registry current = ConnectorServiceLoader.registry();
+		final JdbcConnector connector = aConnectionName == null ? current.defaultConnector : current.connectors
+				.get(aConnectionName);
+		if (connector == null) {
+			final IllegalStateException exception = new IllegalStateException(aConnectionName == null
+					? "No default DaoConnector defined as a provided service, registered or set"
+					: "No DaoConnector defined as a provided service. " + aConnectionName);
+			for (final Throwable error : current.errors) {
+				exception.addSuppressed(error);
+			}
+			throw exception;
+		}
+		return connector;
+	}
+
+	/**
+	 * @return the connector used when no name is given, or <code>null</code> if there is none
+	 */
+	static JdbcConnector getDefaultConnector() {
+		return ConnectorServiceLoader.registry().defaultConnector;
+	}
+
+	/**
+	 * Chooses the connector used when no name is given.
+	 *
+	 * @param aConnectionName
+	 *            the name of a provided or registered connector, or <code>null</code> for no default
+	 */
+	public static synchronized void setDefaultConnector(String aConnectionName) {
+		final Registry current = ConnectorServiceLoader.registry();
+		JdbcConnector defaultConnector = null;
+		if (aConnectionName != null) {
+			defaultConnector = current.connectors.get(aConnectionName);
+			if (defaultConnector == null) {
+				throw new IllegalArgumentException("No DaoConnector named " + aConnectionName);
+			}
+		}
+		ConnectorServiceLoader.registry = new Registry(current.connectors, defaultConnector, current.errors);
+	}
+
+	/**
+	 * Registers a connector under its name, replacing any connector with the same name, including one provided
+	 * through the Service Provider Interface.
+	 *
+	 * @param aConnector
+	 *            the connector to register
+	 */
+	public static synchronized void register(JdbcConnector aConnector) {
+		if (aConnector == null || aConnector.getName() == null) {
+			throw new IllegalArgumentException("A registered connector must have a name: " + aConnector);
+		}
+		final Registry current = ConnectorServiceLoader.registry();
+		final Map<String, JdbcConnector> connectors = new HashMap<String, JdbcConnector>(current.connectors);
+		final JdbcConnector replaced = connectors.put(aConnector.getName(), aConnector);
+		JdbcConnector defaultConnector = current.defaultConnector;
+		if (current.connectors.isEmpty() && defaultConnector == null || defaultConnector != null
+				&& defaultConnector == replaced) {
+			defaultConnector = aConnector;
+		}
+		ConnectorServiceLoader.registry = new Registry(connectors, defaultConnector, current.errors);
+	}
+
+	/**
+	 * Removes the connector registered under a name. Removing the default connector leaves no default.
+	 *
+	 * @param aConnectionName
+	 *            the name of the connector
+	 * @return the connector that was removed, or <code>null</code> if there was none
+	 */
+	public static synchronized JdbcConnector unregister(String aConnectionName) {
+		final Registry current = ConnectorServiceLoader.registry();
+		final Map<String, JdbcConnector> connectors = new HashMap<String, JdbcConnector>(current.connectors);
+		final JdbcConnector removed = connectors.remove(aConnectionName);
+		if (removed != null) {
+			final JdbcConnector defaultConnector = current.defaultConnector == removed ? null
+					: current.defaultConnector;
+			ConnectorServiceLoader.registry = new Registry(connectors, defaultConnector, current.errors);
+		}
+		return removed;
+	}
+
+	/**
+	 * Loads the connectors provided through the Service Provider Interface of a class loader, dropping the
+	 * connectors that were provided or registered before.
+	 *
+	 * @param aClassLoader
+	 *            the class loader to find the providers with
+	 */
+	static synchronized void load(ClassLoader aClassLoader) {
+		ConnectorServiceLoader.registry = Registry.load(aClassLoader);
+	}
+
+	/**
+	 * Returns the registry, loading the provided connectors the first time it is needed.
+	 */
+	private static Registry registry() {
+		final Registry current = ConnectorServiceLoader.registry;
+		if (current != null) {
+			return current;
+		}
+		synchronized (ConnectorServiceLoader.class) {
+			if (ConnectorServiceLoader.registry == null) {
+				ConnectorServiceLoader.registry = Registry.load(Thread.currentThread().getContextClassLoader());
+			}
+			return ConnectorServiceLoader.registry;
+		}
+	}
+
+	/**
+	 * An immutable map of connectors by name along with the connector used when no name is given, and the
+	 * errors of the providers that failed to load.
+	 */
+	private static final class Registry {
+
+		private final Map<String, JdbcConnector> connectors;
+		private final JdbcConnector defaultConnector;
+		private final List<Throwable> errors;
+
+		Registry(Map<String, JdbcConnector> aConnectors, JdbcConnector aDefaultConnector,
+				List<Throwable> aErrors) {
+			this.connectors = Collections.unmodifiableMap(aConnectors);
+			this.defaultConnector = aDefaultConnector;
+			this.errors = aErrors;
+		}
+
+		/**
+		 * Loads the connectors provided through the Service Provider Interface. When several connectors have the
+		 * same name, the first one found is used. A provider that can't be loaded or named is skipped.
+		 */
+		static Registry load(ClassLoader aClassLoader) {
+			final Map<String, JdbcConnector> connectors = new HashMap<String, JdbcConnector>();
+			final List<Throwable> errors = new ArrayList<Throwable>();
+			JdbcConnector defaultConnector = null;
+			final Iterator<JdbcConnector> providers = ServiceLoader.load(JdbcConnector.class, aClassLoader)
+					.iterator();
+			while (Registry.hasNext(providers, errors)) {
+				try {
+					final JdbcConnector connector = providers.next();
+					if (defaultConnector == null) {
+						defaultConnector = connector;
+					}
+					if (connector.getName() != null && !connectors.containsKey(connector.getName())) {
+						connectors.put(connector.getName(), connector);
+					}
+				} catch (final ServiceConfigurationError e) {
+					errors.add(e);
+				} catch (final LinkageError e) {
+					errors.add(e);
+				} catch (final RuntimeException e) {
+					errors.add(e);
+				}
+			}
+			return new Registry(connectors, defaultConnector, Collections.unmodifiableList(errors));
+		}
+
+		/**
+		 * @return <code>true</code> if there is another provider, <code>false</code> once there isn't or the
+		 *         provider configuration can't be read
+		 */
+		private static boolean hasNext(Iterator<JdbcConnector> aProviders, List<Throwable> aErrors) {
+			try {
+				return aProviders.hasNext();
+			} catch (final ServiceConfigurationError e) {
+				aErrors.add(e);
+				return false;
 			}
 		}
-		throw new IllegalStateException("No DaoConnector defined as a provided service. " + aConnectionName);
 	}
 }
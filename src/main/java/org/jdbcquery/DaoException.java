@@ -45,4 +45,16 @@ public class DaoException extends RuntimeException {
 	public DaoException(String aDescription, Exception aException) {
 		super(aDescription, aException);
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Creates a DaoException.
+	 *
+	 * @param aDescription
+	 *            Description of the exception
+	 * @param aCause
+	 *            original cause
+	 */
+	public DaoException(String aDescription, Throwable aCause) {
+		super(aDescription, aCause);
+	}
+}
@@ -0,0 +1,255 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A prepared statement that records the parameters bound to it until it is executed, and then checks out the
+ * connection, prepares the statement and replays the parameters, see
+ * {@link JdbcConnection#setDeferredConnections(boolean)}.
+ *
+ * <p>
+ * The setters, {@link PreparedStatement#addBatch()} and the methods that clear parameters or batches are
+ * recorded. Any other method prepares the real statement first, after which every call goes straight to it.
+ * If the connection is checked out from a {@link ShardedConnector}, the values recorded for the shard key
+ * choose the shard first. The values bound after that are still followed, so a chunked batch whose later rows
+ * belong to another shard is rejected before it is executed on the shard chosen by its first rows.
+ *
+ * @author Troy Histed
+ */
+final class DeferredStatement implements InvocationHandler {
+
+	private final JdbcConnection connection;
+	private final String statement;
+	private final ParsedNamedStatement parsedStatement;
+	private final boolean generatedKeys;
+	private final List<Method> methods = new ArrayList<Method>();
+	private final List<Object[]> arguments = new ArrayList<Object[]>();
+	private PreparedStatement target;
+	private boolean closed = false;
+
+	private ShardedConnector sharded;
+	private JdbcConnector shard;
+	private Integer shardKeyIndex;
+	private Object shardKeyValue;
+	private boolean shardKeyBound = false;
+	private final List<Object> batchKeys = new ArrayList<Object>();
+
+	/**
+	 * Constructs a deferred statement.
+	 *
+	 * @param aConnection
+	 *            the connection that prepares the statement when it is executed
+	 * @param aStatement
+	 *            the statement to prepare
+	 * @param aParsedStatement
+	 *            the parsed statement, used to find the shard key, or <code>null</code>
+	 * @param aGeneratedKeys
+	 *            <code>true</code> to return the generated keys
+	 */
+	private DeferredStatement(JdbcConnection aConnection, String aStatement,
+			ParsedNamedStatement aParsedStatement, boolean aGeneratedKeys) {
+		this.connection = aConnection;
+		this.statement = aStatement;
+		this.parsedStatement = aParsedStatement;
+		this.generatedKeys = aGeneratedKeys;
+	}
+
+	/**
+	 * Creates a prepared statement that is only prepared once it is executed.
+	 *
+	 * @param aConnection
+	 *            the connection that prepares the statement when it is executed
+	 * @param aStatement
+	 *            the statement to prepare
+	 * @param aParsedStatement
+	 *            the parsed statement, used to find the shard key, or <code>null</code>
+	 * @param aGeneratedKeys
+	 *            <code>true</code> to return the generated keys
+	 * @return the deferred prepared statement
+	 */
+	static PreparedStatement create(JdbcConnection aConnection, String aStatement,
+			ParsedNamedStatement aParsedStatement, boolean aGeneratedKeys) {
+		return (PreparedStatement) Proxy.newProxyInstance(DeferredStatement.class.getClassLoader(),
+				new Class<?>[] { PreparedStatement.class }, new DeferredStatement(aConnection, aStatement,
+						aParsedStatement, aGeneratedKeys));
+	}
+
+	/**
+	 * Records the bindings, or prepares the statement and passes the call on to it.
+	 */
+	@Override
+	public Object invoke(Object aProxy, Method aMethod, Object[] aArguments) throws Throwable {
+		if (this.target != null) {
+			if (this.sharded != null) {
+				this.followShardKey(aMethod, aArguments);
+			}
+			return DeferredStatement.call(this.target, aMethod, aArguments);
+		}
+
+		final String name = aMethod.getName();
+		final int parameterCount = aMethod.getParameterTypes().length;
+		if ("equals".equals(name) && parameterCount == 1) {
+			return Boolean.valueOf(aProxy == aArguments[0]);
+		} else if ("hashCode".equals(name) && parameterCount == 0) {
+			return Integer.valueOf(System.identityHashCode(aProxy));
+		} else if ("toString".equals(name) && parameterCount == 0) {
+			return "Deferred " + this.statement;
+		} else if ("close".equals(name) && parameterCount == 0) {
+			this.closed = true;
+			this.methods.clear();
+			this.arguments.clear();
+			return null;
+		} else if ("isClosed".equals(name) && parameterCount == 0) {
+			return Boolean.valueOf(this.closed);
+		} else if (this.closed) {
+			throw new SQLException("The statement is closed: " + this.statement);
+		} else if (aMethod.getReturnType() == void.class
+				&& (name.startsWith("set") || name.startsWith("clear") || "addBatch".equals(name))) {
+			this.methods.add(aMethod);
+			this.arguments.add(aArguments);
+			return null;
+		}
+
+		final ShardedConnector unrouted = this.connection.getUnroutedConnector();
+		if (unrouted != null) {
+			this.connection.route(this.getShardKeys(unrouted.getShardKey()));
+		}
+		this.target = this.connection.prepare(this.statement, this.generatedKeys);
+
+		final ShardedConnector routed = this.connection.getShardedConnector();
+		if (routed != null && this.parsedStatement != null) {
+			final int[] indexes = this.parsedStatement.getParameterIndexes(routed.getShardKey());
+			if (indexes.length > 0) {
+				this.sharded = routed;
+				this.shard = this.connection.getShard();
+				this.shardKeyIndex = Integer.valueOf(indexes[0]);
+			}
+		}
+		for (int i = 0; i < this.methods.size(); i++) {
+			if (this.sharded != null) {
+				this.followShardKey(this.methods.get(i), this.arguments.get(i));
+			}
+			DeferredStatement.call(this.target, this.methods.get(i), this.arguments.get(i));
+		}
+		this.methods.clear();
+		this.arguments.clear();
+		if (this.sharded != null) {
+			this.followShardKey(aMethod, aArguments);
+		}
+		return DeferredStatement.call(this.target, aMethod, aArguments);
+	}
+
+	/**
+	 * Follows the values bound to the shard key after the statement has been routed, and checks that the rows
+	 * being executed belong to the shard it was routed to.
+	 */
+	private void followShardKey(Method aMethod, Object[] aArguments) {
+		final String name = aMethod.getName();
+		if ("addBatch".equals(name) && aArguments == null) {
+			this.batchKeys.add(this.shardKeyValue);
+		} else if ("clearBatch".equals(name)) {
+			this.batchKeys.clear();
+		} else if ("clearParameters".equals(name)) {
+			this.shardKeyBound = false;
+		} else if (name.startsWith("set") && aArguments != null && aArguments.length >= 2
+				&& this.shardKeyIndex.equals(aArguments[0])) {
+			this.shardKeyValue = "setNull".equals(name) ? null : aArguments[1];
+			this.shardKeyBound = true;
+		} else if ("executeBatch".equals(name) || "executeLargeBatch".equals(name)) {
+			try {
+				this.checkShard(this.batchKeys);
+			} finally {
+				this.batchKeys.clear();
+			}
+		} else if (name.startsWith("execute") && this.shardKeyBound) {
+			this.checkShard(Collections.singletonList(this.shardKeyValue));
+		}
+	}
+
+	/**
+	 * Throws an exception if a row belongs to another shard than the one the statement was routed to.
+	 */
+	private void checkShard(List<Object> aKeys) {
+		for (final Object key : aKeys) {
+			if (this.sharded.getShard(key) != this.shard) {
+				throw new DaoException("A row for shard " + this.sharded.getShardIndex(key) + " of "
+						+ this.sharded.getName() + " can't be executed on the shard chosen for the statement, "
+						+ this.sharded.getShardKey() + " = " + key + ": " + this.statement);
+			}
+		}
+	}
+
+	/**
+	 * Returns the values recorded for the shard key, one for each row of a batch, or the last value bound if the
+	 * statement isn't batched.
+	 */
+	private List<Object> getShardKeys(String aShardKey) {
+		if (this.parsedStatement == null) {
+			throw new DaoException("Only statements created by a select or update can be sharded: "
+					+ this.statement);
+		}
+		final int[] indexes = this.parsedStatement.getParameterIndexes(aShardKey);
+		if (indexes.length == 0) {
+			throw new DaoException("The statement doesn't use the shard key " + aShardKey + ": "
+					+ this.parsedStatement.getOriginalStatement());
+		}
+		final Integer index = Integer.valueOf(indexes[0]);
+
+		final List<Object> keys = new ArrayList<Object>();
+		boolean bound = false;
+		Object key = null;
+		for (int i = 0; i < this.methods.size(); i++) {
+			final String name = this.methods.get(i).getName();
+			final Object[] callArguments = this.arguments.get(i);
+			if ("addBatch".equals(name) && bound) {
+				keys.add(key);
+			} else if (name.startsWith("set") && callArguments != null && callArguments.length >= 2
+					&& index.equals(callArguments[0])) {
+				key = "setNull".equals(name) ? null : callArguments[1];
+				bound = true;
+			}
+		}
+		if (keys.isEmpty() && bound) {
+			keys.add(key);
+		}
+		if (keys.isEmpty()) {
+			throw new DaoException("The shard key " + aShardKey + " must be set before executing "
+					+ this.parsedStatement.getOriginalStatement());
+		}
+		return keys;
+	}
+
+	/**
+	 * Calls a method of the real statement, throwing the exception it throws.
+	 */
+	private static Object call(PreparedStatement aTarget, Method aMethod, Object[] aArguments) throws Throwable {
+		try {
+			return aMethod.invoke(aTarget, aArguments);
+		} catch (final InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+}
@@ -0,0 +1,242 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decides when a select reading from a replica is sent to a second replica, and counts how often that helps.
+ *
+ * <p>
+ * A {@link HedgedSelect} waits for its first replica for the hedge delay, which is a percentile of the latency
+ * of recent selects. If the first replica hasn't answered by then, the select is sent to a second replica as
+ * well; whichever answers first is used and the other is cancelled. Hedging at the 95th percentile sends about
+ * one select in twenty twice, which cuts off the slowest selects at little extra load. Until enough latencies
+ * have been recorded, the initial delay is used.
+ *
+ * <pre>
+ * ConnectorServiceLoader.register(new ReadWriteConnector("orders", primary, replica1, replica2)
+ * 		.hedge(new HedgePolicy(95).minimumDelay(2, TimeUnit.MILLISECONDS)));
+ * </pre>
+ *
+ * @author Troy Histed
+ */
+public final class HedgePolicy {
+
+	private static final int MINIMUM_SAMPLES = 32;
+	private static final int RECALCULATE_EVERY = 64;
+
+	private final double percentile;
+	private long minimumDelayNanos = 0;
+	private long initialDelayNanos = TimeUnit.MILLISECONDS.toNanos(10);
+	private long[] latencies = new long[1000];
+	private int latencyCount = 0;
+	private int nextLatency = 0;
+	private int sinceRecalculated = 0;
+	private volatile long delayNanos = -1;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgeWins = new AtomicLong();
+
+	/**
+	 * Constructs a policy.
+	 *
+	 * @param aPercentile
+	 *            the percentile of recent latencies to wait for before hedging, such as 95
+	 */
+	public HedgePolicy(double aPercentile) {
+		if (!(aPercentile > 0 && aPercentile < 100)) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100: " + aPercentile);
+		}
+		this.percentile = aPercentile;
+	}
+
+	/**
+	 * @param aDelay
+	 *            the shortest time to wait before hedging, however fast recent selects were, defaults to zero
+	 * @param aUnit
+	 *            the unit of the delay
+	 * @return the policy (for method chaining)
+	 */
+	public synchronized HedgePolicy minimumDelay(long aDelay, TimeUnit aUnit) {
+		if (aDelay < 0) {
+			throw new IllegalArgumentException("Minimum delay must not be negative: " + aDelay);
+		}
+		this.minimumDelayNanos = aUnit.toNanos(aDelay);
+		this.recalculate();
+		return this;
+	}
+
+	/**
+	 * @param aDelay
+	 *            the time to wait before hedging until enough latencies have been recorded, defaults to 10
+	 *            milliseconds
+	 * @param aUnit
+	 *            the unit of the delay
+	 * @return the policy (for method chaining)
+	 */
+	public synchronized HedgePolicy initialDelay(long aDelay, TimeUnit aUnit) {
+		if (aDelay < 0) {
+			throw new IllegalArgumentException("Initial delay must not be negative: " + aDelay);
+		}
+		this.initialDelayNanos = aUnit.toNanos(aDelay);
+		this.recalculate();
+		return this;
+	}
+
+	/**
+	 * @param aSelects
+	 *            the number of recent selects whose latency the percentile is taken from, defaults to 1000
+	 * @return the policy (for method chaining)
+	 */
+	public synchronized HedgePolicy window(int aSelects) {
+		if (aSelects < HedgePolicy.MINIMUM_SAMPLES) {
+			throw new IllegalArgumentException("Window must hold at least " + HedgePolicy.MINIMUM_SAMPLES
+					+ " selects: " + aSelects);
+		}
+		this.latencies = new long[aSelects];
+		this.latencyCount = 0;
+		this.nextLatency = 0;
+		this.recalculate();
+		return this;
+	}
+
+	/**
+	 * @return the time a select waits for its first replica before hedging, in nanoseconds
+	 */
+	long getDelayNanos() {
+		long delay = this.delayNanos;
+		if (delay < 0) {
+			synchronized (this) {
+				this.recalculate();
+				delay = this.delayNanos;
+			}
+		}
+		return delay;
+	}
+
+	/**
+	 * Records the latency of a select that completed on a replica. The delay is recalculated from time to time
+	 * rather than on every select, so recording is cheap.
+	 *
+	 * @param aNanos
+	 *            the time from sending the select to its result
+	 */
+	synchronized void recordLatency(long aNanos) {
+		this.latencies[this.nextLatency] = aNanos;
+		this.nextLatency = (this.nextLatency + 1) % this.latencies.length;
+		if (this.latencyCount < this.latencies.length) {
+			this.latencyCount++;
+		}
+		if (++this.sinceRecalculated >= HedgePolicy.RECALCULATE_EVERY
+				|| this.latencyCount == HedgePolicy.MINIMUM_SAMPLES) {
+			this.recalculate();
+		}
+	}
+
+	/**
+	 * Recalculates the delay from the recorded latencies.
+	 */
+	private void recalculate() {
+		this.sinceRecalculated = 0;
+		if (this.latencyCount < HedgePolicy.MINIMUM_SAMPLES) {
+			this.delayNanos = Math.max(this.minimumDelayNanos, this.initialDelayNanos);
+			return;
+		}
+		final long[] sorted = Arrays.copyOf(this.latencies, this.latencyCount);
+		Arrays.sort(sorted);
+		final int index = (int) Math.ceil(this.percentile / 100 * sorted.length) - 1;
+		this.delayNanos = Math.max(this.minimumDelayNanos, sorted[Math.max(0, index)]);
+	}
+
+	/**
+	 * Counts a select run under the policy.
+	 */
+	void recordRequest() {
+		this.requests.incrementAndGet();
+	}
+
+	/**
+	 * Counts a select sent to a second replica.
+	 *
+	 * @param aWon
+	 *            <code>true</code> if the second replica answered first
+	 */
+	void recordHedge(boolean aWon) {
+		this.hedges.incrementAndGet();
+		if (aWon) {
+			this.hedgeWins.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @param aUnit
+	 *            the unit to return the delay in
+	 * @return the time a select currently waits for its first replica before hedging
+	 */
+	public long getDelay(TimeUnit aUnit) {
+		return aUnit.convert(this.getDelayNanos(), TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * @return the number of selects run under the policy
+	 */
+	public long getRequestCount() {
+		return this.requests.get();
+	}
+
+	/**
+	 * @return the number of selects sent to a second replica
+	 */
+	public long getHedgeCount() {
+		return this.hedges.get();
+	}
+
+	/**
+	 * @return the number of selects answered first by the second replica
+	 */
+	public long getHedgeWinCount() {
+		return this.hedgeWins.get();
+	}
+
+	/**
+	 * @return the fraction of selects sent to a second replica, which is the extra load hedging adds
+	 */
+	public double getHedgeRate() {
+		final long requestCount = this.requests.get();
+		return requestCount == 0 ? 0 : (double) this.hedges.get() / requestCount;
+	}
+
+	/**
+	 * @return the fraction of hedged selects answered first by the second replica
+	 */
+	public double getHedgeWinRate() {
+		final long hedgeCount = this.hedges.get();
+		return hedgeCount == 0 ? 0 : (double) this.hedgeWins.get() / hedgeCount;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "HedgePolicy [percentile=" + this.percentile + ", requests=" + this.requests + ", hedges="
+				+ this.hedges + ", hedgeWins=" + this.hedgeWins + "]";
+	}
+}
@@ -0,0 +1,449 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A select that reads from a replica of a {@link ReadWriteConnector} and, if the replica is slow to answer,
+ * from a second replica as well.
+ *
+ * <p>
+ * The select is sent to a replica on the executor and given the delay of the connector's {@link HedgePolicy} to
+ * answer, counted from when it starts running so time spent waiting for a thread doesn't shorten it. If it
+ * hasn't answered by then, a timer sends the same select to another replica on the executor. The calling thread
+ * only waits for the first answer, so it returns as soon as either replica has answered, even when the other is
+ * stuck connecting or its driver ignores cancels. The statement of the slower replica is cancelled with
+ * {@link PreparedStatement#cancel()} so it stops using the database, and the time it had been running is
+ * recorded as its latency, so the slowest selects still count towards the delay.
+ * A replica that fails before the delay fails the select. Selects are not hedged when the connector has no
+ * policy or only one replica, or when they read from the primary because of a transaction or
+ * {@link ReadWriteConnector#readYourWrites(long, TimeUnit)}; they are then executed like any other select.
+ *
+ * <pre>
+ * Order order = Query.hedgedForBean("SELECT * FROM orders WHERE id = :id", Order.class, "orders")
+ * 		.setObject("id", id).execute();
+ * </pre>
+ *
+ * @author Troy Histed
+ *
+ * @param <T>
+ *            The object type that will be constructed from the result set
+ */
+public final class HedgedSelect<T> {
+
+	private static final Executor EXECUTOR = ScatterSelect.createExecutor("jdbc-query-hedge-");
+	private static final ScheduledExecutorService TIMER = HedgedSelect.createTimer();
+
+	private final ParsedNamedStatement parsedStatement;
+	private final RowMapper<T> rowMapper;
+	private final String connectionName;
+	private final ReadWriteConnector connector;
+	private final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+	private Executor executor = HedgedSelect.EXECUTOR;
+
+	/**
+	 * Constructs a hedged select.
+	 *
+	 * @param aStatement
+	 *            the select to be executed
+	 * @param aRowMapper
+	 *            the row mapping to use
+	 * @param aConnectionName
+	 *            the name of a {@link ReadWriteConnector}
+	 */
+	public HedgedSelect(String aStatement, RowMapper<T> aRowMapper, String aConnectionName) {
+		final JdbcConnector jdbcConnector = ConnectorServiceLoader.getConnector(aConnectionName);
+		if (!(jdbcConnector instanceof ReadWriteConnector)) {
+			throw new DaoException("Hedged selects need a ReadWriteConnector, " + aConnectionName + " is "
+					+ jdbcConnector);
+		}
+		this.parsedStatement = NamedStatementParserStrategy.getDefault().prepareNamedStatement(aStatement);
+		this.rowMapper = aRowMapper;
+		this.connectionName = aConnectionName;
+		this.connector = (ReadWriteConnector) jdbcConnector;
+	}
+
+	/**
+	 * Sets a parameter of the select.
+	 *
+	 * @param aName
+	 *            the name of the parameter to set
+	 * @param aValue
+	 *            the value to set
+	 * @return the select (for method chaining)
+	 */
+	public HedgedSelect<T> setObject(String aName, Object aValue) {
+		this.parameters.put(aName, aValue);
+		return this;
+	}
+
+	/**
+	 * @param aExecutor
+	 *            the executor that runs the attempts, which should have two threads free for each hedged select
+	 *            in flight, as a slow replica keeps its thread until the select stops
+	 * @return the select (for method chaining)
+	 */
+	public HedgedSelect<T> executor(Executor aExecutor) {
+		if (aExecutor == null) {
+			throw new DaoException("Executor was null");
+		}
+		this.executor = aExecutor;
+		return this;
+	}
+
+	/**
+	 * Executes the select.
+	 *
+	 * @return a mapped object or null
+	 */
+	public T execute() {
+		return this.execute(new ReplicaQuery<T, T>() {
+			@Override
+			public T execute(Select<T> aSelect) {
+				return aSelect.execute();
+			}
+		});
+	}
+
+	/**
+	 * Executes the select and maps every row.
+	 *
+	 * @return a non-null list of the mapped rows
+	 */
+	public List<T> executeForAll() {
+		return this.execute(new ReplicaQuery<T, List<T>>() {
+			@Override
+			public List<T> execute(Select<T> aSelect) {
+				return aSelect.executeForAll();
+			}
+		});
+	}
+
+	/**
+	 * Executes a query on one replica, and on a second one if the first is slower than the hedge delay.
+	 */
+	private <R> R execute(ReplicaQuery<T, R> aQuery) {
+		final HedgePolicy policy = this.connector.getHedgePolicy();
+		ReadWriteConnector.Replica first = null;
+		if (policy != null && this.connector.getReplicaCount() > 1
+				&& Transaction.getConnection(this.connectionName) == null) {
+			first = this.connector.chooseReplica();
+		}
+		if (first == null) {
+			return aQuery.execute(this.bind(new Select<T>(this.parsedStatement, this.rowMapper,
+					this.connectionName)));
+		}
+
+		policy.recordRequest();
+		final Hedge<R> hedge = new Hedge<R>(first, aQuery, policy);
+		hedge.first.start();
+		final Attempt<R> winner;
+		try {
+			winner = hedge.result.get();
+		} catch (final InterruptedException e) {
+			hedge.close();
+			hedge.cancel(null);
+			Thread.currentThread().interrupt();
+			throw new DaoException("Interrupted executing : " + this, e);
+		} catch (final ExecutionException e) {
+			if (hedge.close() != null) {
+				policy.recordHedge(false);
+			}
+			throw HedgedSelect.unwrap(e.getCause(), this);
+		}
+		final Attempt<R> second = hedge.close();
+		if (second != null) {
+			policy.recordHedge(winner == second);
+		}
+		return winner.value;
+	}
+
+	/**
+	 * Creates a select on a connection with the parameters bound.
+	 */
+	private Select<T> createSelect(Connection aConnection) {
+		return this.bind(new Select<T>(this.parsedStatement, this.rowMapper, aConnection));
+	}
+
+	/**
+	 * Binds the parameters to a select.
+	 */
+	private Select<T> bind(Select<T> aSelect) {
+		for (final Map.Entry<String, Object> parameter : this.parameters.entrySet()) {
+			aSelect.setObject(parameter.getKey(), parameter.getValue());
+		}
+		return aSelect;
+	}
+
+	/**
+	 * @return the failure of an attempt as an unchecked exception
+	 */
+	private static RuntimeException unwrap(Throwable aCause, HedgedSelect<?> aSelect) {
+		if (aCause instanceof RuntimeException) {
+			return (RuntimeException) aCause;
+		}
+		return new DaoException("Error executing : " + aSelect, aCause);
+	}
+
+	/**
+	 * Creates the daemon thread that starts the second attempts once their delay has passed.
+	 *
+	 * @return the timer
+	 */
+	private static ScheduledExecutorService createTimer() {
+		final ScheduledThreadPoolExecutor timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable aRunnable) {
+				final Thread thread = new Thread(aRunnable, "jdbc-query-hedge-timer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		timer.setRemoveOnCancelPolicy(true);
+		return timer;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "HedgedSelect [statement=" + this.parsedStatement.getOriginalStatement() + ", connection="
+				+ this.connectionName + "]";
+	}
+
+	/**
+	 * A query run on the select of each attempt.
+	 */
+	private interface ReplicaQuery<T, R> {
+
+		R execute(Select<T> aSelect);
+	}
+
+	/**
+	 * The attempts of one select. The first attempt to succeed completes the result and cancels the other, and
+	 * the result fails only once every attempt that was started has failed.
+	 */
+	private final class Hedge<R> implements Runnable {
+
+		private final ReplicaQuery<T, R> query;
+		private final HedgePolicy policy;
+		private final CompletableFuture<Attempt<R>> result = new CompletableFuture<Attempt<R>>();
+		private final AtomicInteger running = new AtomicInteger(1);
+		private final Attempt<R> first;
+		private Attempt<R> second;
+		private ScheduledFuture<?> timer;
+		private boolean closed = false;
+
+		Hedge(ReadWriteConnector.Replica aFirst, ReplicaQuery<T, R> aQuery, HedgePolicy aPolicy) {
+			this.query = aQuery;
+			this.policy = aPolicy;
+			this.first = new Attempt<R>(this, aFirst);
+		}
+
+		/**
+		 * Starts the delay of the first attempt once it is running.
+		 */
+		synchronized void schedule() {
+			if (!this.closed && !this.result.isDone()) {
+				this.timer = HedgedSelect.TIMER.schedule(this, this.policy.getDelayNanos(),
+						TimeUnit.NANOSECONDS);
+			}
+		}
+
+		/**
+		 * Sends the select to a second replica, on the executor, once the delay has passed without an answer.
+		 */
+		@Override
+		public void run() {
+			final Attempt<R> attempt;
+			synchronized (this) {
+				if (this.closed || this.result.isDone()) {
+					return;
+				}
+				this.running.incrementAndGet();
+				attempt = new Attempt<R>(this,
+						HedgedSelect.this.connector.chooseOtherReplica(this.first.replica));
+				this.second = attempt;
+			}
+			attempt.start();
+		}
+
+		/**
+		 * Stops a second attempt from being started once the select has an answer.
+		 *
+		 * @return the second attempt, or <code>null</code> if the select wasn't hedged
+		 */
+		synchronized Attempt<R> close() {
+			this.closed = true;
+			if (this.timer != null) {
+				this.timer.cancel(false);
+			}
+			return this.second;
+		}
+
+		/**
+		 * Cancels every attempt but the winner.
+		 *
+		 * @param aWinner
+		 *            the attempt that answered first, or <code>null</code> to cancel them all
+		 */
+		void cancel(Attempt<R> aWinner) {
+			final Attempt<R> hedged;
+			synchronized (this) {
+				hedged = this.second;
+			}
+			if (this.first != aWinner) {
+				this.first.cancel();
+			}
+			if (hedged != null && hedged != aWinner) {
+				hedged.cancel();
+			}
+		}
+	}
+
+	/**
+	 * The select sent to one replica.
+	 */
+	private final class Attempt<R> {
+
+		private final Hedge<R> hedge;
+		private final ReadWriteConnector.Replica replica;
+		private final AtomicBoolean recorded = new AtomicBoolean();
+		private volatile PreparedStatement statement;
+		private volatile boolean cancelled;
+		private volatile long startedAt;
+		private R value;
+
+		Attempt(Hedge<R> aHedge, ReadWriteConnector.Replica aReplica) {
+			this.hedge = aHedge;
+			this.replica = aReplica;
+		}
+
+		/**
+		 * Runs the attempt on the executor, failing it if the executor won't take it.
+		 */
+		void start() {
+			try {
+				HedgedSelect.this.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						Attempt.this.runAndComplete();
+					}
+				});
+			} catch (final RuntimeException e) {
+				this.complete(null, e);
+			}
+		}
+
+		/**
+		 * Executes the select on the current thread and completes the result with its answer or failure.
+		 */
+		private void runAndComplete() {
+			final R answer;
+			try {
+				answer = this.run();
+			} catch (final RuntimeException e) {
+				this.complete(null, e);
+				return;
+			}
+			this.complete(answer, null);
+		}
+
+		/**
+		 * Executes the select, unless it has been cancelled already.
+		 */
+		private R run() {
+			this.startedAt = System.nanoTime();
+			if (this == this.hedge.first) {
+				this.hedge.schedule();
+			}
+			try {
+				final Select<T> select = HedgedSelect.this.createSelect(this.replica.connect());
+				this.statement = select.getPreparedStatement();
+				if (this.cancelled) {
+					select.getConnection().cleanUp();
+					throw new CancellationException("Another replica answered first");
+				}
+				final R answer = this.hedge.query.execute(select);
+				this.recordLatency(System.nanoTime() - this.startedAt);
+				return answer;
+			} finally {
+				this.replica.release();
+			}
+		}
+
+		/**
+		 * Completes the result with the value of the first attempt to succeed, and cancels the other attempt.
+		 */
+		void complete(R aValue, Throwable aFailure) {
+			if (aFailure == null) {
+				this.value = aValue;
+				if (this.hedge.result.complete(this)) {
+					this.hedge.cancel(this);
+				}
+			} else if (this.hedge.running.decrementAndGet() == 0) {
+				this.hedge.result.completeExceptionally(aFailure);
+			}
+		}
+
+		/**
+		 * Cancels the select, stopping it on the database if it is running, and records how long it had been
+		 * running as its latency.
+		 */
+		void cancel() {
+			this.cancelled = true;
+			final long started = this.startedAt;
+			if (started != 0) {
+				this.recordLatency(System.nanoTime() - started);
+			}
+			final PreparedStatement preparedStatement = this.statement;
+			if (preparedStatement != null) {
+				try {
+					preparedStatement.cancel();
+				} catch (final SQLException e) {
+					// the select has finished or its connection is closed
+				}
+			}
+		}
+
+		/**
+		 * Records the latency of the attempt once, whether it answered or was cancelled.
+		 */
+		private void recordLatency(long aNanos) {
+			if (this.recorded.compareAndSet(false, true)) {
+				this.hedge.policy.recordLatency(aNanos);
+			}
+		}
+	}
+}
@@ -19,17 +19,48 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Savepoint;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Represents a connection to a database.
  *
+ * <p>
+ * Prepared statements can optionally be cached per physical connection of a {@link PooledConnector}, see
+ * {@link #setStatementCacheSize(int)}. When caching is enabled, cleaning up returns the prepared statements to
+ * the cache instead of closing them, which saves drivers without their own statement cache a round trip to
+ * prepare the statement on the server the next time it is executed on the same connection.
+ *
+ * <p>
+ * Within {@link Query#transaction(String, UnitOfWork)} the connection of the transaction is shared. Cleaning up
+ * a shared connection only releases its statements, and committing or rolling back is left to the transaction.
+ *
+ * <p>
+ * With {@link #setDeferredConnections(boolean)} turned on, the connection isn't checked out from the connector
+ * when a statement is created. The statement records its parameters until it is executed, and only then is the
+ * connection checked out, the statement prepared and the parameters bound, so the connection is held just for
+ * the database work. A statement that is never executed never checks out a connection.
+ *
  * @author Troy Histed
  */
 public class JdbcConnection {
 
 	private Connection connection = null;
-	private PreparedStatement preparedStatement = null;
+	private final List<CachedStatement> preparedStatements = new ArrayList<CachedStatement>(1);
+	private StatementCache statementCache;
+	private Boolean originalAutoCommit = null;
+	private boolean savepointsSupported = true;
+	private final boolean shared;
+	private final JdbcConnector connector;
+	private final boolean read;
+	private ReadWriteConnector.Replica replica;
+	private ReadWriteConnector written;
+	private JdbcConnector shard;
+	private boolean autoCommitDeferred = false;
+	private static volatile boolean deferConnections = false;
 
 	/**
 	 * Constructs a DaoConnection with an SQL connection object.
@@ -38,10 +69,40 @@ public class JdbcConnection {
 	 *            the SQL connection to use (not null)
 	 */
 	JdbcConnection(Connection aConnection) {
+		this(aConnection, false);
+	}
+
+	/**
+	 * Constructs a DaoConnection with an SQL connection object.
+	 *
+	 * @param aConnection
+	 *            the SQL connection to use (not null)
+	 * @param aShared
+	 *            <code>true</code> if the connection belongs to a transaction, which commits and closes it
+	 */
+	JdbcConnection(Connection aConnection, boolean aShared) {
 		if (aConnection == null) {
 			throw new DaoException("Connection was null");
 		}
 		this.connection = aConnection;
+		this.shared = aShared;
+		this.connector = null;
+		this.read = false;
+		this.statementCache = StatementCache.forConnection(aConnection);
+	}
+
+	/**
+	 * Constructs a DaoConnection that checks out its connection from a connector when it is first needed.
+	 *
+	 * @param aConnector
+	 *            the connector to get the connection from (not null)
+	 * @param aRead
+	 *            <code>true</code> if the connection is only used for selects
+	 */
+	private JdbcConnection(JdbcConnector aConnector, boolean aRead) {
+		this.shared = false;
+		this.connector = aConnector;
+		this.read = aRead;
 	}
 
 	/**
@@ -53,7 +114,132 @@ public class JdbcConnection {
 	 *             error creating connection
 	 */
 	public static JdbcConnection connect(String aConnectionName) throws SQLException {
-		return new JdbcConnection(ConnectorServiceLoader.getConnector(aConnectionName).getConnection());
+		return JdbcConnection.connect(aConnectionName, false);
+	}
+
+	/**
+	 * Gets a connection for selects to the data source provided by the DaoConnection, which is a connection to a
+	 * replica if the connector is a {@link ReadWriteConnector}.
+	 *
+	 * @param aConnectionName
+	 *            the name of the connection
+	 * @return a connection
+	 * @throws SQLException
+	 *             error creating connection
+	 */
+	public static JdbcConnection connectForRead(String aConnectionName) throws SQLException {
+		return JdbcConnection.connect(aConnectionName, true);
+	}
+
+	/**
+	 * Gets a connection for selects from a connector, which is a connection to a replica if the connector is a
+	 * {@link ReadWriteConnector}.
+	 *
+	 * @param aConnector
+	 *            the connector to get the connection from
+	 * @return a connection
+	 * @throws SQLException
+	 *             error creating connection
+	 */
+	static JdbcConnection connectForRead(JdbcConnector aConnector) throws SQLException {
+		final JdbcConnection jdbcConnection = new JdbcConnection(aConnector, true);
+		jdbcConnection.getPhysicalConnection();
+		return jdbcConnection;
+	}
+
+	/**
+	 * Gets a connection, shared with the transaction open on the thread if there is one, and checked out from
+	 * the connector straight away unless connections are deferred.
+	 */
+	private static JdbcConnection connect(String aConnectionName, boolean aRead) throws SQLException {
+		final Connection transaction = Transaction.getConnection(aConnectionName);
+		if (transaction != null) {
+			return new JdbcConnection(transaction, true);
+		}
+		final JdbcConnector jdbcConnector = ConnectorServiceLoader.getConnector(aConnectionName);
+		final JdbcConnection jdbcConnection = new JdbcConnection(jdbcConnector, aRead);
+		if (!JdbcConnection.deferConnections && !(jdbcConnector instanceof ShardedConnector)) {
+			jdbcConnection.getPhysicalConnection();
+		}
+		return jdbcConnection;
+	}
+
+	/**
+	 * Sets whether statements created with a connection name wait until they are executed to check out their
+	 * connection. Statements created with a connection, or within a transaction, use that connection straight
+	 * away.
+	 *
+	 * @param aDeferred
+	 *            <code>true</code> to check out connections when statements are executed, defaults to
+	 *            <code>false</code>
+	 */
+	public static void setDeferredConnections(boolean aDeferred) {
+		JdbcConnection.deferConnections = aDeferred;
+	}
+
+	/**
+	 * @return <code>true</code> if statements check out their connections when they are executed
+	 */
+	public static boolean isDeferredConnections() {
+		return JdbcConnection.deferConnections;
+	}
+
+	/**
+	 * Sets the maximum number of prepared statements that are cached for each connection. The default of zero
+	 * disables caching, which also closes the statements that are currently cached as their connections are
+	 * next used.
+	 *
+	 * <p>
+	 * Only the connections of a {@link PooledConnector} are cached, as they keep their cache with the physical
+	 * connection and close it when the physical connection is closed. Connections from any other source, such as
+	 * {@link java.sql.DriverManager} or another pool, are never cached, since closing them may end the physical
+	 * connection or hand back a different wrapper next time. Use the pool's own statement cache for those.
+	 *
+	 * @param aMaximumSize
+	 *            the maximum number of statements to cache per connection
+	 */
+	public static void setStatementCacheSize(int aMaximumSize) {
+		StatementCache.setMaximumSize(aMaximumSize);
+	}
+
+	/**
+	 * @return the maximum number of prepared statements that are cached for each connection
+	 */
+	public static int getStatementCacheSize() {
+		return StatementCache.getMaximumSize();
+	}
+
+	/**
+	 * @return the number of prepared statements that were reused from the cache
+	 */
+	public static long getStatementCacheHits() {
+		return StatementCache.getHits();
+	}
+
+	/**
+	 * @return the number of statements that were prepared because they were not in the cache
+	 */
+	public static long getStatementCacheMisses() {
+		return StatementCache.getMisses();
+	}
+
+	/**
+	 * @return the number of cached statements that were closed to make room for others
+	 */
+	public static long getStatementCacheEvictions() {
+		return StatementCache.getEvictions();
+	}
+
+	/**
+	 * @return the fraction of statements that were reused from the cache, or zero if nothing has been prepared
+	 */
+	public static double getStatementCacheHitRate() {
+		final long hits = StatementCache.getHits();
+		final long total = hits + StatementCache.getMisses();
+		if (total == 0) {
+			return 0;
+		}
+		return (double) hits / total;
 	}
 
 	/**
@@ -66,41 +252,275 @@ public class JdbcConnection {
 	 *             error building prepared statement
 	 */
 	PreparedStatement prepareStatement(String aStatement) throws SQLException {
-		this.preparedStatement = this.connection.prepareStatement(aStatement);
-		return this.preparedStatement;
+		if (this.connection == null) {
+			return DeferredStatement.create(this, aStatement, null, false);
+		}
+		return this.prepare(aStatement, false);
 	}
 
 	/**
-	 * Prepares a statement using the established connection.
+	 * Prepares a parsed statement using the established connection.
+	 *
+	 * @param aParsedStatement
+	 *            the statement to prepare
+	 * @return the prepared statement
+	 * @throws SQLException
+	 *             error building prepared statement
+	 */
+	PreparedStatement prepareStatement(ParsedNamedStatement aParsedStatement) throws SQLException {
+		if (this.connection == null) {
+			return DeferredStatement.create(this, aParsedStatement.getStatement(), aParsedStatement, false);
+		}
+		return this.prepare(aParsedStatement.getStatement(), false);
+	}
+
+	/**
+	 * Prepares a parsed statement using the established connection.
+	 *
+	 * @param aParsedStatement
+	 *            the statement to prepare
+	 * @return the prepared statement
+	 * @throws SQLException
+	 *             error building prepared statement
+	 */
+	PreparedStatement prepareStatementWithGeneratedKeys(ParsedNamedStatement aParsedStatement)
+			throws SQLException {
+		if (this.connection == null) {
+			return DeferredStatement.create(this, aParsedStatement.getStatement(), aParsedStatement, true);
+		}
+		return this.prepare(aParsedStatement.getStatement(), true);
+	}
+
+	/**
+	 * Prepares a statement, checking out the connection first if it was deferred.
 	 *
 	 * @param aStatement
 	 *            the statement to prepare
+	 * @param aGeneratedKeys
+	 *            <code>true</code> to return the generated keys
 	 * @return the prepared statement
 	 * @throws SQLException
 	 *             error building prepared statement
 	 */
-	PreparedStatement prepareStatementWithGeneratedKeys(String aStatement) throws SQLException {
-		this.preparedStatement = this.connection.prepareStatement(aStatement, Statement.RETURN_GENERATED_KEYS);
-		return this.preparedStatement;
+	PreparedStatement prepare(String aStatement, boolean aGeneratedKeys) throws SQLException {
+		final Connection physicalConnection = this.getPhysicalConnection();
+		PreparedStatement preparedStatement = null;
+		if (this.statementCache != null) {
+			preparedStatement = this.statementCache.take(aStatement, aGeneratedKeys);
+		}
+		if (preparedStatement == null && aGeneratedKeys) {
+			preparedStatement = physicalConnection.prepareStatement(aStatement, Statement.RETURN_GENERATED_KEYS);
+		} else if (preparedStatement == null) {
+			preparedStatement = physicalConnection.prepareStatement(aStatement);
+		}
+		this.preparedStatements.add(new CachedStatement(aStatement, aGeneratedKeys, preparedStatement));
+		return preparedStatement;
+	}
+
+	/**
+	 * Returns the connection, checking it out from the connector if it was deferred.
+	 *
+	 * @return the connection
+	 * @throws SQLException
+	 *             error changing the auto-commit mode of the connection
+	 */
+	private Connection getPhysicalConnection() throws SQLException {
+		if (this.connection == null) {
+			final Connection physicalConnection = this.checkOut();
+			if (physicalConnection == null) {
+				this.releaseConnector();
+				throw new DaoException("Connection was null");
+			}
+			this.connection = physicalConnection;
+			this.statementCache = StatementCache.forConnection(physicalConnection);
+			if (this.autoCommitDeferred) {
+				this.autoCommitDeferred = false;
+				this.disableAutoCommit();
+			}
+		}
+		return this.connection;
 	}
 
 	/**
-	 * Closes the connection.
+	 * Gets a connection from the connector, choosing a replica for selects if the connector splits reads and
+	 * writes.
 	 */
-	public void cleanUp() {
-		try {
-			if (this.connection != null) {
-				this.connection.close();
+	private Connection checkOut() {
+		JdbcConnector target = this.connector;
+		if (target instanceof ShardedConnector) {
+			if (this.shard == null) {
+				throw new DaoException("The shard key " + ((ShardedConnector) target).getShardKey()
+						+ " must be set before executing a statement on " + target.getName());
 			}
+			target = this.shard;
+		}
+		if (this.read && target instanceof ReadWriteConnector) {
+			final ReadWriteConnector readWriteConnector = (ReadWriteConnector) target;
+			final ReadWriteConnector.Replica chosen = readWriteConnector.chooseReplica();
+			if (chosen == null) {
+				return readWriteConnector.getPrimaryReadConnection();
+			}
+			final Connection replicaConnection = chosen.connect();
+			this.replica = chosen;
+			return replicaConnection;
+		}
+		if (target instanceof ReadWriteConnector) {
+			this.written = (ReadWriteConnector) target;
+		}
+		return target.getConnection();
+	}
+
+	/**
+	 * @return the connector if the connection will be checked out from one of its shards once the shard key is
+	 *         known, otherwise <code>null</code>
+	 */
+	ShardedConnector getUnroutedConnector() {
+		if (this.connection == null && this.shard == null && this.connector instanceof ShardedConnector) {
+			return (ShardedConnector) this.connector;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the connector if the connection is checked out from one of its shards, otherwise
+	 *         <code>null</code>
+	 */
+	ShardedConnector getShardedConnector() {
+		return this.connector instanceof ShardedConnector ? (ShardedConnector) this.connector : null;
+	}
+
+	/**
+	 * @return the shard the connection is checked out from, or <code>null</code> if it hasn't been chosen
+	 */
+	JdbcConnector getShard() {
+		return this.shard;
+	}
+
+	/**
+	 * Chooses the shard the connection is checked out from.
+	 *
+	 * @param aKeys
+	 *            the values bound to the shard key, one for each row
+	 */
+	void route(List<Object> aKeys) {
+		this.shard = ((ShardedConnector) this.connector).getShard(aKeys);
+	}
+
+	/**
+	 * Turns off auto-commit so statements are committed explicitly. Auto-commit is restored when the connection
+	 * is cleaned up.
+	 *
+	 * @throws SQLException
+	 *             error changing the auto-commit mode
+	 */
+	void disableAutoCommit() throws SQLException {
+		if (this.connection == null) {
+			this.autoCommitDeferred = true;
+		} else if (this.originalAutoCommit == null && !this.shared) {
+			final boolean autoCommit = this.connection.getAutoCommit();
+			if (autoCommit) {
+				this.connection.setAutoCommit(false);
+			}
+			this.originalAutoCommit = Boolean.valueOf(autoCommit);
+		}
+	}
+
+	/**
+	 * Commits the current transaction, unless the connection is shared by a transaction that commits once its
+	 * work is done.
+	 *
+	 * @throws SQLException
+	 *             error committing
+	 */
+	void commit() throws SQLException {
+		if (this.connection != null && !this.shared) {
+			this.connection.commit();
+		}
+	}
+
+	/**
+	 * Sets a savepoint in the current transaction.
+	 *
+	 * @return the savepoint, or <code>null</code> if the driver doesn't support savepoints
+	 * @throws SQLException
+	 *             error setting the savepoint
+	 */
+	Savepoint setSavepoint() throws SQLException {
+		if (this.savepointsSupported) {
+			try {
+				return this.getPhysicalConnection().setSavepoint();
+			} catch (final SQLFeatureNotSupportedException e) {
+				this.savepointsSupported = false;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Releases a savepoint once the work done since it was set doesn't need to be rolled back.
+	 *
+	 * @param aSavepoint
+	 *            the savepoint to release
+	 * @throws SQLException
+	 *             error releasing the savepoint
+	 */
+	void releaseSavepoint(Savepoint aSavepoint) throws SQLException {
+		try {
+			this.connection.releaseSavepoint(aSavepoint);
+		} catch (final SQLFeatureNotSupportedException e) {
+			// the savepoint is released when the transaction ends
+		}
+	}
+
+	/**
+	 * Rolls back the work done since a savepoint was set.
+	 *
+	 * @param aSavepoint
+	 *            the savepoint to roll back to, or <code>null</code> to roll back the whole transaction
+	 * @throws SQLException
+	 *             error rolling back
+	 */
+	void rollback(Savepoint aSavepoint) throws SQLException {
+		if (aSavepoint == null && this.shared) {
+			throw new DaoException("Can't roll back part of a transaction without a savepoint: "
+					+ this.connection);
+		} else if (aSavepoint == null && this.connection != null) {
+			this.connection.rollback();
+		} else if (aSavepoint != null) {
+			this.connection.rollback(aSavepoint);
+		}
+	}
+
+	/**
+	 * Rolls back the current transaction, ignoring any error since this is only done after something else has
+	 * gone wrong. A shared connection is rolled back by its transaction when the error reaches it.
+	 */
+	void rollbackQuietly() {
+		if (this.shared || this.connection == null) {
+			return;
+		}
+		try {
+			this.connection.rollback();
 		} catch (final SQLException e) {
-			throw new DaoException("Error closing connection: " + this.connection, e);
+			// the original error is more useful
+		}
+	}
+
+	/**
+	 * Closes the connection, or only releases the statements of a connection shared by a transaction.
+	 */
+	public void cleanUp() {
+		if (this.shared) {
+			this.releaseStatements();
+			return;
+		}
+		try {
+			this.releaseStatements();
 		} finally {
-			if (this.preparedStatement != null) {
-				try {
-					this.preparedStatement.close();
-				} catch (final SQLException e) {
-					throw new DaoException("Error closing prepared statement: " + this.preparedStatement, e);
-				}
+			try {
+				this.restoreAutoCommit();
+			} finally {
+				this.close();
 			}
 		}
 	}
@@ -122,4 +542,89 @@ public class JdbcConnection {
 			this.cleanUp();
 		}
 	}
-}
\ No newline at end of file
+
+	/**
+	 * Returns the prepared statements to the statement cache, or closes them if they can't be cached.
+	 */
+	private void releaseStatements() {
+		SQLException exception = null;
+		CachedStatement failed = null;
+		for (final CachedStatement cachedStatement : this.preparedStatements) {
+			if (this.statementCache == null || !this.statementCache.offer(cachedStatement.statement,
+					cachedStatement.generatedKeys, cachedStatement.preparedStatement)) {
+				try {
+					cachedStatement.preparedStatement.close();
+				} catch (final SQLException e) {
+					exception = e;
+					failed = cachedStatement;
+				}
+			}
+		}
+		this.preparedStatements.clear();
+		if (exception != null) {
+			throw new DaoException("Error closing prepared statement: " + failed.preparedStatement, exception);
+		}
+	}
+
+	/**
+	 * Turns auto-commit back on if it was turned off by {@link #disableAutoCommit()}.
+	 */
+	private void restoreAutoCommit() {
+		if (Boolean.TRUE.equals(this.originalAutoCommit)) {
+			try {
+				this.connection.setAutoCommit(true);
+			} catch (final SQLException e) {
+				throw new DaoException("Error restoring auto-commit: " + this.connection, e);
+			}
+		}
+		this.originalAutoCommit = null;
+	}
+
+	/**
+	 * Closes the underlying connection.
+	 */
+	private void close() {
+		if (this.connection == null) {
+			this.releaseConnector();
+			return;
+		}
+		try {
+			this.connection.close();
+		} catch (final SQLException e) {
+			throw new DaoException("Error closing connection: " + this.connection, e);
+		} finally {
+			this.releaseConnector();
+		}
+	}
+
+	/**
+	 * Stops counting the select as in flight on its replica, or starts the read-your-writes window once the
+	 * connection to the primary has been used for writing.
+	 */
+	private void releaseConnector() {
+		if (this.replica != null) {
+			this.replica.release();
+			this.replica = null;
+		}
+		if (this.written != null) {
+			this.written.written();
+			this.written = null;
+		}
+	}
+
+	/**
+	 * A prepared statement along with the key it is cached under.
+	 */
+	private static final class CachedStatement {
+
+		private final String statement;
+		private final boolean generatedKeys;
+		private final PreparedStatement preparedStatement;
+
+		CachedStatement(String aStatement, boolean aGeneratedKeys, PreparedStatement aPreparedStatement) {
+			this.statement = aStatement;
+			this.generatedKeys = aGeneratedKeys;
+			this.preparedStatement = aPreparedStatement;
+		}
+	}
+}
@@ -16,27 +16,181 @@
 package org.jdbcquery;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Parses an sql statement and replaces the named parameters with question marks and puts the named parameters
  * into a list in the order of appearance in the statement.
  *
+ * <p>
+ * Parsed statements are immutable, so the results are kept in a bounded, least recently used cache keyed by the
+ * original sql. Statements that are executed repeatedly are therefore only parsed once.
+ *
  * @author Troy Histed
  */
 public class NamedStatementParserStrategy {
 
+	/** The default maximum number of parsed statements that are cached. */
+	public static final int DEFAULT_CACHE_SIZE = 512;
+
+	private static final NamedStatementParserStrategy DEFAULT = new NamedStatementParserStrategy();
+
+	private final Map<String, ParsedNamedStatement> cache;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private volatile int maximumCacheSize;
+
+	/**
+	 * Constructs a parser with a cache of the default size.
+	 */
+	public NamedStatementParserStrategy() {
+		this(NamedStatementParserStrategy.DEFAULT_CACHE_SIZE);
+	}
+
+	/**
+	 * Constructs a parser with a cache of the specified size.
+	 *
+	 * @param aMaximumCacheSize
+	 *            the maximum number of parsed statements to cache, zero disables caching
+	 */
+	public NamedStatementParserStrategy(int aMaximumCacheSize) {
+		this.cache = new LinkedHashMap<String, ParsedNamedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, ParsedNamedStatement> aEldest) {
+				if (this.size() > NamedStatementParserStrategy.this.maximumCacheSize) {
+					NamedStatementParserStrategy.this.evictions.incrementAndGet();
+					return true;
+				}
+				return false;
+			}
+		};
+		this.setMaximumCacheSize(aMaximumCacheSize);
+	}
+
+	/**
+	 * @return the parser shared by all statements
+	 */
+	public static NamedStatementParserStrategy getDefault() {
+		return NamedStatementParserStrategy.DEFAULT;
+	}
+
 	/**
 	 * Given a query this will extract the named parameters and replace them with the prepared statement variable
 	 * marker "?". The named parameters will be inserted into a list in the order of appearance in the original
 	 * statement.
 	 *
+	 * <p>
+	 * The result is served from the cache when the same statement has already been parsed.
+	 *
 	 * @param aStatement
 	 *            the statement to prepare for use as a named prepared statement
 	 * @return the parsed named statement
 	 */
 	ParsedNamedStatement prepareNamedStatement(String aStatement) {
 
+		if (this.maximumCacheSize <= 0) {
+			this.misses.incrementAndGet();
+			return this.parse(aStatement);
+		}
+
+		ParsedNamedStatement parsedNamedStatement;
+		synchronized (this.cache) {
+			parsedNamedStatement = this.cache.get(aStatement);
+		}
+		if (parsedNamedStatement != null) {
+			this.hits.incrementAndGet();
+			return parsedNamedStatement;
+		}
+
+		this.misses.incrementAndGet();
+		parsedNamedStatement = this.parse(aStatement);
+		synchronized (this.cache) {
+			this.cache.put(aStatement, parsedNamedStatement);
+		}
+		return parsedNamedStatement;
+	}
+
+	/**
+	 * Sets the maximum number of parsed statements to cache. Shrinking the cache evicts the least recently used
+	 * statements.
+	 *
+	 * @param aMaximumCacheSize
+	 *            the maximum number of parsed statements to cache, zero disables caching
+	 */
+	public void setMaximumCacheSize(int aMaximumCacheSize) {
+		if (aMaximumCacheSize < 0) {
+			throw new IllegalArgumentException("Cache size must not be negative: " + aMaximumCacheSize);
+		}
+		synchronized (this.cache) {
+			this.maximumCacheSize = aMaximumCacheSize;
+			while (this.cache.size() > aMaximumCacheSize) {
+				this.cache.remove(this.cache.keySet().iterator().next());
+				this.evictions.incrementAndGet();
+			}
+		}
+	}
+
+	/**
+	 * @return the maximum number of parsed statements to cache
+	 */
+	public int getMaximumCacheSize() {
+		return this.maximumCacheSize;
+	}
+
+	/**
+	 * @return the number of parsed statements currently cached
+	 */
+	public int getCacheSize() {
+		synchronized (this.cache) {
+			return this.cache.size();
+		}
+	}
+
+	/**
+	 * @return the number of statements that were served from the cache
+	 */
+	public long getCacheHits() {
+		return this.hits.get();
+	}
+
+	/**
+	 * @return the number of statements that had to be parsed
+	 */
+	public long getCacheMisses() {
+		return this.misses.get();
+	}
+
+	/**
+	 * @return the number of parsed statements that were removed from the cache to make room
+	 */
+	public long getCacheEvictions() {
+		return this.evictions.get();
+	}
+
+	/**
+	 * Removes all of the cached statements.
+	 */
+	public void clearCache() {
+		synchronized (this.cache) {
+			this.cache.clear();
+		}
+	}
+
+	/**
+	 * Parses the statement without consulting the cache.
+	 *
+	 * @param aStatement
+	 *            the statement to parse
+	 * @return the parsed named statement
+	 */
+	private ParsedNamedStatement parse(String aStatement) {
+
 		final char[] statement = aStatement.toCharArray();
 		final char[] parsedStatement = new char[statement.length];
 		final List<String> parameters = new ArrayList<String>();
@@ -92,9 +246,6 @@ public class NamedStatementParserStrategy {
 			parsedStatement[j++] = ' ';
 		}
 
-		final ParsedNamedStatement parsedNamedStatement = new ParsedNamedStatement();
-		parsedNamedStatement.setStatement(String.valueOf(parsedStatement));
-		parsedNamedStatement.setParameters(parameters);
-		return parsedNamedStatement;
+		return new ParsedNamedStatement(aStatement, String.valueOf(parsedStatement), parameters);
 	}
 }
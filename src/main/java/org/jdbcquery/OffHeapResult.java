@@ -0,0 +1,642 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.math.BigDecimal;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The result of a select serialized into direct byte buffers outside of the Java heap.
+ *
+ * <p>
+ * Each row is written with a compact layout: a bitmap of the null columns, a fixed width slot for every column
+ * and then the bytes of the variable width values. Integer, big integer, floating point, boolean and timestamp
+ * columns are held in their slots, while strings, decimals and binary values are held in the variable width part
+ * with their offset and length in the slot. Rows are packed into segments, so holding a large result costs a few
+ * buffers and an index of row offsets rather than an object per row and value.
+ *
+ * <p>
+ * Values are read through a {@link Cursor}, which reuses itself from row to row. {@link #close()} stops the
+ * result from being read, and the memory is freed when the result is garbage collected. The
+ * memory is not freed explicitly, because a thread still reading through a cursor would then read freed memory
+ * and crash the JVM. A result can be read by several threads, each with its own cursor, and closing it while it
+ * is being read makes the readers fail with an exception.
+ *
+ * @author Troy Histed
+ */
+public final class OffHeapResult implements AutoCloseable {
+
+	/** The default size of each segment of memory, in bytes. */
+	public static final int DEFAULT_SEGMENT_SIZE = 1024 * 1024;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int INT = 0;
+	private static final int LONG = 1;
+	private static final int DOUBLE = 2;
+	private static final int BOOLEAN = 3;
+	private static final int TIMESTAMP = 4;
+	private static final int STRING = 5;
+	private static final int DECIMAL = 6;
+	private static final int BYTES = 7;
+	private static final String[] KIND_NAMES = {"int", "long", "double", "boolean", "timestamp", "string",
+			"decimal", "bytes"};
+
+	private final String[] labels;
+	private final int[] kinds;
+	private final int[] slots;
+	private final int fixedWidth;
+	private final int segmentSize;
+	private final List<ByteBuffer> segments = new ArrayList<ByteBuffer>();
+	private long[] rows = new long[64];
+	private int rowCount;
+	private long footprint;
+	private volatile boolean released;
+
+	/**
+	 * Constructs an empty result and lays out the fixed width part of its rows.
+	 *
+	 * @param aLabels
+	 *            the column labels
+	 * @param aKinds
+	 *            the storage kind of each column
+	 * @param aSegmentSize
+	 *            the size of each segment of memory
+	 */
+	private OffHeapResult(String[] aLabels, int[] aKinds, int aSegmentSize) {
+		this.labels = aLabels;
+		this.kinds = aKinds;
+		this.segmentSize = aSegmentSize;
+		this.slots = new int[aKinds.length];
+
+		int offset = (aKinds.length + 7) / 8;
+		for (int i = 0; i < aKinds.length; i++) {
+			this.slots[i] = offset;
+			offset += OffHeapResult.slotWidth(aKinds[i]);
+		}
+		this.fixedWidth = offset;
+	}
+
+	/**
+	 * Reads every row of a result set into off heap memory.
+	 *
+	 * @param aResultSet
+	 *            the result set positioned before the first row
+	 * @param aSegmentSize
+	 *            the size of each segment of memory, rows larger than this get a segment of their own
+	 * @return the result
+	 * @throws SQLException
+	 *             error reading the result set
+	 */
+	static OffHeapResult read(ResultSet aResultSet, int aSegmentSize) throws SQLException {
+		final ResultSetMetaData metaData = aResultSet.getMetaData();
+		final String[] labels = new String[metaData.getColumnCount()];
+		final int[] kinds = new int[labels.length];
+		for (int i = 0; i < labels.length; i++) {
+			labels[i] = metaData.getColumnLabel(i + 1);
+			kinds[i] = OffHeapResult.kindOf(metaData.getColumnType(i + 1));
+		}
+
+		final OffHeapResult result = new OffHeapResult(labels, kinds, aSegmentSize);
+		try {
+			ByteBuffer row = ByteBuffer.allocate(Math.max(256, result.fixedWidth * 2));
+			while (aResultSet.next()) {
+				row = result.writeRow(aResultSet, row);
+				result.append(row);
+			}
+		} catch (final SQLException e) {
+			result.close();
+			throw e;
+		} catch (final RuntimeException e) {
+			result.close();
+			throw e;
+		}
+		result.rows = Arrays.copyOf(result.rows, result.rowCount);
+		return result;
+	}
+
+	/**
+	 * Chooses how a column of a SQL type is stored.
+	 *
+	 * @param aSqlType
+	 *            the type from {@link Types}
+	 * @return the storage kind
+	 */
+	private static int kindOf(int aSqlType) {
+		switch (aSqlType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+			return OffHeapResult.INT;
+		case Types.BIGINT:
+			return OffHeapResult.LONG;
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return OffHeapResult.DOUBLE;
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return OffHeapResult.BOOLEAN;
+		case Types.DATE:
+		case Types.TIME:
+		case Types.TIMESTAMP:
+			return OffHeapResult.TIMESTAMP;
+		case Types.DECIMAL:
+		case Types.NUMERIC:
+			return OffHeapResult.DECIMAL;
+		case Types.BINARY:
+		case Types.VARBINARY:
+		case Types.LONGVARBINARY:
+			return OffHeapResult.BYTES;
+		default:
+			return OffHeapResult.STRING;
+		}
+	}
+
+	/**
+	 * @param aKind
+	 *            the storage kind
+	 * @return the width of the fixed slot of the kind
+	 */
+	private static int slotWidth(int aKind) {
+		switch (aKind) {
+		case INT:
+			return 4;
+		case BOOLEAN:
+			return 1;
+		case TIMESTAMP:
+			// milliseconds and nanoseconds
+			return 12;
+		case LONG:
+		case DOUBLE:
+		default:
+			// variable width values hold their offset and length
+			return 8;
+		}
+	}
+
+	/**
+	 * Serializes the current row of the result set.
+	 *
+	 * @param aResultSet
+	 *            the result set positioned on the row
+	 * @param aRow
+	 *            the buffer to write the row to
+	 * @return the buffer holding the row, which is a larger one if it didn't fit
+	 * @throws SQLException
+	 *             error reading the result set
+	 */
+	private ByteBuffer writeRow(ResultSet aResultSet, ByteBuffer aRow) throws SQLException {
+		ByteBuffer row = aRow;
+		row.clear();
+		for (int i = 0; i < this.fixedWidth; i++) {
+			row.put(i, (byte) 0);
+		}
+		row.position(this.fixedWidth);
+
+		for (int i = 0; i < this.kinds.length; i++) {
+			final int column = i + 1;
+			final int slot = this.slots[i];
+			switch (this.kinds[i]) {
+			case INT:
+				final int intValue = aResultSet.getInt(column);
+				if (intValue == 0 && aResultSet.wasNull()) {
+					OffHeapResult.setNull(row, i);
+				}
+				row.putInt(slot, intValue);
+				break;
+			case LONG:
+				final long longValue = aResultSet.getLong(column);
+				if (longValue == 0 && aResultSet.wasNull()) {
+					OffHeapResult.setNull(row, i);
+				}
+				row.putLong(slot, longValue);
+				break;
+			case DOUBLE:
+				final double doubleValue = aResultSet.getDouble(column);
+				if (doubleValue == 0 && aResultSet.wasNull()) {
+					OffHeapResult.setNull(row, i);
+				}
+				row.putDouble(slot, doubleValue);
+				break;
+			case BOOLEAN:
+				final boolean booleanValue = aResultSet.getBoolean(column);
+				if (!booleanValue && aResultSet.wasNull()) {
+					OffHeapResult.setNull(row, i);
+				}
+				row.put(slot, booleanValue ? (byte) 1 : (byte) 0);
+				break;
+			case TIMESTAMP:
+				final Timestamp timestamp = aResultSet.getTimestamp(column);
+				if (timestamp == null) {
+					OffHeapResult.setNull(row, i);
+				} else {
+					row.putLong(slot, timestamp.getTime());
+					row.putInt(slot + 8, timestamp.getNanos());
+				}
+				break;
+			case DECIMAL:
+				final BigDecimal decimal = aResultSet.getBigDecimal(column);
+				row = this.writeVariable(row, i, decimal == null ? null : decimal.toString().getBytes(
+						OffHeapResult.UTF_8));
+				break;
+			case BYTES:
+				row = this.writeVariable(row, i, aResultSet.getBytes(column));
+				break;
+			default:
+				final String string = aResultSet.getString(column);
+				row = this.writeVariable(row, i, string == null ? null : string.getBytes(OffHeapResult.UTF_8));
+				break;
+			}
+		}
+		row.flip();
+		return row;
+	}
+
+	/**
+	 * Appends a variable width value to the row and records its offset and length in the slot of the column.
+	 *
+	 * @param aRow
+	 *            the buffer holding the row
+	 * @param aIndex
+	 *            the zero based column index
+	 * @param aBytes
+	 *            the value or null
+	 * @return the buffer holding the row, which is a larger one if the value didn't fit
+	 */
+	private ByteBuffer writeVariable(ByteBuffer aRow, int aIndex, byte[] aBytes) {
+		if (aBytes == null) {
+			OffHeapResult.setNull(aRow, aIndex);
+			return aRow;
+		}
+		ByteBuffer row = aRow;
+		if (row.remaining() < aBytes.length) {
+			final ByteBuffer larger = ByteBuffer.allocate(Math.max(row.capacity() * 2, row.position()
+					+ aBytes.length));
+			row.flip();
+			larger.put(row);
+			row = larger;
+		}
+		row.putInt(this.slots[aIndex], row.position());
+		row.putInt(this.slots[aIndex] + 4, aBytes.length);
+		row.put(aBytes);
+		return row;
+	}
+
+	/**
+	 * Sets the null bit of a column.
+	 */
+	private static void setNull(ByteBuffer aRow, int aIndex) {
+		final int index = aIndex >> 3;
+		aRow.put(index, (byte) (aRow.get(index) | 1 << (aIndex & 7)));
+	}
+
+	/**
+	 * Copies a serialized row into the current segment, starting a new segment if it doesn't fit.
+	 *
+	 * @param aRow
+	 *            the serialized row
+	 */
+	private void append(ByteBuffer aRow) {
+		final int size = aRow.remaining();
+		ByteBuffer segment = this.segments.isEmpty() ? null : this.segments.get(this.segments.size() - 1);
+		if (segment == null || segment.remaining() < size) {
+			segment = ByteBuffer.allocateDirect(Math.max(this.segmentSize, size));
+			this.segments.add(segment);
+			this.footprint += segment.capacity();
+		}
+		if (this.rowCount == this.rows.length) {
+			this.rows = Arrays.copyOf(this.rows, this.rows.length * 2);
+		}
+		this.rows[this.rowCount++] = (long) (this.segments.size() - 1) << 32 | segment.position();
+		segment.put(aRow);
+	}
+
+	/**
+	 * @return the number of rows
+	 */
+	public int getRowCount() {
+		return this.rowCount;
+	}
+
+	/**
+	 * @return the number of columns
+	 */
+	public int getColumnCount() {
+		return this.labels.length;
+	}
+
+	/**
+	 * @param aColumn
+	 *            the one based column index
+	 * @return the column label
+	 */
+	public String getColumnLabel(int aColumn) {
+		return this.labels[aColumn - 1];
+	}
+
+	/**
+	 * Finds the index of a column, to be used with the getters of a cursor.
+	 *
+	 * @param aLabel
+	 *            the column label, compared ignoring case
+	 * @return the one based column index
+	 */
+	public int getColumnIndex(String aLabel) {
+		for (int i = 0; i < this.labels.length; i++) {
+			if (this.labels[i].equalsIgnoreCase(aLabel)) {
+				return i + 1;
+			}
+		}
+		throw new DaoException("No column labeled " + aLabel);
+	}
+
+	/**
+	 * @return the number of bytes of off heap memory held by the result
+	 */
+	public long getMemoryFootprint() {
+		return this.released ? 0 : this.footprint;
+	}
+
+	/**
+	 * @return <code>true</code> if the memory of the result has been released
+	 */
+	public boolean isReleased() {
+		return this.released;
+	}
+
+	/**
+	 * @return a new cursor positioned before the first row
+	 */
+	public Cursor cursor() {
+		this.checkReleased();
+		return new Cursor();
+	}
+
+	/**
+	 * Releases the off heap memory, which is freed once the result and its cursors are garbage collected. The
+	 * result can't be read afterwards.
+	 */
+	@Override
+	public void close() {
+		this.released = true;
+	}
+
+	/**
+	 * Throws an exception if the memory has been released.
+	 */
+	private void checkReleased() {
+		if (this.released) {
+			throw new DaoException("The result has been released");
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "OffHeapResult [rowCount=" + this.rowCount + ", columns=" + Arrays.toString(this.labels)
+				+ ", memoryFootprint=" + this.getMemoryFootprint() + "]";
+	}
+
+	/**
+	 * Reads the values of one row at a time. A cursor is a flyweight, moving it to another row only changes its
+	 * position, and is not thread-safe.
+	 */
+	public final class Cursor {
+
+		private final ByteBuffer[] views = new ByteBuffer[OffHeapResult.this.segments.size()];
+		private ByteBuffer buffer;
+		private int base;
+		private int row = -1;
+
+		Cursor() {
+		}
+
+		/**
+		 * Moves to the next row.
+		 *
+		 * @return <code>true</code> if there is a next row
+		 */
+		public boolean next() {
+			if (this.row + 1 >= OffHeapResult.this.rowCount) {
+				this.row = OffHeapResult.this.rowCount;
+				this.buffer = null;
+				return false;
+			}
+			this.moveTo(this.row + 1);
+			return true;
+		}
+
+		/**
+		 * Moves to a row.
+		 *
+		 * @param aRow
+		 *            the zero based row index
+		 */
+		public void moveTo(int aRow) {
+			OffHeapResult.this.checkReleased();
+			if (aRow < 0 || aRow >= OffHeapResult.this.rowCount) {
+				throw new DaoException("Row " + aRow + " is out of range 0 to " + (OffHeapResult.this.rowCount
+						- 1));
+			}
+			final long address = OffHeapResult.this.rows[aRow];
+			final int segment = (int) (address >>> 32);
+			if (this.views[segment] == null) {
+				this.views[segment] = OffHeapResult.this.segments.get(segment).duplicate();
+			}
+			this.buffer = this.views[segment];
+			this.base = (int) address;
+			this.row = aRow;
+		}
+
+		/**
+		 * @return the zero based index of the current row
+		 */
+		public int getRow() {
+			return this.row;
+		}
+
+		/**
+		 * @param aColumn
+		 *            the one based column index
+		 * @return <code>true</code> if the value of the column is null
+		 */
+		public boolean isNull(int aColumn) {
+			final int index = aColumn - 1;
+			return (this.buffer().get(this.base + (index >> 3)) & 1 << (index & 7)) != 0;
+		}
+
+		/**
+		 * @param aColumn
+		 *            the one based index of an integer column
+		 * @return the value, zero if it is null
+		 */
+		public int getInt(int aColumn) {
+			return this.buffer().getInt(this.slot(aColumn, OffHeapResult.INT));
+		}
+
+		/**
+		 * @param aColumn
+		 *            the one based index of a big integer column
+		 * @return the value, zero if it is null
+		 */
+		public long getLong(int aColumn) {
+			return this.buffer().getLong(this.slot(aColumn, OffHeapResult.LONG));
+		}
+
+		/**
+		 * @param aColumn
+		 *            the one based index of a floating point column
+		 * @return the value, zero if it is null
+		 */
+		public double getDouble(int aColumn) {
+			return this.buffer().getDouble(this.slot(aColumn, OffHeapResult.DOUBLE));
+		}
+
+		/**
+		 * @param aColumn
+		 *            the one based index of a boolean column
+		 * @return the value, false if it is null
+		 */
+		public boolean getBoolean(int aColumn) {
+			return this.buffer().get(this.slot(aColumn, OffHeapResult.BOOLEAN)) != 0;
+		}
+
+		/**
+		 * @param aColumn
+		 *            the one based index of a date, time or timestamp column
+		 * @return a new timestamp or null
+		 */
+		public Timestamp getTimestamp(int aColumn) {
+			final int slot = this.slot(aColumn, OffHeapResult.TIMESTAMP);
+			if (this.isNull(aColumn)) {
+				return null;
+			}
+			final Timestamp timestamp = new Timestamp(this.buffer.getLong(slot));
+			timestamp.setNanos(this.buffer.getInt(slot + 8));
+			return timestamp;
+		}
+
+		/**
+		 * @param aColumn
+		 *            the one based index of a decimal column
+		 * @return the value or null
+		 */
+		public BigDecimal getBigDecimal(int aColumn) {
+			final byte[] bytes = this.getVariable(this.slot(aColumn, OffHeapResult.DECIMAL), aColumn);
+			return bytes == null ? null : new BigDecimal(new String(bytes, OffHeapResult.UTF_8));
+		}
+
+		/**
+		 * @param aColumn
+		 *            the one based index of a character or decimal column
+		 * @return the value or null
+		 */
+		public String getString(int aColumn) {
+			final int kind = OffHeapResult.this.kinds[aColumn - 1];
+			final byte[] bytes = this.getVariable(this.slot(aColumn, kind == OffHeapResult.DECIMAL ? kind
+					: OffHeapResult.STRING), aColumn);
+			return bytes == null ? null : new String(bytes, OffHeapResult.UTF_8);
+		}
+
+		/**
+		 * @param aColumn
+		 *            the one based index of a binary column
+		 * @return a copy of the value or null
+		 */
+		public byte[] getBytes(int aColumn) {
+			return this.getVariable(this.slot(aColumn, OffHeapResult.BYTES), aColumn);
+		}
+
+		/**
+		 * Gets the value of any column as an object, boxing primitive values.
+		 *
+		 * @param aColumn
+		 *            the one based column index
+		 * @return the value or null
+		 */
+		public Object getObject(int aColumn) {
+			if (this.isNull(aColumn)) {
+				return null;
+			}
+			switch (OffHeapResult.this.kinds[aColumn - 1]) {
+			case INT:
+				return Integer.valueOf(this.getInt(aColumn));
+			case LONG:
+				return Long.valueOf(this.getLong(aColumn));
+			case DOUBLE:
+				return Double.valueOf(this.getDouble(aColumn));
+			case BOOLEAN:
+				return Boolean.valueOf(this.getBoolean(aColumn));
+			case TIMESTAMP:
+				return this.getTimestamp(aColumn);
+			case DECIMAL:
+				return this.getBigDecimal(aColumn);
+			case BYTES:
+				return this.getBytes(aColumn);
+			default:
+				return this.getString(aColumn);
+			}
+		}
+
+		/**
+		 * Copies a variable width value out of the row.
+		 */
+		private byte[] getVariable(int aSlot, int aColumn) {
+			if (this.isNull(aColumn)) {
+				return null;
+			}
+			final byte[] bytes = new byte[this.buffer.getInt(aSlot + 4)];
+			this.buffer.position(this.base + this.buffer.getInt(aSlot));
+			this.buffer.get(bytes);
+			return bytes;
+		}
+
+		/**
+		 * Gets the absolute position of the slot of a column, checking it is stored as the expected kind.
+		 */
+		private int slot(int aColumn, int aKind) {
+			final int kind = OffHeapResult.this.kinds[aColumn - 1];
+			if (kind != aKind) {
+				throw new DaoException("Column " + OffHeapResult.this.labels[aColumn - 1] + " is stored as "
+						+ OffHeapResult.KIND_NAMES[kind] + ", not " + OffHeapResult.KIND_NAMES[aKind]);
+			}
+			return this.base + OffHeapResult.this.slots[aColumn - 1];
+		}
+
+		/**
+		 * Gets the buffer of the current row, checking the memory is still held.
+		 */
+		private ByteBuffer buffer() {
+			OffHeapResult.this.checkReleased();
+			if (this.buffer == null) {
+				throw new DaoException("The cursor is not positioned on a row");
+			}
+			return this.buffer;
+		}
+	}
+}
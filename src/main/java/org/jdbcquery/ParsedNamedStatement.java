@@ -15,42 +15,147 @@
  */
 package org.jdbcquery;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Represents an SQL statement that has been parsed into a statement without named parameters and a list of those
- * named parameters.
+ * named parameters. An index of each parameter name to its positions in the statement is built up front so
+ * binding a parameter doesn't require searching the parameter list.
+ *
+ * <p>
+ * Instances are immutable and may be shared between threads. The plans for binding beans to the statement are
+ * built on first use and cached with the statement.
  *
  * @author Troy Histed
  */
 public class ParsedNamedStatement {
 
-	private String statement;
-	private List<String> parameters;
+	private static final int[] NO_INDEXES = new int[0];
+
+	private final String originalStatement;
+	private final String statement;
+	private final List<String> parameters;
+	private final Map<String, int[]> parameterIndexes;
+	private final ConcurrentMap<Class<?>, BeanParameterPlan> beanPlans =
+			new ConcurrentHashMap<Class<?>, BeanParameterPlan>();
+	private volatile BulkInsert bulkInsert;
+	private volatile boolean bulkInsertResolved = false;
 
 	/**
-	 * @return the statement
+	 * Constructs a parsed statement.
+	 *
+	 * @param aOriginalStatement
+	 *            the statement as it was written, with named parameters
+	 * @param aStatement
+	 *            the statement with the named parameters replaced by markers
+	 * @param aParameters
+	 *            the parameter names in the order of appearance
 	 */
-	public String getStatement() {
-		return this.statement;
+	ParsedNamedStatement(String aOriginalStatement, String aStatement, List<String> aParameters) {
+		this.originalStatement = aOriginalStatement;
+		this.statement = aStatement;
+		this.parameters = Collections.unmodifiableList(new ArrayList<String>(aParameters));
+		this.parameterIndexes = ParsedNamedStatement.indexParameters(this.parameters);
+	}
+
+	/**
+	 * Builds the index of parameter names to their one based positions in the statement.
+	 *
+	 * @param aParameters
+	 *            the parameter names in the order of appearance
+	 * @return the index of parameter names to positions
+	 */
+	private static Map<String, int[]> indexParameters(List<String> aParameters) {
+		final Map<String, int[]> indexes = new HashMap<String, int[]>();
+		for (int i = 0; i < aParameters.size(); i++) {
+			final int[] existing = indexes.get(aParameters.get(i));
+			final int[] positions;
+			if (existing == null) {
+				positions = new int[1];
+			} else {
+				positions = new int[existing.length + 1];
+				System.arraycopy(existing, 0, positions, 0, existing.length);
+			}
+			positions[positions.length - 1] = i + 1;
+			indexes.put(aParameters.get(i), positions);
+		}
+		return indexes;
 	}
+
 	/**
-	 * @param statement the statement to set
+	 * @return the statement as it was written, with named parameters
 	 */
-	public void setStatement(String statement) {
-		this.statement = statement;
+	public String getOriginalStatement() {
+		return this.originalStatement;
 	}
+
+	/**
+	 * @return the statement
+	 */
+	public String getStatement() {
+		return this.statement;
+	}
+
 	/**
 	 * @return the parameters
 	 */
 	public List<String> getParameters() {
 		return this.parameters;
 	}
+
+	/**
+	 * Returns the positions of a named parameter, suitable for the setXXX methods of a prepared statement. The
+	 * returned array is shared and must not be modified.
+	 *
+	 * @param aName
+	 *            the name of the parameter
+	 * @return the one based positions of the parameter, empty if the statement does not use the parameter
+	 */
+	int[] getParameterIndexes(String aName) {
+		final int[] positions = this.parameterIndexes.get(aName);
+		if (positions == null) {
+			return ParsedNamedStatement.NO_INDEXES;
+		}
+		return positions;
+	}
+
+	/**
+	 * Returns the plan for binding beans of a class to this statement, building it if it hasn't been cached.
+	 *
+	 * @param aBeanClass
+	 *            the class of the bean
+	 * @return the plan
+	 */
+	BeanParameterPlan getBeanPlan(Class<?> aBeanClass) {
+		BeanParameterPlan plan = this.beanPlans.get(aBeanClass);
+		if (plan == null) {
+			plan = BeanParameterPlan.build(this, aBeanClass);
+			final BeanParameterPlan existing = this.beanPlans.putIfAbsent(aBeanClass, plan);
+			if (existing != null) {
+				plan = existing;
+			}
+		}
+		return plan;
+	}
+
 	/**
-	 * @param parameters the parameters to set
+	 * Returns the rewriting of this statement that inserts several rows at once, checking the statement the
+	 * first time it is called.
+	 *
+	 * @return the bulk insert or null if this is not a simple insert statement
 	 */
-	public void setParameters(List<String> parameters) {
-		this.parameters = parameters;
+	BulkInsert getBulkInsert() {
+		if (!this.bulkInsertResolved) {
+			this.bulkInsert = BulkInsert.forStatement(this);
+			this.bulkInsertResolved = true;
+		}
+		return this.bulkInsert;
 	}
 
 	/**
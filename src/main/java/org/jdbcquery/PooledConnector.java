@@ -0,0 +1,460 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A connector that keeps the connections of another connector open and hands them out again, so statements
+ * don't open a physical connection each time.
+ *
+ * <p>
+ * Idle connections are kept in a lock-free deque, and the most recently returned connection is handed out
+ * first so the connections that are needed stay warm while the rest age out. A semaphore bounds the number of
+ * connections, and {@link #getConnection()} waits up to the maximum wait for one to be returned when they are
+ * all checked out. A connection that has been idle for longer than the validation interval is checked with
+ * {@link Connection#isValid(int)} before it is handed out, connections older than the maximum lifetime are
+ * closed instead of being reused, and connections idle for longer than the maximum idle time are closed as
+ * others are returned.
+ *
+ * <p>
+ * The connection handed out is a proxy whose {@link Connection#close()} returns the physical connection to the
+ * pool. Each checkout gets a new proxy, which reports itself as closed and rejects every other call once it has
+ * been closed, so a holder that keeps it can't use the session of the next borrower or return the connection a
+ * second time. The prepared statements are cached for the physical connection, so they survive
+ * {@link JdbcConnection#cleanUp()} and are used again by the next borrower.
+ *
+ * <pre>
+ * PooledConnector pool = new PooledConnector(connector).maximumSize(20).maximumWait(5, TimeUnit.SECONDS);
+ * </pre>
+ *
+ * @author Troy Histed
+ */
+public final class PooledConnector implements JdbcConnector, AutoCloseable {
+
+	private final JdbcConnector connector;
+	private final ConcurrentLinkedDeque<PooledConnection> idle = new ConcurrentLinkedDeque<PooledConnection>();
+	private volatile Semaphore permits;
+	private int maximumSize = 10;
+	private long maximumWaitNanos = TimeUnit.SECONDS.toNanos(30);
+	private long validationIntervalNanos = TimeUnit.SECONDS.toNanos(5);
+	private int validationTimeoutSeconds = 5;
+	private long maximumLifetimeNanos = TimeUnit.MINUTES.toNanos(30);
+	private long maximumIdleNanos = TimeUnit.MINUTES.toNanos(10);
+	private volatile boolean closed = false;
+
+	private final AtomicInteger openConnections = new AtomicInteger();
+	private final AtomicLong created = new AtomicLong();
+	private final AtomicLong discarded = new AtomicLong();
+	private final AtomicLong timeouts = new AtomicLong();
+
+	/**
+	 * Constructs a pool of the connections of a connector.
+	 *
+	 * @param aConnector
+	 *            the connector that opens the physical connections
+	 */
+	public PooledConnector(JdbcConnector aConnector) {
+		if (aConnector == null) {
+			throw new DaoException("Connector was null");
+		}
+		this.connector = aConnector;
+	}
+
+	/**
+	 * @param aMaximumSize
+	 *            the maximum number of connections open at once, defaults to 10
+	 * @return the pool (for method chaining)
+	 */
+	public PooledConnector maximumSize(int aMaximumSize) {
+		this.checkNotUsed();
+		if (aMaximumSize <= 0) {
+			throw new IllegalArgumentException("Maximum size must be positive: " + aMaximumSize);
+		}
+		this.maximumSize = aMaximumSize;
+		return this;
+	}
+
+	/**
+	 * @param aWait
+	 *            the longest time to wait for a connection when they are all checked out, defaults to 30 seconds
+	 * @param aUnit
+	 *            the unit of the wait
+	 * @return the pool (for method chaining)
+	 */
+	public PooledConnector maximumWait(long aWait, TimeUnit aUnit) {
+		this.maximumWaitNanos = PooledConnector.toNanos(aWait, aUnit);
+		return this;
+	}
+
+	/**
+	 * @param aInterval
+	 *            the time a connection can be idle before it is validated, defaults to 5 seconds, zero validates
+	 *            every connection as it is checked out
+	 * @param aUnit
+	 *            the unit of the interval
+	 * @return the pool (for method chaining)
+	 */
+	public PooledConnector validationInterval(long aInterval, TimeUnit aUnit) {
+		this.validationIntervalNanos = PooledConnector.toNanos(aInterval, aUnit);
+		return this;
+	}
+
+	/**
+	 * @param aSeconds
+	 *            the number of seconds to wait for the database to validate a connection, defaults to 5
+	 * @return the pool (for method chaining)
+	 */
+	public PooledConnector validationTimeout(int aSeconds) {
+		if (aSeconds < 0) {
+			throw new IllegalArgumentException("Validation timeout must not be negative: " + aSeconds);
+		}
+		this.validationTimeoutSeconds = aSeconds;
+		return this;
+	}
+
+	/**
+	 * @param aLifetime
+	 *            the age after which a connection is closed rather than reused, defaults to 30 minutes
+	 * @param aUnit
+	 *            the unit of the lifetime
+	 * @return the pool (for method chaining)
+	 */
+	public PooledConnector maximumLifetime(long aLifetime, TimeUnit aUnit) {
+		this.maximumLifetimeNanos = PooledConnector.toNanos(aLifetime, aUnit);
+		return this;
+	}
+
+	/**
+	 * @param aIdle
+	 *            the time after which an idle connection is closed, defaults to 10 minutes
+	 * @param aUnit
+	 *            the unit of the time
+	 * @return the pool (for method chaining)
+	 */
+	public PooledConnector maximumIdle(long aIdle, TimeUnit aUnit) {
+		this.maximumIdleNanos = PooledConnector.toNanos(aIdle, aUnit);
+		return this;
+	}
+
+	/**
+	 * Checks out a connection, reusing an idle one if there is one that is still usable, or opening one if the
+	 * pool isn't full.
+	 *
+	 * @return the connection, which is returned to the pool when it is closed
+	 */
+	@Override
+	public Connection getConnection() {
+		if (this.closed) {
+			throw new IllegalStateException("The pool is closed: " + this);
+		}
+		final Semaphore semaphore = this.getPermits();
+		try {
+			if (!semaphore.tryAcquire(this.maximumWaitNanos, TimeUnit.NANOSECONDS)) {
+				this.timeouts.incrementAndGet();
+				throw new DaoException("Timed out waiting for a connection: " + this);
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new DaoException("Interrupted waiting for a connection: " + this, e);
+		}
+
+		try {
+			PooledConnection pooled;
+			while ((pooled = this.idle.pollFirst()) != null) {
+				if (this.isUsable(pooled, System.nanoTime())) {
+					return pooled.checkOut();
+				}
+				this.discard(pooled);
+			}
+			pooled = new PooledConnection(this.connector.getConnection());
+			this.openConnections.incrementAndGet();
+			this.created.incrementAndGet();
+			return pooled.checkOut();
+		} catch (final RuntimeException e) {
+			semaphore.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Checks if an idle connection can be handed out, validating it if it has been idle for a while.
+	 */
+	private boolean isUsable(PooledConnection aPooled, long aNow) {
+		if (aNow - aPooled.createdAt > this.maximumLifetimeNanos) {
+			return false;
+		}
+		if (aNow - aPooled.lastValidated <= this.validationIntervalNanos) {
+			return true;
+		}
+		try {
+			if (aPooled.connection.isValid(this.validationTimeoutSeconds)) {
+				aPooled.lastValidated = aNow;
+				return true;
+			}
+		} catch (final SQLException e) {
+			// an unusable connection is discarded
+		}
+		return false;
+	}
+
+	/**
+	 * Returns a connection to the pool, or closes it if it shouldn't be reused, and closes the connections that
+	 * have been idle for too long.
+	 */
+	private void release(PooledConnection aPooled) throws SQLException {
+		final long now = System.nanoTime();
+		try {
+			if (this.closed || aPooled.connection.isClosed()
+					|| now - aPooled.createdAt > this.maximumLifetimeNanos) {
+				this.discard(aPooled);
+				return;
+			}
+			if (!aPooled.connection.getAutoCommit()) {
+				aPooled.connection.rollback();
+				aPooled.connection.setAutoCommit(true);
+			}
+			// the connection was just used, so it doesn't need validating until the interval passes again
+			aPooled.lastValidated = now;
+			this.idle.offerFirst(aPooled);
+		} catch (final SQLException e) {
+			this.discard(aPooled);
+			throw e;
+		} finally {
+			this.getPermits().release();
+			this.evictIdle(now);
+		}
+	}
+
+	/**
+	 * Closes the connections at the end of the idle deque that haven't been used for the maximum idle time.
+	 */
+	private void evictIdle(long aNow) {
+		PooledConnection oldest;
+		while ((oldest = this.idle.peekLast()) != null && aNow - oldest.lastValidated > this.maximumIdleNanos) {
+			if (this.idle.removeLastOccurrence(oldest)) {
+				this.discard(oldest);
+			}
+		}
+	}
+
+	/**
+	 * Closes a physical connection that won't be reused.
+	 */
+	private void discard(PooledConnection aPooled) {
+		this.openConnections.decrementAndGet();
+		this.discarded.incrementAndGet();
+		aPooled.statements.close();
+		try {
+			aPooled.connection.close();
+		} catch (final SQLException e) {
+			// the connection is no longer used either way
+		}
+	}
+
+	/**
+	 * Closes the idle connections and stops handing out connections. Connections that are checked out are
+	 * closed as they are returned.
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		PooledConnection pooled;
+		while ((pooled = this.idle.pollFirst()) != null) {
+			this.discard(pooled);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getName() {
+		return this.connector.getName();
+	}
+
+	/**
+	 * @return the number of physical connections that are open, idle or checked out
+	 */
+	public int getOpenCount() {
+		return this.openConnections.get();
+	}
+
+	/**
+	 * @return the number of connections waiting in the pool
+	 */
+	public int getIdleCount() {
+		return this.idle.size();
+	}
+
+	/**
+	 * @return the number of connections that are checked out
+	 */
+	public int getActiveCount() {
+		return this.maximumSize - this.getPermits().availablePermits();
+	}
+
+	/**
+	 * @return the number of physical connections that have been opened
+	 */
+	public long getCreatedCount() {
+		return this.created.get();
+	}
+
+	/**
+	 * @return the number of physical connections that have been closed because they were invalid, too old, idle
+	 *         for too long or the pool was closed
+	 */
+	public long getDiscardedCount() {
+		return this.discarded.get();
+	}
+
+	/**
+	 * @return the number of times a connection wasn't available within the maximum wait
+	 */
+	public long getTimeoutCount() {
+		return this.timeouts.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "PooledConnector [name=" + this.getName() + ", maximumSize=" + this.maximumSize + ", open="
+				+ this.getOpenCount() + ", idle=" + this.getIdleCount() + "]";
+	}
+
+	/**
+	 * @return the permits bounding the number of connections, created with the maximum size when first used
+	 */
+	private Semaphore getPermits() {
+		Semaphore semaphore = this.permits;
+		if (semaphore == null) {
+			synchronized (this) {
+				semaphore = this.permits;
+				if (semaphore == null) {
+					semaphore = new Semaphore(this.maximumSize, true);
+					this.permits = semaphore;
+				}
+			}
+		}
+		return semaphore;
+	}
+
+	/**
+	 * Throws an exception if the size of the pool can't be changed because connections have been handed out.
+	 */
+	private void checkNotUsed() {
+		if (this.permits != null) {
+			throw new IllegalStateException("The pool is already in use: " + this);
+		}
+	}
+
+	/**
+	 * Converts a duration to nanoseconds, rejecting negative durations.
+	 */
+	private static long toNanos(long aDuration, TimeUnit aUnit) {
+		if (aDuration < 0) {
+			throw new IllegalArgumentException("Duration must not be negative: " + aDuration);
+		}
+		return aUnit.toNanos(aDuration);
+	}
+
+	/**
+	 * A physical connection, its statement cache and when it was created and last known to be valid.
+	 */
+	private final class PooledConnection {
+
+		private final Connection connection;
+		private final long createdAt;
+		private volatile long lastValidated;
+		private final StatementCache statements = new StatementCache();
+
+		PooledConnection(Connection aConnection) {
+			this.connection = aConnection;
+			this.createdAt = System.nanoTime();
+			this.lastValidated = this.createdAt;
+		}
+
+		/**
+		 * @return a new proxy for the physical connection that is used until it is closed
+		 */
+		Connection checkOut() {
+			return (Connection) Proxy.newProxyInstance(PooledConnector.class.getClassLoader(), new Class<?>[] {
+					Connection.class, StatementCache.Owner.class }, new Checkout(this));
+		}
+	}
+
+	/**
+	 * The proxy of a physical connection for one checkout.
+	 */
+	private final class Checkout implements InvocationHandler {
+
+		private final PooledConnection pooled;
+		private final AtomicBoolean closed = new AtomicBoolean();
+
+		Checkout(PooledConnection aPooled) {
+			this.pooled = aPooled;
+		}
+
+		/**
+		 * Returns the connection to the pool on the first close, and passes every other call to the physical
+		 * connection until then.
+		 */
+		@Override
+		public Object invoke(Object aProxy, Method aMethod, Object[] aArguments) throws Throwable {
+			final String name = aMethod.getName();
+			final int parameters = aMethod.getParameterTypes().length;
+			if ("close".equals(name) && parameters == 0) {
+				if (this.closed.compareAndSet(false, true)) {
+					PooledConnector.this.release(this.pooled);
+				}
+				return null;
+			} else if ("isClosed".equals(name) && parameters == 0 && this.closed.get()) {
+				return Boolean.TRUE;
+			} else if ("isValid".equals(name) && parameters == 1 && this.closed.get()) {
+				return Boolean.FALSE;
+			} else if ("equals".equals(name) && parameters == 1) {
+				return Boolean.valueOf(aProxy == aArguments[0]);
+			} else if ("hashCode".equals(name) && parameters == 0) {
+				return Integer.valueOf(System.identityHashCode(aProxy));
+			} else if ("toString".equals(name) && parameters == 0) {
+				return "Pooled " + this.pooled.connection;
+			} else if (aMethod.getDeclaringClass() == StatementCache.Owner.class) {
+				return this.pooled.statements;
+			} else if (this.closed.get()) {
+				throw new SQLException("The connection was returned to the pool: " + this.pooled.connection);
+			}
+			try {
+				return aMethod.invoke(this.pooled.connection, aArguments);
+			} catch (final InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
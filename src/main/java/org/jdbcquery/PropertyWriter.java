@@ -0,0 +1,280 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import org.apache.commons.beanutils.Converter;
+
+/**
+ * Writes a single result set column to a bean property.
+ *
+ * <p>
+ * Writers are built once per property from its write method and call it through a method handle, so mapping a
+ * row doesn't go through reflection or BeanUtils introspection. Primitive int, long, double and boolean
+ * properties, as well as String properties, are read with the matching typed getter of the result set so their
+ * values are never boxed. All other properties are read with getObject and converted the same way BeanUtils
+ * would convert them.
+ *
+ * @author Troy Histed
+ */
+abstract class PropertyWriter {
+
+	private static final MethodType OBJECT_SETTER = MethodType.methodType(void.class, Object.class,
+			Object.class);
+
+	protected final MethodHandle setter;
+	private final Class<?> type;
+	private final Converter converter;
+
+	/**
+	 * Constructs a writer.
+	 *
+	 * @param aSetter
+	 *            the write method as a handle of type (Object, Object)void
+	 * @param aType
+	 *            the property type
+	 * @param aConverter
+	 *            the converter for the property type, may be null
+	 */
+	PropertyWriter(MethodHandle aSetter, Class<?> aType, Converter aConverter) {
+		this.setter = aSetter;
+		this.type = aType;
+		this.converter = aConverter;
+	}
+
+	/**
+	 * Creates a writer for a property.
+	 *
+	 * @param aWriteMethod
+	 *            the write method of the property
+	 * @param aType
+	 *            the property type
+	 * @param aConverter
+	 *            the converter for the property type, may be null
+	 * @return the writer or null if the write method can't be accessed
+	 */
+	static PropertyWriter forProperty(Method aWriteMethod, Class<?> aType, Converter aConverter) {
+		final MethodHandle handle = PropertyWriter.unreflect(aWriteMethod);
+		if (handle == null) {
+			return null;
+		}
+		final MethodHandle setter = handle.asType(PropertyWriter.OBJECT_SETTER);
+
+		if (aType == int.class) {
+			return new IntWriter(setter, handle.asType(MethodType.methodType(void.class, Object.class,
+					int.class)), aConverter);
+		} else if (aType == long.class) {
+			return new LongWriter(setter, handle.asType(MethodType.methodType(void.class, Object.class,
+					long.class)), aConverter);
+		} else if (aType == double.class) {
+			return new DoubleWriter(setter, handle.asType(MethodType.methodType(void.class, Object.class,
+					double.class)), aConverter);
+		} else if (aType == boolean.class) {
+			return new BooleanWriter(setter, handle.asType(MethodType.methodType(void.class, Object.class,
+					boolean.class)), aConverter);
+		} else if (aType == String.class) {
+			return new StringWriter(setter, aConverter);
+		}
+		return new ObjectWriter(setter, aType, aConverter);
+	}
+
+	/**
+	 * Gets a method handle for a property accessor, making it accessible if the declaring class is not public.
+	 *
+	 * @param aMethod
+	 *            the read or write method
+	 * @return the method handle or null if it can't be accessed
+	 */
+	static MethodHandle unreflect(Method aMethod) {
+		try {
+			return MethodHandles.publicLookup().unreflect(aMethod);
+		} catch (final IllegalAccessException e) {
+			try {
+				aMethod.setAccessible(true);
+				return MethodHandles.lookup().unreflect(aMethod);
+			} catch (final IllegalAccessException e2) {
+				return null;
+			} catch (final SecurityException e2) {
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * Reads a column of the current row and writes it to the bean.
+	 *
+	 * @param aBean
+	 *            the bean to write to
+	 * @param aResultSet
+	 *            the result set positioned on the row to map
+	 * @param aIndex
+	 *            the column index
+	 * @throws Throwable
+	 *             any error reading the column or invoking the write method
+	 */
+	abstract void write(Object aBean, ResultSet aResultSet, int aIndex) throws Throwable;
+
+	/**
+	 * Converts a value to the property type, the same way BeanUtils would, and writes it to the bean.
+	 *
+	 * @param aBean
+	 *            the bean to write to
+	 * @param aValue
+	 *            the value read from the result set, may be null
+	 * @throws Throwable
+	 *             any error invoking the write method
+	 */
+	final void writeObject(Object aBean, Object aValue) throws Throwable {
+		Object value = aValue;
+		if (this.converter != null && (value == null || !ColumnPlan.isInstance(this.type, value))) {
+			value = this.converter.convert(this.type, value);
+		}
+		this.setter.invokeExact(aBean, value);
+	}
+
+	/**
+	 * Writes primitive int properties.
+	 */
+	private static final class IntWriter extends PropertyWriter {
+
+		private final MethodHandle intSetter;
+
+		IntWriter(MethodHandle aSetter, MethodHandle aIntSetter, Converter aConverter) {
+			super(aSetter, int.class, aConverter);
+			this.intSetter = aIntSetter;
+		}
+
+		@Override
+		void write(Object aBean, ResultSet aResultSet, int aIndex) throws Throwable {
+			final int value = aResultSet.getInt(aIndex);
+			if (aResultSet.wasNull()) {
+				this.writeObject(aBean, null);
+			} else {
+				this.intSetter.invokeExact(aBean, value);
+			}
+		}
+	}
+
+	/**
+	 * Writes primitive long properties.
+	 */
+	private static final class LongWriter extends PropertyWriter {
+
+		private final MethodHandle longSetter;
+
+		LongWriter(MethodHandle aSetter, MethodHandle aLongSetter, Converter aConverter) {
+			super(aSetter, long.class, aConverter);
+			this.longSetter = aLongSetter;
+		}
+
+		@Override
+		void write(Object aBean, ResultSet aResultSet, int aIndex) throws Throwable {
+			final long value = aResultSet.getLong(aIndex);
+			if (aResultSet.wasNull()) {
+				this.writeObject(aBean, null);
+			} else {
+				this.longSetter.invokeExact(aBean, value);
+			}
+		}
+	}
+
+	/**
+	 * Writes primitive double properties.
+	 */
+	private static final class DoubleWriter extends PropertyWriter {
+
+		private final MethodHandle doubleSetter;
+
+		DoubleWriter(MethodHandle aSetter, MethodHandle aDoubleSetter, Converter aConverter) {
+			super(aSetter, double.class, aConverter);
+			this.doubleSetter = aDoubleSetter;
+		}
+
+		@Override
+		void write(Object aBean, ResultSet aResultSet, int aIndex) throws Throwable {
+			final double value = aResultSet.getDouble(aIndex);
+			if (aResultSet.wasNull()) {
+				this.writeObject(aBean, null);
+			} else {
+				this.doubleSetter.invokeExact(aBean, value);
+			}
+		}
+	}
+
+	/**
+	 * Writes primitive boolean properties.
+	 */
+	private static final class BooleanWriter extends PropertyWriter {
+
+		private final MethodHandle booleanSetter;
+
+		BooleanWriter(MethodHandle aSetter, MethodHandle aBooleanSetter, Converter aConverter) {
+			super(aSetter, boolean.class, aConverter);
+			this.booleanSetter = aBooleanSetter;
+		}
+
+		@Override
+		void write(Object aBean, ResultSet aResultSet, int aIndex) throws Throwable {
+			final boolean value = aResultSet.getBoolean(aIndex);
+			if (aResultSet.wasNull()) {
+				this.writeObject(aBean, null);
+			} else {
+				this.booleanSetter.invokeExact(aBean, value);
+			}
+		}
+	}
+
+	/**
+	 * Writes String properties.
+	 */
+	private static final class StringWriter extends PropertyWriter {
+
+		StringWriter(MethodHandle aSetter, Converter aConverter) {
+			super(aSetter, String.class, aConverter);
+		}
+
+		@Override
+		void write(Object aBean, ResultSet aResultSet, int aIndex) throws Throwable {
+			final String value = aResultSet.getString(aIndex);
+			if (value == null) {
+				this.writeObject(aBean, null);
+			} else {
+				this.setter.invokeExact(aBean, (Object) value);
+			}
+		}
+	}
+
+	/**
+	 * Writes properties of any other type.
+	 */
+	private static final class ObjectWriter extends PropertyWriter {
+
+		ObjectWriter(MethodHandle aSetter, Class<?> aType, Converter aConverter) {
+			super(aSetter, aType, aConverter);
+		}
+
+		@Override
+		void write(Object aBean, ResultSet aResultSet, int aIndex) throws Throwable {
+			this.writeObject(aBean, aResultSet.getObject(aIndex));
+		}
+	}
+}
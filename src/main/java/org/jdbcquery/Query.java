@@ -199,4 +199,186 @@ public final class Query {
 	public static Select<String> forString(String aStatement, String aConnectionName) {
 		return new Select<String>(aStatement, RowMappers.STRING_MAPPER, aConnectionName);
 	}
+
+	/**
+	 * Compiles a statement that will be used for updates. The returned query is thread-safe and may be reused.
+	 *
+	 * @param aStatement
+	 *            the statement to compile
+	 * @return the compiled query
+	 */
+	public static CompiledQuery<Void> compile(String aStatement) {
+		return new CompiledQuery<Void>(Query.parse(aStatement), null);
+	}
+
+	/**
+	 * Compiles a select statement. The returned query is thread-safe and may be reused.
+	 *
+	 * @param aStatement
+	 *            the select statement to compile
+	 * @param aRowMapper
+	 *            the row mapping to use
+	 * @return the compiled query
+	 */
+	public static <T> CompiledQuery<T> compile(String aStatement, RowMapper<T> aRowMapper) {
+		return new CompiledQuery<T>(Query.parse(aStatement), aRowMapper);
+	}
+
+	/**
+	 * Compiles a select statement for a java bean. The returned query is thread-safe and may be reused.
+	 *
+	 * @param aStatement
+	 *            the select statement to compile
+	 * @param aBeanClass
+	 *            the bean class to map to
+	 * @return the compiled query
+	 */
+	public static <T> CompiledQuery<T> compile(String aStatement, Class<T> aBeanClass) {
+		return new CompiledQuery<T>(Query.parse(aStatement), BeanRowMapper.forClass(aBeanClass));
+	}
+
+	/**
+	 * Executes work in a transaction. Statements created by the work for the connection name share one
+	 * connection, which is committed once the work is done, or rolled back if the work throws an exception, and
+	 * then closed. Statements created without a connection name use the default connector, so they only join
+	 * a transaction open on the default connector, and otherwise get a connection of their own even inside a
+	 * transaction on another connector. Work on a connection that already has a transaction open joins it.
+	 *
+	 * <pre>
+	 * long id = Query.transaction("orders", () -&gt; {
+	 * 	long orderId = Query.update("INSERT INTO orders(customer) VALUES(:customer)", "orders")
+	 * 			.set("customer", customer).executeAndReturnKey();
+	 * 	Query.update("UPDATE stock SET count = count - 1 WHERE item = :item", "orders").set("item", item)
+	 * 			.execute();
+	 * 	return orderId;
+	 * });
+	 * </pre>
+	 *
+	 * @param aConnectionName
+	 *            the name of the connection to use
+	 * @param aWork
+	 *            the work to execute
+	 * @return the result of the work
+	 */
+	public static <T> T transaction(String aConnectionName, UnitOfWork<T> aWork) {
+		return Transaction.execute(ConnectorServiceLoader.getConnector(aConnectionName), aWork);
+	}
+
+	/**
+	 * Executes work in a transaction on a connection from a connector. See
+	 * {@link #transaction(String, UnitOfWork)}.
+	 *
+	 * @param aConnector
+	 *            the connector to get the connection from, statements join the transaction by its name
+	 * @param aWork
+	 *            the work to execute
+	 * @return the result of the work
+	 */
+	public static <T> T transaction(JdbcConnector aConnector, UnitOfWork<T> aWork) {
+		return Transaction.execute(aConnector, aWork);
+	}
+
+	/**
+	 * Static constructor for building a select executed on several connectors at once.
+	 *
+	 * @param aStatement
+	 *            the select statement to execute
+	 * @param aRowMapper
+	 *            the row mapping to use
+	 * @param aConnectors
+	 *            the connectors to execute the select on
+	 * @return the ScatterSelect
+	 */
+	public static <T> ScatterSelect<T> scatter(String aStatement, RowMapper<T> aRowMapper,
+			JdbcConnector... aConnectors) {
+		return new ScatterSelect<T>(aStatement, aRowMapper, aConnectors);
+	}
+
+	/**
+	 * Static constructor for building a select for a java bean executed on several connectors at once.
+	 *
+	 * @param aStatement
+	 *            the select statement to execute
+	 * @param aBeanClass
+	 *            the bean class to map to
+	 * @param aConnectors
+	 *            the connectors to execute the select on
+	 * @return the ScatterSelect
+	 */
+	public static <T> ScatterSelect<T> scatterForBean(String aStatement, Class<T> aBeanClass,
+			JdbcConnector... aConnectors) {
+		return new ScatterSelect<T>(aStatement, BeanRowMapper.forClass(aBeanClass), aConnectors);
+	}
+
+	/**
+	 * Static constructor for building a select for a Long executed on several connectors at once, such as a
+	 * count combined with {@link ScatterSelect#longSum()}.
+	 *
+	 * @param aStatement
+	 *            the select statement to execute
+	 * @param aConnectors
+	 *            the connectors to execute the select on
+	 * @return the ScatterSelect
+	 */
+	public static ScatterSelect<Long> scatterForLong(String aStatement, JdbcConnector... aConnectors) {
+		return new ScatterSelect<Long>(aStatement, RowMappers.LONG_MAPPER, aConnectors);
+	}
+
+	/**
+	 * Static constructor for building a select that is sent to a second replica when the first is slow.
+	 *
+	 * @param aStatement
+	 *            the select statement to execute
+	 * @param aRowMapper
+	 *            the row mapping to use
+	 * @param aConnectionName
+	 *            the name of a {@link ReadWriteConnector} with a {@link HedgePolicy}
+	 * @return the HedgedSelect
+	 */
+	public static <T> HedgedSelect<T> hedged(String aStatement, RowMapper<T> aRowMapper,
+			String aConnectionName) {
+		return new HedgedSelect<T>(aStatement, aRowMapper, aConnectionName);
+	}
+
+	/**
+	 * Static constructor for building a select for a java bean that is sent to a second replica when the first
+	 * is slow.
+	 *
+	 * @param aStatement
+	 *            the select statement to execute
+	 * @param aBeanClass
+	 *            the bean class to map to
+	 * @param aConnectionName
+	 *            the name of a {@link ReadWriteConnector} with a {@link HedgePolicy}
+	 * @return the HedgedSelect
+	 */
+	public static <T> HedgedSelect<T> hedgedForBean(String aStatement, Class<T> aBeanClass,
+			String aConnectionName) {
+		return new HedgedSelect<T>(aStatement, BeanRowMapper.forClass(aBeanClass), aConnectionName);
+	}
+
+	/**
+	 * Static constructor for building a select for a Long that is sent to a second replica when the first is
+	 * slow.
+	 *
+	 * @param aStatement
+	 *            the select statement to execute
+	 * @param aConnectionName
+	 *            the name of a {@link ReadWriteConnector} with a {@link HedgePolicy}
+	 * @return the HedgedSelect
+	 */
+	public static HedgedSelect<Long> hedgedForLong(String aStatement, String aConnectionName) {
+		return new HedgedSelect<Long>(aStatement, RowMappers.LONG_MAPPER, aConnectionName);
+	}
+
+	/**
+	 * Parses a statement with the shared parser.
+	 *
+	 * @param aStatement
+	 *            the statement to parse
+	 * @return the parsed statement
+	 */
+	private static ParsedNamedStatement parse(String aStatement) {
+		return NamedStatementParserStrategy.getDefault().prepareNamedStatement(aStatement);
+	}
 }
@@ -0,0 +1,311 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A connector that sends selects to replicas of the database and everything else to the primary.
+ *
+ * <p>
+ * {@link #getConnection()} always returns a connection to the primary, which is what updates, batch writers and
+ * transactions use. Selects created for the connector's name are given a connection to a replica instead. The
+ * replica is chosen by the power of two choices: two replicas are picked at random and the one with fewer
+ * selects in flight is used, which spreads the load almost as well as checking every replica without any shared
+ * state beyond a counter per replica. Selects within a transaction use the connection of the transaction, so
+ * they read from the primary. With {@link #readYourWrites(long, TimeUnit)}, a thread's selects also go to the
+ * primary for a while after a statement or transaction of the thread that writes to the primary finishes, so it
+ * reads its own writes even if the replicas lag behind. With {@link #hedge(HedgePolicy)}, a {@link HedgedSelect}
+ * that is slow on one replica is also sent to a second one.
+ *
+ * <pre>
+ * ConnectorServiceLoader.register(new ReadWriteConnector("orders", primary, replica1, replica2)
+ * 		.readYourWrites(2, TimeUnit.SECONDS));
+ * </pre>
+ *
+ * @author Troy Histed
+ */
+public final class ReadWriteConnector implements JdbcConnector {
+
+	private final String name;
+	private final JdbcConnector primary;
+	private final Replica[] replicas;
+	private volatile long readYourWritesNanos = 0;
+	private volatile HedgePolicy hedgePolicy;
+	private final ThreadLocal<long[]> lastWrite = new ThreadLocal<long[]>() {
+		@Override
+		protected long[] initialValue() {
+			return new long[] { Long.MIN_VALUE };
+		}
+	};
+
+	private final AtomicLong writes = new AtomicLong();
+	private final AtomicLong primaryReads = new AtomicLong();
+	private final AtomicLong replicaReads = new AtomicLong();
+
+	/**
+	 * Constructs a connector that splits reads and writes.
+	 *
+	 * @param aName
+	 *            the name of the connector
+	 * @param aPrimary
+	 *            the connector to the primary database
+	 * @param aReplicas
+	 *            the connectors to the replicas, selects go to the primary if there are none
+	 */
+	public ReadWriteConnector(String aName, JdbcConnector aPrimary, JdbcConnector... aReplicas) {
+		if (aPrimary == null) {
+			throw new DaoException("Primary connector was null");
+		}
+		this.name = aName;
+		this.primary = aPrimary;
+		this.replicas = new Replica[aReplicas.length];
+		for (int i = 0; i < aReplicas.length; i++) {
+			this.replicas[i] = new Replica(aReplicas[i]);
+		}
+	}
+
+	/**
+	 * @param aWindow
+	 *            how long a thread's selects go to the primary after it finishes writing, defaults to zero
+	 * @param aUnit
+	 *            the unit of the window
+	 * @return the connector (for method chaining)
+	 */
+	public ReadWriteConnector readYourWrites(long aWindow, TimeUnit aUnit) {
+		if (aWindow < 0) {
+			throw new IllegalArgumentException("Window must not be negative: " + aWindow);
+		}
+		this.readYourWritesNanos = aUnit.toNanos(aWindow);
+		return this;
+	}
+
+	/**
+	 * @param aPolicy
+	 *            when hedged selects are sent to a second replica, or <code>null</code> to never hedge, which is
+	 *            the default
+	 * @return the connector (for method chaining)
+	 */
+	public ReadWriteConnector hedge(HedgePolicy aPolicy) {
+		this.hedgePolicy = aPolicy;
+		return this;
+	}
+
+	/**
+	 * @return the policy for hedged selects, or <code>null</code> if they are not hedged
+	 */
+	public HedgePolicy getHedgePolicy() {
+		return this.hedgePolicy;
+	}
+
+	/**
+	 * Returns a connection to the primary for writing.
+	 *
+	 * @return the connection
+	 */
+	@Override
+	public Connection getConnection() {
+		this.writes.incrementAndGet();
+		return this.primary.getConnection();
+	}
+
+	/**
+	 * Starts the read-your-writes window of the current thread, once a connection it wrote with has been
+	 * committed or released, so the window covers the time the replicas take to catch up with the write.
+	 */
+	void written() {
+		if (this.readYourWritesNanos > 0) {
+			this.lastWrite.get()[0] = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Chooses the replica for a select, or none if the select should read from the primary.
+	 *
+	 * @return the replica, or <code>null</code> to read from the primary
+	 */
+	Replica chooseReplica() {
+		final int count = this.replicas.length;
+		if (count == 0 || this.isWithinReadYourWrites()) {
+			return null;
+		}
+		if (count == 1) {
+			return this.replicas[0];
+		}
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int first = random.nextInt(count);
+		return this.lessLoaded(first, this.otherThan(first, random));
+	}
+
+	/**
+	 * Chooses a second replica for a hedged select, when there are at least two.
+	 *
+	 * @param aFirst
+	 *            the replica the select was sent to first
+	 * @return another replica
+	 */
+	Replica chooseOtherReplica(Replica aFirst) {
+		final int count = this.replicas.length;
+		final int excluded = Arrays.asList(this.replicas).indexOf(aFirst);
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		final int first = this.otherThan(excluded, random);
+		if (count == 2) {
+			return this.replicas[first];
+		}
+		int second = this.otherThan(excluded, random);
+		while (second == first) {
+			second = this.otherThan(excluded, random);
+		}
+		return this.lessLoaded(first, second);
+	}
+
+	/**
+	 * @return a random replica index other than the one given
+	 */
+	private int otherThan(int aIndex, ThreadLocalRandom aRandom) {
+		final int index = aRandom.nextInt(this.replicas.length - 1);
+		return index >= aIndex ? index + 1 : index;
+	}
+
+	/**
+	 * @return whichever of two replicas has fewer selects in flight
+	 */
+	private Replica lessLoaded(int aFirst, int aSecond) {
+		final Replica a = this.replicas[aFirst];
+		final Replica b = this.replicas[aSecond];
+		return a.inFlight.get() <= b.inFlight.get() ? a : b;
+	}
+
+	/**
+	 * @return <code>true</code> if the current thread wrote recently enough that it should read from the primary
+	 */
+	private boolean isWithinReadYourWrites() {
+		final long window = this.readYourWritesNanos;
+		if (window == 0) {
+			return false;
+		}
+		final long written = this.lastWrite.get()[0];
+		return written != Long.MIN_VALUE && System.nanoTime() - written < window;
+	}
+
+	/**
+	 * Returns a connection to the primary for a select.
+	 *
+	 * @return the connection
+	 */
+	Connection getPrimaryReadConnection() {
+		this.primaryReads.incrementAndGet();
+		return this.primary.getConnection();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return the number of connections handed out for writing
+	 */
+	public long getWriteCount() {
+		return this.writes.get();
+	}
+
+	/**
+	 * @return the number of selects that read from the primary
+	 */
+	public long getPrimaryReadCount() {
+		return this.primaryReads.get();
+	}
+
+	/**
+	 * @return the number of selects that read from a replica
+	 */
+	public long getReplicaReadCount() {
+		return this.replicaReads.get();
+	}
+
+	/**
+	 * @return the number of replicas
+	 */
+	public int getReplicaCount() {
+		return this.replicas.length;
+	}
+
+	/**
+	 * @param aReplica
+	 *            the position of the replica in the constructor
+	 * @return the number of selects currently using the replica
+	 */
+	public int getInFlight(int aReplica) {
+		return this.replicas[aReplica].inFlight.get();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "ReadWriteConnector [name=" + this.name + ", replicas=" + this.replicas.length + "]";
+	}
+
+	/**
+	 * A replica and the number of selects using it.
+	 */
+	final class Replica {
+
+		private final JdbcConnector connector;
+		private final AtomicInteger inFlight = new AtomicInteger();
+
+		Replica(JdbcConnector aConnector) {
+			if (aConnector == null) {
+				throw new DaoException("Replica connector was null");
+			}
+			this.connector = aConnector;
+		}
+
+		/**
+		 * Gets a connection to the replica, counting it as in flight until it is released.
+		 *
+		 * @return the connection
+		 */
+		Connection connect() {
+			this.inFlight.incrementAndGet();
+			try {
+				final Connection connection = this.connector.getConnection();
+				ReadWriteConnector.this.replicaReads.incrementAndGet();
+				return connection;
+			} catch (final RuntimeException e) {
+				this.inFlight.decrementAndGet();
+				throw e;
+			}
+		}
+
+		/**
+		 * Stops counting a select as in flight once its connection is closed.
+		 */
+		void release() {
+			this.inFlight.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,488 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BinaryOperator;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Executes the same select on several databases at once, such as every shard of a {@link ShardedConnector}, and
+ * combines the results.
+ *
+ * <p>
+ * The select is executed on each connector by a bounded pool of threads shared by every scatter select, or by
+ * the executor given to {@link #executor(Executor)}. The results can be concatenated, merged in order when each
+ * database returns its rows sorted the same way, or combined from a partial aggregate computed by each
+ * database. Merging streams the rows, holding only the next row of each database, so memory is proportional to
+ * the number of databases rather than the number of rows.
+ *
+ * <pre>
+ * Stream&lt;Order&gt; orders = Query.scatterForBean("SELECT * FROM orders ORDER BY created", Order.class,
+ * 		shards.getShards()).executeForMergedStream(byCreated);
+ * Long count = Query.scatterForLong("SELECT count(*) FROM orders", shards.getShards())
+ * 		.executeAndCombine(ScatterSelect.longSum());
+ * </pre>
+ *
+ * @author Troy Histed
+ *
+ * @param <T>
+ *            The object type that will be constructed from the result set
+ */
+public final class ScatterSelect<T> {
+
+	private static final Executor DEFAULT_EXECUTOR = ScatterSelect.createExecutor("jdbc-query-scatter-");
+
+	private final ParsedNamedStatement parsedStatement;
+	private final RowMapper<T> rowMapper;
+	private final JdbcConnector[] connectors;
+	private final Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+	private Executor executor = ScatterSelect.DEFAULT_EXECUTOR;
+	private int fetchSize = 0;
+
+	/**
+	 * Constructs a select that is executed on every connector.
+	 *
+	 * @param aStatement
+	 *            the select to be executed
+	 * @param aRowMapper
+	 *            the row mapping to use
+	 * @param aConnectors
+	 *            the connectors to execute the select on
+	 */
+	public ScatterSelect(String aStatement, RowMapper<T> aRowMapper, JdbcConnector... aConnectors) {
+		if (aConnectors.length == 0) {
+			throw new DaoException("A scatter select needs at least one connector");
+		}
+		this.parsedStatement = NamedStatementParserStrategy.getDefault().prepareNamedStatement(aStatement);
+		this.rowMapper = aRowMapper;
+		this.connectors = aConnectors.clone();
+	}
+
+	/**
+	 * Constructs a select that is executed on every shard of a sharded connector.
+	 *
+	 * @param aStatement
+	 *            the select to be executed
+	 * @param aRowMapper
+	 *            the row mapping to use
+	 * @param aConnector
+	 *            the sharded connector
+	 */
+	public ScatterSelect(String aStatement, RowMapper<T> aRowMapper, ShardedConnector aConnector) {
+		this(aStatement, aRowMapper, aConnector.getShards());
+	}
+
+	/**
+	 * Sets a parameter of the select on every connector.
+	 *
+	 * @param aName
+	 *            the name of the parameter to set
+	 * @param aValue
+	 *            the value to set
+	 * @return the select (for method chaining)
+	 */
+	public ScatterSelect<T> setObject(String aName, Object aValue) {
+		this.parameters.put(aName, aValue);
+		return this;
+	}
+
+	/**
+	 * @param aExecutor
+	 *            the executor that runs the select on each connector, which should allow as many tasks to run at
+	 *            once as there are connectors
+	 * @return the select (for method chaining)
+	 */
+	public ScatterSelect<T> executor(Executor aExecutor) {
+		if (aExecutor == null) {
+			throw new DaoException("Executor was null");
+		}
+		this.executor = aExecutor;
+		return this;
+	}
+
+	/**
+	 * @param aRows
+	 *            the number of rows to fetch from each database at a time, see {@link Select#fetchSize(int)}
+	 * @return the select (for method chaining)
+	 */
+	public ScatterSelect<T> fetchSize(int aRows) {
+		if (aRows < 0) {
+			throw new IllegalArgumentException("Fetch size must not be negative: " + aRows);
+		}
+		this.fetchSize = aRows;
+		return this;
+	}
+
+	/**
+	 * Executes the select on every connector and concatenates the rows in the order of the connectors.
+	 *
+	 * @return a non-null list of the mapped rows
+	 */
+	public List<T> executeForAll() {
+		final List<List<T>> results = this.scatter(new ShardQuery<T, List<T>>() {
+			@Override
+			public List<T> execute(Select<T> aSelect) {
+				return aSelect.executeForAll();
+			}
+		}, null);
+
+		int size = 0;
+		for (final List<T> result : results) {
+			size += result.size();
+		}
+		final List<T> rows = new ArrayList<T>(size);
+		for (final List<T> result : results) {
+			rows.addAll(result);
+		}
+		return rows;
+	}
+
+	/**
+	 * Executes the select on every connector and merges the rows, which each database must return sorted in the
+	 * order of the comparator. Rows are read from the databases as the stream is consumed, holding one row of
+	 * each in memory besides what the drivers have fetched. Rows that compare equal keep the order of the
+	 * connectors.
+	 *
+	 * <p>
+	 * Every connection is released when the last row has been read or when the stream is closed. Streams that
+	 * may not be consumed completely should be closed, preferably with a try-with-resources statement.
+	 *
+	 * @param aComparator
+	 *            the order the rows are sorted in by each database
+	 * @return a sequential stream of the mapped rows in order
+	 */
+	public Stream<T> executeForMergedStream(Comparator<? super T> aComparator) {
+		final List<Stream<T>> streams = this.scatter(new ShardQuery<T, Stream<T>>() {
+			@Override
+			public Stream<T> execute(Select<T> aSelect) {
+				return aSelect.executeForStream();
+			}
+		}, new Discard<Stream<T>>() {
+			@Override
+			public void discard(Stream<T> aStream) {
+				aStream.close();
+			}
+		});
+
+		final MergeIterator<T> iterator;
+		try {
+			iterator = new MergeIterator<T>(streams, aComparator);
+		} catch (final RuntimeException e) {
+			ScatterSelect.closeAfterFailure(streams, e);
+			throw e;
+		} catch (final Error e) {
+			ScatterSelect.closeAfterFailure(streams, e);
+			throw e;
+		}
+		return StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false)
+				.onClose(new Runnable() {
+					@Override
+					public void run() {
+						ScatterSelect.closeAll(streams);
+					}
+				});
+	}
+
+	/**
+	 * Executes a select returning a single partial aggregate, such as a count, on every connector and combines
+	 * the partial results. Connectors returning no row or null are left out.
+	 *
+	 * @param aCombiner
+	 *            combines two partial results, see {@link #longSum()}, {@link #doubleSum()}, {@link #min()} and
+	 *            {@link #max()}
+	 * @return the combined result, or <code>null</code> if no connector returned a result
+	 */
+	public T executeAndCombine(BinaryOperator<T> aCombiner) {
+		final List<T> results = this.scatter(new ShardQuery<T, T>() {
+			@Override
+			public T execute(Select<T> aSelect) {
+				return aSelect.execute();
+			}
+		}, null);
+
+		T combined = null;
+		for (final T result : results) {
+			if (result != null) {
+				combined = combined == null ? result : aCombiner.apply(combined, result);
+			}
+		}
+		return combined;
+	}
+
+	/**
+	 * Combines partial counts or sums.
+	 *
+	 * @return a combiner adding longs
+	 */
+	public static BinaryOperator<Long> longSum() {
+		return new BinaryOperator<Long>() {
+			@Override
+			public Long apply(Long aFirst, Long aSecond) {
+				return Long.valueOf(aFirst.longValue() + aSecond.longValue());
+			}
+		};
+	}
+
+	/**
+	 * Combines partial sums.
+	 *
+	 * @return a combiner adding doubles
+	 */
+	public static BinaryOperator<Double> doubleSum() {
+		return new BinaryOperator<Double>() {
+			@Override
+			public Double apply(Double aFirst, Double aSecond) {
+				return Double.valueOf(aFirst.doubleValue() + aSecond.doubleValue());
+			}
+		};
+	}
+
+	/**
+	 * Combines partial minimums.
+	 *
+	 * @return a combiner keeping the smaller value
+	 */
+	public static <C extends Comparable<? super C>> BinaryOperator<C> min() {
+		return new BinaryOperator<C>() {
+			@Override
+			public C apply(C aFirst, C aSecond) {
+				return aSecond.compareTo(aFirst) < 0 ? aSecond : aFirst;
+			}
+		};
+	}
+
+	/**
+	 * Combines partial maximums.
+	 *
+	 * @return a combiner keeping the larger value
+	 */
+	public static <C extends Comparable<? super C>> BinaryOperator<C> max() {
+		return new BinaryOperator<C>() {
+			@Override
+			public C apply(C aFirst, C aSecond) {
+				return aSecond.compareTo(aFirst) > 0 ? aSecond : aFirst;
+			}
+		};
+	}
+
+	/**
+	 * Runs a query on every connector at once and waits for all of them. If any fails, the results of the
+	 * others are discarded and the first failure is thrown.
+	 */
+	private <R> List<R> scatter(final ShardQuery<T, R> aQuery, Discard<R> aDiscard) {
+		final List<CompletableFuture<R>> futures = new ArrayList<CompletableFuture<R>>(this.connectors.length);
+		for (final JdbcConnector connector : this.connectors) {
+			futures.add(CompletableFuture.supplyAsync(new Supplier<R>() {
+				@Override
+				public R get() {
+					return aQuery.execute(ScatterSelect.this.createSelect(connector));
+				}
+			}, this.executor));
+		}
+
+		final List<R> results = new ArrayList<R>(futures.size());
+		RuntimeException failure = null;
+		for (final CompletableFuture<R> future : futures) {
+			try {
+				results.add(future.join());
+			} catch (final CompletionException e) {
+				if (failure == null) {
+					failure = e.getCause() instanceof RuntimeException ? (RuntimeException) e.getCause()
+							: new DaoException("Error executing : " + this, e.getCause());
+				}
+			}
+		}
+		if (failure != null) {
+			if (aDiscard != null) {
+				for (final R result : results) {
+					aDiscard.discard(result);
+				}
+			}
+			throw failure;
+		}
+		return results;
+	}
+
+	/**
+	 * Creates the select for a connector with the parameters bound. The connection is checked out for reading,
+	 * so a select on a {@link ReadWriteConnector} goes to one of its replicas.
+	 */
+	private Select<T> createSelect(JdbcConnector aConnector) {
+		final Select<T> select = new Select<T>(this.parsedStatement, this.rowMapper, aConnector);
+		for (final Map.Entry<String, Object> parameter : this.parameters.entrySet()) {
+			select.setObject(parameter.getKey(), parameter.getValue());
+		}
+		if (this.fetchSize > 0) {
+			select.fetchSize(this.fetchSize);
+		}
+		return select;
+	}
+
+	/**
+	 * Closes every stream, even if closing one of them fails.
+	 */
+	private static <S> void closeAll(List<Stream<S>> aStreams) {
+		RuntimeException failure = null;
+		for (final Stream<S> stream : aStreams) {
+			try {
+				stream.close();
+			} catch (final RuntimeException e) {
+				failure = e;
+			}
+		}
+		if (failure != null) {
+			throw failure;
+		}
+	}
+
+	/**
+	 * Closes every stream after reading the first row of each failed, keeping the first failure.
+	 */
+	private static <S> void closeAfterFailure(List<Stream<S>> aStreams, Throwable aFailure) {
+		try {
+			ScatterSelect.closeAll(aStreams);
+		} catch (final RuntimeException e) {
+			aFailure.addSuppressed(e);
+		}
+	}
+
+	/**
+	 * Creates a bounded pool of daemon threads that stop when idle.
+	 *
+	 * @param aThreadName
+	 *            the prefix of the thread names
+	 * @return the pool
+	 */
+	static Executor createExecutor(final String aThreadName) {
+		final int threads = Math.max(4, 2 * Runtime.getRuntime().availableProcessors());
+		final AtomicInteger count = new AtomicInteger();
+		final ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable aRunnable) {
+						final Thread thread = new Thread(aRunnable, aThreadName + count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "ScatterSelect [statement=" + this.parsedStatement.getOriginalStatement() + ", connectors="
+				+ this.connectors.length + "]";
+	}
+
+	/**
+	 * A query run on the select of each connector.
+	 */
+	private interface ShardQuery<T, R> {
+
+		R execute(Select<T> aSelect);
+	}
+
+	/**
+	 * Releases a result that won't be returned because another connector failed.
+	 */
+	private interface Discard<R> {
+
+		void discard(R aResult);
+	}
+
+	/**
+	 * Merges sorted iterators by keeping the next row of each in a priority queue.
+	 */
+	private static final class MergeIterator<T> implements Iterator<T> {
+
+		private final PriorityQueue<Head<T>> heads;
+
+		MergeIterator(List<Stream<T>> aStreams, final Comparator<? super T> aComparator) {
+			this.heads = new PriorityQueue<Head<T>>(Math.max(1, aStreams.size()), new Comparator<Head<T>>() {
+				@Override
+				public int compare(Head<T> aFirst, Head<T> aSecond) {
+					final int compared = aComparator.compare(aFirst.row, aSecond.row);
+					return compared != 0 ? compared : Integer.compare(aFirst.source, aSecond.source);
+				}
+			});
+			for (int i = 0; i < aStreams.size(); i++) {
+				final Iterator<T> rows = aStreams.get(i).iterator();
+				if (rows.hasNext()) {
+					this.heads.add(new Head<T>(rows.next(), rows, i));
+				}
+			}
+		}
+
+		@Override
+		public boolean hasNext() {
+			return !this.heads.isEmpty();
+		}
+
+		@Override
+		public T next() {
+			final Head<T> head = this.heads.poll();
+			if (head == null) {
+				throw new NoSuchElementException();
+			}
+			final T row = head.row;
+			if (head.rows.hasNext()) {
+				head.row = head.rows.next();
+				this.heads.add(head);
+			}
+			return row;
+		}
+	}
+
+	/**
+	 * The next row of one of the merged iterators.
+	 */
+	private static final class Head<T> {
+
+		private T row;
+		private final Iterator<T> rows;
+		private final int source;
+
+		Head(T aRow, Iterator<T> aRows, int aSource) {
+			this.row = aRow;
+			this.rows = aRows;
+			this.source = aSource;
+		}
+	}
+}
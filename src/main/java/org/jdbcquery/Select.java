@@ -20,11 +20,24 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 /**
  * Represents a select statement that can be executed against a JDBC connection.
  *
+ * <p>
+ * Statements are prepared with the default forward only, read only cursor. The fetch size, maximum number of
+ * rows and fetch direction can be passed on to the driver with {@link #fetchSize(int)}, {@link #maxRows(int)}
+ * and {@link #forwardOnly()}. Methods that only read the first row limit the select to a single row, or to two
+ * rows for {@link #executeForUnique()}, so the driver doesn't transfer rows that would be discarded.
+ *
  * @author Troy Histed
  *
  * @param <T>
@@ -32,14 +45,16 @@ import java.util.List;
  */
 public class Select<T> extends Statement {
 
-	private static final NamedStatementParserStrategy STATEMENT_PARSER = new NamedStatementParserStrategy();
+	private static final int INITIAL_ARRAY_CAPACITY = 64;
 
-	private final String statement;
 	private final JdbcConnection connection;
 	private final PreparedStatement preparedStatement;
 	private final RowMapper<T> rowMapper;
 	private T defaultWhenNull = null;
-	private List<String> parameters;
+	private final ParsedNamedStatement parsedStatement;
+	private int fetchSize = 0;
+	private int maxRows = 0;
+	private boolean forwardOnly = false;
 
 	/**
 	 * Constructs a select and performs initialization.
@@ -64,52 +79,113 @@ public class Select<T> extends Statement {
 	 *            the name of the connection to use
 	 */
 	public Select(String aSelect, RowMapper<T> aRowMapper, String aConnectionName) {
+		this(NamedStatementParserStrategy.getDefault().prepareNamedStatement(aSelect), aRowMapper,
+				aConnectionName);
+	}
+
+	/**
+	 * Constructs a select and performs initialization.
+	 *
+	 * @param aSelect
+	 *            the select to be executed
+	 * @param aRowMapper
+	 *            the row mapping to use
+	 * @param aConnection
+	 *            the connection to use
+	 */
+	public Select(String aSelect, RowMapper<T> aRowMapper, Connection aConnection) {
+		this(NamedStatementParserStrategy.getDefault().prepareNamedStatement(aSelect), aRowMapper, aConnection);
+	}
+
+	/**
+	 * Constructs a select from a statement that has already been parsed and performs initialization.
+	 *
+	 * @param aParsedSelect
+	 *            the parsed select to be executed
+	 * @param aRowMapper
+	 *            the row mapping to use
+	 * @param aConnectionName
+	 *            the name of the connection to use
+	 */
+	Select(ParsedNamedStatement aParsedSelect, RowMapper<T> aRowMapper, String aConnectionName) {
 
-		this.statement = aSelect;
 		this.rowMapper = aRowMapper;
-		final ParsedNamedStatement preparedSelect = Select.STATEMENT_PARSER.prepareNamedStatement(aSelect);
-		this.parameters = preparedSelect.getParameters();
+		this.parsedStatement = aParsedSelect;
 
+		JdbcConnection jdbcConnection = null;
 		try {
-			this.connection = this.connect(aConnectionName);
-			this.preparedStatement = this.connection.prepareStatement(preparedSelect.getStatement());
+			jdbcConnection = this.connect(aConnectionName);
+			this.preparedStatement = jdbcConnection.prepareStatement(aParsedSelect);
 		} catch (final SQLException e) {
-			if (this.connection != null) {
-				this.connection.cleanUp();
+			if (jdbcConnection != null) {
+				jdbcConnection.cleanUp();
 			}
 			throw new DaoException("Error occured while creating connection to datasource.", e);
 		} catch (final RuntimeException e) {
-			if (this.connection != null) {
-				this.connection.cleanUp();
+			if (jdbcConnection != null) {
+				jdbcConnection.cleanUp();
 			}
 			throw e;
 		}
+		this.connection = jdbcConnection;
 	}
 
 	/**
-	 * Constructs a select and performs initialization.
+	 * Constructs a select from a statement that has already been parsed, reading from a connection checked out
+	 * from a connector, and performs initialization.
 	 *
-	 * @param aSelect
-	 *            the select to be executed
+	 * @param aParsedSelect
+	 *            the parsed select to be executed
+	 * @param aRowMapper
+	 *            the row mapping to use
+	 * @param aConnector
+	 *            the connector to read from
+	 */
+	Select(ParsedNamedStatement aParsedSelect, RowMapper<T> aRowMapper, JdbcConnector aConnector) {
+
+		this.rowMapper = aRowMapper;
+		this.parsedStatement = aParsedSelect;
+
+		JdbcConnection jdbcConnection = null;
+		try {
+			jdbcConnection = JdbcConnection.connectForRead(aConnector);
+			this.preparedStatement = jdbcConnection.prepareStatement(aParsedSelect);
+		} catch (final SQLException e) {
+			if (jdbcConnection != null) {
+				jdbcConnection.cleanUp();
+			}
+			throw new DaoException("Error occured while creating connection to datasource.", e);
+		} catch (final RuntimeException e) {
+			if (jdbcConnection != null) {
+				jdbcConnection.cleanUp();
+			}
+			throw e;
+		}
+		this.connection = jdbcConnection;
+	}
+
+	/**
+	 * Constructs a select from a statement that has already been parsed and performs initialization.
+	 *
+	 * @param aParsedSelect
+	 *            the parsed select to be executed
 	 * @param aRowMapper
 	 *            the row mapping to use
 	 * @param aConnection
 	 *            the connection to use
 	 */
-	public Select(String aSelect, RowMapper<T> aRowMapper, Connection aConnection) {
+	Select(ParsedNamedStatement aParsedSelect, RowMapper<T> aRowMapper, Connection aConnection) {
 
-		this.statement = aSelect;
 		this.rowMapper = aRowMapper;
 		this.connection = new JdbcConnection(aConnection);
-
-		final ParsedNamedStatement preparedSelect = Select.STATEMENT_PARSER.prepareNamedStatement(aSelect);
-		this.parameters = preparedSelect.getParameters();
+		this.parsedStatement = aParsedSelect;
 
 		try {
-			this.preparedStatement = this.connection.prepareStatement(preparedSelect.getStatement());
+			this.preparedStatement = this.connection.prepareStatement(aParsedSelect);
 		} catch (final SQLException e) {
 			this.connection.cleanUp();
-			throw new DaoException("Error occured while preparing statement: " + aSelect, e);
+			throw new DaoException("Error occured while preparing statement: "
+					+ aParsedSelect.getOriginalStatement(), e);
 		}
 	}
 
@@ -122,7 +198,7 @@ public class Select<T> extends Statement {
 	 * @throws SQLException
 	 */
 	protected JdbcConnection connect(String aConnectionName) throws SQLException {
-		return JdbcConnection.connect(aConnectionName);
+		return JdbcConnection.connectForRead(aConnectionName);
 	}
 
 	/**
@@ -135,7 +211,8 @@ public class Select<T> extends Statement {
 	}
 
 	/**
-	 * Executes the select with or without moving the cursor before delegating to the RowMappers mapRow.
+	 * Executes the select with or without moving the cursor before delegating to the RowMappers mapRow. When the
+	 * cursor is moved the select is limited to one row.
 	 *
 	 * @param aMoveCursor
 	 *            indicates whether the cursor of the result set should be moved, <code>true</code> will cause
@@ -150,7 +227,7 @@ public class Select<T> extends Statement {
 		ResultSet resultSet = null;
 
 		try {
-			resultSet = this.preparedStatement.executeQuery();
+			resultSet = this.executeQuery(aMoveCursor ? 1 : 0);
 			if (!aMoveCursor || resultSet.next()) {
 				t = this.rowMapper.mapRow(resultSet);
 			}
@@ -166,6 +243,39 @@ public class Select<T> extends Statement {
 		return t;
 	}
 
+	/**
+	 * Executes the select and maps the only row of the result. The select is limited to two rows, which is
+	 * enough to tell that more than one row matched.
+	 *
+	 * @return a mapped object or the defaultWhenNull or null if there are no rows
+	 * @throws DaoException
+	 *             if more than one row matched
+	 */
+	@SuppressWarnings("resource")
+	public T executeForUnique() {
+		T t = null;
+		ResultSet resultSet = null;
+
+		try {
+			resultSet = this.executeQuery(2);
+			if (resultSet.next()) {
+				t = this.rowMapper.mapRow(resultSet);
+				if (resultSet.next()) {
+					throw new DaoException("More than one row was returned for " + this);
+				}
+			}
+		} catch (final SQLException e) {
+			throw new DaoException("Error executing : " + this, e);
+		} finally {
+			this.connection.cleanUp(resultSet);
+		}
+
+		if (t == null) {
+			return this.defaultWhenNull;
+		}
+		return t;
+	}
+
 	/**
 	 * Executes the select and maps the result to a list of new instances of the specified class using the
 	 * specified row mapper.
@@ -194,7 +304,7 @@ public class Select<T> extends Statement {
 		ResultSet resultSet = null;
 
 		try {
-			resultSet = this.preparedStatement.executeQuery();
+			resultSet = this.executeQuery(0);
 			if (aMoveCursor) {
 				while (resultSet.next()) {
 					list.add(this.rowMapper.mapRow(resultSet));
@@ -213,6 +323,394 @@ public class Select<T> extends Statement {
 		return list;
 	}
 
+	/**
+	 * Executes the select and passes each mapped row to the consumer as it is read, without holding the rows in
+	 * memory. The resources are released when all rows have been consumed or the consumer throws an exception.
+	 *
+	 * @param aConsumer
+	 *            receives each mapped row
+	 */
+	@SuppressWarnings("resource")
+	public void executeForEach(Consumer<? super T> aConsumer) {
+		ResultSet resultSet = null;
+
+		try {
+			resultSet = this.executeQuery(0);
+			while (resultSet.next()) {
+				aConsumer.accept(this.rowMapper.mapRow(resultSet));
+			}
+		} catch (final SQLException e) {
+			throw new DaoException("Error executing : " + this, e);
+		} finally {
+			this.connection.cleanUp(resultSet);
+		}
+	}
+
+	/**
+	 * Executes the select and returns a lazy stream of the mapped rows. Rows are read from the result set as the
+	 * stream is consumed, so only the rows the driver has fetched are held in memory.
+	 *
+	 * <p>
+	 * The resources are released when the last row has been read or when the stream is closed. Streams that may
+	 * not be consumed completely should be closed, preferably with a try-with-resources statement.
+	 *
+	 * @return a sequential stream of the mapped rows
+	 */
+	@SuppressWarnings("resource")
+	public Stream<T> executeForStream() {
+		final ResultSet resultSet;
+		try {
+			resultSet = this.executeQuery(0);
+		} catch (final SQLException e) {
+			this.connection.cleanUp();
+			throw new DaoException("Error executing : " + this, e);
+		}
+
+		final RowSpliterator spliterator = new RowSpliterator(resultSet);
+		return StreamSupport.stream(spliterator, false).onClose(new Runnable() {
+			@Override
+			public void run() {
+				spliterator.close();
+			}
+		});
+	}
+
+	/**
+	 * Executes the select and maps the result to a list that holds a bounded number of rows in memory. Once
+	 * either threshold is reached the remaining rows are serialized to a temporary file, so the rows must be
+	 * serializable if the result can exceed the thresholds. The list must be closed to delete the file.
+	 *
+	 * @param aMaximumRows
+	 *            the number of rows to hold in memory, zero for no limit
+	 * @param aMaximumBytes
+	 *            the estimated number of bytes of rows to hold in memory, zero for no limit
+	 * @return a non-null list of the mapped rows
+	 */
+	@SuppressWarnings("resource")
+	public SpillableList<T> executeForSpillableList(int aMaximumRows, long aMaximumBytes) {
+		final SpillableList<T> list = new SpillableList<T>(aMaximumRows, aMaximumBytes);
+		ResultSet resultSet = null;
+
+		try {
+			resultSet = this.executeQuery(0);
+			while (resultSet.next()) {
+				list.append(this.rowMapper.mapRow(resultSet));
+			}
+			list.finish();
+		} catch (final SQLException e) {
+			list.close();
+			throw new DaoException("Error executing : " + this, e);
+		} catch (final RuntimeException e) {
+			list.close();
+			throw e;
+		} finally {
+			this.connection.cleanUp(resultSet);
+		}
+
+		return list;
+	}
+
+	/**
+	 * Executes the select and reads the result into one typed vector per column, without creating an object per
+	 * row or using the row mapper.
+	 *
+	 * @return the columns of the result
+	 */
+	@SuppressWarnings("resource")
+	public ColumnarResult executeForColumns() {
+		ResultSet resultSet = null;
+
+		try {
+			resultSet = this.executeQuery(0);
+			return ColumnarResult.read(resultSet);
+		} catch (final SQLException e) {
+			throw new DaoException("Error executing : " + this, e);
+		} finally {
+			this.connection.cleanUp(resultSet);
+		}
+	}
+
+	/**
+	 * Executes the select and serializes the result into off heap memory, without creating an object per row or
+	 * using the row mapper. The result must be closed to release the memory.
+	 *
+	 * @return the result
+	 */
+	public OffHeapResult executeForOffHeap() {
+		return this.executeForOffHeap(OffHeapResult.DEFAULT_SEGMENT_SIZE);
+	}
+
+	/**
+	 * Executes the select and serializes the result into off heap memory, without creating an object per row or
+	 * using the row mapper. The result must be closed to release the memory.
+	 *
+	 * @param aSegmentSize
+	 *            the number of bytes of memory allocated at a time
+	 * @return the result
+	 */
+	@SuppressWarnings("resource")
+	public OffHeapResult executeForOffHeap(int aSegmentSize) {
+		if (aSegmentSize <= 0) {
+			throw new IllegalArgumentException("Segment size must be positive: " + aSegmentSize);
+		}
+		ResultSet resultSet = null;
+
+		try {
+			resultSet = this.executeQuery(0);
+			return OffHeapResult.read(resultSet, aSegmentSize);
+		} catch (final SQLException e) {
+			throw new DaoException("Error executing : " + this, e);
+		} finally {
+			this.connection.cleanUp(resultSet);
+		}
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into an int array, without boxing the values
+	 * or using the row mapper. Null values are read as zero.
+	 *
+	 * @return a non-null array with a value for each row
+	 */
+	public int[] executeForIntArray() {
+		return this.executeForIntArray(0, null);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into an int array, without boxing the values
+	 * or using the row mapper.
+	 *
+	 * @param aNullValue
+	 *            the value to use for null values
+	 * @return a non-null array with a value for each row
+	 */
+	public int[] executeForIntArray(int aNullValue) {
+		return this.executeForIntArray(aNullValue, null);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into an int array, without boxing the values
+	 * or using the row mapper. Null values are read as zero and their row indexes are set in the bit set.
+	 *
+	 * @param aNulls
+	 *            receives the zero based index of each row that had a null value
+	 * @return a non-null array with a value for each row
+	 */
+	public int[] executeForIntArray(BitSet aNulls) {
+		return this.executeForIntArray(0, aNulls);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into an int array.
+	 *
+	 * @param aNullValue
+	 *            the value to use for null values
+	 * @param aNulls
+	 *            receives the index of each row that had a null value, may be null
+	 * @return a non-null array with a value for each row
+	 */
+	@SuppressWarnings("resource")
+	private int[] executeForIntArray(int aNullValue, BitSet aNulls) {
+		int[] values = new int[Select.INITIAL_ARRAY_CAPACITY];
+		int size = 0;
+		ResultSet resultSet = null;
+
+		try {
+			resultSet = this.executeQuery(0);
+			while (resultSet.next()) {
+				int value = resultSet.getInt(1);
+				// null is read as zero, so only a zero needs checking
+				if (value == 0 && resultSet.wasNull()) {
+					value = aNullValue;
+					if (aNulls != null) {
+						aNulls.set(size);
+					}
+				}
+				if (size == values.length) {
+					values = Arrays.copyOf(values, size * 2);
+				}
+				values[size++] = value;
+			}
+		} catch (final SQLException e) {
+			throw new DaoException("Error executing : " + this, e);
+		} finally {
+			this.connection.cleanUp(resultSet);
+		}
+
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into a long array, without boxing the values
+	 * or using the row mapper. Null values are read as zero.
+	 *
+	 * @return a non-null array with a value for each row
+	 */
+	public long[] executeForLongArray() {
+		return this.executeForLongArray(0, null);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into a long array, without boxing the values
+	 * or using the row mapper.
+	 *
+	 * @param aNullValue
+	 *            the value to use for null values
+	 * @return a non-null array with a value for each row
+	 */
+	public long[] executeForLongArray(long aNullValue) {
+		return this.executeForLongArray(aNullValue, null);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into a long array, without boxing the values
+	 * or using the row mapper. Null values are read as zero and their row indexes are set in the bit set.
+	 *
+	 * @param aNulls
+	 *            receives the zero based index of each row that had a null value
+	 * @return a non-null array with a value for each row
+	 */
+	public long[] executeForLongArray(BitSet aNulls) {
+		return this.executeForLongArray(0, aNulls);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into a long array.
+	 *
+	 * @param aNullValue
+	 *            the value to use for null values
+	 * @param aNulls
+	 *            receives the index of each row that had a null value, may be null
+	 * @return a non-null array with a value for each row
+	 */
+	@SuppressWarnings("resource")
+	private long[] executeForLongArray(long aNullValue, BitSet aNulls) {
+		long[] values = new long[Select.INITIAL_ARRAY_CAPACITY];
+		int size = 0;
+		ResultSet resultSet = null;
+
+		try {
+			resultSet = this.executeQuery(0);
+			while (resultSet.next()) {
+				long value = resultSet.getLong(1);
+				if (value == 0 && resultSet.wasNull()) {
+					value = aNullValue;
+					if (aNulls != null) {
+						aNulls.set(size);
+					}
+				}
+				if (size == values.length) {
+					values = Arrays.copyOf(values, size * 2);
+				}
+				values[size++] = value;
+			}
+		} catch (final SQLException e) {
+			throw new DaoException("Error executing : " + this, e);
+		} finally {
+			this.connection.cleanUp(resultSet);
+		}
+
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into a double array, without boxing the
+	 * values or using the row mapper. Null values are read as zero.
+	 *
+	 * @return a non-null array with a value for each row
+	 */
+	public double[] executeForDoubleArray() {
+		return this.executeForDoubleArray(0, null);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into a double array, without boxing the
+	 * values or using the row mapper.
+	 *
+	 * @param aNullValue
+	 *            the value to use for null values, such as {@link Double#NaN}
+	 * @return a non-null array with a value for each row
+	 */
+	public double[] executeForDoubleArray(double aNullValue) {
+		return this.executeForDoubleArray(aNullValue, null);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into a double array, without boxing the
+	 * values or using the row mapper. Null values are read as zero and their row indexes are set in the bit set.
+	 *
+	 * @param aNulls
+	 *            receives the zero based index of each row that had a null value
+	 * @return a non-null array with a value for each row
+	 */
+	public double[] executeForDoubleArray(BitSet aNulls) {
+		return this.executeForDoubleArray(0, aNulls);
+	}
+
+	/**
+	 * Executes the select and reads the first column of every row into a double array.
+	 *
+	 * @param aNullValue
+	 *            the value to use for null values
+	 * @param aNulls
+	 *            receives the index of each row that had a null value, may be null
+	 * @return a non-null array with a value for each row
+	 */
+	@SuppressWarnings("resource")
+	private double[] executeForDoubleArray(double aNullValue, BitSet aNulls) {
+		double[] values = new double[Select.INITIAL_ARRAY_CAPACITY];
+		int size = 0;
+		ResultSet resultSet = null;
+
+		try {
+			resultSet = this.executeQuery(0);
+			while (resultSet.next()) {
+				double value = resultSet.getDouble(1);
+				if (value == 0 && resultSet.wasNull()) {
+					value = aNullValue;
+					if (aNulls != null) {
+						aNulls.set(size);
+					}
+				}
+				if (size == values.length) {
+					values = Arrays.copyOf(values, size * 2);
+				}
+				values[size++] = value;
+			}
+		} catch (final SQLException e) {
+			throw new DaoException("Error executing : " + this, e);
+		} finally {
+			this.connection.cleanUp(resultSet);
+		}
+
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Applies the fetch settings and executes the prepared statement.
+	 *
+	 * @param aRowLimit
+	 *            the most rows the caller will read, or zero if it reads them all
+	 * @return the result set
+	 * @throws SQLException
+	 *             error executing the query
+	 */
+	private ResultSet executeQuery(int aRowLimit) throws SQLException {
+		int limit = this.maxRows;
+		if (aRowLimit > 0 && (limit == 0 || aRowLimit < limit)) {
+			limit = aRowLimit;
+		}
+		if (limit > 0) {
+			this.preparedStatement.setMaxRows(limit);
+		}
+		if (this.fetchSize > 0) {
+			this.preparedStatement.setFetchSize(this.fetchSize);
+		}
+		if (this.forwardOnly) {
+			this.preparedStatement.setFetchDirection(ResultSet.FETCH_FORWARD);
+		}
+		return this.preparedStatement.executeQuery();
+	}
+
 	/**
 	 * Defines a default value that will be returned instead of a null value.
 	 *
@@ -225,6 +723,48 @@ public class Select<T> extends Statement {
 		return this;
 	}
 
+	/**
+	 * Gives the driver a hint of how many rows to fetch from the database at a time. Drivers that otherwise read
+	 * the whole result into memory before returning it may need this to stream large results.
+	 *
+	 * @param aRows
+	 *            the number of rows to fetch at a time, zero to use the driver default
+	 * @return the Statement (for method chaining)
+	 */
+	public Select<T> fetchSize(int aRows) {
+		if (aRows < 0) {
+			throw new IllegalArgumentException("Fetch size must not be negative: " + aRows);
+		}
+		this.fetchSize = aRows;
+		return this;
+	}
+
+	/**
+	 * Limits the number of rows the select can return. Any further rows are silently dropped by the driver.
+	 *
+	 * @param aRows
+	 *            the maximum number of rows, zero for no limit
+	 * @return the Statement (for method chaining)
+	 */
+	public Select<T> maxRows(int aRows) {
+		if (aRows < 0) {
+			throw new IllegalArgumentException("Maximum rows must not be negative: " + aRows);
+		}
+		this.maxRows = aRows;
+		return this;
+	}
+
+	/**
+	 * Tells the driver that the rows will be read in order from first to last. The cursor is already forward
+	 * only and read only, this passes the fetch direction on to drivers that use it to plan their fetches.
+	 *
+	 * @return the Statement (for method chaining)
+	 */
+	public Select<T> forwardOnly() {
+		this.forwardOnly = true;
+		return this;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -303,7 +843,7 @@ public class Select<T> extends Statement {
 	@SuppressWarnings("unchecked")
 	@Override
 	public Select<T> setNull(String aName, int aSqlType) {
-		return (Select<T>) super.set(aName, aSqlType);
+		return (Select<T>) super.setNull(aName, aSqlType);
 	}
 
 	/**
@@ -345,8 +885,8 @@ public class Select<T> extends Statement {
 	 * {@inheritDoc}
 	 */
 	@Override
-	protected List<String> getParameters() {
-		return this.parameters;
+	protected ParsedNamedStatement getParsedStatement() {
+		return this.parsedStatement;
 	}
 
 	/**
@@ -362,9 +902,58 @@ public class Select<T> extends Statement {
 	 */
 	@Override
 	public String toString() {
-		return "Select [statement=" + this.statement + ", connection=" + this.connection
+		return "Select [statement=" + this.parsedStatement.getOriginalStatement()
+				+ ", connection=" + this.connection
 				+ ", preparedStatement=" + this.preparedStatement + ", rowMapper=" + this.rowMapper
-				+ ", defaultWhenNull=" + this.defaultWhenNull + ", parameters=" + this.parameters + "]";
+				+ ", defaultWhenNull=" + this.defaultWhenNull + ", fetchSize=" + this.fetchSize + ", maxRows="
+				+ this.maxRows + ", parameters=" + this.getParameters() + "]";
+	}
+
+	/**
+	 * Reads the rows of an open result set one at a time for a stream.
+	 */
+	private final class RowSpliterator extends Spliterators.AbstractSpliterator<T> {
+
+		private final ResultSet resultSet;
+		private boolean closed;
+
+		RowSpliterator(ResultSet aResultSet) {
+			super(Long.MAX_VALUE, Spliterator.ORDERED);
+			this.resultSet = aResultSet;
+		}
+
+		@Override
+		public boolean tryAdvance(Consumer<? super T> aAction) {
+			if (this.closed) {
+				return false;
+			}
+			final T row;
+			try {
+				if (!this.resultSet.next()) {
+					this.close();
+					return false;
+				}
+				row = Select.this.rowMapper.mapRow(this.resultSet);
+			} catch (final SQLException e) {
+				this.close();
+				throw new DaoException("Error executing : " + Select.this, e);
+			} catch (final RuntimeException e) {
+				this.close();
+				throw e;
+			}
+			aAction.accept(row);
+			return true;
+		}
+
+		/**
+		 * Releases the result set and connection, once.
+		 */
+		void close() {
+			if (!this.closed) {
+				this.closed = true;
+				Select.this.connection.cleanUp(this.resultSet);
+			}
+		}
 	}
 
 }
@@ -0,0 +1,36 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+/**
+ * Chooses the shard a value of the shard key belongs to, see {@link ShardedConnector}. Implementations must be
+ * thread-safe and should not block, since they are called for every statement executed on a sharded connector.
+ *
+ * @author Troy Histed
+ */
+public interface ShardFunction {
+
+	/**
+	 * Returns the shard a value of the shard key belongs to.
+	 *
+	 * @param aKey
+	 *            the value bound to the shard key parameter, which may be <code>null</code>
+	 * @param aShardCount
+	 *            the number of shards
+	 * @return the position of the shard, from zero to one less than the number of shards
+	 */
+	int shard(Object aKey, int aShardCount);
+}
@@ -0,0 +1,240 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.util.List;
+
+/**
+ * A connector that spreads the data over several databases, choosing the database of each statement from the
+ * value bound to a named shard key parameter.
+ *
+ * <p>
+ * A statement created for the connector's name doesn't check out a connection until it is executed, as if
+ * connections were deferred (see {@link JdbcConnection#setDeferredConnections(boolean)}). The value bound to the
+ * shard key parameter is then passed to the shard function, and the connection is checked out from the shard
+ * it chooses. Every row of a batch must belong to the same shard, including the rows of chunks executed after
+ * the first one, and {@link Update#executeBulk(Iterable)} and
+ * {@link Update#executeBatchIsolatingFailures(Iterable)} choose the shard from the beans before executing any of
+ * them. The shards and the function are fixed when the connector is constructed, so routing a statement is a
+ * lookup in the parameters it already has and a call to the function, without any locking.
+ *
+ * <p>
+ * Transactions and {@link BatchWriter}s can't span shards, and fail straight away on a sharded connector; they
+ * are used with the connector of one shard from {@link #getShard(Object)} instead.
+ *
+ * <pre>
+ * ConnectorServiceLoader.register(new ShardedConnector("tenants", "tenantId", ShardedConnector.hash(), tenants1,
+ * 		tenants2, tenants3));
+ * Query.forBean("SELECT * FROM orders WHERE tenant_id = :tenantId", Order.class, "tenants")
+ * 		.set("tenantId", tenantId).executeForAll();
+ * </pre>
+ *
+ * @author Troy Histed
+ */
+public final class ShardedConnector implements JdbcConnector {
+
+	private final String name;
+	private final String shardKey;
+	private final ShardFunction function;
+	private final JdbcConnector[] shards;
+
+	/**
+	 * Constructs a sharded connector.
+	 *
+	 * @param aName
+	 *            the name of the connector
+	 * @param aShardKey
+	 *            the name of the parameter whose value chooses the shard
+	 * @param aFunction
+	 *            the function choosing the shard
+	 * @param aShards
+	 *            the connectors to each shard, in the order the function numbers them
+	 */
+	public ShardedConnector(String aName, String aShardKey, ShardFunction aFunction, JdbcConnector... aShards) {
+		if (aShardKey == null || aFunction == null) {
+			throw new DaoException("A sharded connector needs a shard key and a shard function");
+		}
+		if (aShards.length == 0) {
+			throw new DaoException("A sharded connector needs at least one shard");
+		}
+		this.name = aName;
+		this.shardKey = aShardKey;
+		this.function = aFunction;
+		this.shards = aShards.clone();
+	}
+
+	/**
+	 * Returns a function that spreads keys evenly over the shards by their hash code. Integer keys of any type
+	 * hash alike, so a key bound as an <code>int</code> and as a <code>long</code> go to the same shard. Keys
+	 * should be numbers or strings, whose hash codes are the same in every JVM.
+	 *
+	 * @return the function
+	 */
+	public static ShardFunction hash() {
+		return new ShardFunction() {
+			@Override
+			public int shard(Object aKey, int aShardCount) {
+				if (aKey == null) {
+					throw new DaoException("The shard key was null");
+				}
+				final int hash;
+				if (aKey instanceof Long || aKey instanceof Integer || aKey instanceof Short
+						|| aKey instanceof Byte) {
+					final long value = ((Number) aKey).longValue();
+					hash = (int) (value ^ value >>> 32);
+				} else {
+					hash = aKey.hashCode();
+				}
+				return Math.floorMod(hash, aShardCount);
+			}
+		};
+	}
+
+	/**
+	 * Returns a function that assigns numeric keys to shards by range. A key less than the first bound belongs
+	 * to the first shard, a key less than the second bound to the second shard, and so on, with keys greater
+	 * than or equal to the last bound belonging to the last shard.
+	 *
+	 * @param aUpperBounds
+	 *            the exclusive upper bounds of every shard but the last, in ascending order
+	 * @return the function
+	 */
+	public static ShardFunction range(long... aUpperBounds) {
+		final long[] bounds = aUpperBounds.clone();
+		for (int i = 1; i < bounds.length; i++) {
+			if (bounds[i] <= bounds[i - 1]) {
+				throw new IllegalArgumentException("Range bounds must be ascending: " + bounds[i]);
+			}
+		}
+		return new ShardFunction() {
+			@Override
+			public int shard(Object aKey, int aShardCount) {
+				if (!(aKey instanceof Number)) {
+					throw new DaoException("A range shard key must be a number: " + aKey);
+				}
+				final long value = ((Number) aKey).longValue();
+				int low = 0;
+				int high = bounds.length;
+				while (low < high) {
+					final int middle = (low + high) >>> 1;
+					if (value < bounds[middle]) {
+						high = middle;
+					} else {
+						low = middle + 1;
+					}
+				}
+				return Math.min(low, aShardCount - 1);
+			}
+		};
+	}
+
+	/**
+	 * Connections to a sharded database can only be checked out for a shard key.
+	 *
+	 * @return never
+	 * @throws DaoException
+	 *             always, use {@link #getShard(Object)} to get the connector of a shard
+	 */
+	@Override
+	public Connection getConnection() {
+		throw new DaoException("A connection to " + this.name + " needs a value for the shard key "
+				+ this.shardKey + ", use getShard(key)");
+	}
+
+	/**
+	 * Returns the connector of the shard a key belongs to.
+	 *
+	 * @param aKey
+	 *            the value of the shard key
+	 * @return the connector of the shard
+	 */
+	public JdbcConnector getShard(Object aKey) {
+		return this.shards[this.getShardIndex(aKey)];
+	}
+
+	/**
+	 * Returns the position of the shard a key belongs to.
+	 *
+	 * @param aKey
+	 *            the value of the shard key
+	 * @return the position of the shard
+	 */
+	public int getShardIndex(Object aKey) {
+		final int shard = this.function.shard(aKey, this.shards.length);
+		if (shard < 0 || shard >= this.shards.length) {
+			throw new DaoException("Shard function returned " + shard + " for " + aKey + " but there are "
+					+ this.shards.length + " shards");
+		}
+		return shard;
+	}
+
+	/**
+	 * Returns the connector of the shard that every key of a batch belongs to.
+	 *
+	 * @param aKeys
+	 *            the values bound to the shard key, one for each row
+	 * @return the connector of the shard
+	 */
+	JdbcConnector getShard(List<Object> aKeys) {
+		final int shard = this.getShardIndex(aKeys.get(0));
+		for (int i = 1; i < aKeys.size(); i++) {
+			if (this.getShardIndex(aKeys.get(i)) != shard) {
+				throw new DaoException("The rows of a batch belong to different shards of " + this.name + ": "
+						+ aKeys.get(0) + " and " + aKeys.get(i));
+			}
+		}
+		return this.shards[shard];
+	}
+
+	/**
+	 * @return the connectors to each shard, for executing a statement on all of them with {@link ScatterSelect}
+	 */
+	public JdbcConnector[] getShards() {
+		return this.shards.clone();
+	}
+
+	/**
+	 * @return the name of the parameter whose value chooses the shard
+	 */
+	public String getShardKey() {
+		return this.shardKey;
+	}
+
+	/**
+	 * @return the number of shards
+	 */
+	public int getShardCount() {
+		return this.shards.length;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return "ShardedConnector [name=" + this.name + ", shardKey=" + this.shardKey + ", shards="
+				+ this.shards.length + "]";
+	}
+}
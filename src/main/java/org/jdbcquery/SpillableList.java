@@ -0,0 +1,405 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * A read only list of mapped rows that holds a bounded number of rows in memory and spills the rest to a
+ * temporary file.
+ *
+ * <p>
+ * Rows are kept in memory until either the row threshold or the byte threshold is reached. The size of a row in
+ * memory is estimated once, from the object headers, fields, strings and arrays of the first row, without
+ * serializing it. Every row after that is serialized to the overflow file, which is read back through memory
+ * mapped regions, so the rows must be {@link java.io.Serializable} only once the list spills. Rows read from the
+ * file are new copies each time they are read.
+ *
+ * <p>
+ * The list must be closed to delete the overflow file.
+ *
+ * @author Troy Histed
+ *
+ * @param <T>
+ *            the type of the rows
+ */
+public final class SpillableList<T> extends AbstractList<T> implements RandomAccess, AutoCloseable {
+
+	private static final long MAXIMUM_REGION_SIZE = Integer.MAX_VALUE;
+	/** The size of an object header, and of a reference, assumed when estimating the size of a row. */
+	private static final int HEADER_SIZE = 16;
+	private static final int REFERENCE_SIZE = 8;
+	/** How deep into the objects referenced by a row its size is estimated. */
+	private static final int ESTIMATE_DEPTH = 4;
+
+	private final int maximumRows;
+	private final long maximumBytes;
+	private final List<T> rows = new ArrayList<T>();
+	private final ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+	private long estimatedRowSize = -1;
+
+	private Path file;
+	private OutputStream output;
+	private long fileSize;
+	private long[] offsets = new long[0];
+	private int[] lengths = new int[0];
+	private int spilledRows;
+	private long[] regionStarts;
+	private MappedByteBuffer[] regions;
+	private boolean closed;
+
+	/**
+	 * Constructs an empty list.
+	 *
+	 * @param aMaximumRows
+	 *            the number of rows held in memory before spilling, zero for no limit
+	 * @param aMaximumBytes
+	 *            the estimated number of bytes held in memory before spilling, zero for no limit
+	 */
+	SpillableList(int aMaximumRows, long aMaximumBytes) {
+		if (aMaximumRows < 0 || aMaximumBytes < 0) {
+			throw new IllegalArgumentException("Thresholds must not be negative: " + aMaximumRows + ", "
+					+ aMaximumBytes);
+		}
+		this.maximumRows = aMaximumRows;
+		this.maximumBytes = aMaximumBytes;
+	}
+
+	/**
+	 * Adds a row, spilling it to the overflow file if the thresholds have been reached.
+	 *
+	 * @param aRow
+	 *            the row
+	 */
+	void append(T aRow) {
+		if (this.file == null && this.estimatedRowSize < 0 && this.maximumBytes > 0) {
+			this.estimatedRowSize = SpillableList.estimateSize(aRow, SpillableList.ESTIMATE_DEPTH);
+		}
+		if (this.file == null && !this.isFull()) {
+			this.rows.add(aRow);
+			return;
+		}
+
+		final byte[] bytes = this.serialize(aRow);
+		try {
+			if (this.file == null) {
+				this.file = Files.createTempFile("jdbc-query", ".spill");
+				this.output = new BufferedOutputStream(Files.newOutputStream(this.file));
+			}
+			this.output.write(bytes);
+		} catch (final IOException e) {
+			throw new DaoException("Error writing to overflow file " + this.file, e);
+		}
+
+		if (this.spilledRows == this.offsets.length) {
+			final int capacity = Math.max(64, this.spilledRows * 2);
+			this.offsets = Arrays.copyOf(this.offsets, capacity);
+			this.lengths = Arrays.copyOf(this.lengths, capacity);
+		}
+		this.offsets[this.spilledRows] = this.fileSize;
+		this.lengths[this.spilledRows] = bytes.length;
+		this.spilledRows++;
+		this.fileSize += bytes.length;
+	}
+
+	/**
+	 * @return <code>true</code> if the rows in memory have reached one of the thresholds
+	 */
+	private boolean isFull() {
+		return this.maximumRows > 0 && this.rows.size() >= this.maximumRows
+				|| this.maximumBytes > 0 && (this.rows.size() + 1) * this.estimatedRowSize > this.maximumBytes;
+	}
+
+	/**
+	 * Finishes writing the overflow file and maps it for reading.
+	 */
+	void finish() {
+		if (this.file == null) {
+			return;
+		}
+		try {
+			this.output.close();
+			this.output = null;
+			this.mapRegions();
+		} catch (final IOException e) {
+			throw new DaoException("Error mapping overflow file " + this.file, e);
+		}
+	}
+
+	/**
+	 * Maps the overflow file in regions of up to two gigabytes, each holding whole rows.
+	 *
+	 * @throws IOException
+	 *             error mapping the file
+	 */
+	private void mapRegions() throws IOException {
+		final List<Long> starts = new ArrayList<Long>();
+		long start = 0;
+		starts.add(Long.valueOf(start));
+		for (int i = 0; i < this.spilledRows; i++) {
+			if (this.offsets[i] + this.lengths[i] - start > SpillableList.MAXIMUM_REGION_SIZE) {
+				start = this.offsets[i];
+				starts.add(Long.valueOf(start));
+			}
+		}
+
+		this.regionStarts = new long[starts.size()];
+		this.regions = new MappedByteBuffer[starts.size()];
+		try (FileChannel channel = FileChannel.open(this.file, StandardOpenOption.READ)) {
+			for (int i = 0; i < this.regions.length; i++) {
+				this.regionStarts[i] = starts.get(i).longValue();
+				final long end = i + 1 < this.regions.length ? starts.get(i + 1).longValue() : this.fileSize;
+				this.regions[i] = channel.map(FileChannel.MapMode.READ_ONLY, this.regionStarts[i], end
+						- this.regionStarts[i]);
+			}
+		}
+	}
+
+	/**
+	 * Estimates the bytes an object takes in memory from its header, its fields and the objects they refer to,
+	 * down to a limited depth. Fields that can't be read, such as those of JDK classes that aren't open to
+	 * reflection, are left out.
+	 *
+	 * @param aObject
+	 *            the object, may be null
+	 * @param aDepth
+	 *            how many more levels of referenced objects to include
+	 * @return the estimated size in bytes
+	 */
+	static long estimateSize(Object aObject, int aDepth) {
+		if (aObject == null) {
+			return 0;
+		} else if (aObject instanceof CharSequence) {
+			return 2 * SpillableList.HEADER_SIZE + 8 + 2L * ((CharSequence) aObject).length();
+		} else if (aObject instanceof Number || aObject instanceof Boolean || aObject instanceof Character
+				|| aObject instanceof java.util.Date) {
+			return SpillableList.HEADER_SIZE + 8;
+		}
+
+		final Class<?> type = aObject.getClass();
+		if (type.isArray()) {
+			final int length = Array.getLength(aObject);
+			final Class<?> component = type.getComponentType();
+			if (component.isPrimitive()) {
+				return SpillableList.HEADER_SIZE + (long) length * SpillableList.primitiveSize(component);
+			}
+			long size = SpillableList.HEADER_SIZE + (long) length * SpillableList.REFERENCE_SIZE;
+			if (aDepth > 0) {
+				for (int i = 0; i < length; i++) {
+					size += SpillableList.estimateSize(Array.get(aObject, i), aDepth - 1);
+				}
+			}
+			return size;
+		} else if (aObject instanceof Collection) {
+			long size = 3 * SpillableList.HEADER_SIZE;
+			for (final Object element : (Collection<?>) aObject) {
+				size += SpillableList.REFERENCE_SIZE + (aDepth > 0 ? SpillableList.estimateSize(element, aDepth
+						- 1) : 0);
+			}
+			return size;
+		} else if (aObject instanceof Map) {
+			long size = 3 * SpillableList.HEADER_SIZE;
+			for (final Map.Entry<?, ?> entry : ((Map<?, ?>) aObject).entrySet()) {
+				size += 2 * SpillableList.HEADER_SIZE;
+				if (aDepth > 0) {
+					size += SpillableList.estimateSize(entry.getKey(), aDepth - 1)
+							+ SpillableList.estimateSize(entry.getValue(), aDepth - 1);
+				}
+			}
+			return size;
+		}
+
+		long size = SpillableList.HEADER_SIZE;
+		for (Class<?> declaring = type; declaring != null && declaring != Object.class; declaring = declaring
+				.getSuperclass()) {
+			for (final Field field : declaring.getDeclaredFields()) {
+				if (Modifier.isStatic(field.getModifiers())) {
+					continue;
+				}
+				if (field.getType().isPrimitive()) {
+					size += SpillableList.primitiveSize(field.getType());
+					continue;
+				}
+				size += SpillableList.REFERENCE_SIZE;
+				if (aDepth > 0) {
+					try {
+						field.setAccessible(true);
+						size += SpillableList.estimateSize(field.get(aObject), aDepth - 1);
+					} catch (final RuntimeException e) {
+						// the field isn't open to reflection
+					} catch (final IllegalAccessException e) {
+						// the field isn't open to reflection
+					}
+				}
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * @return the number of bytes a primitive type takes
+	 */
+	private static int primitiveSize(Class<?> aType) {
+		if (aType == long.class || aType == double.class) {
+			return 8;
+		} else if (aType == int.class || aType == float.class) {
+			return 4;
+		} else if (aType == short.class || aType == char.class) {
+			return 2;
+		}
+		return 1;
+	}
+
+	/**
+	 * Serializes a row.
+	 *
+	 * @param aRow
+	 *            the row
+	 * @return the serialized row
+	 */
+	private byte[] serialize(T aRow) {
+		this.serialized.reset();
+		try (ObjectOutputStream objectOutput = new ObjectOutputStream(this.serialized)) {
+			objectOutput.writeObject(aRow);
+		} catch (final NotSerializableException e) {
+			throw new DaoException("Rows must be serializable to spill them to disk: " + aRow, e);
+		} catch (final IOException e) {
+			throw new DaoException("Error serializing row " + aRow, e);
+		}
+		return this.serialized.toByteArray();
+	}
+
+	/**
+	 * Reads a row back from the overflow file.
+	 *
+	 * @param aIndex
+	 *            the index of the row in the file
+	 * @return a copy of the row
+	 */
+	@SuppressWarnings("unchecked")
+	private T readSpilled(int aIndex) {
+		final long offset = this.offsets[aIndex];
+		int region = Arrays.binarySearch(this.regionStarts, offset);
+		if (region < 0) {
+			region = -region - 2;
+		}
+		final ByteBuffer buffer = this.regions[region].duplicate();
+		buffer.position((int) (offset - this.regionStarts[region]));
+		final byte[] bytes = new byte[this.lengths[aIndex]];
+		buffer.get(bytes);
+
+		try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+			return (T) input.readObject();
+		} catch (final IOException e) {
+			throw new DaoException("Error reading row " + aIndex + " from overflow file " + this.file, e);
+		} catch (final ClassNotFoundException e) {
+			throw new DaoException("Error reading row " + aIndex + " from overflow file " + this.file, e);
+		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public T get(int aIndex) {
+		if (this.closed) {
+			throw new DaoException("The list has been closed");
+		}
+		if (aIndex < 0 || aIndex >= this.size()) {
+			throw new IndexOutOfBoundsException("Index: " + aIndex + ", Size: " + this.size());
+		}
+		if (aIndex < this.rows.size()) {
+			return this.rows.get(aIndex);
+		}
+		return this.readSpilled(aIndex - this.rows.size());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int size() {
+		return this.rows.size() + this.spilledRows;
+	}
+
+	/**
+	 * @return <code>true</code> if some of the rows were spilled to disk
+	 */
+	public boolean isSpilled() {
+		return this.spilledRows > 0;
+	}
+
+	/**
+	 * @return the number of rows held in the overflow file
+	 */
+	public int getSpilledRowCount() {
+		return this.spilledRows;
+	}
+
+	/**
+	 * @return the size of the overflow file in bytes
+	 */
+	public long getSpilledBytes() {
+		return this.fileSize;
+	}
+
+	/**
+	 * Releases the rows held in memory and deletes the overflow file. The list can't be read afterwards.
+	 */
+	@Override
+	public void close() {
+		if (this.closed) {
+			return;
+		}
+		this.closed = true;
+		this.rows.clear();
+		this.regions = null;
+		if (this.file != null) {
+			try {
+				if (this.output != null) {
+					this.output.close();
+				}
+				Files.deleteIfExists(this.file);
+			} catch (final IOException e) {
+				// a file that is still mapped can't be deleted on some platforms
+				this.file.toFile().deleteOnExit();
+			}
+		}
+	}
+}
@@ -15,14 +15,11 @@
  */
 package org.jdbcquery;
 
-import java.lang.reflect.InvocationTargetException;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.List;
 
-import org.apache.commons.beanutils.PropertyUtilsBean;
-
 /**
  * Represents an SQL statement.
  *
@@ -30,10 +27,17 @@ import org.apache.commons.beanutils.PropertyUtilsBean;
  */
 public abstract class Statement {
 
+	/**
+	 * @return the parsed statement
+	 */
+	protected abstract ParsedNamedStatement getParsedStatement();
+
 	/**
 	 * @return the parameters
 	 */
-	protected abstract List<String> getParameters();
+	protected List<String> getParameters() {
+		return this.getParsedStatement().getParameters();
+	}
 
 	/**
 	 * @return the prepared statement
@@ -56,10 +60,9 @@ public abstract class Statement {
 	 */
 	public Statement set(String aName, String aValue) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setString(i + 1, aValue);
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setString(index, aValue);
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -80,10 +83,9 @@ public abstract class Statement {
 	 */
 	public Statement set(String aName, int aValue) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setInt(i + 1, aValue);
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setInt(index, aValue);
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -103,10 +105,9 @@ public abstract class Statement {
 	 */
 	public Statement set(String aName, long aValue) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setLong(i + 1, aValue);
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setLong(index, aValue);
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -126,10 +127,9 @@ public abstract class Statement {
 	 */
 	public Statement set(String aName, short aValue) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setShort(i + 1, aValue);
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setShort(index, aValue);
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -149,10 +149,9 @@ public abstract class Statement {
 	 */
 	public Statement set(String aName, float aValue) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setFloat(i + 1, aValue);
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setFloat(index, aValue);
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -172,10 +171,9 @@ public abstract class Statement {
 	 */
 	public Statement set(String aName, double aValue) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setDouble(i + 1, aValue);
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setDouble(index, aValue);
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -195,10 +193,9 @@ public abstract class Statement {
 	 */
 	public Statement set(String aName, boolean aValue) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setBoolean(i + 1, aValue);
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setBoolean(index, aValue);
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -218,10 +215,9 @@ public abstract class Statement {
 	 */
 	public Statement set(String aName, java.util.Date aValue) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setTimestamp(i + 1, new Timestamp(aValue.getTime()));
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setTimestamp(index, new Timestamp(aValue.getTime()));
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -241,10 +237,9 @@ public abstract class Statement {
 	 */
 	public Statement setNull(String aName, int aSqlType) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setNull(i + 1, aSqlType);
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setNull(index, aSqlType);
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -264,10 +259,9 @@ public abstract class Statement {
 	 */
 	public Statement setObject(String aName, Object aValue) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setObject(i + 1, aValue);
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setObject(index, aValue);
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -289,10 +283,9 @@ public abstract class Statement {
 	 */
 	public Statement setObject(String aName, Object aValue, int aSqlType) {
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (this.getParameters().get(i).equals(aName)) {
-					this.getPreparedStatement().setObject(i + 1, aValue, aSqlType);
-				}
+			final PreparedStatement preparedStatement = this.getPreparedStatement();
+			for (final int index : this.getParsedStatement().getParameterIndexes(aName)) {
+				preparedStatement.setObject(index, aValue, aSqlType);
 			}
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
@@ -303,32 +296,24 @@ public abstract class Statement {
 
 	/**
 	 * Sets all of the bean properties into the prepared statement using the bean property name as the parameter
-	 * name.
+	 * name. Parameters that don't match a readable property of the bean are left unchanged. A parameter that is
+	 * a nested property is set to null if one of the properties leading to it is null.
+	 *
+	 * <p>
+	 * The properties read for each parameter are resolved the first time a bean of a class is set on the
+	 * statement and reused for later beans of the same class.
 	 *
 	 * @param aJavaBean
 	 *            the java bean to use
 	 * @return the statement (for method chaining)
 	 */
 	public Statement setBean(Object aJavaBean) {
-
-		final PropertyUtilsBean propertyUtils = new PropertyUtilsBean();
-
 		try {
-			for (int i = 0; i < this.getParameters().size(); i++) {
-				if (propertyUtils.isReadable(aJavaBean, this.getParameters().get(i))) {
-					final Object value = propertyUtils.getNestedProperty(aJavaBean, this.getParameters().get(i));
-					this.getPreparedStatement().setObject(i + 1, value);
-				}
-			}
+			this.getParsedStatement().getBeanPlan(aJavaBean.getClass()).bind(this.getPreparedStatement(),
+					aJavaBean);
 		} catch (final SQLException e) {
 			this.getConnection().cleanUp();
-			throw new DaoException("Error", e);
-		} catch (final IllegalAccessException e) {
-			throw new DaoException("Error getting bean properties from " + aJavaBean, e);
-		} catch (final InvocationTargetException e) {
-			throw new DaoException("Error getting bean properties from " + aJavaBean, e);
-		} catch (final NoSuchMethodException e) {
-			throw new DaoException("Error getting bean properties from " + aJavaBean, e);
+			throw new DaoException("Error setting bean properties from " + aJavaBean, e);
 		}
 		return this;
 	}
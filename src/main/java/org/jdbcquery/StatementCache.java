@@ -0,0 +1,249 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least recently used cache of prepared statements belonging to a single physical connection.
+ *
+ * <p>
+ * Only a connection that implements {@link Owner}, such as the connections of a {@link PooledConnector}, has a
+ * cache. It keeps the cache of its physical connection itself, and the cache is closed with the physical
+ * connection. Other connections aren't cached, since there is no telling whether closing them ends the physical
+ * connection: a plain driver connection is gone once closed, and most third party pools hand out a new wrapper
+ * for each checkout.
+ *
+ * <p>
+ * A statement is removed from the cache while it is in use and returned, with its parameters and pending batch
+ * cleared and its fetch settings reset, when the statement that used it is cleaned up.
+ *
+ * @author Troy Histed
+ */
+final class StatementCache {
+
+	private static final AtomicLong HITS = new AtomicLong();
+	private static final AtomicLong MISSES = new AtomicLong();
+	private static final AtomicLong EVICTIONS = new AtomicLong();
+	private static volatile int maximumSize = 0;
+
+	private final Map<Key, PreparedStatement> statements;
+
+	/**
+	 * Constructs an empty cache.
+	 */
+	StatementCache() {
+		this.statements = new LinkedHashMap<Key, PreparedStatement>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, PreparedStatement> aEldest) {
+				if (this.size() > StatementCache.maximumSize) {
+					StatementCache.EVICTIONS.incrementAndGet();
+					StatementCache.closeQuietly(aEldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the statement cache for a connection.
+	 *
+	 * @param aConnection
+	 *            the physical connection
+	 * @return the statement cache or null if statement caching is disabled or the connection isn't an
+	 *         {@link Owner}
+	 */
+	static StatementCache forConnection(Connection aConnection) {
+		if (!(aConnection instanceof Owner)) {
+			return null;
+		}
+		final StatementCache cache = ((Owner) aConnection).getStatementCache();
+		if (StatementCache.maximumSize <= 0) {
+			cache.close();
+			return null;
+		}
+		return cache;
+	}
+
+	/**
+	 * Sets the maximum number of statements cached per connection. Setting the size to zero disables caching
+	 * and closes the cached statements of each connection when it is next used.
+	 *
+	 * @param aMaximumSize
+	 *            the maximum number of statements per connection
+	 */
+	static void setMaximumSize(int aMaximumSize) {
+		if (aMaximumSize < 0) {
+			throw new IllegalArgumentException("Cache size must not be negative: " + aMaximumSize);
+		}
+		StatementCache.maximumSize = aMaximumSize;
+	}
+
+	/**
+	 * @return the maximum number of statements cached per connection
+	 */
+	static int getMaximumSize() {
+		return StatementCache.maximumSize;
+	}
+
+	/**
+	 * @return the number of statements that were reused from a cache
+	 */
+	static long getHits() {
+		return StatementCache.HITS.get();
+	}
+
+	/**
+	 * @return the number of statements that had to be prepared while caching was enabled
+	 */
+	static long getMisses() {
+		return StatementCache.MISSES.get();
+	}
+
+	/**
+	 * @return the number of statements closed to make room in a cache
+	 */
+	static long getEvictions() {
+		return StatementCache.EVICTIONS.get();
+	}
+
+	/**
+	 * Takes a statement out of the cache.
+	 *
+	 * @param aStatement
+	 *            the sql of the statement
+	 * @param aGeneratedKeys
+	 *            whether the statement was prepared to return generated keys
+	 * @return the cached statement or null if there isn't one
+	 */
+	synchronized PreparedStatement take(String aStatement, boolean aGeneratedKeys) {
+		final PreparedStatement preparedStatement = this.statements.remove(new Key(aStatement, aGeneratedKeys));
+		if (preparedStatement == null) {
+			StatementCache.MISSES.incrementAndGet();
+		} else {
+			StatementCache.HITS.incrementAndGet();
+		}
+		return preparedStatement;
+	}
+
+	/**
+	 * Returns a statement to the cache after clearing its parameters and pending batch and resetting the maximum
+	 * rows, fetch size and fetch direction, so nothing left by one statement carries over to the next. Rows
+	 * added to a batch that was abandoned after an error would otherwise be executed with the next batch.
+	 *
+	 * @param aStatement
+	 *            the sql of the statement
+	 * @param aGeneratedKeys
+	 *            whether the statement was prepared to return generated keys
+	 * @param aPreparedStatement
+	 *            the statement to cache
+	 * @return <code>true</code> if the statement was cached, <code>false</code> if the caller must close it, as
+	 *         it is when it can't be reset
+	 */
+	synchronized boolean offer(String aStatement, boolean aGeneratedKeys, PreparedStatement aPreparedStatement) {
+		if (StatementCache.maximumSize <= 0) {
+			return false;
+		}
+		final Key key = new Key(aStatement, aGeneratedKeys);
+		if (this.statements.containsKey(key)) {
+			return false;
+		}
+		try {
+			aPreparedStatement.clearParameters();
+			aPreparedStatement.clearBatch();
+			aPreparedStatement.setMaxRows(0);
+			aPreparedStatement.setFetchSize(0);
+			aPreparedStatement.setFetchDirection(ResultSet.FETCH_FORWARD);
+		} catch (final SQLException e) {
+			return false;
+		}
+		this.statements.put(key, aPreparedStatement);
+		return true;
+	}
+
+	/**
+	 * Closes every cached statement.
+	 */
+	synchronized void close() {
+		for (final PreparedStatement preparedStatement : this.statements.values()) {
+			StatementCache.closeQuietly(preparedStatement);
+		}
+		this.statements.clear();
+	}
+
+	/**
+	 * Closes a statement that is being discarded, ignoring any errors since the connection may already be gone.
+	 *
+	 * @param aPreparedStatement
+	 *            the statement to close
+	 */
+	private static void closeQuietly(PreparedStatement aPreparedStatement) {
+		try {
+			aPreparedStatement.close();
+		} catch (final SQLException e) {
+			// the statement is being discarded
+		}
+	}
+
+	/**
+	 * A connection that keeps the statement cache of its physical connection for as long as the physical
+	 * connection is open, and closes the cache with it.
+	 */
+	interface Owner {
+
+		/**
+		 * @return the statement cache of the physical connection
+		 */
+		StatementCache getStatementCache();
+	}
+
+	/**
+	 * Identifies a cached statement by its sql and generated keys mode.
+	 */
+	private static final class Key {
+
+		private final String statement;
+		private final boolean generatedKeys;
+
+		Key(String aStatement, boolean aGeneratedKeys) {
+			this.statement = aStatement;
+			this.generatedKeys = aGeneratedKeys;
+		}
+
+		@Override
+		public int hashCode() {
+			return this.generatedKeys ? ~this.statement.hashCode() : this.statement.hashCode();
+		}
+
+		@Override
+		public boolean equals(Object aObject) {
+			if (!(aObject instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) aObject;
+			return this.generatedKeys == other.generatedKeys && this.statement.equals(other.statement);
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * Holds the connection of a transaction for the thread doing its work.
+ *
+ * <p>
+ * While a transaction is open, {@link JdbcConnection#connect(String)} hands out the connection of the
+ * transaction instead of getting a new one from the connector, and statements cleaning up don't close it. The
+ * transaction commits once its work is done, or rolls back if the work fails, and then closes the connection.
+ * Transactions on different connections can be nested, and a transaction on a connection that already has one
+ * open on the thread joins it.
+ *
+ * @author Troy Histed
+ */
+final class Transaction {
+
+	private static final ThreadLocal<Transaction> CURRENT = new ThreadLocal<Transaction>();
+
+	private final String connectionName;
+	private final JdbcConnector connector;
+	private final Connection connection;
+	private final Transaction outer;
+
+	/**
+	 * Constructs a transaction.
+	 *
+	 * @param aConnectionName
+	 *            the name of the connection
+	 * @param aConnector
+	 *            the connector the connection came from
+	 * @param aConnection
+	 *            the connection shared by the statements of the transaction
+	 * @param aOuter
+	 *            the transaction that was open on the thread, or <code>null</code>
+	 */
+	private Transaction(String aConnectionName, JdbcConnector aConnector, Connection aConnection,
+			Transaction aOuter) {
+		this.connectionName = aConnectionName;
+		this.connector = aConnector;
+		this.connection = aConnection;
+		this.outer = aOuter;
+	}
+
+	/**
+	 * Returns the connection of the transaction open on the current thread for a connection name.
+	 *
+	 * @param aConnectionName
+	 *            the name of the connection, or <code>null</code> for the default connector
+	 * @return the connection, or <code>null</code> if there is no such transaction
+	 */
+	static Connection getConnection(String aConnectionName) {
+		final Transaction transaction = Transaction.find(aConnectionName);
+		return transaction == null ? null : transaction.connection;
+	}
+
+	/**
+	 * Finds the transaction open on the current thread for a connection name. No name stands for the default
+	 * connector, so it only joins a transaction on that connector rather than whichever one is innermost.
+	 */
+	private static Transaction find(String aConnectionName) {
+		Transaction transaction = Transaction.CURRENT.get();
+		if (transaction == null) {
+			return null;
+		} else if (aConnectionName == null) {
+			final JdbcConnector defaultConnector = ConnectorServiceLoader.getDefaultConnector();
+			if (defaultConnector == null) {
+				return null;
+			} else if (defaultConnector.getName() != null) {
+				return Transaction.find(defaultConnector.getName());
+			}
+			while (transaction != null && transaction.connector != defaultConnector) {
+				transaction = transaction.outer;
+			}
+			return transaction;
+		}
+		while (transaction != null && !aConnectionName.equals(transaction.connectionName)) {
+			transaction = transaction.outer;
+		}
+		return transaction;
+	}
+
+	/**
+	 * Executes work in a transaction on a connection from the connector, or in the transaction already open on
+	 * the thread for the same connector. A transaction can't span the shards of a {@link ShardedConnector}, so
+	 * it has to be opened on the connector of one shard.
+	 *
+	 * @param aConnector
+	 *            the connector to get the connection from
+	 * @param aWork
+	 *            the work to execute
+	 * @return the result of the work
+	 */
+	static <T> T execute(JdbcConnector aConnector, UnitOfWork<T> aWork) {
+		final String connectionName = aConnector.getName();
+		if (aConnector instanceof ShardedConnector) {
+			throw new DaoException("A transaction can't span the shards of " + connectionName
+					+ ", open it on the connector of one shard with getShard(key)");
+		}
+		if (connectionName != null && Transaction.find(connectionName) != null) {
+			return Transaction.join(aWork);
+		}
+
+		final Connection connection = aConnector.getConnection();
+		final JdbcConnection jdbcConnection = new JdbcConnection(connection);
+		try {
+			jdbcConnection.disableAutoCommit();
+		} catch (final SQLException e) {
+			jdbcConnection.cleanUp();
+			throw new DaoException("Error starting a transaction on " + connectionName, e);
+		}
+
+		final Transaction outer = Transaction.CURRENT.get();
+		Transaction.CURRENT.set(new Transaction(connectionName, aConnector, connection, outer));
+		try {
+			final T result = aWork.execute();
+			jdbcConnection.commit();
+			return result;
+		} catch (final RuntimeException e) {
+			jdbcConnection.rollbackQuietly();
+			throw e;
+		} catch (final Error e) {
+			jdbcConnection.rollbackQuietly();
+			throw e;
+		} catch (final Exception e) {
+			jdbcConnection.rollbackQuietly();
+			throw new DaoException("Error in transaction on " + connectionName, e);
+		} finally {
+			if (outer == null) {
+				Transaction.CURRENT.remove();
+			} else {
+				Transaction.CURRENT.set(outer);
+			}
+			jdbcConnection.cleanUp();
+			if (aConnector instanceof ReadWriteConnector) {
+				((ReadWriteConnector) aConnector).written();
+			}
+		}
+	}
+
+	/**
+	 * Executes work as part of the transaction that is already open, which commits or rolls back once its own
+	 * work is done.
+	 */
+	private static <T> T join(UnitOfWork<T> aWork) {
+		try {
+			return aWork.execute();
+		} catch (final RuntimeException e) {
+			throw e;
+		} catch (final Exception e) {
+			throw new DaoException("Error in transaction", e);
+		}
+	}
+}
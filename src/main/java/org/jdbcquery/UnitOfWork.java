@@ -0,0 +1,37 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+/**
+ * Work done by a number of statements within one transaction, see
+ * {@link Query#transaction(String, UnitOfWork)}.
+ *
+ * @author Troy Histed
+ *
+ * @param <T> The type of the result of the work
+ */
+public interface UnitOfWork<T> {
+
+	/**
+	 * Executes the statements of the work. Statements created here on the connection of the transaction share
+	 * its connection.
+	 *
+	 * @return the result of the work
+	 * @throws Exception
+	 *             error that rolls back the transaction
+	 */
+	T execute() throws Exception;
+}
@@ -19,21 +19,35 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Savepoint;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
  * Represents an SQL update statement.
  *
+ * <p>
+ * Large batches can be split into chunks with {@link #chunkedBatch(int)}, which executes the batch every time
+ * the chunk size is reached so neither the driver nor the database has to hold the whole batch at once. The
+ * update counts, and optionally the generated keys, of every chunk are returned together when the batch is
+ * executed.
+ *
  * @author Troy Histed
  */
 public class Update extends Statement {
 
-	private static final NamedStatementParserStrategy STATEMENT_PARSER = new NamedStatementParserStrategy();
-
-	private final String statement;
 	private final JdbcConnection connection;
 	private final PreparedStatement preparedStatement;
-	private final List<String> parameters;
+	private final ParsedNamedStatement parsedStatement;
+	private int chunkSize = 0;
+	private boolean chunkKeys = false;
+	private boolean commitEachChunk = false;
+	private int pendingRows = 0;
+	private int flushedRows = 0;
+	private int[] updateCounts = new int[0];
+	private long[] generatedKeys = new long[0];
+	private int generatedKeyCount = 0;
 
 	/**
 	 * Constructs an update statement and performs initialization.
@@ -54,53 +68,70 @@ public class Update extends Statement {
 	 *            the name of the connection to use
 	 */
 	public Update(String aStatement, String aConnectionName) {
+		this(NamedStatementParserStrategy.getDefault().prepareNamedStatement(aStatement), aConnectionName);
+	}
 
-		this.statement = aStatement;
+	/**
+	 * Constructs an update statement and performs initialization.
+	 *
+	 * @param aStatement
+	 *            the statement to be executed
+	 * @param aConnection
+	 *            the connection to use
+	 */
+	public Update(String aStatement, Connection aConnection) {
+		this(NamedStatementParserStrategy.getDefault().prepareNamedStatement(aStatement), aConnection);
+	}
 
-		final ParsedNamedStatement preparedStatement = Update.STATEMENT_PARSER.prepareNamedStatement(aStatement);
-		this.parameters = preparedStatement.getParameters();
+	/**
+	 * Constructs an update from a statement that has already been parsed and performs initialization.
+	 *
+	 * @param aParsedStatement
+	 *            the parsed statement to be executed
+	 * @param aConnectionName
+	 *            the name of the connection to use
+	 */
+	Update(ParsedNamedStatement aParsedStatement, String aConnectionName) {
 
+		this.parsedStatement = aParsedStatement;
+
+		JdbcConnection jdbcConnection = null;
 		try {
-			this.connection = this.connect(aConnectionName);
-			this.preparedStatement = this.connection.prepareStatementWithGeneratedKeys(preparedStatement
-					.getStatement());
+			jdbcConnection = this.connect(aConnectionName);
+			this.preparedStatement = jdbcConnection.prepareStatementWithGeneratedKeys(aParsedStatement);
 		} catch (final SQLException e) {
-			if (this.connection != null) {
-				this.connection.cleanUp();
+			if (jdbcConnection != null) {
+				jdbcConnection.cleanUp();
 			}
-			throw new DaoException("Error creating connection and preparing statement: " + aStatement, e);
+			throw new DaoException("Error creating connection and preparing statement: "
+					+ aParsedStatement.getOriginalStatement(), e);
 		} catch (final RuntimeException e) {
-			if (this.connection != null) {
-				this.connection.cleanUp();
+			if (jdbcConnection != null) {
+				jdbcConnection.cleanUp();
 			}
 			throw e;
 		}
+		this.connection = jdbcConnection;
 	}
 
 	/**
-	 * Constructs an update statement and performs initialization.
+	 * Constructs an update from a statement that has already been parsed and performs initialization.
 	 *
-	 * @param aStatement
-	 *            the statement to be executed
+	 * @param aParsedStatement
+	 *            the parsed statement to be executed
 	 * @param aConnection
 	 *            the connection to use
 	 */
-	public Update(String aStatement, Connection aConnection) {
+	Update(ParsedNamedStatement aParsedStatement, Connection aConnection) {
 
-		this.statement = aStatement;
 		this.connection = new JdbcConnection(aConnection);
-
-		final ParsedNamedStatement preparedStatement = Update.STATEMENT_PARSER.prepareNamedStatement(aStatement);
-		this.parameters = preparedStatement.getParameters();
+		this.parsedStatement = aParsedStatement;
 
 		try {
-			this.preparedStatement = this.connection.prepareStatementWithGeneratedKeys(preparedStatement
-					.getStatement());
+			this.preparedStatement = this.connection.prepareStatementWithGeneratedKeys(aParsedStatement);
 		} catch (final SQLException e) {
-			if (this.connection != null) {
-				this.connection.cleanUp();
-			}
-			throw new DaoException("Error preparing statement: " + aStatement, e);
+			this.connection.cleanUp();
+			throw new DaoException("Error preparing statement: " + aParsedStatement.getOriginalStatement(), e);
 		}
 	}
 
@@ -153,15 +184,71 @@ public class Update extends Statement {
 		}
 	}
 
+	/**
+	 * Executes the batch every time the given number of parameter sets have been added. The update counts of
+	 * every chunk are returned by {@link #executeBatch()}.
+	 *
+	 * @param aChunkSize
+	 *            the number of parameter sets in each chunk
+	 * @return the update (for method chaining)
+	 */
+	public Update chunkedBatch(int aChunkSize) {
+		return this.chunkedBatch(aChunkSize, false);
+	}
+
+	/**
+	 * Executes the batch every time the given number of parameter sets have been added.
+	 *
+	 * @param aChunkSize
+	 *            the number of parameter sets in each chunk
+	 * @param aReturnKeys
+	 *            <code>true</code> to collect the generated keys of each chunk for
+	 *            {@link #executeBatchAndReturnKeys()}
+	 * @return the update (for method chaining)
+	 */
+	public Update chunkedBatch(int aChunkSize, boolean aReturnKeys) {
+		if (aChunkSize <= 0) {
+			throw new IllegalArgumentException("Chunk size must be positive: " + aChunkSize);
+		}
+		this.chunkSize = aChunkSize;
+		this.chunkKeys = aReturnKeys;
+		return this;
+	}
+
+	/**
+	 * Commits after each chunk of the batch is executed, and after the rest of the batch is executed.
+	 * Auto-commit is turned off until the update is cleaned up. If a chunk fails the uncommitted work is rolled
+	 * back, while the chunks that were already committed stay committed.
+	 *
+	 * @return the update (for method chaining)
+	 */
+	public Update commitEachChunk() {
+		try {
+			this.connection.disableAutoCommit();
+		} catch (final SQLException e) {
+			this.connection.cleanUp();
+			throw new DaoException("Error disabling auto-commit: " + this, e);
+		}
+		this.commitEachChunk = true;
+		return this;
+	}
+
 	/**
 	 * Adds a set of parameters to this objects batch of commands.
 	 */
 	public void addBatch() {
 		try {
 			this.preparedStatement.addBatch();
+			this.pendingRows++;
+			if (this.chunkSize > 0 && this.pendingRows >= this.chunkSize) {
+				this.flushChunk();
+			}
 		} catch (final SQLException e) {
-			this.connection.cleanUp();
+			this.abortBatch();
 			throw new DaoException("Error adding batch: " + this, e);
+		} catch (final RuntimeException e) {
+			this.abortBatch();
+			throw e;
 		}
 	}
 
@@ -171,13 +258,27 @@ public class Update extends Statement {
 	 * @return array containing the number of records updated for each batch statement
 	 */
 	public int[] executeBatch() {
+		if (!this.isChunked()) {
+			try {
+				return this.preparedStatement.executeBatch();
+			} catch (final SQLException e) {
+				throw new DaoException("Error executing batch: " + this, e);
+			} finally {
+				this.connection.cleanUp();
+			}
+		}
+
 		try {
-			return this.preparedStatement.executeBatch();
+			this.flushChunk();
 		} catch (final SQLException e) {
+			this.abortBatch();
 			throw new DaoException("Error executing batch: " + this, e);
-		} finally {
-			this.connection.cleanUp();
+		} catch (final RuntimeException e) {
+			this.abortBatch();
+			throw e;
 		}
+		this.connection.cleanUp();
+		return Arrays.copyOf(this.updateCounts, this.flushedRows);
 	}
 
 	/**
@@ -187,6 +288,10 @@ public class Update extends Statement {
 	 */
 	@SuppressWarnings("resource")
 	public long[] executeBatchAndReturnKeys() {
+		if (this.isChunked()) {
+			return this.executeChunkedBatchAndReturnKeys();
+		}
+
 		ResultSet resultSet = null;
 		try {
 			final int[] updateCount = this.preparedStatement.executeBatch();
@@ -211,6 +316,383 @@ public class Update extends Statement {
 		}
 	}
 
+	/**
+	 * Executes the rest of a chunked batch and returns the keys generated by every chunk.
+	 *
+	 * @return array containing the auto generated keys for each batch statement
+	 */
+	private long[] executeChunkedBatchAndReturnKeys() {
+		if (!this.chunkKeys && this.flushedRows > 0) {
+			this.abortBatch();
+			throw new DaoException("The keys of the chunks already executed were not collected, use "
+					+ "chunkedBatch(size, true) to return keys: " + this);
+		}
+		this.chunkKeys = true;
+
+		try {
+			this.flushChunk();
+		} catch (final SQLException e) {
+			this.abortBatch();
+			throw new DaoException("Error executing batch: " + this, e);
+		}
+		this.connection.cleanUp();
+
+		if (this.generatedKeyCount == 0) {
+			throw new DaoException("No key was generated for " + this);
+		}
+		return Arrays.copyOf(this.generatedKeys, this.generatedKeyCount);
+	}
+
+	/**
+	 * Executes the statement for each bean as a batch, reading the parameters from the bean properties as
+	 * {@link #setBean(Object)} does, and commits every row that succeeds even if others fail.
+	 *
+	 * <p>
+	 * When a batch fails, it is rolled back and split in half, and each half is executed again, until the rows
+	 * that fail on their own are found. The batch is rolled back to a savepoint before each retry, or committed
+	 * after each part that succeeds if the driver doesn't support savepoints. A handful of bad rows among
+	 * thousands are found in a number of round trips that grows with the logarithm of the batch size, rather
+	 * than replaying every row. The batch is split into chunks first if {@link #chunkedBatch(int)} was called,
+	 * and each chunk is committed once its failures are isolated.
+	 *
+	 * @param aBeans
+	 *            the beans to execute the statement for
+	 * @return the update count of each row and the rows that failed
+	 */
+	public BatchResult executeBatchIsolatingFailures(Iterable<?> aBeans) {
+		final List<Object> beans = new ArrayList<Object>();
+		for (final Object bean : aBeans) {
+			beans.add(bean);
+		}
+		final int[] counts = new int[beans.size()];
+		final List<BatchResult.Failure> failures = new ArrayList<BatchResult.Failure>();
+		final int[] roundTrips = new int[1];
+		final int chunk = this.chunkSize > 0 ? this.chunkSize : Math.max(1, beans.size());
+
+		this.route(beans);
+		try {
+			this.connection.disableAutoCommit();
+			for (int from = 0; from < beans.size(); from += chunk) {
+				this.isolateFailures(beans, from, Math.min(beans.size(), from + chunk), counts, failures,
+						roundTrips);
+				this.connection.commit();
+			}
+		} catch (final SQLException e) {
+			this.connection.rollbackQuietly();
+			this.connection.cleanUp();
+			throw new DaoException("Error executing batch: " + this, e);
+		} catch (final RuntimeException e) {
+			this.connection.rollbackQuietly();
+			this.connection.cleanUp();
+			throw e;
+		}
+		this.connection.cleanUp();
+		return new BatchResult(counts, failures, roundTrips[0]);
+	}
+
+	/**
+	 * Chooses the shard of a {@link ShardedConnector} from the shard key of every bean up front, before the
+	 * savepoints or the statements for several rows that can't be routed by their own parameters are needed.
+	 * Every bean must belong to the same shard.
+	 *
+	 * @param aBeans
+	 *            the beans to execute the statement for
+	 * @return the beans, collected into a list if they were read to choose the shard
+	 */
+	private Iterable<?> route(Iterable<?> aBeans) {
+		final ShardedConnector sharded = this.connection.getUnroutedConnector();
+		if (sharded == null) {
+			return aBeans;
+		}
+		try {
+			final String shardKey = sharded.getShardKey();
+			if (this.parsedStatement.getParameterIndexes(shardKey).length == 0) {
+				throw new DaoException("The statement doesn't use the shard key " + shardKey + ": " + this);
+			}
+			final List<Object> beans = new ArrayList<Object>();
+			final List<Object> keys = new ArrayList<Object>();
+			for (final Object bean : aBeans) {
+				beans.add(bean);
+				keys.add(BeanParameterPlan.read(bean, shardKey));
+			}
+			if (!keys.isEmpty()) {
+				this.connection.route(keys);
+			}
+			return beans;
+		} catch (final RuntimeException e) {
+			this.connection.cleanUp();
+			throw e;
+		}
+	}
+
+	/**
+	 * Executes a range of the beans as a batch and, if it fails, rolls it back and isolates the failed rows by
+	 * executing each half of the range again.
+	 *
+	 * @throws SQLException
+	 *             error that isn't caused by the rows, such as a lost connection
+	 */
+	private void isolateFailures(List<Object> aBeans, int aFrom, int aTo, int[] aCounts,
+			List<BatchResult.Failure> aFailures, int[] aRoundTrips) throws SQLException {
+		final Savepoint savepoint = this.connection.setSavepoint();
+		try {
+			for (int i = aFrom; i < aTo; i++) {
+				final Object bean = aBeans.get(i);
+				this.parsedStatement.getBeanPlan(bean.getClass()).bind(this.preparedStatement, bean);
+				this.preparedStatement.addBatch();
+			}
+			aRoundTrips[0]++;
+			final int[] counts = this.preparedStatement.executeBatch();
+			System.arraycopy(counts, 0, aCounts, aFrom, Math.min(counts.length, aTo - aFrom));
+		} catch (final SQLException e) {
+			if (Update.isConnectionError(e)) {
+				throw e;
+			}
+			this.preparedStatement.clearBatch();
+			this.connection.rollback(savepoint);
+			if (aTo - aFrom == 1) {
+				aCounts[aFrom] = java.sql.Statement.EXECUTE_FAILED;
+				aFailures.add(new BatchResult.Failure(aFrom, aBeans.get(aFrom), e));
+			} else {
+				final int middle = (aFrom + aTo) >>> 1;
+				this.isolateFailures(aBeans, aFrom, middle, aCounts, aFailures, aRoundTrips);
+				this.isolateFailures(aBeans, middle, aTo, aCounts, aFailures, aRoundTrips);
+			}
+			return;
+		}
+
+		if (savepoint == null) {
+			this.connection.commit();
+		} else {
+			this.connection.releaseSavepoint(savepoint);
+		}
+	}
+
+	/**
+	 * Checks if an error means the connection can't be used, rather than that a row was rejected, since
+	 * retrying the rows would then fail every one of them.
+	 *
+	 * @param aException
+	 *            the error executing a batch
+	 * @return <code>true</code> if the SQL state is a connection exception
+	 */
+	private static boolean isConnectionError(SQLException aException) {
+		final String sqlState = aException.getSQLState();
+		return sqlState != null && sqlState.startsWith("08");
+	}
+
+	/**
+	 * Inserts a row for each bean, reading the parameters from the bean properties as {@link #setBean(Object)}
+	 * does. See {@link #executeBulk(Iterable, int)}.
+	 *
+	 * @param aBeans
+	 *            the beans to insert
+	 * @return the number of records inserted
+	 */
+	public int executeBulk(Iterable<?> aBeans) {
+		return this.executeBulk(aBeans, BulkInsert.DEFAULT_MAXIMUM_PARAMETERS);
+	}
+
+	/**
+	 * Inserts a row for each bean, reading the parameters from the bean properties as {@link #setBean(Object)}
+	 * does.
+	 *
+	 * <p>
+	 * If the statement is a simple insert with a single <code>VALUES</code> group holding every parameter, it is
+	 * rewritten to insert as many rows per execution as the parameter limit allows, which saves a round trip per
+	 * row on drivers that execute batches one statement at a time. The rows left over are inserted by statements
+	 * for a power of two rows, and the last few as a batch, so only a few distinct statements are ever prepared.
+	 * Any other statement is executed as a batch in chunks of the same size. Each chunk is committed if
+	 * {@link #commitEachChunk()} was called.
+	 *
+	 * @param aBeans
+	 *            the beans to insert
+	 * @param aMaximumParameters
+	 *            the maximum number of parameters the driver accepts in one statement
+	 * @return the number of records inserted, counting rows the driver reports as successful without a count as
+	 *         one
+	 */
+	public int executeBulk(Iterable<?> aBeans, int aMaximumParameters) {
+		if (aMaximumParameters <= 0) {
+			throw new IllegalArgumentException("Maximum parameters must be positive: " + aMaximumParameters);
+		}
+		final Iterable<?> beans = this.route(aBeans);
+		final BulkInsert bulkInsert = this.parsedStatement.getBulkInsert();
+		if (bulkInsert == null) {
+			return this.executeBulkAsBatch(beans, Math.max(1, aMaximumParameters
+					/ Math.max(1, this.parsedStatement.getParameters().size())));
+		}
+
+		final int rowsPerStatement = bulkInsert.getRowsPerStatement(aMaximumParameters);
+		final List<Object> chunk = new ArrayList<Object>(rowsPerStatement);
+		int updated = 0;
+		try {
+			PreparedStatement fullChunk = null;
+			for (final Object bean : beans) {
+				chunk.add(bean);
+				if (chunk.size() == rowsPerStatement) {
+					if (fullChunk == null) {
+						fullChunk = this.prepareBulkStatement(bulkInsert, rowsPerStatement);
+					}
+					updated += this.executeBulkChunk(fullChunk, bulkInsert, chunk);
+					chunk.clear();
+				}
+			}
+			int from = 0;
+			int rows;
+			while ((rows = BulkInsert.getRowsForRemainder(chunk.size() - from)) > 0) {
+				updated += this.executeBulkChunk(this.prepareBulkStatement(bulkInsert, rows), bulkInsert, chunk
+						.subList(from, from + rows));
+				from += rows;
+			}
+			if (from < chunk.size()) {
+				updated += this.executeBulkRemainder(chunk.subList(from, chunk.size()));
+			}
+		} catch (final SQLException e) {
+			this.abortBatch();
+			throw new DaoException("Error executing bulk insert: " + this, e);
+		} catch (final RuntimeException e) {
+			this.abortBatch();
+			throw e;
+		}
+		this.connection.cleanUp();
+		return updated;
+	}
+
+	/**
+	 * Prepares the statement that inserts a number of rows, using the statement of this update for one row.
+	 */
+	private PreparedStatement prepareBulkStatement(BulkInsert aBulkInsert, int aRows) throws SQLException {
+		if (aRows == 1) {
+			return this.preparedStatement;
+		}
+		return this.connection.prepareStatement(aBulkInsert.getStatement(aRows));
+	}
+
+	/**
+	 * Binds each bean of a chunk as one row of the rewritten statement and executes it.
+	 *
+	 * @return the number of records inserted
+	 */
+	private int executeBulkChunk(PreparedStatement aPreparedStatement, BulkInsert aBulkInsert,
+			List<Object> aChunk) throws SQLException {
+		for (int i = 0; i < aChunk.size(); i++) {
+			final Object bean = aChunk.get(i);
+			this.parsedStatement.getBeanPlan(bean.getClass()).bind(aPreparedStatement, bean, i
+					* aBulkInsert.getParametersPerRow());
+		}
+		final int updated = aPreparedStatement.executeUpdate();
+		if (this.commitEachChunk) {
+			this.connection.commit();
+		}
+		return updated;
+	}
+
+	/**
+	 * Inserts the last few rows of a bulk insert as one batch of the statement for a single row.
+	 *
+	 * @return the number of records inserted
+	 */
+	private int executeBulkRemainder(List<Object> aBeans) throws SQLException {
+		for (final Object bean : aBeans) {
+			this.parsedStatement.getBeanPlan(bean.getClass()).bind(this.preparedStatement, bean, 0);
+			this.preparedStatement.addBatch();
+		}
+		int updated = 0;
+		for (final int count : this.preparedStatement.executeBatch()) {
+			updated += count == java.sql.Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, count);
+		}
+		if (this.commitEachChunk) {
+			this.connection.commit();
+		}
+		return updated;
+	}
+
+	/**
+	 * Inserts the beans as a chunked batch, for statements that can't be rewritten.
+	 *
+	 * @return the number of records inserted
+	 */
+	private int executeBulkAsBatch(Iterable<?> aBeans, int aChunkSize) {
+		if (this.chunkSize == 0) {
+			this.chunkSize = aChunkSize;
+		}
+		for (final Object bean : aBeans) {
+			this.setBean(bean);
+			this.addBatch();
+		}
+		int updated = 0;
+		for (final int count : this.executeBatch()) {
+			updated += count == java.sql.Statement.SUCCESS_NO_INFO ? 1 : Math.max(0, count);
+		}
+		return updated;
+	}
+
+	/**
+	 * @return <code>true</code> if the batch is executed in chunks or committed explicitly
+	 */
+	private boolean isChunked() {
+		return this.chunkSize > 0 || this.commitEachChunk;
+	}
+
+	/**
+	 * Executes the parameter sets added since the last chunk, collecting the update counts and generated keys,
+	 * and commits if requested.
+	 *
+	 * @throws SQLException
+	 *             error executing the batch
+	 */
+	private void flushChunk() throws SQLException {
+		if (this.pendingRows > 0) {
+			final int[] counts = this.preparedStatement.executeBatch();
+			if (this.flushedRows + counts.length > this.updateCounts.length) {
+				this.updateCounts = Arrays.copyOf(this.updateCounts, Math.max(this.flushedRows + counts.length,
+						this.updateCounts.length * 2));
+			}
+			System.arraycopy(counts, 0, this.updateCounts, this.flushedRows, counts.length);
+			this.flushedRows += counts.length;
+			this.pendingRows = 0;
+
+			if (this.chunkKeys) {
+				this.collectGeneratedKeys();
+			}
+		}
+		if (this.commitEachChunk) {
+			this.connection.commit();
+		}
+	}
+
+	/**
+	 * Reads the keys generated by the last chunk.
+	 *
+	 * @throws SQLException
+	 *             error reading the keys
+	 */
+	private void collectGeneratedKeys() throws SQLException {
+		final ResultSet resultSet = this.preparedStatement.getGeneratedKeys();
+		try {
+			while (resultSet.next()) {
+				if (this.generatedKeyCount == this.generatedKeys.length) {
+					this.generatedKeys = Arrays.copyOf(this.generatedKeys, Math.max(16,
+							this.generatedKeyCount * 2));
+				}
+				this.generatedKeys[this.generatedKeyCount++] = resultSet.getLong(1);
+			}
+		} finally {
+			resultSet.close();
+		}
+	}
+
+	/**
+	 * Rolls back any uncommitted chunks and releases the connection after a failure.
+	 */
+	private void abortBatch() {
+		if (this.commitEachChunk) {
+			this.connection.rollbackQuietly();
+		}
+		this.connection.cleanUp();
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -280,7 +762,7 @@ public class Update extends Statement {
 	 */
 	@Override
 	public Update setNull(String aName, int aSqlType) {
-		return (Update) super.set(aName, aSqlType);
+		return (Update) super.setNull(aName, aSqlType);
 	}
 
 	/**
@@ -319,8 +801,8 @@ public class Update extends Statement {
 	 * {@inheritDoc}
 	 */
 	@Override
-	protected List<String> getParameters() {
-		return this.parameters;
+	protected ParsedNamedStatement getParsedStatement() {
+		return this.parsedStatement;
 	}
 
 	/**
@@ -336,7 +818,8 @@ public class Update extends Statement {
 	 */
 	@Override
 	public String toString() {
-		return "Update [statement=" + this.statement + ", connection=" + this.connection
-				+ ", preparedStatement=" + this.preparedStatement + ", parameters=" + this.parameters + "]";
+		return "Update [statement=" + this.parsedStatement.getOriginalStatement()
+				+ ", connection=" + this.connection
+				+ ", preparedStatement=" + this.preparedStatement + ", parameters=" + this.getParameters() + "]";
 	}
 }
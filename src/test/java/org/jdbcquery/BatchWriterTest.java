@@ -0,0 +1,248 @@
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the BatchWriter Class.
+ *
+ * @author Troy Histed
+ */
+public class BatchWriterTest {
+
+	List<MockConnection> connections;
+	JdbcConnector connector;
+
+	/**
+	 * Resets the connector so each test sees only its own connections.
+	 */
+	@Before
+	public void constructConnector() {
+		this.connections = Collections.synchronizedList(new ArrayList<MockConnection>());
+		this.connector = new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				final MockConnection connection = new MockConnection();
+				BatchWriterTest.this.connections.add(connection);
+				return connection;
+			}
+
+			@Override
+			public String getName() {
+				return "mock";
+			}
+		};
+	}
+
+	/**
+	 * Verify beans are written in batches of at most the batch size, each committed once, and every future
+	 * completes.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSubmit() throws Exception {
+		final BatchWriter writer = new BatchWriter("INSERT INTO beans(param1) VALUES(:param1)", this.connector)
+				.batchSize(4).maximumDelay(1, TimeUnit.SECONDS).start();
+		final List<CompletableFuture<Integer>> futures = new ArrayList<CompletableFuture<Integer>>();
+		for (int i = 0; i < 10; i++) {
+			final TestBean bean = new TestBean();
+			bean.setParam1("bean_" + i);
+			futures.add(writer.submit(bean));
+		}
+		writer.close();
+
+		for (final CompletableFuture<Integer> future : futures) {
+			Assert.assertEquals(Integer.valueOf(1), future.get());
+		}
+		Assert.assertEquals(10, writer.getRowsWritten());
+		Assert.assertEquals(0, writer.getQueueSize());
+		int rows = 0;
+		for (final MockConnection connection : this.connections) {
+			final int batch = connection.getPreparedStatement().executedBatches.get(0).intValue();
+			Assert.assertTrue(batch <= 4);
+			Assert.assertEquals(1, connection.commitCount);
+			Assert.assertTrue(connection.getAutoCommit());
+			Assert.assertTrue(connection.isClosed());
+			rows += batch;
+		}
+		Assert.assertEquals(10, rows);
+		Assert.assertEquals(this.connections.size(), writer.getBatchesWritten());
+	}
+
+	/**
+	 * Verify a partial batch is written once the maximum delay has passed.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testMaximumDelay() throws Exception {
+		final BatchWriter writer = new BatchWriter("INSERT INTO beans(param1) VALUES(:param1)", this.connector)
+				.batchSize(100).maximumDelay(10, TimeUnit.MILLISECONDS).start();
+		try {
+			final CompletableFuture<Integer> future = writer.submit(new TestBean());
+			Assert.assertEquals(Integer.valueOf(1), future.get(5, TimeUnit.SECONDS));
+			Assert.assertEquals(1, writer.getBatchesWritten());
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Verify the futures of a failed batch complete exceptionally.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testFailedBatch() throws Exception {
+		final JdbcConnector failing = new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				throw new DaoException("No connection");
+			}
+
+			@Override
+			public String getName() {
+				return "failing";
+			}
+		};
+		final BatchWriter writer = new BatchWriter("INSERT INTO beans(param1) VALUES(:param1)", failing).start();
+		final CompletableFuture<Integer> future = writer.submit(new TestBean());
+		writer.close();
+
+		try {
+			future.get();
+			Assert.fail("The batch should have failed");
+		} catch (final ExecutionException e) {
+			Assert.assertTrue(e.getCause() instanceof DaoException);
+		}
+		Assert.assertEquals(1, writer.getRowsFailed());
+	}
+
+	/**
+	 * Verify a batch whose bean can't be read is rolled back and releases its connection, and an error in a
+	 * batch doesn't stop the worker from writing the next one.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testFailedBean() throws Exception {
+		final BatchWriter writer = new BatchWriter("INSERT INTO beans(param1) VALUES(:param1)", this.connector)
+				.batchSize(1).start();
+		try {
+			final CompletableFuture<Integer> failed = writer.submit(new FailingBean(new IllegalStateException(
+					"Unreadable")));
+			final CompletableFuture<Integer> error = writer.submit(new FailingBean(new AssertionError(
+					"Broken")));
+			final CompletableFuture<Integer> written = writer.submit(new TestBean());
+
+			Assert.assertEquals(Integer.valueOf(1), written.get(5, TimeUnit.SECONDS));
+			Assert.assertTrue(failed.isCompletedExceptionally());
+			Assert.assertTrue(error.isCompletedExceptionally());
+			Assert.assertEquals(2, writer.getRowsFailed());
+			for (int i = 0; i < 2; i++) {
+				final MockConnection connection = this.connections.get(i);
+				Assert.assertEquals(1, connection.rollbackCount);
+				Assert.assertTrue(connection.getAutoCommit());
+				Assert.assertTrue(connection.isClosed());
+			}
+		} finally {
+			writer.close();
+		}
+	}
+
+	/**
+	 * Verify every bean accepted while the writer is closing is written, including those of producers waiting
+	 * for space in the queue.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testSubmitWhileClosing() throws Exception {
+		final BatchWriter writer = new BatchWriter("INSERT INTO beans(param1) VALUES(:param1)", this.connector)
+				.queueCapacity(2).batchSize(2).start();
+		final List<CompletableFuture<Integer>> futures = Collections.synchronizedList(
+				new ArrayList<CompletableFuture<Integer>>());
+		final List<Thread> producers = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			final Thread producer = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						while (true) {
+							futures.add(writer.submit(new TestBean()));
+						}
+					} catch (final IllegalStateException e) {
+						// the writer is closed
+					}
+				}
+			});
+			producer.start();
+			producers.add(producer);
+		}
+		Thread.sleep(20);
+		writer.close();
+		for (final Thread producer : producers) {
+			producer.join(5000);
+			Assert.assertFalse(producer.isAlive());
+		}
+
+		for (final CompletableFuture<Integer> future : futures) {
+			Assert.assertEquals(Integer.valueOf(1), future.get(5, TimeUnit.SECONDS));
+		}
+		Assert.assertEquals(futures.size(), writer.getRowsWritten());
+	}
+
+	/**
+	 * Verify beans can't be submitted once the writer is closed, and it can't be configured once started.
+	 */
+	@Test
+	public void testClosed() {
+		final BatchWriter writer = new BatchWriter("INSERT INTO beans(param1) VALUES(:param1)", this.connector)
+				.start();
+		try {
+			writer.batchSize(10);
+			Assert.fail("The writer is already started");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+		writer.close();
+		try {
+			writer.submit(new TestBean());
+			Assert.fail("The writer is closed");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * A bean whose property can't be read.
+	 */
+	public static class FailingBean {
+
+		private final Throwable failure;
+
+		FailingBean(Throwable aFailure) {
+			this.failure = aFailure;
+		}
+
+		/**
+		 * @return never returns
+		 */
+		public String getParam1() {
+			if (this.failure instanceof Error) {
+				throw (Error) this.failure;
+			}
+			throw (RuntimeException) this.failure;
+		}
+	}
+}
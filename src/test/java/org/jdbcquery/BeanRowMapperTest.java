@@ -0,0 +1,152 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the BeanRowMapper.
+ *
+ * @author Troy Histed
+ */
+public class BeanRowMapperTest {
+
+	BeanRowMapper<TestBean> rowMapper;
+	MockConnection connection;
+	MockResultSet resultSet;
+
+	/**
+	 * Resets the instance members to new instances.
+	 */
+	@Before
+	public void constructMapper() {
+		this.rowMapper = BeanRowMapper.forClass(TestBean.class);
+		this.connection = new MockConnection();
+		this.resultSet = new MockResultSet();
+	}
+
+	/**
+	 * Adds a row to the mocked result set.
+	 *
+	 * @param param1
+	 *            the param1 column value
+	 * @param param2
+	 *            the param2 column value
+	 * @param param3
+	 *            the param3 column value
+	 */
+	private void addRow(String param1, Integer param2, Long param3) {
+		final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+		row.put("param1", param1);
+		row.put("param2", param2);
+		row.put("param3", param3);
+		this.resultSet.getValues().add(row);
+	}
+
+	/**
+	 * Verify that each column is written to the matching bean property, converting nulls the same way BeanUtils
+	 * does.
+	 */
+	@Test
+	public void testMapRows() {
+		this.addRow("a", Integer.valueOf(1), Long.valueOf(2L));
+		this.addRow(null, null, null);
+
+		final Select<TestBean> select = new Select<TestBean>("Select...", this.rowMapper, this.connection);
+		this.connection.getPreparedStatement().setResultSet(this.resultSet);
+		final List<TestBean> beans = select.executeForAll();
+
+		Assert.assertEquals(2, beans.size());
+		Assert.assertEquals("a", beans.get(0).getParam1());
+		Assert.assertEquals(Integer.valueOf(1), beans.get(0).getParam2());
+		Assert.assertEquals(2L, beans.get(0).getParam3());
+		Assert.assertNull(beans.get(1).getParam1());
+		Assert.assertEquals(Integer.valueOf(0), beans.get(1).getParam2());
+		Assert.assertEquals(0L, beans.get(1).getParam3());
+	}
+
+	/**
+	 * Verify that the meta data is only read once per result set.
+	 */
+	@Test
+	public void testMetaDataResolvedOnce() {
+		for (int i = 0; i < 5; i++) {
+			this.addRow("a", Integer.valueOf(i), Long.valueOf(i));
+		}
+
+		final Select<TestBean> select = new Select<TestBean>("Select...", this.rowMapper, this.connection);
+		this.connection.getPreparedStatement().setResultSet(this.resultSet);
+		Assert.assertEquals(5, select.executeForAll().size());
+		Assert.assertEquals(1, this.resultSet.getMetaDataRequests());
+	}
+
+	/**
+	 * Verify the cached plans are bounded, so selects with ever changing column labels don't keep adding plans.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testPlansBounded() throws SQLException {
+		for (int i = 0; i <= ColumnPlan.MAXIMUM_PLANS; i++) {
+			final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("param1", "a");
+			row.put("alias" + i, Integer.valueOf(i));
+			final MockResultSet aliased = new MockResultSet();
+			aliased.getValues().add(row);
+			ColumnPlan.forResultSet(TestBean.class, aliased);
+		}
+		Assert.assertEquals(ColumnPlan.MAXIMUM_PLANS, ColumnPlan.getCachedCount());
+
+		this.addRow("a", Integer.valueOf(1), Long.valueOf(2L));
+		final Select<TestBean> select = new Select<TestBean>("Select...", this.rowMapper, this.connection);
+		this.connection.getPreparedStatement().setResultSet(this.resultSet);
+		Assert.assertEquals("a", select.execute().getParam1());
+	}
+
+	/**
+	 * Verify that columns are converted to the property type and nested properties are supported.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testConvertedAndNestedProperties() throws SQLException {
+		final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+		row.put("param2", "7");
+		row.put("param3", Integer.valueOf(8));
+		row.put("unknown", "ignored");
+		this.resultSet.getValues().add(row);
+
+		final BeanRowMapper<TestBean> nestedMapper = new BeanRowMapper<TestBean>() {
+			@Override
+			protected TestBean newBeanInstance() {
+				final TestBean bean = new TestBean();
+				bean.setBean(new TestBean());
+				return bean;
+			}
+		};
+
+		this.resultSet.next();
+		final TestBean bean = nestedMapper.mapRow(this.resultSet);
+		Assert.assertEquals(Integer.valueOf(7), bean.getParam2());
+		Assert.assertEquals(8L, bean.getParam3());
+	}
+}
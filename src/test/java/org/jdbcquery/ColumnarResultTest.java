@@ -0,0 +1,144 @@
+package org.jdbcquery;
+
+import java.math.BigDecimal;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the ColumnarResult.
+ *
+ * @author Troy Histed
+ */
+public class ColumnarResultTest {
+
+	MockResultSet resultSet;
+
+	/**
+	 * Fills the result set with 100 rows of each column type.
+	 */
+	@Before
+	public void constructResultSet() {
+		this.resultSet = new MockResultSet();
+		for (int i = 0; i < 100; i++) {
+			final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("id", Integer.valueOf(i));
+			row.put("total", i % 2 == 0 ? Long.valueOf(i * 1000L) : null);
+			row.put("ratio", Double.valueOf(i / 4.0));
+			row.put("state", i % 3 == 0 ? "MN" : i % 3 == 1 ? "WI" : null);
+			row.put("amount", BigDecimal.valueOf(i));
+			this.resultSet.getValues().add(row);
+		}
+	}
+
+	/**
+	 * Verify each column is read into a vector of its type.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testRead() throws SQLException {
+		final ColumnarResult result = ColumnarResult.read(this.resultSet);
+
+		Assert.assertEquals(100, result.getRowCount());
+		Assert.assertEquals(5, result.getColumnCount());
+
+		final ColumnarResult.IntColumn ids = result.getIntColumn("ID");
+		Assert.assertEquals(99, ids.getInt(99));
+		Assert.assertEquals(0, ids.getNullCount());
+
+		final ColumnarResult.LongColumn totals = result.getLongColumn("total");
+		Assert.assertEquals(2000L, totals.getLong(2));
+		Assert.assertTrue(totals.isNull(3));
+		Assert.assertNull(totals.getObject(3));
+		Assert.assertEquals(50, totals.getNullCount());
+
+		Assert.assertEquals(24.75, result.getDoubleColumn("ratio").getDouble(99), 0);
+
+		final ColumnarResult.StringColumn states = result.getStringColumn("state");
+		Assert.assertArrayEquals(new String[] {"MN", "WI"}, states.getDictionary());
+		Assert.assertEquals("WI", states.getString(4));
+		Assert.assertEquals(1, states.getCode(4));
+		Assert.assertNull(states.getString(5));
+		Assert.assertEquals(-1, states.getCode(5));
+
+		Assert.assertEquals(7L, result.getLongColumn("amount").getLong(7));
+		Assert.assertEquals(100, result.getColumn(5).size());
+	}
+
+	/**
+	 * Verify the memory footprint covers the values of every column.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testMemoryFootprint() throws SQLException {
+		final ColumnarResult result = ColumnarResult.read(this.resultSet);
+
+		Assert.assertEquals(400, result.getIntColumn("id").getMemoryFootprint());
+		Assert.assertTrue(result.getLongColumn("total").getMemoryFootprint() >= 800);
+		long total = 0;
+		for (int i = 1; i <= result.getColumnCount(); i++) {
+			total += result.getColumn(i).getMemoryFootprint();
+		}
+		Assert.assertEquals(total, result.getMemoryFootprint());
+	}
+
+	/**
+	 * Verify numeric columns are held as longs, doubles or exact decimals depending on their scale, and
+	 * boolean columns as a bitmap.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testNumericAndBooleanColumns() throws SQLException {
+		final MockResultSet numbers = new MockResultSet() {
+			@Override
+			public ResultSetMetaData getMetaData() throws SQLException {
+				return new MockResultSetMetaData(this.getValues().get(0)) {
+					@Override
+					public int getScale(int aColumn) throws SQLException {
+						return aColumn == 3 ? -127 : super.getScale(aColumn);
+					}
+				};
+			}
+		};
+		for (int i = 0; i < 10; i++) {
+			final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("count", new BigDecimal(i + 10));
+			row.put("price", new BigDecimal(i + ".25"));
+			row.put("ratio", new BigDecimal(i + ".5"));
+			row.put("active", i == 4 ? null : Boolean.valueOf(i % 2 == 0));
+			numbers.getValues().add(row);
+		}
+
+		final ColumnarResult result = ColumnarResult.read(numbers);
+
+		Assert.assertEquals(13L, result.getLongColumn("count").getLong(3));
+		Assert.assertEquals(new BigDecimal("3.25"), result.getColumn("price").getObject(3));
+		Assert.assertTrue(result.getColumn("price") instanceof ColumnarResult.ObjectColumn);
+		Assert.assertEquals(3.5, result.getDoubleColumn("ratio").getDouble(3), 0);
+
+		final ColumnarResult.BooleanColumn active = result.getBooleanColumn("active");
+		Assert.assertTrue(active.getBoolean(2));
+		Assert.assertFalse(active.getBoolean(3));
+		Assert.assertTrue(active.isNull(4));
+		Assert.assertNull(active.getObject(4));
+		Assert.assertEquals(Boolean.FALSE, active.getObject(5));
+		Assert.assertEquals(4, active.getTrueCount());
+	}
+
+	/**
+	 * Verify asking for a column of the wrong type fails.
+	 *
+	 * @throws SQLException
+	 */
+	@Test(expected = DaoException.class)
+	public void testWrongColumnType() throws SQLException {
+		ColumnarResult.read(this.resultSet).getIntColumn("state");
+	}
+}
@@ -0,0 +1,173 @@
+package org.jdbcquery;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test the ConnectorServiceLoader Class.
+ *
+ * @author Troy Histed
+ */
+public class ConnectorServiceLoaderTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	/**
+	 * Starts each test from the provided connectors only.
+	 */
+	@Before
+	public void loadConnectors() {
+		ConnectorServiceLoader.load(Thread.currentThread().getContextClassLoader());
+	}
+
+	/**
+	 * Removes the connectors registered by the tests.
+	 */
+	@After
+	public void unregisterConnectors() {
+		ConnectorServiceLoader.load(Thread.currentThread().getContextClassLoader());
+	}
+
+	/**
+	 * Verify registered connectors are found by name, and the first one is the default.
+	 */
+	@Test
+	public void testRegister() {
+		final JdbcConnector first = this.connector("first");
+		final JdbcConnector second = this.connector("second");
+		ConnectorServiceLoader.register(first);
+		ConnectorServiceLoader.register(second);
+
+		Assert.assertSame(first, ConnectorServiceLoader.getConnector("first"));
+		Assert.assertSame(second, ConnectorServiceLoader.getConnector("second"));
+		Assert.assertSame(first, ConnectorServiceLoader.getConnector(null));
+	}
+
+	/**
+	 * Verify registering a connector with the same name replaces the old one.
+	 */
+	@Test
+	public void testReplace() {
+		ConnectorServiceLoader.register(this.connector("first"));
+		final JdbcConnector replacement = this.connector("first");
+		ConnectorServiceLoader.register(replacement);
+
+		Assert.assertSame(replacement, ConnectorServiceLoader.getConnector("first"));
+		Assert.assertSame(replacement, ConnectorServiceLoader.getConnector(null));
+	}
+
+	/**
+	 * Verify an unregistered connector can no longer be found.
+	 */
+	@Test
+	public void testUnregister() {
+		final JdbcConnector first = this.connector("first");
+		ConnectorServiceLoader.register(first);
+
+		Assert.assertSame(first, ConnectorServiceLoader.unregister("first"));
+		Assert.assertNull(ConnectorServiceLoader.unregister("first"));
+		try {
+			ConnectorServiceLoader.getConnector("first");
+			Assert.fail("The connector was unregistered");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Verify unregistering the default connector leaves no default until one is chosen.
+	 */
+	@Test
+	public void testUnregisterDefault() {
+		ConnectorServiceLoader.register(this.connector("first"));
+		final JdbcConnector second = this.connector("second");
+		ConnectorServiceLoader.register(second);
+		ConnectorServiceLoader.unregister("first");
+
+		Assert.assertNull(ConnectorServiceLoader.getDefaultConnector());
+		try {
+			ConnectorServiceLoader.getConnector(null);
+			Assert.fail("There is no default connector");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+
+		ConnectorServiceLoader.setDefaultConnector("second");
+		Assert.assertSame(second, ConnectorServiceLoader.getConnector(null));
+	}
+
+	/**
+	 * Verify a provider that fails to load is skipped, and reported when a connector can't be found.
+	 *
+	 * @throws IOException
+	 */
+	@Test
+	public void testBrokenProvider() throws IOException {
+		final File services = new File(this.folder.getRoot(), "META-INF/services");
+		Assert.assertTrue(services.mkdirs());
+		final String providers = "org.jdbcquery.MissingConnector\n" + ProvidedConnector.class.getName() + "\n";
+		Files.write(new File(services, JdbcConnector.class.getName()).toPath(), providers.getBytes(
+				StandardCharsets.UTF_8));
+
+		try (URLClassLoader classLoader = new URLClassLoader(new URL[] { this.folder.getRoot().toURI().toURL() },
+				this.getClass().getClassLoader())) {
+			ConnectorServiceLoader.load(classLoader);
+		}
+
+		Assert.assertTrue(ConnectorServiceLoader.getConnector("provided") instanceof ProvidedConnector);
+		Assert.assertTrue(ConnectorServiceLoader.getConnector(null) instanceof ProvidedConnector);
+		try {
+			ConnectorServiceLoader.getConnector("missing");
+			Assert.fail("There is no such connector");
+		} catch (final IllegalStateException e) {
+			Assert.assertEquals(1, e.getSuppressed().length);
+			Assert.assertTrue(e.getSuppressed()[0].getMessage().contains("MissingConnector"));
+		}
+	}
+
+	/**
+	 * A connector provided through the Service Provider Interface.
+	 */
+	public static class ProvidedConnector implements JdbcConnector {
+
+		@Override
+		public Connection getConnection() {
+			return new MockConnection();
+		}
+
+		@Override
+		public String getName() {
+			return "provided";
+		}
+	}
+
+	/**
+	 * Creates a connector that doesn't connect to anything.
+	 */
+	private JdbcConnector connector(final String aName) {
+		return new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				return new MockConnection();
+			}
+
+			@Override
+			public String getName() {
+				return aName;
+			}
+		};
+	}
+}
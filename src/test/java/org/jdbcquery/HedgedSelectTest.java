@@ -0,0 +1,279 @@
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the HedgedSelect Class.
+ *
+ * @author Troy Histed
+ */
+public class HedgedSelectTest {
+
+	List<MockPreparedStatement> slowStatements;
+	List<MockConnection> fastConnections;
+	ReadWriteConnector connector;
+	boolean ignoreCancel;
+
+	/**
+	 * Registers a connector with a replica that never answers until cancelled and a replica that answers at
+	 * once.
+	 */
+	@Before
+	public void registerConnector() {
+		this.slowStatements = new ArrayList<MockPreparedStatement>();
+		this.fastConnections = new ArrayList<MockConnection>();
+		this.connector = new ReadWriteConnector("hedged", this.connector(null, null), this.connector(
+				this.slowStatements, null), this.connector(null, this.fastConnections));
+		ConnectorServiceLoader.register(this.connector);
+	}
+
+	/**
+	 * Removes the connector.
+	 */
+	@After
+	public void unregisterConnector() {
+		ConnectorServiceLoader.unregister("hedged");
+	}
+
+	/**
+	 * Verify a select the slow replica doesn't answer is answered by the other one, and the slow statement is
+	 * cancelled.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testHedge() throws InterruptedException {
+		final HedgePolicy policy = new HedgePolicy(95).initialDelay(200, TimeUnit.MILLISECONDS);
+		this.connector.hedge(policy);
+
+		for (int i = 0; i < 10; i++) {
+			Assert.assertEquals(Long.valueOf(7), Query.hedgedForLong("SELECT id FROM orders WHERE id = :id",
+					"hedged").setObject("id", 7L).execute());
+			this.awaitInFlight();
+		}
+
+		Assert.assertEquals(10, policy.getRequestCount());
+		Assert.assertEquals(10, this.fastConnections.size());
+		Assert.assertTrue(policy.getHedgeCount() > 0);
+		Assert.assertEquals(policy.getHedgeCount(), policy.getHedgeWinCount());
+		Assert.assertEquals(1.0, policy.getHedgeWinRate(), 0);
+		Assert.assertEquals(policy.getHedgeCount(), this.slowStatements.size());
+		for (final MockPreparedStatement statement : this.slowStatements) {
+			Assert.assertEquals(1, statement.cancelCount);
+		}
+	}
+
+	/**
+	 * Verify the answer of the second replica is returned without waiting for a slow replica that ignores the
+	 * cancel.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testIgnoredCancel() throws InterruptedException {
+		this.ignoreCancel = true;
+		final HedgePolicy policy = new HedgePolicy(95).initialDelay(50, TimeUnit.MILLISECONDS);
+		this.connector.hedge(policy);
+
+		for (int i = 0; i < 20 && policy.getHedgeCount() == 0; i++) {
+			final long start = System.nanoTime();
+			Assert.assertEquals(Long.valueOf(7), Query.hedgedForLong("SELECT id FROM orders", "hedged")
+					.execute());
+			Assert.assertTrue(System.nanoTime() - start < TimeUnit.SECONDS.toNanos(1));
+		}
+
+		Assert.assertEquals(1, policy.getHedgeCount());
+		this.awaitInFlight();
+	}
+
+	/**
+	 * Verify the time a cancelled slow select had been running counts towards the delay, so hedging the slowest
+	 * selects doesn't drive the delay down.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testCancelledLatency() throws InterruptedException {
+		final HedgePolicy policy = new HedgePolicy(95).initialDelay(50, TimeUnit.MILLISECONDS);
+		this.connector.hedge(policy);
+
+		for (int i = 0; i < 40; i++) {
+			Assert.assertEquals(Long.valueOf(7), Query.hedgedForLong("SELECT id FROM orders", "hedged")
+					.execute());
+			this.awaitInFlight();
+		}
+
+		Assert.assertTrue(policy.getHedgeCount() > 0);
+		Assert.assertTrue(policy.getDelay(TimeUnit.MILLISECONDS) >= 50);
+	}
+
+	/**
+	 * Verify a select answered within the delay is not hedged.
+	 */
+	@Test
+	public void testNoHedgeWithinDelay() {
+		final HedgePolicy policy = new HedgePolicy(95).initialDelay(10, TimeUnit.SECONDS);
+		this.connector = new ReadWriteConnector("hedged", this.connector(null, null), this.connector(null,
+				this.fastConnections), this.connector(null, this.fastConnections)).hedge(policy);
+		ConnectorServiceLoader.register(this.connector);
+
+		Assert.assertEquals(Long.valueOf(7), Query.hedgedForLong("SELECT id FROM orders", "hedged").execute());
+		Assert.assertEquals(1, policy.getRequestCount());
+		Assert.assertEquals(0, policy.getHedgeCount());
+		Assert.assertEquals(0, policy.getHedgeRate(), 0);
+		Assert.assertEquals(1, this.fastConnections.size());
+	}
+
+	/**
+	 * Verify selects are executed like any other without a policy, and hedged selects need a read/write
+	 * connector.
+	 */
+	@Test
+	public void testWithoutPolicy() {
+		this.connector = new ReadWriteConnector("hedged", this.connector(null, null), this.connector(null,
+				this.fastConnections), this.connector(null, this.fastConnections));
+		ConnectorServiceLoader.register(this.connector);
+
+		Assert.assertEquals(1, Query.hedgedForLong("SELECT id FROM orders", "hedged").executeForAll().size());
+		Assert.assertEquals(1, this.connector.getReplicaReadCount());
+
+		ConnectorServiceLoader.register(new ShardedConnector("hedged", "id", ShardedConnector.hash(), this
+				.connector));
+		try {
+			Query.hedgedForLong("SELECT id FROM orders", "hedged");
+			Assert.fail("Not a read/write connector");
+		} catch (final DaoException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Verify the delay is the percentile of recent latencies, recalculated after 32 latencies and then every 64,
+	 * and never less than the minimum.
+	 */
+	@Test
+	public void testPercentileDelay() {
+		final HedgePolicy policy = new HedgePolicy(95).window(100);
+		Assert.assertEquals(10, policy.getDelay(TimeUnit.MILLISECONDS));
+
+		for (int i = 96; i > 0; i--) {
+			policy.recordLatency(TimeUnit.MILLISECONDS.toNanos(i));
+		}
+		Assert.assertEquals(92, policy.getDelay(TimeUnit.MILLISECONDS));
+
+		policy.minimumDelay(200, TimeUnit.MILLISECONDS);
+		Assert.assertEquals(200, policy.getDelay(TimeUnit.MILLISECONDS));
+	}
+
+	/**
+	 * Waits for the slower replica of the last select to stop, as the select returns without waiting for it.
+	 *
+	 * @throws InterruptedException
+	 */
+	private void awaitInFlight() throws InterruptedException {
+		while (this.connector.getInFlight(0) + this.connector.getInFlight(1) > 0) {
+			Thread.sleep(1);
+		}
+	}
+
+	/**
+	 * Creates a connector that returns one row with an id of 7, or whose statements wait until they are
+	 * cancelled.
+	 */
+	private JdbcConnector connector(final List<MockPreparedStatement> aSlowStatements,
+			final List<MockConnection> aConnections) {
+		return new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				final MockConnection connection = new MockConnection() {
+					@Override
+					public PreparedStatement prepareStatement(String aSql) throws SQLException {
+						super.prepareStatement(aSql);
+						MockPreparedStatement statement = new MockPreparedStatement();
+						if (aSlowStatements != null) {
+							statement = HedgedSelectTest.this.ignoreCancel ? HedgedSelectTest.ignoringStatement()
+									: HedgedSelectTest.slowStatement();
+						}
+						if (aSlowStatements == null) {
+							final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+							row.put("id", 7L);
+							final MockResultSet resultSet = new MockResultSet();
+							resultSet.getValues().add(row);
+							statement.setResultSet(resultSet);
+						} else {
+							synchronized (aSlowStatements) {
+								aSlowStatements.add(statement);
+							}
+						}
+						return statement;
+					}
+				};
+				if (aConnections != null) {
+					synchronized (aConnections) {
+						aConnections.add(connection);
+					}
+				}
+				return connection;
+			}
+
+			@Override
+			public String getName() {
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * @return a statement whose query waits until it is cancelled
+	 */
+	static MockPreparedStatement slowStatement() {
+		final CountDownLatch cancelled = new CountDownLatch(1);
+		return new MockPreparedStatement() {
+			@Override
+			public ResultSet executeQuery() throws SQLException {
+				try {
+					cancelled.await(10, TimeUnit.SECONDS);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new SQLException("Canceling statement due to user request", "57014");
+			}
+
+			@Override
+			public void cancel() throws SQLException {
+				super.cancel();
+				cancelled.countDown();
+			}
+		};
+	}
+
+	/**
+	 * @return a statement whose query takes a second and a half whether or not it is cancelled
+	 */
+	static MockPreparedStatement ignoringStatement() {
+		return new MockPreparedStatement() {
+			@Override
+			public ResultSet executeQuery() throws SQLException {
+				try {
+					Thread.sleep(1500);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				throw new SQLException("Canceling statement due to user request", "57014");
+			}
+		};
+	}
+}
@@ -0,0 +1,131 @@
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the JdbcConnection Class.
+ *
+ * @author Troy Histed
+ */
+public class JdbcConnectionTest {
+
+	List<MockConnection> connections;
+
+	/**
+	 * Registers a connector that records its connections and defers checking them out.
+	 */
+	@Before
+	public void registerConnector() {
+		this.connections = new ArrayList<MockConnection>();
+		ConnectorServiceLoader.register(new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				final MockConnection connection = new MockConnection();
+				JdbcConnectionTest.this.connections.add(connection);
+				return connection;
+			}
+
+			@Override
+			public String getName() {
+				return "deferred";
+			}
+		});
+		JdbcConnection.setDeferredConnections(true);
+	}
+
+	/**
+	 * Restores the defaults.
+	 */
+	@After
+	public void unregisterConnector() {
+		JdbcConnection.setDeferredConnections(false);
+		ConnectorServiceLoader.unregister("deferred");
+	}
+
+	/**
+	 * Verify the connection is checked out when the statement is executed, and the recorded parameters are
+	 * bound to the prepared statement.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testDeferredExecute() throws SQLException {
+		final Update update = new Update("UPDATE people SET name = :name WHERE age = :age", "deferred");
+		update.set("name", "deferred").set("age", 42);
+		Assert.assertTrue(this.connections.isEmpty());
+
+		Assert.assertEquals(1, update.execute());
+
+		Assert.assertEquals(1, this.connections.size());
+		final MockConnection connection = this.connections.get(0);
+		Assert.assertEquals("deferred", connection.getPreparedStatement().getValues().get(Integer.valueOf(1)));
+		Assert.assertEquals(Integer.valueOf(42), connection.getPreparedStatement().getValues().get(
+				Integer.valueOf(2)));
+		Assert.assertTrue(connection.isClosed());
+	}
+
+	/**
+	 * Verify a statement that is never executed never checks out a connection.
+	 */
+	@Test
+	public void testDeferredNeverExecuted() {
+		final Select<Integer> select = Query.forInteger("SELECT age FROM people WHERE name = :name", "deferred");
+		select.set("name", "nobody");
+		select.getConnection().cleanUp();
+
+		Assert.assertTrue(this.connections.isEmpty());
+	}
+
+	/**
+	 * Verify a deferred batch turns off auto-commit once the connection is checked out and restores it.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testDeferredBatch() throws SQLException {
+		final Update update = new Update("INSERT INTO people(name) VALUES(:name)", "deferred").commitEachChunk();
+		update.set("name", "first").addBatch();
+		update.set("name", "second").addBatch();
+		Assert.assertTrue(this.connections.isEmpty());
+
+		Assert.assertEquals(2, update.executeBatch().length);
+
+		final MockConnection connection = this.connections.get(0);
+		Assert.assertEquals(Integer.valueOf(2), connection.getPreparedStatement().executedBatches.get(0));
+		Assert.assertEquals(1, connection.commitCount);
+		Assert.assertTrue(connection.getAutoCommit());
+	}
+
+	/**
+	 * Verify statements are only cached for connections that keep their own cache, and the statements of any
+	 * other connection are closed when it is cleaned up.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testStatementCacheNeedsOwner() throws SQLException {
+		JdbcConnection.setStatementCacheSize(10);
+		try {
+			final MockConnection connection = new MockConnection() {
+				@Override
+				public void close() throws SQLException {
+					// returned to a pool that doesn't keep statement caches
+				}
+			};
+			Assert.assertNull(StatementCache.forConnection(connection));
+
+			new Update("UPDATE people SET name = 'a'", connection).execute();
+			Assert.assertTrue(connection.getPreparedStatement().isClosed());
+		} finally {
+			JdbcConnection.setStatementCacheSize(0);
+		}
+	}
+}
@@ -10,11 +10,14 @@ import java.sql.NClob;
 import java.sql.PreparedStatement;
 import java.sql.SQLClientInfoException;
 import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
 import java.sql.SQLWarning;
 import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
@@ -28,6 +31,14 @@ public class MockConnection implements Connection {
 
 	private boolean open = false;
 	MockPreparedStatement preparedStatement;
+	private boolean autoCommit = true;
+	int commitCount = 0;
+	int rollbackCount = 0;
+	boolean savepoints = true;
+	int savepointRollbackCount = 0;
+	boolean valid = true;
+	int validationCount = 0;
+	final List<String> statements = new ArrayList<String>();
 
 	/**
 	 * --------------------------
@@ -36,11 +47,32 @@ public class MockConnection implements Connection {
 	 */
 
 	public PreparedStatement prepareStatement(String sql) throws SQLException {
+		this.statements.add(sql);
 		this.open = true;
 		this.preparedStatement = new MockPreparedStatement();
 		return this.preparedStatement;
 	}
 
+	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
+		return this.prepareStatement(sql);
+	}
+
+	public void setAutoCommit(boolean autoCommit) throws SQLException {
+		this.autoCommit = autoCommit;
+	}
+
+	public boolean getAutoCommit() throws SQLException {
+		return this.autoCommit;
+	}
+
+	public void commit() throws SQLException {
+		this.commitCount += 1;
+	}
+
+	public void rollback() throws SQLException {
+		this.rollbackCount += 1;
+	}
+
 	public void close() throws SQLException {
 		this.open = false;
 	}
@@ -82,22 +114,6 @@ public class MockConnection implements Connection {
 		throw new UnsupportedOperationException("This is a mock object");
 	}
 
-	public void setAutoCommit(boolean autoCommit) throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
-	}
-
-	public boolean getAutoCommit() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
-	}
-
-	public void commit() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
-	}
-
-	public void rollback() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
-	}
-
 	public DatabaseMetaData getMetaData() throws SQLException {
 		throw new UnsupportedOperationException("This is a mock object");
 	}
@@ -165,7 +181,18 @@ public class MockConnection implements Connection {
 	}
 
 	public Savepoint setSavepoint() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		if (!this.savepoints) {
+			throw new SQLFeatureNotSupportedException("Savepoints are not supported");
+		}
+		return new Savepoint() {
+			public int getSavepointId() throws SQLException {
+				return 1;
+			}
+
+			public String getSavepointName() throws SQLException {
+				throw new SQLException("Unnamed savepoint");
+			}
+		};
 	}
 
 	public Savepoint setSavepoint(String name) throws SQLException {
@@ -173,11 +200,10 @@ public class MockConnection implements Connection {
 	}
 
 	public void rollback(Savepoint savepoint) throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		this.savepointRollbackCount += 1;
 	}
 
 	public void releaseSavepoint(Savepoint savepoint) throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
 	}
 
 	public Statement createStatement(int resultSetType, int resultSetConcurrency, int resultSetHoldability)
@@ -195,10 +221,6 @@ public class MockConnection implements Connection {
 		throw new UnsupportedOperationException("This is a mock object");
 	}
 
-	public PreparedStatement prepareStatement(String sql, int autoGeneratedKeys) throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
-	}
-
 	public PreparedStatement prepareStatement(String sql, int[] columnIndexes) throws SQLException {
 		throw new UnsupportedOperationException("This is a mock object");
 	}
@@ -224,7 +246,8 @@ public class MockConnection implements Connection {
 	}
 
 	public boolean isValid(int timeout) throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		this.validationCount += 1;
+		return this.valid;
 	}
 
 	public void setClientInfo(String name, String value) throws SQLClientInfoException {
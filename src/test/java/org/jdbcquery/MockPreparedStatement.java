@@ -5,6 +5,7 @@ import java.io.Reader;
 import java.math.BigDecimal;
 import java.net.URL;
 import java.sql.Array;
+import java.sql.BatchUpdateException;
 import java.sql.Blob;
 import java.sql.Clob;
 import java.sql.Connection;
@@ -21,8 +22,12 @@ import java.sql.SQLWarning;
 import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -36,6 +41,16 @@ public class MockPreparedStatement implements PreparedStatement {
 	private boolean open = true;
 	private MockResultSet resultSet;
 	int batchCount = 0;
+	final List<Integer> executedBatches = new ArrayList<Integer>();
+	private long nextKey = 1;
+	private MockResultSet generatedKeys;
+	private int maxRows = 0;
+	private int fetchSize = 0;
+	private int fetchDirection = ResultSet.FETCH_FORWARD;
+	Object failOn;
+	private int firstFailure = -1;
+	int failedBatches = 0;
+	int cancelCount = 0;
 
 	/**
 	 * --------------------------
@@ -70,11 +85,36 @@ public class MockPreparedStatement implements PreparedStatement {
 	}
 
 	public void addBatch() throws SQLException {
+		if (this.firstFailure < 0 && this.failOn != null && this.values.containsValue(this.failOn)) {
+			this.firstFailure = this.batchCount;
+		}
 		this.batchCount += 1;
 	}
 
 	public int[] executeBatch() throws SQLException {
-		return new int[this.batchCount];
+		if (this.firstFailure >= 0) {
+			final int[] counts = new int[this.firstFailure];
+			Arrays.fill(counts, 1);
+			this.failedBatches += 1;
+			this.firstFailure = -1;
+			this.batchCount = 0;
+			throw new BatchUpdateException("Duplicate key " + this.failOn, "23505", counts);
+		}
+		final int[] counts = new int[this.batchCount];
+		Arrays.fill(counts, 1);
+		this.generatedKeys = new MockResultSet();
+		for (int i = 0; i < this.batchCount; i++) {
+			final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("GENERATED_KEY", Long.valueOf(this.nextKey++));
+			this.generatedKeys.getValues().add(row);
+		}
+		this.executedBatches.add(Integer.valueOf(this.batchCount));
+		this.batchCount = 0;
+		return counts;
+	}
+
+	public ResultSet getGeneratedKeys() throws SQLException {
+		return this.generatedKeys;
 	}
 
 	/**
@@ -88,6 +128,10 @@ public class MockPreparedStatement implements PreparedStatement {
 		return this.resultSet;
 	}
 
+	public void clearParameters() throws SQLException {
+		this.values.clear();
+	}
+
 	/**
 	 * --------------------------
 	 * Mocked setter methods
@@ -192,9 +236,6 @@ public class MockPreparedStatement implements PreparedStatement {
 		throw new UnsupportedOperationException("This is a mock object");
 	}
 
-	public void clearParameters() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
-	}
 
 	public ResultSet executeQuery(String sql) throws SQLException {
 		throw new UnsupportedOperationException("This is a mock object");
@@ -221,11 +262,11 @@ public class MockPreparedStatement implements PreparedStatement {
 	}
 
 	public int getMaxRows() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		return this.maxRows;
 	}
 
 	public void setMaxRows(int max) throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		this.maxRows = max;
 	}
 
 	public void setEscapeProcessing(boolean enable) throws SQLException {
@@ -241,7 +282,7 @@ public class MockPreparedStatement implements PreparedStatement {
 	}
 
 	public void cancel() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		this.cancelCount += 1;
 	}
 
 	public SQLWarning getWarnings() throws SQLException {
@@ -269,19 +310,19 @@ public class MockPreparedStatement implements PreparedStatement {
 	}
 
 	public void setFetchDirection(int direction) throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		this.fetchDirection = direction;
 	}
 
 	public int getFetchDirection() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		return this.fetchDirection;
 	}
 
 	public void setFetchSize(int rows) throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		this.fetchSize = rows;
 	}
 
 	public int getFetchSize() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		return this.fetchSize;
 	}
 
 	public int getResultSetConcurrency() throws SQLException {
@@ -297,7 +338,8 @@ public class MockPreparedStatement implements PreparedStatement {
 	}
 
 	public void clearBatch() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
+		this.firstFailure = -1;
+		this.batchCount = 0;
 	}
 
 	public Connection getConnection() throws SQLException {
@@ -308,10 +350,6 @@ public class MockPreparedStatement implements PreparedStatement {
 		throw new UnsupportedOperationException("This is a mock object");
 	}
 
-	public ResultSet getGeneratedKeys() throws SQLException {
-		throw new UnsupportedOperationException("This is a mock object");
-	}
-
 	public int executeUpdate(String sql, int autoGeneratedKeys) throws SQLException {
 		throw new UnsupportedOperationException("This is a mock object");
 	}
@@ -37,6 +37,7 @@ public class MockResultSet implements ResultSet {
 	private boolean open = true;
 	private int cursorIndex = -1;
 	private boolean wasNull = false;
+	private int metaDataRequests = 0;
 
 	/**
 	 * --------------------------
@@ -114,28 +115,88 @@ public class MockResultSet implements ResultSet {
 		return value == null ? 0 : value.longValue();
 	}
 
-	/**
-	 * --------------------------
-	 * Unimplemented methods
-	 * --------------------------
-	 */
+	public Object getObject(String columnLabel) throws SQLException {
+		final Object value = this.currentRow.get(columnLabel);
+		this.wasNull = value == null;
+		return value;
+	}
+
+	public Object getObject(int columnIndex) throws SQLException {
+		final Object value = this.valueAt(columnIndex);
+		this.wasNull = value == null;
+		return value;
+	}
 
 	public String getString(int columnIndex) throws SQLException {
-		throw new IllegalStateException("This is a mock class");
+		return (String) this.getObject(columnIndex);
 	}
 
 	public int getInt(int columnIndex) throws SQLException {
-		throw new IllegalStateException("This is a mock class");
+		final Number value = (Number) this.getObject(columnIndex);
+		return value == null ? 0 : value.intValue();
 	}
 
 	public long getLong(int columnIndex) throws SQLException {
-		throw new IllegalStateException("This is a mock class");
+		final Number value = (Number) this.getObject(columnIndex);
+		return value == null ? 0 : value.longValue();
+	}
+
+	public double getDouble(int columnIndex) throws SQLException {
+		final Number value = (Number) this.getObject(columnIndex);
+		return value == null ? 0 : value.doubleValue();
+	}
+
+	public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
+		return (BigDecimal) this.getObject(columnIndex);
 	}
 
 	public boolean getBoolean(int columnIndex) throws SQLException {
-		throw new IllegalStateException("This is a mock class");
+		final Boolean value = (Boolean) this.getObject(columnIndex);
+		return value == null ? false : value.booleanValue();
+	}
+
+	public Timestamp getTimestamp(int columnIndex) throws SQLException {
+		return (Timestamp) this.getObject(columnIndex);
+	}
+
+	public ResultSetMetaData getMetaData() throws SQLException {
+		this.metaDataRequests += 1;
+		if (this.values.isEmpty()) {
+			return new MockResultSetMetaData(new LinkedHashMap<String, Object>());
+		}
+		return new MockResultSetMetaData(this.values.get(0));
+	}
+
+	/**
+	 * @return the number of times the meta data was requested
+	 */
+	public int getMetaDataRequests() {
+		return this.metaDataRequests;
 	}
 
+	/**
+	 * Gets a value from the current row by its one based column index.
+	 *
+	 * @param columnIndex
+	 *            the column index
+	 * @return the value
+	 */
+	private Object valueAt(int columnIndex) {
+		int i = 1;
+		for (final Object value : this.currentRow.values()) {
+			if (i++ == columnIndex) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("No column " + columnIndex);
+	}
+
+	/**
+	 * --------------------------
+	 * Unimplemented methods
+	 * --------------------------
+	 */
+
 	public byte getByte(int columnIndex) throws SQLException {
 		throw new IllegalStateException("This is a mock class");
 	}
@@ -148,10 +209,6 @@ public class MockResultSet implements ResultSet {
 		throw new IllegalStateException("This is a mock class");
 	}
 
-	public double getDouble(int columnIndex) throws SQLException {
-		throw new IllegalStateException("This is a mock class");
-	}
-
 	public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException {
 		throw new IllegalStateException("This is a mock class");
 	}
@@ -168,10 +225,6 @@ public class MockResultSet implements ResultSet {
 		throw new IllegalStateException("This is a mock class");
 	}
 
-	public Timestamp getTimestamp(int columnIndex) throws SQLException {
-		throw new IllegalStateException("This is a mock class");
-	}
-
 	public boolean getBoolean(String columnLabel) throws SQLException {
 		throw new IllegalStateException("This is a mock class");
 	}
@@ -257,18 +310,6 @@ public class MockResultSet implements ResultSet {
 		throw new IllegalStateException("This is a mock class");
 	}
 
-	public ResultSetMetaData getMetaData() throws SQLException {
-		throw new IllegalStateException("This is a mock class");
-	}
-
-	public Object getObject(int columnIndex) throws SQLException {
-		throw new IllegalStateException("This is a mock class");
-	}
-
-	public Object getObject(String columnLabel) throws SQLException {
-		throw new IllegalStateException("This is a mock class");
-	}
-
 	public int findColumn(String columnLabel) throws SQLException {
 		throw new IllegalStateException("This is a mock class");
 	}
@@ -281,10 +322,6 @@ public class MockResultSet implements ResultSet {
 		throw new IllegalStateException("This is a mock class");
 	}
 
-	public BigDecimal getBigDecimal(int columnIndex) throws SQLException {
-		throw new IllegalStateException("This is a mock class");
-	}
-
 	public BigDecimal getBigDecimal(String columnLabel) throws SQLException {
 		throw new IllegalStateException("This is a mock class");
 	}
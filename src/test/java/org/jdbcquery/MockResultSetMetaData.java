@@ -0,0 +1,175 @@
+/**
+ * Copyright 2014 Troy Histed
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.jdbcquery;
+
+import java.math.BigDecimal;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Mock result set meta data that describes the columns of a mocked row.
+ *
+ * @author Troy Histed
+ */
+public class MockResultSetMetaData implements ResultSetMetaData {
+
+	private final List<String> labels = new ArrayList<String>();
+	private final List<Object> values = new ArrayList<Object>();
+
+	/**
+	 * Constructs meta data from a row of a mocked result set.
+	 *
+	 * @param aRow
+	 *            the row that describes the columns
+	 */
+	public MockResultSetMetaData(LinkedHashMap<String, Object> aRow) {
+		for (final Map.Entry<String, Object> entry : aRow.entrySet()) {
+			this.labels.add(entry.getKey());
+			this.values.add(entry.getValue());
+		}
+	}
+
+	/**
+	 * --------------------------
+	 * Mocked methods
+	 * --------------------------
+	 */
+
+	public int getColumnCount() throws SQLException {
+		return this.labels.size();
+	}
+
+	public String getColumnLabel(int column) throws SQLException {
+		return this.labels.get(column - 1);
+	}
+
+	public String getColumnName(int column) throws SQLException {
+		return this.labels.get(column - 1);
+	}
+
+	public int getColumnType(int column) throws SQLException {
+		final Object value = this.values.get(column - 1);
+		if (value instanceof Integer) {
+			return Types.INTEGER;
+		} else if (value instanceof Long) {
+			return Types.BIGINT;
+		} else if (value instanceof Double) {
+			return Types.DOUBLE;
+		} else if (value instanceof BigDecimal) {
+			return Types.DECIMAL;
+		} else if (value instanceof Timestamp) {
+			return Types.TIMESTAMP;
+		} else if (value instanceof Boolean) {
+			return Types.BOOLEAN;
+		}
+		return Types.VARCHAR;
+	}
+
+	public int getPrecision(int column) throws SQLException {
+		final Object value = this.values.get(column - 1);
+		if (value instanceof BigDecimal) {
+			return ((BigDecimal) value).precision();
+		} else if (value instanceof Boolean) {
+			return 1;
+		}
+		return 0;
+	}
+
+	public int getScale(int column) throws SQLException {
+		final Object value = this.values.get(column - 1);
+		return value instanceof BigDecimal ? ((BigDecimal) value).scale() : 0;
+	}
+
+	/**
+	 * --------------------------
+	 * Unimplemented methods
+	 * --------------------------
+	 */
+
+	public <T> T unwrap(Class<T> iface) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public boolean isWrapperFor(Class<?> iface) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public boolean isAutoIncrement(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public boolean isCaseSensitive(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public boolean isSearchable(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public boolean isCurrency(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public int isNullable(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public boolean isSigned(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public int getColumnDisplaySize(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public String getSchemaName(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public String getTableName(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public String getCatalogName(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public String getColumnTypeName(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public boolean isReadOnly(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public boolean isWritable(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public boolean isDefinitelyWritable(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+
+	public String getColumnClassName(int column) throws SQLException {
+		throw new UnsupportedOperationException("This is a mock object");
+	}
+}
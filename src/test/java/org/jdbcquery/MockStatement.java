@@ -10,17 +10,17 @@ import java.util.List;
  */
 public class MockStatement extends Statement {
 
-	private List<String> parameters = new ArrayList<String>();
+	private ParsedNamedStatement parsedStatement = new ParsedNamedStatement("", "", new ArrayList<String>());
 	private final MockPreparedStatement preparedStatement = new MockPreparedStatement();
 	private final JdbcConnection jdbcConnection = new JdbcConnection(new MockConnection());
 
 	void setParameters(List<String> aParameters) {
-		this.parameters = aParameters;
+		this.parsedStatement = new ParsedNamedStatement("", "", aParameters);
 	}
 
 	@Override
-	protected List<String> getParameters() {
-		return this.parameters;
+	protected ParsedNamedStatement getParsedStatement() {
+		return this.parsedStatement;
 	}
 
 	@Override
@@ -169,4 +169,55 @@ public class NamedStatementParserStrategyTest {
 		this.prepareStatement("Select foo //**// from bar");
 		this.testPreparedStatement("Select foo //**// from bar", new ArrayList<String>());
 	}
+
+	/**
+	 * Verify that parsing the same statement twice returns the cached instance.
+	 */
+	@Test
+	public void testCachedStatement() {
+		final ParsedNamedStatement first = this.parser.prepareNamedStatement("Select foo from bar where a = :a");
+		final ParsedNamedStatement second = this.parser.prepareNamedStatement("Select foo from bar where a = :a");
+		Assert.assertSame(first, second);
+		Assert.assertEquals(1, this.parser.getCacheMisses());
+		Assert.assertEquals(1, this.parser.getCacheHits());
+	}
+
+	/**
+	 * Verify that the least recently used statement is evicted when the cache is full.
+	 */
+	@Test
+	public void testCacheEviction() {
+		final NamedStatementParserStrategy smallParser = new NamedStatementParserStrategy(2);
+		final ParsedNamedStatement first = smallParser.prepareNamedStatement("Select 1");
+		smallParser.prepareNamedStatement("Select 2");
+		smallParser.prepareNamedStatement("Select 1");
+		smallParser.prepareNamedStatement("Select 3");
+
+		Assert.assertEquals(2, smallParser.getCacheSize());
+		Assert.assertEquals(1, smallParser.getCacheEvictions());
+		Assert.assertSame(first, smallParser.prepareNamedStatement("Select 1"));
+
+		smallParser.setMaximumCacheSize(0);
+		Assert.assertEquals(0, smallParser.getCacheSize());
+		Assert.assertNotSame(first, smallParser.prepareNamedStatement("Select 1"));
+	}
+
+	/**
+	 * Verify that the parameter list of a parsed statement can not be modified.
+	 */
+	@Test(expected = UnsupportedOperationException.class)
+	public void testImmutableParameters() {
+		this.parser.prepareNamedStatement("Select :param1").getParameters().add("param2");
+	}
+
+	/**
+	 * Verify that the positions of each parameter name are indexed.
+	 */
+	@Test
+	public void testParameterIndexes() {
+		final ParsedNamedStatement parsed = this.parser.prepareNamedStatement("Select :a, :b, :a from bar");
+		Assert.assertArrayEquals(new int[] {1, 3}, parsed.getParameterIndexes("a"));
+		Assert.assertArrayEquals(new int[] {2}, parsed.getParameterIndexes("b"));
+		Assert.assertEquals(0, parsed.getParameterIndexes("c").length);
+	}
 }
@@ -0,0 +1,161 @@
+package org.jdbcquery;
+
+import java.math.BigDecimal;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests the OffHeapResult.
+ *
+ * @author Troy Histed
+ */
+public class OffHeapResultTest {
+
+	MockResultSet resultSet;
+
+	/**
+	 * Fills the result set with 100 rows of each column type.
+	 */
+	@Before
+	public void constructResultSet() {
+		this.resultSet = new MockResultSet();
+		for (int i = 0; i < 100; i++) {
+			final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("id", Integer.valueOf(i));
+			row.put("total", i % 2 == 0 ? Long.valueOf(i * 1000L) : null);
+			row.put("name", i % 5 == 4 ? null : "näme " + i);
+			row.put("amount", BigDecimal.valueOf(i, 2));
+			row.put("created", new Timestamp(1000000L * i));
+			row.put("active", Boolean.valueOf(i % 3 == 0));
+			this.resultSet.getValues().add(row);
+		}
+	}
+
+	/**
+	 * Verify every row can be read back through a cursor across several segments.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testRead() throws SQLException {
+		final OffHeapResult result = OffHeapResult.read(this.resultSet, 256);
+		try {
+			Assert.assertEquals(100, result.getRowCount());
+			Assert.assertEquals(6, result.getColumnCount());
+			Assert.assertTrue(result.getMemoryFootprint() > 256);
+
+			final int name = result.getColumnIndex("NAME");
+			final OffHeapResult.Cursor cursor = result.cursor();
+			int rows = 0;
+			while (cursor.next()) {
+				final int i = cursor.getInt(1);
+				Assert.assertEquals(rows, i);
+				Assert.assertEquals(i % 2 != 0, cursor.isNull(2));
+				Assert.assertEquals(i % 2 == 0 ? i * 1000L : 0L, cursor.getLong(2));
+				Assert.assertEquals(i % 5 == 4 ? null : "näme " + i, cursor.getString(name));
+				Assert.assertEquals(BigDecimal.valueOf(i, 2), cursor.getBigDecimal(4));
+				Assert.assertEquals(new Timestamp(1000000L * i), cursor.getTimestamp(5));
+				Assert.assertEquals(Boolean.valueOf(i % 3 == 0), cursor.getObject(6));
+				rows++;
+			}
+			Assert.assertEquals(100, rows);
+
+			cursor.moveTo(42);
+			Assert.assertEquals(Integer.valueOf(42), cursor.getObject(1));
+			Assert.assertEquals(Long.valueOf(42000L), cursor.getObject(2));
+		} finally {
+			result.close();
+		}
+	}
+
+	/**
+	 * Verify reading a column as the wrong type fails.
+	 *
+	 * @throws SQLException
+	 */
+	@Test(expected = DaoException.class)
+	public void testWrongColumnType() throws SQLException {
+		final OffHeapResult result = OffHeapResult.read(this.resultSet, OffHeapResult.DEFAULT_SEGMENT_SIZE);
+		try {
+			final OffHeapResult.Cursor cursor = result.cursor();
+			cursor.next();
+			cursor.getLong(1);
+		} finally {
+			result.close();
+		}
+	}
+
+	/**
+	 * Verify the result can't be read once it has been released.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testClose() throws SQLException {
+		final OffHeapResult result = OffHeapResult.read(this.resultSet, OffHeapResult.DEFAULT_SEGMENT_SIZE);
+		final OffHeapResult.Cursor cursor = result.cursor();
+		cursor.next();
+
+		result.close();
+		result.close();
+
+		Assert.assertTrue(result.isReleased());
+		Assert.assertEquals(0, result.getMemoryFootprint());
+		try {
+			cursor.getInt(1);
+			Assert.fail("Expected reading a released result to fail");
+		} catch (final DaoException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Verify closing a result while another thread reads it makes the reader fail rather than read freed
+	 * memory.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testCloseWhileReading() throws Exception {
+		final OffHeapResult result = OffHeapResult.read(this.resultSet, 256);
+		final CountDownLatch reading = new CountDownLatch(1);
+		final Callable<DaoException> reader = new Callable<DaoException>() {
+			@Override
+			public DaoException call() {
+				final OffHeapResult.Cursor cursor = result.cursor();
+				try {
+					while (true) {
+						while (cursor.next()) {
+							cursor.getLong(2);
+							cursor.getString(3);
+						}
+						reading.countDown();
+						cursor.moveTo(0);
+					}
+				} catch (final DaoException e) {
+					return e;
+				}
+			}
+		};
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<DaoException> failure = executor.submit(reader);
+			reading.await();
+			result.close();
+			Assert.assertNotNull(failure.get(10, TimeUnit.SECONDS));
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+}
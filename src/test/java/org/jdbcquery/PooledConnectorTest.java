@@ -0,0 +1,267 @@
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the PooledConnector Class.
+ *
+ * @author Troy Histed
+ */
+public class PooledConnectorTest {
+
+	List<MockConnection> connections;
+	PooledConnector pool;
+
+	/**
+	 * Resets the pool so each test sees only its own connections.
+	 */
+	@Before
+	public void constructPool() {
+		this.connections = new ArrayList<MockConnection>();
+		this.pool = new PooledConnector(new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				final MockConnection connection = new MockConnection();
+				try {
+					// the mock connection reports itself as closed until it prepares a statement
+					connection.prepareStatement("SELECT 1");
+				} catch (final SQLException e) {
+					throw new DaoException("Error opening mock connection", e);
+				}
+				connection.statements.clear();
+				PooledConnectorTest.this.connections.add(connection);
+				return connection;
+			}
+
+			@Override
+			public String getName() {
+				return "pooled";
+			}
+		});
+	}
+
+	/**
+	 * Verify a connection closed by a statement is returned to the pool and handed out again.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testReuse() throws SQLException {
+		new Update("UPDATE people SET name = 'a'", this.pool.getConnection()).execute();
+		new Update("UPDATE people SET name = 'b'", this.pool.getConnection()).execute();
+
+		Assert.assertEquals(1, this.pool.getCreatedCount());
+		Assert.assertEquals(1, this.pool.getIdleCount());
+		Assert.assertEquals(0, this.pool.getActiveCount());
+		Assert.assertEquals(2, this.connections.get(0).statements.size());
+		Assert.assertEquals(0, this.connections.get(0).validationCount);
+		Assert.assertEquals("pooled", this.pool.getName());
+	}
+
+	/**
+	 * Verify closing a connection twice only returns it once, even after it has been handed out again.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testCloseTwice() throws SQLException {
+		final Connection connection = this.pool.getConnection();
+		connection.close();
+		connection.close();
+		Assert.assertEquals(1, this.pool.getIdleCount());
+
+		final Connection reissued = this.pool.getConnection();
+		Assert.assertNotSame(connection, reissued);
+		Assert.assertEquals(0, this.pool.getIdleCount());
+		connection.close();
+
+		Assert.assertEquals(0, this.pool.getIdleCount());
+		Assert.assertEquals(1, this.pool.getActiveCount());
+		Assert.assertFalse(reissued.isClosed());
+		Assert.assertEquals(1, this.pool.getCreatedCount());
+	}
+
+	/**
+	 * Verify a connection that has been returned reports itself as closed and can no longer be used, while the
+	 * statements it cached are used by the next borrower.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testUseAfterClose() throws SQLException {
+		final int maximumSize = StatementCache.getMaximumSize();
+		StatementCache.setMaximumSize(10);
+		try {
+			final Connection connection = this.pool.getConnection();
+			new Update("UPDATE people SET name = 'a'", connection).execute();
+			Assert.assertTrue(connection.isClosed());
+			Assert.assertFalse(connection.isValid(1));
+			try {
+				connection.prepareStatement("UPDATE people SET name = 'b'");
+				Assert.fail("The connection was returned to the pool");
+			} catch (final SQLException e) {
+				// expected
+			}
+
+			new Update("UPDATE people SET name = 'a'", this.pool.getConnection()).execute();
+			Assert.assertEquals(1, this.connections.get(0).statements.size());
+			Assert.assertEquals(1, this.pool.getCreatedCount());
+		} finally {
+			StatementCache.setMaximumSize(maximumSize);
+		}
+	}
+
+	/**
+	 * Verify the rows of a batch abandoned after an error are cleared before its statement is reused, so the
+	 * next batch doesn't execute them.
+	 */
+	@Test
+	public void testAbortedBatchNotReused() {
+		final int maximumSize = StatementCache.getMaximumSize();
+		StatementCache.setMaximumSize(10);
+		try {
+			final String insert = "INSERT INTO people (name) VALUES (:name)";
+			final Update failed = new Update(insert, this.pool.getConnection());
+			final MockPreparedStatement statement = (MockPreparedStatement) failed.getPreparedStatement();
+			try {
+				failed.executeBatchIsolatingFailures(Arrays.asList(new Person("a"), new Person(null)));
+				Assert.fail("The name of the second person can't be read");
+			} catch (final RuntimeException e) {
+				// expected
+			}
+
+			final Update next = new Update(insert, this.pool.getConnection());
+			Assert.assertSame(statement, next.getPreparedStatement());
+			next.set("name", "b").addBatch();
+			next.executeBatch();
+			Assert.assertEquals(Integer.valueOf(1), statement.executedBatches.get(0));
+		} finally {
+			StatementCache.setMaximumSize(maximumSize);
+		}
+	}
+
+	/**
+	 * Verify waiting for a connection times out when they are all checked out.
+	 */
+	@Test
+	public void testMaximumWait() {
+		this.pool.maximumSize(1).maximumWait(10, TimeUnit.MILLISECONDS);
+		this.pool.getConnection();
+		try {
+			this.pool.getConnection();
+			Assert.fail("The pool is exhausted");
+		} catch (final DaoException e) {
+			// expected
+		}
+		Assert.assertEquals(1, this.pool.getTimeoutCount());
+		Assert.assertEquals(1, this.pool.getActiveCount());
+	}
+
+	/**
+	 * Verify an idle connection that is no longer valid is replaced.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testValidation() throws SQLException {
+		this.pool.validationInterval(0, TimeUnit.MILLISECONDS);
+		this.pool.getConnection().close();
+		this.connections.get(0).valid = false;
+
+		this.pool.getConnection();
+
+		Assert.assertEquals(1, this.connections.get(0).validationCount);
+		Assert.assertEquals(2, this.pool.getCreatedCount());
+		Assert.assertEquals(1, this.pool.getDiscardedCount());
+		Assert.assertEquals(1, this.pool.getOpenCount());
+	}
+
+	/**
+	 * Verify connections older than the maximum lifetime are closed when they are returned.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testMaximumLifetime() throws SQLException {
+		this.pool.maximumLifetime(0, TimeUnit.MILLISECONDS);
+		final Connection connection = this.pool.getConnection();
+		connection.close();
+
+		Assert.assertEquals(0, this.pool.getIdleCount());
+		Assert.assertTrue(this.connections.get(0).isClosed());
+	}
+
+	/**
+	 * Verify connections idle for longer than the maximum idle time are closed as others are returned.
+	 *
+	 * @throws Exception
+	 */
+	@Test
+	public void testMaximumIdle() throws Exception {
+		this.pool.maximumIdle(1, TimeUnit.MILLISECONDS);
+		final Connection first = this.pool.getConnection();
+		final Connection second = this.pool.getConnection();
+		first.close();
+		Thread.sleep(20);
+		second.close();
+
+		Assert.assertEquals(1, this.pool.getIdleCount());
+		this.pool.getConnection();
+		Assert.assertTrue(this.connections.get(0).isClosed());
+		Assert.assertFalse(this.connections.get(1).isClosed());
+		Assert.assertEquals(2, this.pool.getCreatedCount());
+		Assert.assertEquals(1, this.pool.getDiscardedCount());
+	}
+
+	/**
+	 * Verify closing the pool closes the idle connections and stops handing out connections.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testClose() throws SQLException {
+		final Connection connection = this.pool.getConnection();
+		connection.close();
+		this.pool.close();
+
+		Assert.assertTrue(this.connections.get(0).isClosed());
+		Assert.assertEquals(0, this.pool.getOpenCount());
+		try {
+			this.pool.getConnection();
+			Assert.fail("The pool is closed");
+		} catch (final IllegalStateException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * A bean whose name can't be read when it is null.
+	 */
+	public static class Person {
+
+		private final String name;
+
+		Person(String aName) {
+			this.name = aName;
+		}
+
+		/**
+		 * @return the name
+		 */
+		public String getName() {
+			if (this.name == null) {
+				throw new IllegalStateException("No name");
+			}
+			return this.name;
+		}
+	}
+}
@@ -0,0 +1,176 @@
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the ReadWriteConnector Class.
+ *
+ * @author Troy Histed
+ */
+public class ReadWriteConnectorTest {
+
+	List<MockConnection> primaryConnections;
+	List<MockConnection> replicaConnections;
+	ReadWriteConnector connector;
+
+	/**
+	 * Registers a connector with a primary and two replicas.
+	 */
+	@Before
+	public void registerConnector() {
+		this.primaryConnections = new ArrayList<MockConnection>();
+		this.replicaConnections = new ArrayList<MockConnection>();
+		this.connector = new ReadWriteConnector("rw", this.connector(this.primaryConnections), this.connector(
+				this.replicaConnections), this.connector(this.replicaConnections));
+		ConnectorServiceLoader.register(this.connector);
+	}
+
+	/**
+	 * Removes the connector.
+	 */
+	@After
+	public void unregisterConnector() {
+		ConnectorServiceLoader.unregister("rw");
+	}
+
+	/**
+	 * Verify selects read from a replica and updates write to the primary.
+	 */
+	@Test
+	public void testSplit() {
+		Query.forInteger("SELECT age FROM people", "rw").executeForAll();
+		Query.update("UPDATE people SET age = 0", "rw").execute();
+
+		Assert.assertEquals(1, this.replicaConnections.size());
+		Assert.assertEquals(1, this.primaryConnections.size());
+		Assert.assertEquals(1, this.connector.getReplicaReadCount());
+		Assert.assertEquals(0, this.connector.getPrimaryReadCount());
+		Assert.assertEquals(1, this.connector.getWriteCount());
+		Assert.assertEquals(0, this.connector.getInFlight(0) + this.connector.getInFlight(1));
+	}
+
+	/**
+	 * Verify a select goes to the replica with fewer selects in flight, which are counted until cleaned up.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testLeastInFlight() throws SQLException {
+		final JdbcConnection first = JdbcConnection.connectForRead("rw");
+		final JdbcConnection second = JdbcConnection.connectForRead("rw");
+
+		Assert.assertEquals(1, this.connector.getInFlight(0));
+		Assert.assertEquals(1, this.connector.getInFlight(1));
+
+		first.cleanUp();
+		second.cleanUp();
+		Assert.assertEquals(0, this.connector.getInFlight(0));
+		Assert.assertEquals(0, this.connector.getInFlight(1));
+	}
+
+	/**
+	 * Verify a thread reads from the primary for a while after it writes.
+	 */
+	@Test
+	public void testReadYourWrites() {
+		this.connector.readYourWrites(1, TimeUnit.MINUTES);
+		Query.update("UPDATE people SET age = 0", "rw").execute();
+		Query.forInteger("SELECT age FROM people", "rw").executeForAll();
+
+		Assert.assertEquals(2, this.primaryConnections.size());
+		Assert.assertEquals(1, this.connector.getPrimaryReadCount());
+		Assert.assertEquals(0, this.connector.getReplicaReadCount());
+	}
+
+	/**
+	 * Verify the read-your-writes window starts when the write finishes rather than when its connection is
+	 * checked out.
+	 *
+	 * @throws InterruptedException
+	 */
+	@Test
+	public void testReadYourWritesAfterRelease() throws InterruptedException {
+		this.connector.readYourWrites(50, TimeUnit.MILLISECONDS);
+		final Update update = Query.update("UPDATE people SET age = 0", "rw");
+		Thread.sleep(100);
+		update.execute();
+		Query.forInteger("SELECT age FROM people", "rw").executeForAll();
+
+		Assert.assertEquals(1, this.connector.getPrimaryReadCount());
+		Assert.assertEquals(0, this.connector.getReplicaReadCount());
+	}
+
+	/**
+	 * Verify a replica that returns no connection isn't left counting the select as in flight.
+	 */
+	@Test
+	public void testNullReplicaConnection() {
+		final JdbcConnector primary = this.connector(this.primaryConnections);
+		final ReadWriteConnector broken = new ReadWriteConnector("broken", primary, new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				return null;
+			}
+
+			@Override
+			public String getName() {
+				return "null";
+			}
+		});
+		ConnectorServiceLoader.register(broken);
+		try {
+			Query.forInteger("SELECT age FROM people", "broken").executeForAll();
+			Assert.fail("The replica returned no connection");
+		} catch (final DaoException e) {
+			Assert.assertEquals(0, broken.getInFlight(0));
+		} finally {
+			ConnectorServiceLoader.unregister("broken");
+		}
+	}
+
+	/**
+	 * Verify selects within a transaction use the connection to the primary of the transaction.
+	 */
+	@Test
+	public void testTransaction() {
+		Query.transaction("rw", new UnitOfWork<Void>() {
+			@Override
+			public Void execute() throws Exception {
+				Query.forInteger("SELECT age FROM people", "rw").executeForAll();
+				return null;
+			}
+		});
+
+		Assert.assertEquals(1, this.primaryConnections.size());
+		Assert.assertTrue(this.replicaConnections.isEmpty());
+		Assert.assertEquals(0, this.connector.getReplicaReadCount());
+	}
+
+	/**
+	 * Creates a connector that records its connections.
+	 */
+	private JdbcConnector connector(final List<MockConnection> aConnections) {
+		return new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				final MockConnection connection = new MockConnection();
+				aConnections.add(connection);
+				return connection;
+			}
+
+			@Override
+			public String getName() {
+				return null;
+			}
+		};
+	}
+}
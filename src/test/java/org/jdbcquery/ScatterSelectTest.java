@@ -0,0 +1,198 @@
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the ScatterSelect Class.
+ *
+ * @author Troy Histed
+ */
+public class ScatterSelectTest {
+
+	List<MockConnection> connections;
+
+	/**
+	 * Resets the connections handed out.
+	 */
+	@Before
+	public void resetConnections() {
+		this.connections = new ArrayList<MockConnection>();
+	}
+
+	/**
+	 * Verify the rows of every connector are concatenated in connector order.
+	 */
+	@Test
+	public void testExecuteForAll() {
+		final List<Long> rows = Query.scatterForLong("SELECT id FROM orders", this.shard(1L, 4L), this.shard(),
+				this.shard(2L, 3L)).executeForAll();
+
+		Assert.assertEquals(Arrays.asList(1L, 4L, 2L, 3L), rows);
+		this.assertAllClosed();
+	}
+
+	/**
+	 * Verify sorted rows are merged in order as the stream is read, and closing the stream releases every
+	 * connection.
+	 */
+	@Test
+	public void testExecuteForMergedStream() {
+		final List<Long> rows;
+		try (Stream<Long> stream = Query.scatterForLong("SELECT id FROM orders ORDER BY id", this.shard(1L, 4L,
+				9L), this.shard(2L, 3L), this.shard(), this.shard(5L)).executeForMergedStream(
+				Comparator.<Long> naturalOrder())) {
+			rows = stream.limit(4).collect(Collectors.<Long> toList());
+		}
+
+		Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 4L), rows);
+		this.assertAllClosed();
+	}
+
+	/**
+	 * Verify partial aggregates are combined, leaving out connectors without a result.
+	 */
+	@Test
+	public void testExecuteAndCombine() {
+		final ScatterSelect<Long> count = Query.scatterForLong("SELECT count(*) FROM orders", this.shard(3L),
+				this.shard(), this.shard(4L));
+
+		Assert.assertEquals(Long.valueOf(7), count.executeAndCombine(ScatterSelect.longSum()));
+		Assert.assertEquals(Long.valueOf(3), count.executeAndCombine(ScatterSelect.<Long> min()));
+		Assert.assertEquals(Long.valueOf(4), count.executeAndCombine(ScatterSelect.<Long> max()));
+		Assert.assertNull(Query.scatterForLong("SELECT count(*) FROM orders", this.shard()).executeAndCombine(
+				ScatterSelect.longSum()));
+	}
+
+	/**
+	 * Verify a failing connector fails the select and the streams opened on the others are closed.
+	 */
+	@Test
+	public void testFailureClosesOtherStreams() {
+		final JdbcConnector failing = new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				throw new DaoException("Shard is down");
+			}
+
+			@Override
+			public String getName() {
+				return null;
+			}
+		};
+
+		try {
+			Query.scatterForLong("SELECT id FROM orders", this.shard(1L), failing, this.shard(2L))
+					.executeForMergedStream(Comparator.<Long> naturalOrder());
+			Assert.fail("A shard is down");
+		} catch (final DaoException e) {
+			Assert.assertEquals("Shard is down", e.getMessage());
+		}
+		Assert.assertEquals(2, this.connections.size());
+		this.assertAllClosed();
+	}
+
+	/**
+	 * Verify the streams of every connector are closed when mapping the first row of one of them fails.
+	 */
+	@Test
+	public void testFailedFirstRowClosesStreams() {
+		final RowMapper<Long> failing = new RowMapper<Long>() {
+			@Override
+			protected Long mapRow(ResultSet aResultSet) throws SQLException {
+				final long id = aResultSet.getLong(1);
+				if (id == 2L) {
+					throw new SQLException("Unreadable row");
+				}
+				return Long.valueOf(id);
+			}
+		};
+
+		try {
+			new ScatterSelect<Long>("SELECT id FROM orders ORDER BY id", failing, this.shard(1L), this.shard(2L),
+					this.shard(3L)).executeForMergedStream(Comparator.<Long> naturalOrder());
+			Assert.fail("A row can't be mapped");
+		} catch (final DaoException e) {
+			// expected
+		}
+		Assert.assertEquals(3, this.connections.size());
+		this.assertAllClosed();
+	}
+
+	/**
+	 * Verify a connector that splits reads and writes is read from a replica.
+	 */
+	@Test
+	public void testReplica() {
+		final ReadWriteConnector connector = new ReadWriteConnector("rw", this.shard(1L), this.shard(2L));
+		final List<Long> rows = Query.scatterForLong("SELECT id FROM orders", connector, this.shard(3L))
+				.executeForAll();
+
+		Assert.assertEquals(Arrays.asList(2L, 3L), rows);
+		Assert.assertEquals(0, connector.getWriteCount());
+		Assert.assertEquals(1, connector.getReplicaReadCount());
+		Assert.assertEquals(0, connector.getInFlight(0));
+		this.assertAllClosed();
+	}
+
+	/**
+	 * Creates a connector whose connections return the ids as rows.
+	 */
+	private JdbcConnector shard(final Long... aIds) {
+		return new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				final MockConnection connection = new MockConnection() {
+					@Override
+					public PreparedStatement prepareStatement(String aSql) throws SQLException {
+						final MockPreparedStatement statement = (MockPreparedStatement) super
+								.prepareStatement(aSql);
+						final MockResultSet resultSet = new MockResultSet();
+						for (final Long id : aIds) {
+							final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+							row.put("id", id);
+							resultSet.getValues().add(row);
+						}
+						statement.setResultSet(resultSet);
+						return statement;
+					}
+				};
+				synchronized (ScatterSelectTest.this.connections) {
+					ScatterSelectTest.this.connections.add(connection);
+				}
+				return connection;
+			}
+
+			@Override
+			public String getName() {
+				return null;
+			}
+		};
+	}
+
+	/**
+	 * Asserts every connection handed out has been closed.
+	 */
+	private void assertAllClosed() {
+		for (final MockConnection connection : this.connections) {
+			try {
+				Assert.assertTrue(connection.isClosed());
+			} catch (final SQLException e) {
+				throw new AssertionError(e);
+			}
+		}
+	}
+}
@@ -1,10 +1,17 @@
 package org.jdbcquery;
 
+import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 import org.junit.Assert;
 import org.junit.Before;
@@ -72,6 +79,221 @@ public class SelectTest {
 		Assert.assertTrue(this.connection.getPreparedStatement().getResultSet().isClosed());
 	}
 
+	/**
+	 * Verify that execute limits the select to one row and passes the fetch settings to the driver.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteLimitsRows() throws SQLException {
+		this.select.fetchSize(500).maxRows(100).forwardOnly().execute();
+
+		final MockPreparedStatement preparedStatement = this.connection.getPreparedStatement();
+		Assert.assertEquals(1, preparedStatement.getMaxRows());
+		Assert.assertEquals(500, preparedStatement.getFetchSize());
+		Assert.assertEquals(ResultSet.FETCH_FORWARD, preparedStatement.getFetchDirection());
+	}
+
+	/**
+	 * Verify that executeForAll uses the maximum rows of the select.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteForAllMaxRows() throws SQLException {
+		this.select.maxRows(100).executeForAll();
+
+		Assert.assertEquals(100, this.connection.getPreparedStatement().getMaxRows());
+	}
+
+	/**
+	 * Verify that executeForUnique returns the only row and fails when there is more than one.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteForUnique() throws SQLException {
+		Assert.assertEquals("test", this.select.executeForUnique());
+		Assert.assertEquals(2, this.connection.getPreparedStatement().getMaxRows());
+
+		this.constructStatement();
+		this.addRow("test2");
+		try {
+			this.select.executeForUnique();
+			Assert.fail("Expected more than one row to fail");
+		} catch (final DaoException e) {
+			Assert.assertTrue(this.connection.isClosed());
+			Assert.assertTrue(this.connection.getPreparedStatement().getResultSet().isClosed());
+		}
+	}
+
+	/**
+	 * Verify the executeForSpillableList method spills rows beyond the threshold and closes all resources.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteForSpillableList() throws SQLException {
+		this.addRow("test2");
+		this.addRow("test3");
+
+		try (SpillableList<String> values = this.select.executeForSpillableList(1, 0)) {
+			Assert.assertEquals(3, values.size());
+			Assert.assertEquals(2, values.getSpilledRowCount());
+			Assert.assertEquals("test3", values.get(2));
+		}
+		Assert.assertTrue(this.connection.isClosed());
+		Assert.assertTrue(this.connection.getPreparedStatement().getResultSet().isClosed());
+	}
+
+	/**
+	 * Verify the executeForColumns method reads the result into columns and closes all resources.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteForColumns() throws SQLException {
+		this.addRow("test2");
+
+		final ColumnarResult result = this.select.executeForColumns();
+		Assert.assertEquals(2, result.getRowCount());
+		Assert.assertEquals("test2", result.getStringColumn("col1").getString(1));
+		Assert.assertTrue(this.connection.isClosed());
+		Assert.assertTrue(this.connection.getPreparedStatement().getResultSet().isClosed());
+	}
+
+	/**
+	 * Verify the executeForOffHeap method serializes the result and closes all resources.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteForOffHeap() throws SQLException {
+		this.addRow("test2");
+
+		try (OffHeapResult result = this.select.executeForOffHeap()) {
+			final OffHeapResult.Cursor cursor = result.cursor();
+			cursor.moveTo(1);
+			Assert.assertEquals("test2", cursor.getString(1));
+		}
+		Assert.assertTrue(this.connection.isClosed());
+		Assert.assertTrue(this.connection.getPreparedStatement().getResultSet().isClosed());
+	}
+
+	/**
+	 * Verify the int array method reads the first column and substitutes the null value.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteForIntArray() throws SQLException {
+		this.addNumberRows();
+
+		final int[] ints = this.select.executeForIntArray(-1);
+		Assert.assertEquals(100, ints.length);
+		Assert.assertEquals(-1, ints[0]);
+		Assert.assertEquals(99, ints[99]);
+		Assert.assertTrue(this.connection.isClosed());
+		Assert.assertTrue(this.connection.getPreparedStatement().getResultSet().isClosed());
+	}
+
+	/**
+	 * Verify the long array method records the rows with null values.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteForLongArray() throws SQLException {
+		this.addNumberRows();
+
+		final BitSet nulls = new BitSet();
+		final long[] longs = this.select.executeForLongArray(nulls);
+		Assert.assertEquals(100, longs.length);
+		Assert.assertEquals(0L, longs[10]);
+		Assert.assertEquals(11L, longs[11]);
+		Assert.assertEquals(10, nulls.cardinality());
+		Assert.assertTrue(nulls.get(90));
+		Assert.assertFalse(nulls.get(91));
+	}
+
+	/**
+	 * Verify the double array method substitutes the null value.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteForDoubleArray() throws SQLException {
+		this.resultSet.getValues().get(0).put("col1", null);
+		final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+		row.put("col1", Double.valueOf(1.5));
+		this.resultSet.getValues().add(row);
+
+		final double[] values = this.select.executeForDoubleArray(Double.NaN);
+		Assert.assertEquals(2, values.length);
+		Assert.assertTrue(Double.isNaN(values[0]));
+		Assert.assertEquals(1.5, values[1], 0);
+	}
+
+	/**
+	 * Verify the executeForEach method passes every row to the consumer and closes all resources.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteForEach() throws SQLException {
+		this.addRow("test2");
+
+		final List<String> values = new ArrayList<String>();
+		this.select.executeForEach(new Consumer<String>() {
+			@Override
+			public void accept(String aValue) {
+				values.add(aValue);
+			}
+		});
+
+		Assert.assertEquals(2, values.size());
+		Assert.assertEquals("test2", values.get(1));
+		Assert.assertTrue(this.connection.isClosed());
+		Assert.assertTrue(this.connection.getPreparedStatement().isClosed());
+		Assert.assertTrue(this.connection.getPreparedStatement().getResultSet().isClosed());
+	}
+
+	/**
+	 * Verify the executeForStream method reads rows lazily and closes all resources at the end of the rows.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteForStream() throws SQLException {
+		this.addRow("test2");
+
+		final Iterator<String> rows = this.select.executeForStream().iterator();
+		Assert.assertEquals("test", rows.next());
+		Assert.assertFalse(this.connection.isClosed());
+		Assert.assertEquals("test2", rows.next());
+		Assert.assertFalse(rows.hasNext());
+		Assert.assertTrue(this.connection.isClosed());
+		Assert.assertTrue(this.connection.getPreparedStatement().isClosed());
+		Assert.assertTrue(this.connection.getPreparedStatement().getResultSet().isClosed());
+	}
+
+	/**
+	 * Verify that closing a stream that hasn't been fully read closes all resources.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testCloseStream() throws SQLException {
+		this.addRow("test2");
+
+		try (Stream<String> rows = this.select.executeForStream()) {
+			Assert.assertEquals("test", rows.limit(1).collect(Collectors.joining()));
+			Assert.assertFalse(this.connection.isClosed());
+		}
+		Assert.assertTrue(this.connection.isClosed());
+		Assert.assertTrue(this.connection.getPreparedStatement().getResultSet().isClosed());
+	}
+
 	/**
 	 * Verify that when prepareStatement throws an exception that all the resources still get closed.
 	 *
@@ -171,4 +393,97 @@ public class SelectTest {
 				"Select 'test' from table where something = :param1", this.rowMapper, null);
 	}
 
+	/**
+	 * Verify that a compiled query can be executed more than once without parsing the statement again.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testCompiledQuery() throws SQLException {
+		final CompiledQuery<String> query = Query.compile(
+				"Select col1 from table where a = :param1", this.rowMapper);
+
+		final Select<String> first = query.select(this.connection);
+		first.set("param1", "a");
+		Assert.assertEquals("a", this.connection.getPreparedStatement().getValues().get(Integer.valueOf(1)));
+		this.connection.getPreparedStatement().setResultSet(this.resultSet);
+		Assert.assertEquals("test", first.execute());
+
+		final MockConnection secondConnection = new MockConnection();
+		final Select<String> second = query.select(secondConnection);
+		Assert.assertSame(first.getParsedStatement(), second.getParsedStatement());
+		Assert.assertTrue(this.connection.isClosed());
+		Assert.assertFalse(secondConnection.isClosed());
+	}
+
+	/**
+	 * Verify that prepared statements are returned to the statement cache and reused on the same connection.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testStatementCache() throws SQLException {
+		final MockConnection pooledConnection = new MockConnection();
+		pooledConnection.prepareStatement("SELECT 1");
+		final PooledConnector pool = new PooledConnector(new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				return pooledConnection;
+			}
+
+			@Override
+			public String getName() {
+				return null;
+			}
+		});
+
+		JdbcConnection.setStatementCacheSize(10);
+		try {
+			final long hits = JdbcConnection.getStatementCacheHits();
+
+			final Select<String> first = new Select<String>("Select col1 from cached", this.rowMapper, pool
+					.getConnection());
+			pooledConnection.getPreparedStatement().setResultSet(this.resultSet);
+			first.set("unused", "value");
+			first.execute();
+			Assert.assertFalse(first.getPreparedStatement().isClosed());
+
+			final Select<String> second = new Select<String>("Select col1 from cached", this.rowMapper, pool
+					.getConnection());
+			Assert.assertSame(first.getPreparedStatement(), second.getPreparedStatement());
+			Assert.assertEquals(hits + 1, JdbcConnection.getStatementCacheHits());
+			Assert.assertTrue(((MockPreparedStatement) second.getPreparedStatement()).getValues().isEmpty());
+			Assert.assertEquals(0, second.getPreparedStatement().getMaxRows());
+			second.execute();
+		} finally {
+			JdbcConnection.setStatementCacheSize(0);
+		}
+		final PreparedStatement cached = pooledConnection.getPreparedStatement();
+		new Select<String>("Select col1 from cached", this.rowMapper, pool.getConnection()).execute();
+		Assert.assertTrue(cached.isClosed());
+	}
+
+	/**
+	 * Replaces the rows of the result set with 100 numbers, every tenth one null.
+	 */
+	private void addNumberRows() {
+		this.resultSet.getValues().clear();
+		for (int i = 0; i < 100; i++) {
+			final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+			row.put("id", i % 10 == 0 ? null : Integer.valueOf(i));
+			this.resultSet.getValues().add(row);
+		}
+	}
+
+	/**
+	 * Adds a row to the result set.
+	 *
+	 * @param aValue
+	 *            the value of col1
+	 */
+	private void addRow(String aValue) {
+		final LinkedHashMap<String, Object> row = new LinkedHashMap<String, Object>();
+		row.put("col1", aValue);
+		this.resultSet.getValues().add(row);
+	}
 }
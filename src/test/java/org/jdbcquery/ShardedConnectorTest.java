@@ -0,0 +1,268 @@
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the ShardedConnector Class.
+ *
+ * @author Troy Histed
+ */
+public class ShardedConnectorTest {
+
+	List<List<MockConnection>> shardConnections;
+	JdbcConnector[] shards;
+
+	/**
+	 * Creates three shards that record their connections.
+	 */
+	@Before
+	public void constructShards() {
+		this.shardConnections = new ArrayList<List<MockConnection>>();
+		this.shards = new JdbcConnector[3];
+		for (int i = 0; i < this.shards.length; i++) {
+			final List<MockConnection> connections = new ArrayList<MockConnection>();
+			this.shardConnections.add(connections);
+			this.shards[i] = new JdbcConnector() {
+				@Override
+				public Connection getConnection() {
+					final MockConnection connection = new MockConnection();
+					connections.add(connection);
+					return connection;
+				}
+
+				@Override
+				public String getName() {
+					return null;
+				}
+			};
+		}
+	}
+
+	/**
+	 * Removes the connector.
+	 */
+	@After
+	public void unregisterConnector() {
+		ConnectorServiceLoader.unregister("tenants");
+	}
+
+	/**
+	 * Verify an update is executed on the shard its key hashes to, and no connection is checked out before.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testHashRouting() throws SQLException {
+		ConnectorServiceLoader.register(new ShardedConnector("tenants", "tenantId", ShardedConnector.hash(),
+				this.shards));
+
+		final Update update = Query.update("UPDATE orders SET state = :state WHERE tenant_id = :tenantId",
+				"tenants").set("state", "open").set("tenantId", 4);
+		Assert.assertEquals(0, this.connectionCount());
+		update.execute();
+
+		Assert.assertEquals(1, this.shardConnections.get(1).size());
+		Assert.assertEquals(1, this.connectionCount());
+		Assert.assertTrue(this.shardConnections.get(1).get(0).isClosed());
+	}
+
+	/**
+	 * Verify a select is executed on the shard whose range holds its key.
+	 */
+	@Test
+	public void testRangeRouting() {
+		ConnectorServiceLoader.register(new ShardedConnector("tenants", "tenantId", ShardedConnector.range(100,
+				200), this.shards));
+
+		Query.forInteger("SELECT count(*) FROM orders WHERE tenant_id = :tenantId", "tenants").set("tenantId",
+				250L).executeForAll();
+
+		Assert.assertEquals(1, this.shardConnections.get(2).size());
+		Assert.assertEquals(1, this.connectionCount());
+	}
+
+	/**
+	 * Verify a batch is executed on its shard when every row belongs to it, and rejected otherwise.
+	 */
+	@Test
+	public void testBatchRouting() {
+		ConnectorServiceLoader.register(new ShardedConnector("tenants", "tenantId", ShardedConnector.range(100,
+				200), this.shards));
+
+		final Update sameShard = Query.update("INSERT INTO orders(tenant_id) VALUES(:tenantId)", "tenants");
+		sameShard.set("tenantId", 10).addBatch();
+		sameShard.set("tenantId", 20).addBatch();
+		Assert.assertEquals(2, sameShard.executeBatch().length);
+		Assert.assertEquals(1, this.shardConnections.get(0).size());
+
+		final Update mixed = Query.update("INSERT INTO orders(tenant_id) VALUES(:tenantId)", "tenants");
+		mixed.set("tenantId", 10).addBatch();
+		mixed.set("tenantId", 150).addBatch();
+		try {
+			mixed.executeBatch();
+			Assert.fail("The rows belong to different shards");
+		} catch (final DaoException e) {
+			// expected
+		}
+		Assert.assertEquals(1, this.connectionCount());
+	}
+
+	/**
+	 * Verify the chunks of a batch executed after the first are checked against the shard chosen by its first
+	 * rows.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testChunkedBatchRouting() throws SQLException {
+		ConnectorServiceLoader.register(new ShardedConnector("tenants", "tenantId", ShardedConnector.range(100,
+				200), this.shards));
+
+		final Update update = Query.update("INSERT INTO orders(tenant_id) VALUES(:tenantId)", "tenants")
+				.chunkedBatch(2);
+		update.set("tenantId", 10).addBatch();
+		update.set("tenantId", 20).addBatch();
+		update.set("tenantId", 150).addBatch();
+		try {
+			update.executeBatch();
+			Assert.fail("The last row belongs to another shard");
+		} catch (final DaoException e) {
+			// expected
+		}
+
+		Assert.assertEquals(1, this.connectionCount());
+		final MockConnection connection = this.shardConnections.get(0).get(0);
+		Assert.assertEquals(1, connection.getPreparedStatement().executedBatches.size());
+		Assert.assertTrue(connection.isClosed());
+	}
+
+	/**
+	 * Verify bulk inserts and batches isolating failures choose the shard from the beans, and reject beans of
+	 * different shards before checking out a connection.
+	 */
+	@Test
+	public void testBulkRouting() {
+		ConnectorServiceLoader.register(new ShardedConnector("tenants", "tenantId", ShardedConnector.range(100,
+				200), this.shards));
+
+		Query.update("INSERT INTO orders(tenant_id) VALUES(:tenantId)", "tenants").executeBulk(Arrays.asList(
+				new Order(110), new Order(120)));
+		Assert.assertEquals(1, this.shardConnections.get(1).size());
+		final MockPreparedStatement bulk = this.shardConnections.get(1).get(0).getPreparedStatement();
+		Assert.assertEquals(Arrays.asList(Integer.valueOf(2)), bulk.executedBatches);
+		Assert.assertEquals(Integer.valueOf(120), bulk.getValues().get(Integer.valueOf(1)));
+
+		final BatchResult result = Query.update("INSERT INTO orders(tenant_id) VALUES(:tenantId)", "tenants")
+				.executeBatchIsolatingFailures(Arrays.asList(new Order(210), new Order(220)));
+		Assert.assertTrue(result.getFailures().isEmpty());
+		Assert.assertEquals(1, this.shardConnections.get(2).size());
+
+		try {
+			Query.update("INSERT INTO orders(tenant_id) VALUES(:tenantId)", "tenants").executeBulk(Arrays.asList(
+					new Order(10), new Order(150)));
+			Assert.fail("The beans belong to different shards");
+		} catch (final DaoException e) {
+			// expected
+		}
+		Assert.assertEquals(2, this.connectionCount());
+	}
+
+	/**
+	 * Verify transactions and batch writers, which can't span shards, fail straight away.
+	 */
+	@Test
+	public void testUnsupported() {
+		final ShardedConnector connector = new ShardedConnector("tenants", "tenantId", ShardedConnector.hash(),
+				this.shards);
+		ConnectorServiceLoader.register(connector);
+		try {
+			Query.transaction("tenants", new UnitOfWork<Void>() {
+				@Override
+				public Void execute() throws Exception {
+					Assert.fail("The transaction can't span shards");
+					return null;
+				}
+			});
+			Assert.fail("The transaction can't span shards");
+		} catch (final DaoException e) {
+			// expected
+		}
+		try {
+			new BatchWriter("INSERT INTO orders(tenant_id) VALUES(:tenantId)", connector).start();
+			Assert.fail("The writer can't span shards");
+		} catch (final DaoException e) {
+			// expected
+		}
+		Assert.assertEquals(0, this.connectionCount());
+	}
+
+	/**
+	 * Verify a statement without a value for the shard key is rejected.
+	 */
+	@Test
+	public void testMissingShardKey() {
+		ConnectorServiceLoader.register(new ShardedConnector("tenants", "tenantId", ShardedConnector.hash(),
+				this.shards));
+		try {
+			Query.update("UPDATE orders SET state = 'closed' WHERE tenant_id = :tenantId", "tenants").execute();
+			Assert.fail("The shard key wasn't set");
+		} catch (final DaoException e) {
+			// expected
+		}
+		Assert.assertEquals(0, this.connectionCount());
+	}
+
+	/**
+	 * Verify integer keys hash alike whatever their type, and range bounds are exclusive.
+	 */
+	@Test
+	public void testShardFunctions() {
+		final ShardFunction hash = ShardedConnector.hash();
+		Assert.assertEquals(hash.shard(Integer.valueOf(7), 3), hash.shard(Long.valueOf(7), 3));
+		Assert.assertEquals(hash.shard("tenant", 5), hash.shard("tenant", 5));
+
+		final ShardFunction range = ShardedConnector.range(100, 200);
+		Assert.assertEquals(0, range.shard(Integer.valueOf(99), 3));
+		Assert.assertEquals(1, range.shard(Integer.valueOf(100), 3));
+		Assert.assertEquals(2, range.shard(Long.valueOf(200), 3));
+	}
+
+	/**
+	 * A row with a shard key.
+	 */
+	public static class Order {
+
+		private final int tenantId;
+
+		Order(int aTenantId) {
+			this.tenantId = aTenantId;
+		}
+
+		/**
+		 * @return the shard key
+		 */
+		public int getTenantId() {
+			return this.tenantId;
+		}
+	}
+
+	/**
+	 * @return the number of connections checked out from every shard
+	 */
+	private int connectionCount() {
+		int count = 0;
+		for (final List<MockConnection> connections : this.shardConnections) {
+			count += connections.size();
+		}
+		return count;
+	}
+}
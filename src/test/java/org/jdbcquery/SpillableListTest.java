@@ -0,0 +1,101 @@
+package org.jdbcquery;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * Tests the SpillableList.
+ *
+ * @author Troy Histed
+ */
+public class SpillableListTest {
+
+	/**
+	 * Verify rows beyond the row threshold are spilled and read back in order.
+	 */
+	@Test
+	public void testSpillRows() {
+		final List<String> expected = new ArrayList<String>();
+		try (SpillableList<String> list = new SpillableList<String>(10, 0)) {
+			for (int i = 0; i < 100; i++) {
+				list.append("row " + i);
+				expected.add("row " + i);
+			}
+			list.finish();
+
+			Assert.assertTrue(list.isSpilled());
+			Assert.assertEquals(90, list.getSpilledRowCount());
+			Assert.assertEquals(100, list.size());
+			Assert.assertEquals(expected, list);
+			Assert.assertEquals("row 57", list.get(57));
+		}
+	}
+
+	/**
+	 * Verify the byte threshold is estimated from the size of the first row, 120 bytes for a 40 character
+	 * string.
+	 */
+	@Test
+	public void testSpillBytes() {
+		try (SpillableList<String> list = new SpillableList<String>(0, 250)) {
+			for (int i = 0; i < 10; i++) {
+				list.append("0123456789012345678901234567890123456789");
+			}
+			list.finish();
+
+			Assert.assertTrue(list.isSpilled());
+			Assert.assertEquals(8, list.getSpilledRowCount());
+			Assert.assertEquals("0123456789012345678901234567890123456789", list.get(9));
+		}
+	}
+
+	/**
+	 * Verify a list under the thresholds stays in memory.
+	 */
+	@Test
+	public void testInMemory() {
+		try (SpillableList<Integer> list = new SpillableList<Integer>(10, 0)) {
+			list.append(Integer.valueOf(1));
+			list.append(null);
+			list.finish();
+
+			Assert.assertFalse(list.isSpilled());
+			Assert.assertEquals(0, list.getSpilledBytes());
+			Assert.assertNull(list.get(1));
+		}
+	}
+
+	/**
+	 * Verify rows that can't be serialized are kept under a byte threshold the list never reaches, and the size
+	 * of a bean includes its fields and the values they refer to.
+	 */
+	@Test
+	public void testNotSerializableInMemory() {
+		final TestBean bean = new TestBean();
+		bean.setParam1("0123456789");
+		Assert.assertTrue(SpillableList.estimateSize(bean, 4) > SpillableList.estimateSize("0123456789", 4));
+
+		try (SpillableList<Object> list = new SpillableList<Object>(0, 1024 * 1024)) {
+			list.append(new Object());
+			list.append(bean);
+			list.finish();
+
+			Assert.assertFalse(list.isSpilled());
+			Assert.assertSame(bean, list.get(1));
+		}
+	}
+
+	/**
+	 * Verify rows that can't be serialized fail with a clear error once the list spills.
+	 */
+	@Test(expected = DaoException.class)
+	public void testNotSerializable() {
+		try (SpillableList<Object> list = new SpillableList<Object>(1, 0)) {
+			list.append(new Object());
+			list.append(new Object());
+		}
+	}
+}
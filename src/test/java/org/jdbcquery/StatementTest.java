@@ -61,6 +61,17 @@ public class StatementTest {
 		Assert.assertEquals(this.expected, this.statement.getPreparedStatement().getValues());
 	}
 
+	/**
+	 * Tests that setting a parameter the statement doesn't use leaves the statement untouched.
+	 */
+	@Test
+	public void testSetUnknownParameter() {
+		this.statement.setParameters(Arrays.asList("param1"));
+		this.statement.set("param2", 42);
+
+		Assert.assertEquals(this.expected, this.statement.getPreparedStatement().getValues());
+	}
+
 	/**
 	 * Test the setBean method.
 	 */
@@ -87,4 +98,25 @@ public class StatementTest {
 
 		Assert.assertEquals(this.expected, this.statement.getPreparedStatement().getValues());
 	}
+
+	/**
+	 * Tests that a nested property behind a null reference is set to null and unknown properties are skipped.
+	 */
+	@Test
+	public void testSetBeanNullNested() {
+
+		final TestBean testBean = new TestBean();
+		testBean.setParam1("value1");
+
+		this.statement.setParameters(Arrays.asList("bean.param1", "param1", "unknown", "bean.unknown"));
+
+		this.statement.setBean(testBean);
+		this.statement.setBean(testBean);
+
+		this.expected.put(Integer.valueOf(1), null);
+		this.expected.put(Integer.valueOf(2), "value1");
+		this.expected.put(Integer.valueOf(4), null);
+
+		Assert.assertEquals(this.expected, this.statement.getPreparedStatement().getValues());
+	}
 }
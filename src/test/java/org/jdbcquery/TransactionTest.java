@@ -0,0 +1,174 @@
+package org.jdbcquery;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the Transaction Class.
+ *
+ * @author Troy Histed
+ */
+public class TransactionTest {
+
+	List<MockConnection> connections;
+	JdbcConnector connector;
+
+	/**
+	 * Resets the connector so each test sees only its own connections.
+	 */
+	@Before
+	public void constructConnector() {
+		this.connections = new ArrayList<MockConnection>();
+		this.connector = this.connector("orders");
+	}
+
+	/**
+	 * Verify the statements of a transaction share one connection that is committed once and closed at the end.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testCommit() throws SQLException {
+		final Integer result = Query.transaction(this.connector, new UnitOfWork<Integer>() {
+			@Override
+			public Integer execute() throws Exception {
+				final int inserted = new Update("INSERT INTO orders(name) VALUES(:name)", "orders").set("name",
+						"first").execute();
+				final MockConnection connection = TransactionTest.this.connections.get(0);
+				Assert.assertFalse(connection.isClosed());
+				Assert.assertFalse(connection.getAutoCommit());
+				new Update("UPDATE stock SET count = 0", "orders").execute();
+				Query.forInteger("SELECT count FROM stock", "orders").executeForAll();
+				Assert.assertEquals(3, connection.statements.size());
+				Assert.assertEquals(0, connection.commitCount);
+				return Integer.valueOf(inserted);
+			}
+		});
+
+		Assert.assertEquals(Integer.valueOf(1), result);
+		Assert.assertEquals(1, this.connections.size());
+		final MockConnection connection = this.connections.get(0);
+		Assert.assertEquals(1, connection.commitCount);
+		Assert.assertEquals(0, connection.rollbackCount);
+		Assert.assertTrue(connection.getAutoCommit());
+		Assert.assertTrue(connection.isClosed());
+	}
+
+	/**
+	 * Verify the transaction is rolled back and closed when the work fails.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testRollback() throws SQLException {
+		try {
+			Query.transaction(this.connector, new UnitOfWork<Void>() {
+				@Override
+				public Void execute() throws Exception {
+					new Update("UPDATE stock SET count = 0", "orders").execute();
+					throw new SQLException("Out of stock");
+				}
+			});
+			Assert.fail("The work should have failed");
+		} catch (final DaoException e) {
+			Assert.assertEquals("Out of stock", e.getCause().getMessage());
+		}
+
+		final MockConnection connection = this.connections.get(0);
+		Assert.assertEquals(0, connection.commitCount);
+		Assert.assertEquals(1, connection.rollbackCount);
+		Assert.assertTrue(connection.isClosed());
+		Assert.assertNull(Transaction.getConnection(null));
+	}
+
+	/**
+	 * Verify a transaction on the same connection joins the outer one, and a transaction on another connection
+	 * gets its own.
+	 */
+	@Test
+	public void testNested() {
+		final JdbcConnector other = this.connector("stock");
+		Query.transaction(this.connector, new UnitOfWork<Void>() {
+			@Override
+			public Void execute() throws Exception {
+				Query.transaction(TransactionTest.this.connector, new UnitOfWork<Void>() {
+					@Override
+					public Void execute() throws Exception {
+						new Update("UPDATE orders SET name = 'joined'", "orders").execute();
+						return null;
+					}
+				});
+				Query.transaction(other, new UnitOfWork<Void>() {
+					@Override
+					public Void execute() throws Exception {
+						new Update("UPDATE stock SET count = 0", "stock").execute();
+						new Update("UPDATE orders SET name = 'outer'", "orders").execute();
+						return null;
+					}
+				});
+				return null;
+			}
+		});
+
+		Assert.assertEquals(2, this.connections.size());
+		Assert.assertEquals(2, this.connections.get(0).statements.size());
+		Assert.assertEquals(1, this.connections.get(0).commitCount);
+		Assert.assertEquals(1, this.connections.get(1).statements.size());
+		Assert.assertEquals(1, this.connections.get(1).commitCount);
+	}
+
+	/**
+	 * Verify a statement without a connection name joins the transaction on the default connector, not a
+	 * transaction on another connector nested inside it.
+	 */
+	@Test
+	public void testDefaultConnectionName() {
+		final JdbcConnector other = this.connector("stock");
+		ConnectorServiceLoader.register(this.connector);
+		try {
+			Query.transaction(this.connector, new UnitOfWork<Void>() {
+				@Override
+				public Void execute() throws Exception {
+					return Query.transaction(other, new UnitOfWork<Void>() {
+						@Override
+						public Void execute() throws Exception {
+							Assert.assertSame(TransactionTest.this.connections.get(0), Transaction
+									.getConnection(null));
+							Assert.assertSame(TransactionTest.this.connections.get(1), Transaction
+									.getConnection("stock"));
+							return null;
+						}
+					});
+				}
+			});
+		} finally {
+			ConnectorServiceLoader.unregister("orders");
+		}
+		Assert.assertEquals(2, this.connections.size());
+	}
+
+	/**
+	 * Creates a connector that records the connections it creates.
+	 */
+	private JdbcConnector connector(final String aName) {
+		return new JdbcConnector() {
+			@Override
+			public Connection getConnection() {
+				final MockConnection connection = new MockConnection();
+				TransactionTest.this.connections.add(connection);
+				return connection;
+			}
+
+			@Override
+			public String getName() {
+				return aName;
+			}
+		};
+	}
+}
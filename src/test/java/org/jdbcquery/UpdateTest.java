@@ -0,0 +1,305 @@
+package org.jdbcquery;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test the Update Class.
+ *
+ * @author Troy Histed
+ */
+public class UpdateTest {
+
+	MockConnection connection;
+	Update update;
+
+	/**
+	 * Resets the instance members to new instances.
+	 */
+	@Before
+	public void constructStatement() {
+		this.connection = new MockConnection();
+		this.update = new Update("INSERT INTO people(name) VALUES(:name)", this.connection);
+	}
+
+	/**
+	 * Verify a chunked batch is executed every chunk size rows and the counts of every chunk are returned.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testChunkedBatch() throws SQLException {
+		this.update.chunkedBatch(4);
+		for (int i = 0; i < 10; i++) {
+			this.update.set("name", "person_" + i).addBatch();
+		}
+		Assert.assertEquals(2, this.connection.getPreparedStatement().executedBatches.size());
+		Assert.assertFalse(this.connection.isClosed());
+
+		final int[] counts = this.update.executeBatch();
+
+		Assert.assertEquals(10, counts.length);
+		Assert.assertEquals(3, this.connection.getPreparedStatement().executedBatches.size());
+		Assert.assertEquals(Integer.valueOf(2), this.connection.getPreparedStatement().executedBatches.get(2));
+		Assert.assertEquals(0, this.connection.commitCount);
+		Assert.assertTrue(this.connection.isClosed());
+	}
+
+	/**
+	 * Verify the generated keys of every chunk are returned and each chunk is committed.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testChunkedBatchKeysAndCommit() throws SQLException {
+		this.update.chunkedBatch(3, true).commitEachChunk();
+		Assert.assertFalse(this.connection.getAutoCommit());
+		for (int i = 0; i < 7; i++) {
+			this.update.set("name", "person_" + i).addBatch();
+		}
+
+		final long[] keys = this.update.executeBatchAndReturnKeys();
+
+		Assert.assertArrayEquals(new long[] {1, 2, 3, 4, 5, 6, 7}, keys);
+		Assert.assertEquals(3, this.connection.commitCount);
+		Assert.assertTrue(this.connection.getAutoCommit());
+		Assert.assertTrue(this.connection.isClosed());
+	}
+
+	/**
+	 * Verify keys can't be returned if earlier chunks didn't collect them.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testChunkedBatchKeysNotCollected() throws SQLException {
+		this.update.chunkedBatch(2);
+		for (int i = 0; i < 3; i++) {
+			this.update.set("name", "person_" + i).addBatch();
+		}
+
+		try {
+			this.update.executeBatchAndReturnKeys();
+			Assert.fail("Expected the keys to be unavailable");
+		} catch (final DaoException e) {
+			Assert.assertTrue(this.connection.isClosed());
+		}
+	}
+
+	/**
+	 * Verify an unchunked batch still executes in one call.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testBatch() throws SQLException {
+		for (int i = 0; i < 3; i++) {
+			this.update.set("name", "person_" + i).addBatch();
+		}
+
+		Assert.assertEquals(3, this.update.executeBatch().length);
+		Assert.assertEquals(1, this.connection.getPreparedStatement().executedBatches.size());
+		Assert.assertTrue(this.connection.isClosed());
+	}
+
+	/**
+	 * Verify a simple insert is rewritten to insert several beans per execution.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteBulk() throws SQLException {
+		this.connection = new MockConnection();
+		this.update = new Update("INSERT INTO people(name, age) VALUES(:param1, :param3)", this.connection);
+		final List<TestBean> beans = new ArrayList<TestBean>();
+		for (int i = 0; i < 5; i++) {
+			final TestBean bean = new TestBean();
+			bean.setParam1("person_" + i);
+			bean.setParam3(i);
+			beans.add(bean);
+		}
+
+		final int updated = this.update.executeBulk(beans, 4);
+
+		Assert.assertEquals(3, updated);
+		Assert.assertEquals(Arrays.asList("INSERT INTO people(name, age) VALUES(?, ?)",
+				"INSERT INTO people(name, age) VALUES(?, ?), (?, ?)"), this.trimmed(this.connection.statements));
+		final MockPreparedStatement twoRows = this.connection.getPreparedStatement();
+		Assert.assertEquals("person_3", twoRows.getValues().get(Integer.valueOf(3)));
+		Assert.assertEquals(Long.valueOf(3), twoRows.getValues().get(Integer.valueOf(4)));
+		Assert.assertTrue(this.connection.isClosed());
+	}
+
+	/**
+	 * Verify the rows left over after the full statements are inserted by statements for powers of two rows and
+	 * the last few as a batch, so only a few distinct statements are prepared.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteBulkRemainder() throws SQLException {
+		this.connection = new MockConnection();
+		this.update = new Update("INSERT INTO people(name, age) VALUES(:param1, :param3)", this.connection);
+		final MockPreparedStatement oneRow = this.connection.getPreparedStatement();
+		final List<TestBean> beans = new ArrayList<TestBean>();
+		for (int i = 0; i < 145; i++) {
+			final TestBean bean = new TestBean();
+			bean.setParam1("person_" + i);
+			bean.setParam3(i);
+			beans.add(bean);
+		}
+
+		this.update.executeBulk(beans, 200);
+
+		final List<Integer> rows = new ArrayList<Integer>();
+		for (final String statement : this.connection.statements) {
+			rows.add(Integer.valueOf(statement.split("\\(\\?").length - 1));
+		}
+		Assert.assertEquals(Arrays.asList(Integer.valueOf(1), Integer.valueOf(100), Integer.valueOf(32), Integer
+				.valueOf(8)), rows);
+		Assert.assertEquals(Arrays.asList(Integer.valueOf(5)), oneRow.executedBatches);
+		Assert.assertEquals("person_144", oneRow.getValues().get(Integer.valueOf(1)));
+		Assert.assertEquals(0, BulkInsert.getRowsForRemainder(7));
+		Assert.assertEquals(512, BulkInsert.getRowsForRemainder(999));
+	}
+
+	/**
+	 * Verify only simple inserts are rewritten.
+	 */
+	@Test
+	public void testBulkInsertDetection() {
+		Assert.assertNotNull(this.bulkInsert("insert into t (a, b) values (:a, lower(:b))"));
+		Assert.assertNotNull(this.bulkInsert("INSERT INTO t VALUES(':x VALUES (', :a)"));
+		Assert.assertNull(this.bulkInsert("INSERT INTO t(a) VALUES(:a) ON DUPLICATE KEY UPDATE a = :a"));
+		Assert.assertNull(this.bulkInsert("INSERT INTO t(a) SELECT a FROM s WHERE b = :b"));
+		Assert.assertNull(this.bulkInsert("INSERT INTO t(a) VALUES(:a), (:b)"));
+		Assert.assertNull(this.bulkInsert("UPDATE t SET a = :a"));
+
+		final BulkInsert bulkInsert = this.bulkInsert("INSERT INTO t(a, b) VALUES(:a, :b)");
+		Assert.assertEquals(500, bulkInsert.getRowsPerStatement(1000));
+		Assert.assertEquals(BulkInsert.MAXIMUM_ROWS, bulkInsert.getRowsPerStatement(100000));
+		Assert.assertEquals("INSERT INTO t(a, b) VALUES(?, ?), (?, ?), (?, ?)", bulkInsert.getStatement(3));
+		Assert.assertSame(bulkInsert.getStatement(3), bulkInsert.getStatement(3));
+	}
+
+	/**
+	 * Verify statements that can't be rewritten are executed as a batch.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteBulkAsBatch() throws SQLException {
+		this.connection = new MockConnection();
+		this.update = new Update("UPDATE people SET name = :param1 WHERE age = :param3", this.connection);
+		final TestBean bean = new TestBean();
+		bean.setParam1("person");
+
+		Assert.assertEquals(3, this.update.executeBulk(Arrays.asList(bean, bean, bean), 4));
+		Assert.assertEquals(Arrays.asList(Integer.valueOf(2), Integer.valueOf(1)),
+				this.connection.getPreparedStatement().executedBatches);
+		Assert.assertTrue(this.connection.isClosed());
+	}
+
+	/**
+	 * Verify the failed rows of a batch are isolated by bisecting it, rolling back to savepoints, and the other
+	 * rows are committed.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteBatchIsolatingFailures() throws SQLException {
+		this.update = new Update("INSERT INTO people(name) VALUES(:param1)", this.connection);
+		this.connection.getPreparedStatement().failOn = "bad";
+
+		final BatchResult result = this.update.executeBatchIsolatingFailures(this.beansFailingAt(10, 3, 7));
+
+		Assert.assertEquals(8, result.getSuccessCount());
+		Assert.assertEquals(2, result.getFailures().size());
+		Assert.assertEquals(3, result.getFailures().get(0).getIndex());
+		Assert.assertEquals(7, result.getFailures().get(1).getIndex());
+		Assert.assertEquals("23505", result.getFailures().get(1).getException().getSQLState());
+		Assert.assertEquals(java.sql.Statement.EXECUTE_FAILED, result.getUpdateCounts()[3]);
+		Assert.assertEquals(1, result.getUpdateCounts()[4]);
+		Assert.assertEquals(13, result.getRoundTrips());
+		Assert.assertEquals(8, this.connection.savepointRollbackCount);
+		Assert.assertEquals(1, this.connection.commitCount);
+		Assert.assertTrue(this.connection.getAutoCommit());
+		Assert.assertTrue(this.connection.isClosed());
+	}
+
+	/**
+	 * Verify each part of the batch that succeeds is committed when the driver doesn't support savepoints.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteBatchIsolatingFailuresWithoutSavepoints() throws SQLException {
+		this.update = new Update("INSERT INTO people(name) VALUES(:param1)", this.connection);
+		this.connection.savepoints = false;
+		this.connection.getPreparedStatement().failOn = "bad";
+
+		final BatchResult result = this.update.executeBatchIsolatingFailures(this.beansFailingAt(10, 3, 7));
+
+		Assert.assertEquals(8, result.getSuccessCount());
+		Assert.assertEquals(8, this.connection.rollbackCount);
+		Assert.assertEquals(6, this.connection.commitCount);
+		Assert.assertTrue(this.connection.isClosed());
+	}
+
+	/**
+	 * Verify a batch without failures is executed once.
+	 *
+	 * @throws SQLException
+	 */
+	@Test
+	public void testExecuteBatchIsolatingFailuresWithoutFailures() throws SQLException {
+		this.update = new Update("INSERT INTO people(name) VALUES(:param1)", this.connection);
+		final BatchResult result = this.update.executeBatchIsolatingFailures(this.beansFailingAt(5));
+
+		Assert.assertFalse(result.hasFailures());
+		Assert.assertEquals(1, result.getRoundTrips());
+		Assert.assertEquals(Arrays.asList(Integer.valueOf(5)), this.connection.getPreparedStatement()
+				.executedBatches);
+	}
+
+	/**
+	 * Creates beans whose name is "bad" at the given positions.
+	 */
+	private List<TestBean> beansFailingAt(int aCount, int... aFailing) {
+		final List<TestBean> beans = new ArrayList<TestBean>();
+		for (int i = 0; i < aCount; i++) {
+			final TestBean bean = new TestBean();
+			bean.setParam1("person_" + i);
+			beans.add(bean);
+		}
+		for (final int failing : aFailing) {
+			beans.get(failing).setParam1("bad");
+		}
+		return beans;
+	}
+
+	/**
+	 * Parses a statement and checks if it is a simple insert.
+	 */
+	private BulkInsert bulkInsert(String aStatement) {
+		return BulkInsert.forStatement(NamedStatementParserStrategy.getDefault().prepareNamedStatement(
+				aStatement));
+	}
+
+	/**
+	 * Trims the statements, which the parser pads to their original length.
+	 */
+	private List<String> trimmed(List<String> aStatements) {
+		final List<String> trimmed = new ArrayList<String>();
+		for (final String statement : aStatements) {
+			trimmed.add(statement.trim());
+		}
+		return trimmed;
+	}
+}